@@ -0,0 +1,68 @@
+package com.example.android.quakereport;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells a running request that its result is no longer wanted. Like
+ * {@code android.os.CancellationSignal}, but also available before API 16 and off Android.
+ * <p>
+ * Code that blocks, such as a socket read, registers a listener that unblocks it; loops check
+ * {@link #throwIfCancelled()} between steps.
+ */
+public final class CancellationToken {
+
+    private final List<Runnable> mListeners = new ArrayList<>();
+    private volatile boolean mCancelled;
+
+    /**
+     * Cancels and runs every listener, once. Listeners run on the calling thread.
+     */
+    public void cancel() {
+        List<Runnable> listeners;
+        synchronized (mListeners) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @throws InterruptedIOException if the token has been cancelled
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (mCancelled) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    /**
+     * Runs the listener when the token is cancelled, right away if it already is.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (mListeners) {
+            if (!mCancelled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public void removeListener(Runnable listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+}
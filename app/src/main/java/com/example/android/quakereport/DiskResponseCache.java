@@ -0,0 +1,351 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded on-disk cache of HTTP response bodies keyed by request URL. Each entry keeps the
+ * ETag and Last-Modified validators so a request can be revalidated and the stored body reused
+ * when the server answers 304 Not Modified. The least recently used entries are evicted once the
+ * total size goes over the limit.
+ * <p>
+ * The directory is only read on first use, so the cache can be created on the main thread.
+ */
+public final class DiskResponseCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    // Entry key -> body size, in least recently used order
+    // Guarded by this, filled by ensureLoaded()
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private boolean mLoaded;
+
+    /**
+     * A cached response body together with its validators.
+     */
+    public static final class Entry {
+        private final File mBody;
+        private final String mETag;
+        private final String mLastModified;
+
+        Entry(File body, String eTag, String lastModified) {
+            mBody = body;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        public InputStream newInputStream() throws IOException {
+            return new FileInputStream(mBody);
+        }
+
+        /**
+         * Returns the file holding the body, for reading it other than as a stream. It may be
+         * replaced or evicted by later requests.
+         */
+        public File getFile() {
+            return mBody;
+        }
+
+        public String getETag() {
+            return mETag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+    }
+
+    public DiskResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Creates the directory and reads the entries already in it, unless that has been done.
+     * Every other method does this first, so call it ahead of time from a background thread to
+     * keep the scan off the thread of the first request.
+     */
+    public synchronized void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        // A directory that cannot be created leaves the cache empty, edits then fail to write
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+
+        // Rebuild the LRU order from the file timestamps, which get() keeps up to date
+        File[] bodies = mDirectory.listFiles();
+        if (bodies == null) {
+            return;
+        }
+        Arrays.sort(bodies, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long left = a.lastModified();
+                long right = b.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (File file : bodies) {
+            String name = file.getName();
+            if (name.endsWith(BODY_SUFFIX)) {
+                String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                mEntries.put(key, file.length());
+                mSize += file.length();
+            } else if (!name.endsWith(META_SUFFIX)) {
+                // Left over from an edit that never finished
+                file.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Returns the cached response for the URL, or null if there is none.
+     */
+    public synchronized Entry get(String url) {
+        ensureLoaded();
+        String key = keyFor(url);
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        File body = new File(mDirectory, key + BODY_SUFFIX);
+        File meta = new File(mDirectory, key + META_SUFFIX);
+        String[] validators = readMeta(meta, url);
+        if (validators == null || !body.isFile()) {
+            removeKey(key);
+            return null;
+        }
+        body.setLastModified(System.currentTimeMillis());
+        return new Entry(body, validators[0], validators[1]);
+    }
+
+    /**
+     * Starts writing a new response body for the URL. Nothing is visible to {@link #get} until
+     * {@link Editor#commit} is called.
+     */
+    public Editor edit(String url) throws IOException {
+        ensureLoaded();
+        String key = keyFor(url);
+        File temp = File.createTempFile(key, ".tmp", mDirectory);
+        return new Editor(url, key, temp);
+    }
+
+    public synchronized void remove(String url) {
+        ensureLoaded();
+        removeKey(keyFor(url));
+    }
+
+    public synchronized long size() {
+        ensureLoaded();
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Writes one response body into the cache.
+     */
+    public final class Editor {
+        private final String mUrl;
+        private final String mKey;
+        private final File mTemp;
+        private OutputStream mOut;
+        private boolean mDone;
+
+        Editor(String url, String key, File temp) throws IOException {
+            mUrl = url;
+            mKey = key;
+            mTemp = temp;
+            mOut = new FileOutputStream(temp);
+        }
+
+        /**
+         * Wraps a network stream so everything read from it is also written to the cache.
+         */
+        public InputStream tee(InputStream source) {
+            return new FilterInputStream(source) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        mOut.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        mOut.write(buffer, offset, read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        /**
+         * Maps the body written so far into memory. The mapping stays valid after the entry is
+         * committed, aborted or evicted, since the file is only unlinked, not truncated.
+         */
+        public ByteBuffer map() throws IOException {
+            mOut.flush();
+            RandomAccessFile input = new RandomAccessFile(mTemp, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                input.close();
+            }
+        }
+
+        public void commit(String eTag, String lastModified) throws IOException {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mOut.close();
+            if (eTag == null && lastModified == null) {
+                // Nothing to revalidate with, so the body could never be reused
+                mTemp.delete();
+                return;
+            }
+
+            File metaTemp = File.createTempFile(mKey, ".tmp", mDirectory);
+            Writer writer = new OutputStreamWriter(new FileOutputStream(metaTemp), UTF_8);
+            try {
+                writer.write(mUrl + "\n");
+                writer.write((eTag != null ? eTag : "") + "\n");
+                writer.write((lastModified != null ? lastModified : "") + "\n");
+            } finally {
+                writer.close();
+            }
+
+            synchronized (DiskResponseCache.this) {
+                removeKey(mKey);
+                File body = new File(mDirectory, mKey + BODY_SUFFIX);
+                File meta = new File(mDirectory, mKey + META_SUFFIX);
+                if (!metaTemp.renameTo(meta) || !mTemp.renameTo(body)) {
+                    metaTemp.delete();
+                    mTemp.delete();
+                    meta.delete();
+                    throw new IOException("Cannot commit cache entry for " + mUrl);
+                }
+                mEntries.put(mKey, body.length());
+                mSize += body.length();
+                trimToSize();
+            }
+        }
+
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+                // The temporary file is deleted either way
+            }
+            mTemp.delete();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.getValue();
+            deleteFiles(eldest.getKey());
+        }
+    }
+
+    private void removeKey(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(String key) {
+        new File(mDirectory, key + BODY_SUFFIX).delete();
+        new File(mDirectory, key + META_SUFFIX).delete();
+    }
+
+    /**
+     * Reads the ETag and Last-Modified of an entry, or returns null if the meta file is missing
+     * or belongs to a different URL.
+     */
+    private static String[] readMeta(File meta, String url) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(meta), UTF_8));
+            String storedUrl = reader.readLine();
+            String eTag = reader.readLine();
+            String lastModified = reader.readLine();
+            if (!url.equals(storedUrl) || lastModified == null) {
+                return null;
+            }
+            return new String[]{
+                    eTag.isEmpty() ? null : eTag,
+                    lastModified.isEmpty() ? null : lastModified
+            };
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // Already read what was needed
+                }
+            }
+        }
+    }
+
+    static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16));
+                key.append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -2,16 +2,44 @@ package com.example.android.quakereport;
 
 public class Earthquake {
 
+    // Every USGS event page lives at this prefix followed by the event id
+    private static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private String mId;
     private double mMagnitude;
     private String mLocation;
     private long mTimeInMilliseconds;
+    private long mUpdatedInMilliseconds;
     private String mEarthquakeUrl;
+    private double mLatitude;
+    private double mLongitude;
+    private double mDepth;
+    private boolean mDeleted;
 
     public Earthquake(double magnitude, String location, long time, String earthquakeUrl) {
+        this(null, magnitude, location, time, time, earthquakeUrl, 0, 0, 0, false);
+    }
+
+    public Earthquake(String id, double magnitude, String location, long time, long updated,
+                      String earthquakeUrl, double latitude, double longitude, double depth,
+                      boolean deleted) {
+        mId = id;
         mMagnitude = magnitude;
         mLocation = location;
         mTimeInMilliseconds = time;
+        mUpdatedInMilliseconds = updated;
         mEarthquakeUrl = earthquakeUrl;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDepth = depth;
+        mDeleted = deleted;
+    }
+
+    /**
+     * Returns the USGS event id, or null if the feed did not include one.
+     */
+    public String getId() {
+        return mId;
     }
 
     public double getMagnitude() {
@@ -26,7 +54,56 @@ public class Earthquake {
         return mTimeInMilliseconds;
     }
 
+    /**
+     * Returns when USGS last changed this event.
+     */
+    public long getUpdatedInMilliseconds() {
+        return mUpdatedInMilliseconds;
+    }
+
     public String getEarthquakeUrl() {
+        if (mEarthquakeUrl == null && mId != null) {
+            return eventPageUrl(mId);
+        }
         return mEarthquakeUrl;
     }
+
+    /**
+     * Returns the latitude of the epicenter in decimal degrees.
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * Returns the longitude of the epicenter in decimal degrees.
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * Returns the depth of the hypocenter in kilometers.
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Returns true if USGS has deleted this event. Only sent when deleted events are requested.
+     */
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    /**
+     * Returns the USGS event page URL for the given event id. Events stored without an id are
+     * keyed by their URL, which is returned as it is.
+     */
+    public static String eventPageUrl(String id) {
+        if (id.startsWith("http")) {
+            return id;
+        }
+        return EVENT_PAGE_URL + id;
+    }
 }
@@ -15,32 +15,62 @@
  */
 package com.example.android.quakereport;
 
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
 import android.app.LoaderManager;
 import android.content.AsyncTaskLoader;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.preference.PreferenceManager;
+import android.provider.DocumentsContract;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class EarthquakeActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<List<Earthquake>> {
+        implements LoaderManager.LoaderCallbacks<List<EarthquakeRow>> {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
 //    private static final String USGS_REQUEST_URL =
@@ -49,10 +79,65 @@ public class EarthquakeActivity extends AppCompatActivity
     // Constant value for the earthquake loader ID.
     // Only comes in play if using multiple loaders
     private static final int EARTHQUAKE_LOADER_ID = 1;
+    // Loader ID for the pages after the first one
+    private static final int PAGE_LOADER_ID = 2;
+    private static final String ARG_OFFSET = "offset";
+    // Number of earthquakes requested per page
+    private static final int PAGE_SIZE = 25;
+    // Start loading the next page when this many rows are left below the visible ones
+    private static final int PREFETCH_DISTANCE = 10;
+    // Most events shown for a place search
+    private static final int SEARCH_LIMIT = 100;
+    // Days and regions listed in the summary
+    private static final int SUMMARY_DAYS = 7;
+    private static final int SUMMARY_REGIONS = 10;
+    // Requests for the document an export is written to, one per format
+    private static final int REQUEST_EXPORT_CSV = 1;
+    private static final int REQUEST_EXPORT_GEOJSON = 2;
     public static final String TAG = "EarthquakeActivity";
     // TextView that is displayed when the list is empty
     private TextView mEmptyStateTextView;
-    private static final String USGS_REQUEST_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+    // Set at build time, see usgsBaseUrl in app/build.gradle
+    private static final String USGS_REQUEST_URL = BuildConfig.USGS_BASE_URL;
+    // Upper bound for the on-disk cache of USGS responses
+    private static final long RESPONSE_CACHE_SIZE = 10 * 1024 * 1024;
+    // Share of the app's heap the rows of recently shown queries may take, as a divisor
+    private static final int RESULT_CACHE_HEAP_DIVISOR = 32;
+    // Rows of recently shown queries, kept for the whole process
+    private static volatile QueryResultCache sResultCache;
+    // Which page of older events to load next, and whether one is loading
+    private final EarthquakePager mPager = new EarthquakePager(PAGE_SIZE, PREFETCH_DISTANCE);
+    // Index the place search runs against, null while the list is not being searched
+    private PlaceSearchIndex mSearchIndex;
+    // Place index of the shown query's family, null until it has been built
+    private PlaceSearchIndex mPlaceIndex;
+    // Family the place index is being built or was built for, null if none is
+    private String mPlaceIndexKey;
+    // Search menu item, enabled once the place index is ready
+    private MenuItem mSearchItem;
+    // Rows shown before the search started, shown again for an empty query
+    private List<EarthquakeRow> mUnfilteredRows;
+    // Smallest magnitude the settings ask for, applied to the search results too
+    private double mSearchMinMagnitude;
+    // Cancels the export being written, null while there is none. The export outlives the
+    // activity that started it through a rotation, so this and the activity it reports to are
+    // kept here, on the main thread only.
+    private static CancellationToken sExportCancellation;
+    // The activity showing the export's progress, attached in onCreate and detached in onDestroy
+    private static EarthquakeActivity sExportActivity;
+    // Shown while an export is written, offers to cancel it
+    private AlertDialog mExportDialog;
+    // Cancels the summary being put together, null while there is none
+    private CancellationToken mSummaryCancellation;
+    // Reloads the list when a setting changes. Kept in a field because the preferences only
+    // hold on to their listeners weakly.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    onSettingsChanged();
+                }
+            };
 
 
     @Override
@@ -62,82 +147,273 @@ public class EarthquakeActivity extends AppCompatActivity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        setUpStorage(this);
 
-        // Create a new adapter that takes an empty list of earthquakes as input
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
+        earthquakeListView.setHasFixedSize(true);
 
-        // Set the adapter on the {@link ListView}
+        // Create a new adapter that starts out empty. Tapping a row opens the page of that
+        // specific quake on the USGS website.
+        mAdapter = new EarthquakeAdapter(this, new EarthquakeAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClick(EarthquakeRow currentEarthquake) {
+                Intent quakeWebsiteIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(currentEarthquake.getEarthquakeUrl()));
+                startActivity(quakeWebsiteIntent);
+            }
+        });
+
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
         earthquakeListView.setAdapter(mAdapter);
 
+        // RecyclerView has no empty view of its own, so show or hide it as rows come and go
         mEmptyStateTextView = (TextView) findViewById(R.id.emptyView);
-        earthquakeListView.setEmptyView(mEmptyStateTextView);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
 
-        // Set OnItemClickListener and add an Intent to go to the URL of the specific
-        // quake website on USGS website
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Earthquake currentEarthquake = mAdapter.getItem(position);
-                Intent quakeWebsiteIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(currentEarthquake.getEarthquakeUrl()));
-                startActivity(quakeWebsiteIntent);
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        // Show the rows this query had when it was last loaded, or else the events saved by
+        // the last sync, in the first frame. The loader started below revalidates them and the
+        // adapter merges in whatever changed.
+        String queryUrl = buildQueryUrl(this);
+        List<EarthquakeRow> lastShown = sResultCache.get(queryUrl);
+        if (lastShown == null) {
+            EarthquakeStore lastKnown = EarthquakeSync.getInstance().query(queryUrl);
+            if (lastKnown != null) {
+                lastShown = new EarthquakeFormatter(getString(R.string.near_the)).format(lastKnown);
+            }
+        }
+        if (lastShown != null && !lastShown.isEmpty()) {
+            showFirstPage(lastShown);
+            findViewById(R.id.progressBar).setVisibility(View.GONE);
+        }
 
+        // Prefetch the next page in the background while the user nears the end of the list
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (mPager.isNearEnd(layoutManager.findLastVisibleItemPosition(),
+                        layoutManager.getItemCount())) {
+                    loadNextPage();
+                }
             }
         });
 
-        /**
-         * Tests network or wifi connection. If there is connection, the Loader will proceed as
-         * planned, if it is not connected, it will enter "no internet connection" in empty
-         * text view and set visibility of progress bar to gone.
-         **/
-        ConnectivityManager mConnectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Get a reference to the LoaderManager in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null
-            // for the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface.
-            Log.i(TAG, "onCreate: initloader initialized");
-            loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
-        }else{
-            mEmptyStateTextView.setText(R.string.no_internet);
-            View progressBar = findViewById(R.id.progressBar);
-            progressBar.setVisibility(View.GONE);
+        // Get a reference to the LoaderManager in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
+        // Initialize the loader. Pass in the int ID constant defined above and pass in null
+        // for the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
+        // because this activity implements the LoaderCallbacks interface.
+        // The loader also runs offline, events synced in the background are shown then.
+        Log.i(TAG, "onCreate: initloader initialized");
+        loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
+
+        // Keep the stored events fresh while the app is closed
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            EarthquakeSyncJobService.schedule(this);
+        }
+
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .registerOnSharedPreferenceChangeListener(mPreferenceListener);
+
+        sExportActivity = this;
+        if (sExportCancellation != null) {
+            showExportDialog(sExportCancellation);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
+        dismissExportDialog();
+        if (sExportActivity == this) {
+            sExportActivity = null;
+        }
+        if (mSummaryCancellation != null) {
+            mSummaryCancellation.cancel();
+            mSummaryCancellation = null;
+        }
+        // An index still being built is kept by the sync for the next activity
+        mPlaceIndexKey = null;
+        // An export goes on through a rotation, but not once the user has left
+        if (sExportCancellation != null && isFinishing()) {
+            sExportCancellation.cancel();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Starts over from the first page with the new settings. The events are usually already
+     * stored, so the new list is answered from memory.
+     */
+    private void onSettingsChanged() {
+        LoaderManager loaderManager = getLoaderManager();
+        loaderManager.destroyLoader(PAGE_LOADER_ID);
+        mPager.reset();
+        // A query shown before comes back at once, the loader then revalidates it
+        List<EarthquakeRow> cached = sResultCache.get(buildQueryUrl(this));
+        if (cached != null && !cached.isEmpty()) {
+            showFirstPage(cached);
+        }
+        loaderManager.restartLoader(EARTHQUAKE_LOADER_ID, null, this);
+        preparePlaceIndex();
+    }
+
+    /**
+     * Keep a copy of each response so repeat requests only need to revalidate it, and the
+     * events of the last sync so a cold start can show them right away. The rows of recently
+     * shown queries are kept in memory, within a share of the heap that shrinks when the system
+     * runs short of memory.
+     */
+    static synchronized void setUpStorage(Context context) {
+        // Set last, so callers that see it also see everything else set up here
+        if (sResultCache != null) {
+            return;
+        }
+        final DiskResponseCache responseCache = new DiskResponseCache(
+                new File(context.getCacheDir(), "usgs-responses"), RESPONSE_CACHE_SIZE);
+        QueryUtils.setResponseCache(responseCache);
+        // Reading the cache directory is disk work, done before the first request needs it
+        TaskScheduler.getInstance().submit(TaskScheduler.LANE_MAINTENANCE,
+                new TaskScheduler.Job<Void>() {
+                    @Override
+                    public Void run(CancellationToken cancellation) {
+                        responseCache.ensureLoaded();
+                        return null;
+                    }
+                });
+        EarthquakeSync.getInstance().setSnapshotDirectory(
+                new File(context.getFilesDir(), "snapshots"));
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        final QueryResultCache resultCache =
+                new QueryResultCache(heapBytes / RESULT_CACHE_HEAP_DIVISOR);
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                resultCache.trimToPercent(resultCachePercent(level));
+            }
+
+            @Override
+            public void onLowMemory() {
+                resultCache.trimToPercent(0);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+        sResultCache = resultCache;
+    }
 
+    /**
+     * Returns how much of its budget the result cache may keep at a trim memory level. The
+     * harder the system is pressed, the less is kept; a hidden app that is not short of memory
+     * keeps everything, as the user is likely to come back to the same queries.
+     */
+    private static int resultCachePercent(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 50;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 100;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 25;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 50;
         }
+        return 75;
+    }
+
+    /**
+     * Tests network or wifi connection.
+     */
+    private boolean isOnline() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
 
+    /**
+     * Starts loading the page after the rows currently shown, unless one is already loading.
+     */
+    private void loadNextPage() {
+        if (mSearchIndex != null) {
+            return;
+        }
+        int offset = mPager.startNextPage();
+        if (offset == 0) {
+            return;
+        }
+        Bundle args = new Bundle();
+        args.putInt(ARG_OFFSET, offset);
+        getLoaderManager().restartLoader(PAGE_LOADER_ID, args, this);
     }
 
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
-        Log.i("onCreateLoader", "onCreateLoader: initialized");
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+    public Loader<List<EarthquakeRow>> onCreateLoader(int i, Bundle bundle) {
+        String url = buildQueryUrl(this);
+        if (i == PAGE_LOADER_ID) {
+            int offset = bundle != null ? bundle.getInt(ARG_OFFSET, 1) : 1;
+            url = QueryUrls.setParameter(url, "offset", String.valueOf(offset));
+            return new EarthquakeLoader(this, url, offset);
+        }
+        return new EarthquakeLoader(this, url);
+    }
+
+    /**
+     * Builds the query for the first page of the list from the user's settings.
+     */
+    static String buildQueryUrl(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         String minMagnitude = sharedPrefs.getString(
-                getString(R.string.settings_min_magnitude_key),
-                getString(R.string.settings_min_magnitude_default));
+                context.getString(R.string.settings_min_magnitude_key),
+                context.getString(R.string.settings_min_magnitude_default));
 
         String orderBy = sharedPrefs.getString(
-                getString(R.string.settings_order_by_key),
-                getString(R.string.settings_order_by_default));
+                context.getString(R.string.settings_order_by_key),
+                context.getString(R.string.settings_order_by_default));
 
         // Builds URL from values adding onto USGS_REQUEST_URL
         Uri baseUri = Uri.parse(USGS_REQUEST_URL);
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
         uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "25");
+        uriBuilder.appendQueryParameter("limit", String.valueOf(PAGE_SIZE));
         uriBuilder.appendQueryParameter("minmag", minMagnitude);
         uriBuilder.appendQueryParameter("orderby", orderBy);
-
-        return new EarthquakeLoader(this, uriBuilder.toString());
+        return uriBuilder.toString();
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> data) {
+    public void onLoadFinished(Loader<List<EarthquakeRow>> loader, List<EarthquakeRow> data) {
 
         // Method defined below to set text if there is no internet connection
 //        isOnline();
@@ -149,53 +425,245 @@ public class EarthquakeActivity extends AppCompatActivity
         progressBar.setVisibility(View.GONE);
 
         // Set text for the empty view if there is no data to display
-        mEmptyStateTextView.setText(R.string.no_earthquakes);
+        mEmptyStateTextView.setText(isOnline() ? R.string.no_earthquakes : R.string.no_internet);
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
-        Log.i(TAG, "onLoadFinished: initialized");
-
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
+        if (data == EarthquakeLoader.NOT_LOADED) {
+            // Cancelled or dropped before it finished, keep the rows already shown
+            if (loader.getId() == PAGE_LOADER_ID) {
+                mPager.onPageAbandoned();
+            }
+            return;
+        }
         if (data != null && !data.isEmpty()) {
+            mAdapter.markDelivered();
+        }
+        if (mSearchIndex != null) {
+            // Search results are shown, the list is reloaded when the search closes
+            if (loader.getId() == PAGE_LOADER_ID) {
+                mPager.onPageAbandoned();
+            }
+            return;
+        }
+        if (loader.getId() == PAGE_LOADER_ID) {
+            onPageLoaded((EarthquakeLoader) loader, data);
+            return;
+        }
+
+        if (data == null || data.isEmpty()) {
+            mPager.onFirstPageEmpty();
+            mAdapter.clear();
+            return;
+        }
+
+        showFirstPage(data);
+        if (((EarthquakeLoader) loader).isStale()) {
+            Toast.makeText(this, R.string.stale_earthquakes, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Hands the refreshed first page to the adapter, keeping any older pages already loaded
+     * below it. The adapter works out which rows actually changed.
+     */
+    private void showFirstPage(List<EarthquakeRow> data) {
+        List<EarthquakeRow> rows = data;
+        List<EarthquakeRow> shown = mAdapter.getRows();
+        if (mPager.onFirstPageShown(data.size(), shown.size())) {
+            rows = new ArrayList<>(data);
+            rows.addAll(shown.subList(PAGE_SIZE, shown.size()));
+        }
+        mAdapter.submitRows(rows);
+    }
+
+    /**
+     * Appends a page to the end of the list. Pages that do not continue the rows currently
+     * shown, such as ones redelivered after the first page was refreshed, are ignored. Events
+     * that shifted into the page because new ones arrived meanwhile are only shown once.
+     */
+    private void onPageLoaded(EarthquakeLoader loader, List<EarthquakeRow> data) {
+        if (mPager.onPageLoaded(loader.getOffset(), data != null ? data.size() : 0)) {
             mAdapter.addAll(data);
         }
     }
 
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
+    public void onLoaderReset(Loader<List<EarthquakeRow>> loader) {
+        if (loader.getId() == PAGE_LOADER_ID) {
+            mPager.onPageAbandoned();
+            return;
+        }
+        mPager.reset();
         mAdapter.clear();
-        Log.i(TAG, "onLoaderReset: initialized");
     }
 
-    public static class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+    public static class EarthquakeLoader extends AsyncTaskLoader<List<EarthquakeRow>> {
+
+        /**
+         * Delivered when a load ended without a result, such as when it was cancelled or dropped
+         * from a full lane. Unlike an empty list it does not mean there are no earthquakes.
+         */
+        public static final List<EarthquakeRow> NOT_LOADED =
+                Collections.unmodifiableList(new ArrayList<EarthquakeRow>());
 
         // Tag for log messages
         private final String LOG_TAG = EarthquakeLoader.class.getName();
 
         // Query URL
         private String mUrl;
+        // USGS offset of the page this loader fetches, or 0 for the synced first page
+        private int mOffset;
+        // Rows already loaded, redelivered instead of loading them again
+        private List<EarthquakeRow> mRows;
+        // Cancels the running load, replaced for each new one
+        private volatile CancellationToken mCancellation;
+        // True if the last load could not reach USGS and fell back to the stored events
+        private volatile boolean mStale;
 
         public EarthquakeLoader(Context context, String url) {
+            this(context, url, 0);
+        }
+
+        public EarthquakeLoader(Context context, String url, int offset) {
             super(context);
             mUrl = url;
+            mOffset = offset;
+        }
+
+        public int getOffset() {
+            return mOffset;
         }
 
+        /**
+         * Returns true if the rows last delivered are the ones stored earlier, because USGS
+         * could not be reached.
+         */
+        public boolean isStale() {
+            return mStale;
+        }
+
+        /**
+         * Redelivers the rows already loaded, so a configuration change or returning to the
+         * activity does not download them again. Only loads when there are none yet or the
+         * loader was told its content changed.
+         */
         @Override
         protected void onStartLoading() {
-            forceLoad();
-            Log.i(TAG, "onStartLoading: initialized");
+            if (mRows != null) {
+                deliverResult(mRows);
+            }
+            if (mRows == null || takeContentChanged()) {
+                forceLoad();
+            }
         }
 
         @Override
-        public List<Earthquake> loadInBackground() {
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected boolean onCancelLoad() {
+            // Aborts the download, unless another loader is waiting for the same one
+            CancellationToken cancellation = mCancellation;
+            if (cancellation != null) {
+                cancellation.cancel();
+            }
+            return super.onCancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            onStopLoading();
+            mRows = null;
+        }
+
+        @Override
+        public void deliverResult(List<EarthquakeRow> data) {
+            if (data != null && data != NOT_LOADED) {
+                mRows = data;
+            }
+            super.deliverResult(data);
+        }
+
+        @Override
+        public List<EarthquakeRow> loadInBackground() {
             if (mUrl == null) {
-                Log.i(TAG, "loadInBackground: initialized");
-                return null;
+                return NOT_LOADED;
+            }
+            CancellationToken cancellation = new CancellationToken();
+            mCancellation = cancellation;
+            // The loader's own thread only waits, the work runs in the scheduler's lane for it:
+            // later pages are prefetched, the first page is what the user is looking at
+            int lane = mOffset > 0 ? TaskScheduler.LANE_PREFETCH : TaskScheduler.LANE_VISIBLE;
+            try {
+                return TaskScheduler.getInstance().run(lane,
+                        new TaskScheduler.Job<List<EarthquakeRow>>() {
+                            @Override
+                            public List<EarthquakeRow> run(CancellationToken attempt)
+                                    throws InterruptedIOException {
+                                return load(attempt);
+                            }
+                        }, cancellation);
+            } catch (InterruptedIOException e) {
+                // Cancelled or dropped from a full lane, the rows shown before still stand
+                return NOT_LOADED;
+            } catch (IOException e) {
+                // load() reports its own failures as empty pages
+                Log.e(LOG_TAG, "Problem loading the earthquakes", e);
+                return NOT_LOADED;
+            }
+        }
+
+        private List<EarthquakeRow> load(CancellationToken cancellation)
+                throws InterruptedIOException {
+            if (mOffset > 0) {
+                // Older pages come from the stored events when they reach back far enough
+                EarthquakeStore stored = EarthquakeSync.getInstance().query(mUrl);
+                if (stored != null) {
+                    return format(stored);
+                }
+                // Otherwise they are fetched as they are, only the first page is kept in sync.
+                // A page fetched recently is shown as it was.
+                List<EarthquakeRow> cached = sResultCache.get(mUrl);
+                if (cached != null) {
+                    return cached;
+                }
+                // Only the response is indexed, each event is decoded when its row is formatted
+                EarthquakeResponseIndex page = QueryUtils.fetchEarthquakeIndex(mUrl, cancellation);
+                if (page == null) {
+                    // Already logged, show the page as empty
+                    return new ArrayList<>();
+                }
+                List<EarthquakeRow> rows;
+                try {
+                    rows = newFormatter().format(page);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem decoding the page", e);
+                    return new ArrayList<>();
+                }
+                sResultCache.put(mUrl, rows);
+                return rows;
+            }
+
+            // Answered from the stored events, after merging in those changed since the last load
+            EarthquakeSync.Answer answer = EarthquakeSync.getInstance().sync(mUrl, cancellation);
+            mStale = answer.isStale();
+            List<EarthquakeRow> rows = format(answer.getEarthquakes());
+            if (!answer.isStale()) {
+                sResultCache.put(mUrl, rows);
             }
+            return rows;
+        }
+
+        /**
+         * Formats the rows here, on the loader thread, so the list only has to bind them.
+         */
+        private List<EarthquakeRow> format(EarthquakeStore earthquakes) {
+            return newFormatter().format(earthquakes);
+        }
 
-            List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mUrl);
-            return earthquakes;
+        private EarthquakeFormatter newFormatter() {
+            return new EarthquakeFormatter(getContext().getString(R.string.near_the));
         }
 
     }
@@ -203,9 +671,123 @@ public class EarthquakeActivity extends AppCompatActivity
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+        // Exports are written to a document the user picks, which needs KitKat
+        menu.findItem(R.id.action_export).setVisible(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT);
+
+        // Searching filters the list by place as the user types, once the index is built
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        mSearchItem = searchItem;
+        searchItem.setEnabled(mPlaceIndex != null);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                showSearchResults(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                showSearchResults(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        String queryUrl = buildQueryUrl(EarthquakeActivity.this);
+                        mUnfilteredRows = new ArrayList<>(mAdapter.getRows());
+                        mSearchMinMagnitude = EarthquakeSync.parseQuery(queryUrl,
+                                System.currentTimeMillis()).getMinMagnitude();
+                        mSearchIndex = mPlaceIndex;
+                        return mSearchIndex != null;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        mSearchIndex = null;
+                        mUnfilteredRows = null;
+                        onSettingsChanged();
+                        return true;
+                    }
+                });
+        preparePlaceIndex();
         return true;
     }
 
+    /**
+     * Builds the place index of the shown query's family in the prefetch lane, unless it is
+     * already built or being built, and enables the search once it is ready. Building it reads
+     * every stored place, too slow for the main thread.
+     */
+    private void preparePlaceIndex() {
+        final String queryUrl = buildQueryUrl(this);
+        final String key = QueryUrls.coverageKey(queryUrl);
+        if (key.equals(mPlaceIndexKey)) {
+            return;
+        }
+        mPlaceIndexKey = key;
+        mPlaceIndex = null;
+        if (mSearchItem != null) {
+            mSearchItem.setEnabled(false);
+        }
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final TaskScheduler.Task<PlaceSearchIndex> task = TaskScheduler.getInstance().submit(
+                TaskScheduler.LANE_PREFETCH,
+                new TaskScheduler.Job<PlaceSearchIndex>() {
+                    @Override
+                    public PlaceSearchIndex run(CancellationToken cancellation) {
+                        return EarthquakeSync.getInstance().getPlaceIndex(queryUrl);
+                    }
+                });
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Destroyed, or the settings moved on to another family
+                        if (!key.equals(mPlaceIndexKey)) {
+                            return;
+                        }
+                        try {
+                            mPlaceIndex = task.get();
+                        } catch (IOException e) {
+                            // Dropped from a full lane, queue it again
+                            mPlaceIndexKey = null;
+                            preparePlaceIndex();
+                            return;
+                        }
+                        if (mSearchItem != null) {
+                            mSearchItem.setEnabled(true);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replaces the list with the most recent stored events at places matching the query. The
+     * index answers in well under a frame, so this runs on the main thread for every key.
+     */
+    private void showSearchResults(String query) {
+        if (mSearchIndex == null) {
+            return;
+        }
+        if (query.trim().isEmpty()) {
+            mAdapter.submitRows(mUnfilteredRows);
+            return;
+        }
+        EarthquakeStore results = mSearchIndex.search(query, mSearchMinMagnitude,
+                SEARCH_LIMIT);
+        mAdapter.submitRows(new EarthquakeFormatter(getString(R.string.near_the)).format(results));
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -213,7 +795,312 @@ public class EarthquakeActivity extends AppCompatActivity
             Intent settingsIntent = new Intent(this, SettingsActivity.class);
             startActivity(settingsIntent);
             return true;
+        } else if (id == R.id.action_export_csv) {
+            pickExportDocument(EarthquakeExporter.FORMAT_CSV, REQUEST_EXPORT_CSV);
+            return true;
+        } else if (id == R.id.action_export_geojson) {
+            pickExportDocument(EarthquakeExporter.FORMAT_GEOJSON, REQUEST_EXPORT_GEOJSON);
+            return true;
+        } else if (id == R.id.action_summary) {
+            showSummary();
+            return true;
+        } else if (id == R.id.action_metrics) {
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.metrics_menu_item)
+                    .setMessage(Metrics.dump())
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Shows how many stored events fall into each magnitude band and on each recent day, and
+     * the largest event of each region. Getting the summaries may load the snapshot, so it
+     * runs in the visible lane.
+     */
+    private void showSummary() {
+        if (mSummaryCancellation != null) {
+            return;
+        }
+        final CancellationToken cancellation = new CancellationToken();
+        mSummaryCancellation = cancellation;
+        final String queryUrl = buildQueryUrl(this);
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        TaskScheduler.getInstance().submit(TaskScheduler.LANE_VISIBLE,
+                new TaskScheduler.Job<Void>() {
+                    @Override
+                    public Void run(CancellationToken attempt) {
+                        EarthquakeStats stats = EarthquakeSync.getInstance().getStats(queryUrl);
+                        final int[] bands = stats.getBandCounts();
+                        final long today = System.currentTimeMillis();
+                        final int[] days = stats.getDailyCounts(
+                                today - (SUMMARY_DAYS - 1) * EarthquakeStats.DAY_MILLIS,
+                                SUMMARY_DAYS);
+                        final Map<String, Earthquake> largest = stats.getLargestByRegion();
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                // Left or recreated in the meantime
+                                if (cancellation.isCancelled()) {
+                                    return;
+                                }
+                                mSummaryCancellation = null;
+                                new AlertDialog.Builder(EarthquakeActivity.this)
+                                        .setTitle(R.string.summary_menu_item)
+                                        .setMessage(formatSummary(bands, today, days, largest))
+                                        .setPositiveButton(android.R.string.ok, null)
+                                        .show();
+                            }
+                        });
+                        return null;
+                    }
+                });
+    }
+
+    private String formatSummary(int[] bands, long today, int[] days,
+                                 Map<String, Earthquake> largest) {
+        StringBuilder text = new StringBuilder(getString(R.string.summary_by_magnitude));
+        for (int band = 0; band < bands.length; band++) {
+            text.append('\n');
+            // Band 0 holds everything below 2, the others one unit each up to the last
+            if (band == 0) {
+                text.append(getString(R.string.summary_band_below, 2, bands[band]));
+            } else if (band == bands.length - 1) {
+                text.append(getString(R.string.summary_band_above, band + 1, bands[band]));
+            } else {
+                text.append(getString(R.string.summary_band, band + 1, band + 2, bands[band]));
+            }
+        }
+
+        text.append("\n\n").append(getString(R.string.summary_by_day, days.length));
+        DateFormat dayFormat = DateFormat.getDateInstance(DateFormat.MEDIUM);
+        // The days are counted in UTC
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (int i = days.length - 1; i >= 0; i--) {
+            long day = today - (days.length - 1 - i) * EarthquakeStats.DAY_MILLIS;
+            text.append('\n').append(getString(R.string.summary_day,
+                    dayFormat.format(new Date(day)), days[i]));
+        }
+
+        List<Earthquake> regions = new ArrayList<>(largest.values());
+        Collections.sort(regions, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake a, Earthquake b) {
+                return Double.compare(b.getMagnitude(), a.getMagnitude());
+            }
+        });
+        text.append("\n\n").append(getString(R.string.summary_largest_by_region));
+        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
+        for (int i = 0; i < Math.min(SUMMARY_REGIONS, regions.size()); i++) {
+            Earthquake earthquake = regions.get(i);
+            text.append('\n').append(getString(R.string.summary_region,
+                    EarthquakeStats.regionOf(earthquake.getLocation()),
+                    magnitudeFormat.format(earthquake.getMagnitude()), earthquake.getLocation()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Asks the user where to save the export, the answer arrives in {@link #onActivityResult}.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void pickExportDocument(int format, int requestCode) {
+        EarthquakeExporter exporter = new EarthquakeExporter(format);
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(exporter.getMimeType());
+        intent.putExtra(Intent.EXTRA_TITLE,
+                getString(R.string.export_file_name) + "." + exporter.getFileExtension());
+        startActivityForResult(intent, requestCode);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_EXPORT_CSV || requestCode == REQUEST_EXPORT_GEOJSON) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                export(requestCode == REQUEST_EXPORT_CSV
+                        ? EarthquakeExporter.FORMAT_CSV
+                        : EarthquakeExporter.FORMAT_GEOJSON, data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Writes the stored events that pass the magnitude setting to the document, in the order
+     * setting, while a dialog offers to cancel. The user waits for it, so it runs in the
+     * visible lane. A document left incomplete is deleted.
+     */
+    private void export(int format, Uri document) {
+        if (sExportCancellation != null) {
+            return;
+        }
+        CancellationToken cancellation = new CancellationToken();
+        sExportCancellation = cancellation;
+        showExportDialog(cancellation);
+        startExport(getApplicationContext(), document, buildQueryUrl(this), format, cancellation);
+    }
+
+    private void showExportDialog(final CancellationToken cancellation) {
+        mExportDialog = new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.export_progress))
+                .setCancelable(false)
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        cancellation.cancel();
+                    }
+                })
+                .show();
+    }
+
+    private void dismissExportDialog() {
+        if (mExportDialog != null) {
+            mExportDialog.dismiss();
+            mExportDialog = null;
+        }
+    }
+
+    /**
+     * Runs the export without a reference to any activity, the one to report to is looked up
+     * when it finishes. The outcome is reported from the task's listener rather than from the
+     * job, so an export dropped from a full lane or cancelled before it started is reported too
+     * and does not keep later exports from starting.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void startExport(final Context context, final Uri document,
+                                    final String queryUrl, final int format,
+                                    final CancellationToken cancellation) {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final AtomicBoolean started = new AtomicBoolean();
+        final TaskScheduler.Task<Integer> task = TaskScheduler.getInstance().submit(
+                TaskScheduler.LANE_VISIBLE, new TaskScheduler.Job<Integer>() {
+                    @Override
+                    public Integer run(CancellationToken attempt) throws IOException {
+                        started.set(true);
+                        try {
+                            return writeExport(context, document, queryUrl, format, attempt);
+                        } catch (IOException e) {
+                            if (!(e instanceof InterruptedIOException)) {
+                                Log.e(LOG_TAG, "Export failed", e);
+                            }
+                            deleteDocument(context, document);
+                            throw e;
+                        }
+                    }
+                });
+        // Dequeues the export if it has not started yet, or stops it if it has
+        final Runnable cancel = new Runnable() {
+            @Override
+            public void run() {
+                task.cancel();
+            }
+        };
+        cancellation.addListener(cancel);
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                cancellation.removeListener(cancel);
+                int count;
+                try {
+                    count = task.get();
+                } catch (IOException e) {
+                    count = -1;
+                    if (!started.get()) {
+                        // The document was created empty when the user picked it. This may run
+                        // on the main thread, so it is deleted in the background.
+                        TaskScheduler.getInstance().submit(TaskScheduler.LANE_MAINTENANCE,
+                                new TaskScheduler.Job<Void>() {
+                                    @Override
+                                    public Void run(CancellationToken attempt) {
+                                        deleteDocument(context, document);
+                                        return null;
+                                    }
+                                });
+                    }
+                }
+                // Reported however the export ended, so the dialog never stays up
+                final int exported = count;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onExportFinished(context, cancellation, exported);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deletes an incomplete export. The provider may refuse or may have lost the document
+     * already, which leaves nothing more to do.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void deleteDocument(Context context, Uri document) {
+        try {
+            DocumentsContract.deleteDocument(context.getContentResolver(), document);
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "Could not delete the incomplete export " + document, e);
+        }
+    }
+
+    private static int writeExport(Context context, Uri document, String queryUrl, int format,
+                                   CancellationToken cancellation) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        ParcelFileDescriptor file = resolver.openFileDescriptor(document, "w");
+        if (file == null) {
+            throw new FileNotFoundException(document.toString());
+        }
+        FileOutputStream output = new FileOutputStream(file.getFileDescriptor());
+        try {
+            return EarthquakeSync.getInstance().export(queryUrl, new EarthquakeExporter(format),
+                    output.getChannel(), cancellation);
+        } finally {
+            output.close();
+            file.close();
+        }
+    }
+
+    /**
+     * Reports how the export went. The activity may have been recreated or finished since it
+     * started, so the dialog is dismissed in whichever one is attached and the toast uses the
+     * application's context.
+     *
+     * @param exported the number of events written, or -1 if the export failed or was cancelled
+     */
+    private static void onExportFinished(Context context, CancellationToken cancellation,
+                                         int exported) {
+        if (sExportCancellation == cancellation) {
+            sExportCancellation = null;
+            if (sExportActivity != null) {
+                sExportActivity.dismissExportDialog();
+            }
+        }
+        String message;
+        if (exported >= 0) {
+            message = context.getResources().getQuantityString(R.plurals.export_done,
+                    exported, exported);
+        } else if (cancellation.isCancelled()) {
+            message = context.getString(R.string.export_cancelled);
+        } else {
+            message = context.getString(R.string.export_failed);
+        }
+        Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Adds the load metrics to {@code adb shell dumpsys activity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Load metrics:");
+        Metrics.dump(prefix + "  ", writer);
+        writer.print(prefix);
+        writer.println("Result cache: " + sResultCache);
+    }
 }
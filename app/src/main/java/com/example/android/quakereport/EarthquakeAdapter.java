@@ -2,139 +2,191 @@ package com.example.android.quakereport;
 
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
-
-    private static final String LOCATION_SEPARATOR = " of ";
-
-    public EarthquakeAdapter(Context context, List<Earthquake> earthquakes) {
-        super(context, 0, earthquakes);
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Binds {@link EarthquakeRow}s to the list. All text is formatted by the loader beforehand and
+ * the views of each row are looked up once and kept in a {@link ViewHolder}, so binding a row
+ * allocates nothing.
+ * <p>
+ * New data is compared with the rows shown by event id on a background thread by an
+ * {@link EarthquakeListDiffer}, and only the rows that were inserted, removed, moved or changed
+ * are passed on to the RecyclerView.
+ */
+public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder> {
+
+    /**
+     * Called when the user taps a row.
+     */
+    public interface OnItemClickListener {
+        void onItemClick(EarthquakeRow row);
     }
 
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_earthquake, parent, false);
-        }
-        Earthquake currentData = getItem(position);
-
-        // Sets value for magnitude of earthquake, including implementing a decimal formatter
-        TextView magTextView = (TextView) listItemView.findViewById(R.id.magTextView);
-        String formattedMagnitude = formatMagnitude(currentData.getMagnitude());
-        magTextView.setText(formattedMagnitude);
-
-        // Set the proper background color on the magnitude circle
-        // Fetch the background from the TextView, which is a GradientDrawable
-        GradientDrawable magnitudeCircle = (GradientDrawable) magTextView.getBackground();
-        // Get the appropriate background color based on the current earthquake magnitude
-        int magnitudeColor = getMagnitudeColor(currentData.getMagnitude());
-        // Set the color on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColor);
-
-        // Code to set value for locations. Includes code to use a string split to separate values
-        // of location offset and primary location to two separate textviews in app
-        String originalLocation = currentData.getLocation();
-        String primaryLocation;
-        String locationOffset;
-
-        if (originalLocation.contains(LOCATION_SEPARATOR)) {
-            String[] parts = originalLocation.split(LOCATION_SEPARATOR);
-            locationOffset = parts[0] + LOCATION_SEPARATOR;
-            primaryLocation = parts[1];
-        } else {
-            locationOffset = getContext().getString(R.string.near_the);
-            primaryLocation = originalLocation;
+    // Diffs are computed one at a time, away from the main thread
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final OnItemClickListener mOnItemClickListener;
+    private final EarthquakeListDiffer mDiffer;
+    // Circle color for each magnitude band, resolved once
+    private final int[] mMagnitudeColors;
+    // When rows were last delivered, until the first bind after that; 0 if none is pending
+    private long mDeliveredNanos;
+
+    public EarthquakeAdapter(Context context, OnItemClickListener onItemClickListener) {
+        mContext = context;
+        mOnItemClickListener = onItemClickListener;
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        Executor mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        };
+        mDiffer = new EarthquakeListDiffer(DIFF_EXECUTOR, mainExecutor,
+                new EarthquakeListDiffer.Listener() {
+                    @Override
+                    public void onReplaced() {
+                        notifyDataSetChanged();
+                    }
+
+                    @Override
+                    public void onInserted(int position, int count) {
+                        notifyItemRangeInserted(position, count);
+                    }
+
+                    @Override
+                    public void onRemoved(int position, int count) {
+                        notifyItemRangeRemoved(position, count);
+                    }
+
+                    @Override
+                    public void onMoved(int fromPosition, int toPosition) {
+                        notifyItemMoved(fromPosition, toPosition);
+                    }
+
+                    @Override
+                    public void onChanged(int position, int count) {
+                        notifyItemRangeChanged(position, count);
+                    }
+                });
+        mMagnitudeColors = new int[EarthquakeFormatter.MAGNITUDE_BANDS];
+        for (int band = 0; band < mMagnitudeColors.length; band++) {
+            mMagnitudeColors[band] = getMagnitudeColor(band);
         }
+    }
 
-        TextView offsetLocationView = (TextView) listItemView.findViewById(R.id.offsetLocationTextView);
-        offsetLocationView.setText(locationOffset);
+    /**
+     * Replaces the rows with the given ones. The difference to the rows shown is computed in
+     * the background and applied when it is ready.
+     */
+    public void submitRows(List<EarthquakeRow> rows) {
+        mDiffer.submitRows(rows);
+    }
 
-        TextView locationView = (TextView) listItemView.findViewById(R.id.locationTextView);
-        locationView.setText(primaryLocation);
+    /**
+     * Appends the given rows, skipping events that are already shown.
+     */
+    public void addAll(List<EarthquakeRow> rows) {
+        mDiffer.addAll(rows);
+    }
 
-        //Create a new Data object from the time in milliseconds of the year
-        Date dateObject = new Date(currentData.getTimeInMilliseconds());
-        TextView dateView = (TextView) listItemView.findViewById(R.id.dateTextView);
-        // Format the date string(i.e. "Mar 3, 1984")
-        String formattedDate = formatDate(dateObject);
-        // Display the date of the current earthquake in that TextView
-        dateView.setText(formattedDate);
+    public void clear() {
+        mDiffer.clear();
+    }
 
-        TextView timeView = (TextView) listItemView.findViewById(R.id.timeTextView);
-        // Format the time string (i.e. "4:30PM")
-        String formattedTime = formatTime(dateObject);
-        // Display the time of the current earthquake in that TextView
-        timeView.setText(formattedTime);
+    /**
+     * Returns the rows currently shown. The list must not be modified.
+     */
+    public List<EarthquakeRow> getRows() {
+        return mDiffer.getRows();
+    }
 
-        return listItemView;
+    @Override
+    public int getItemCount() {
+        return mDiffer.getRows().size();
     }
 
-    private String formatDate(Date dateObject) {
-        // Date will look like Jan 21, 2016
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy");
-        return dateFormat.format(dateObject);
+    public EarthquakeRow getItem(int position) {
+        return mDiffer.getRows().get(position);
     }
 
-    private String formatTime(Date dateObject) {
-        // time format will look like 11:22 PM
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(mContext).inflate(R.layout.list_earthquake, parent, false);
+        final ViewHolder holder = new ViewHolder(listItemView, mMagnitudeColors);
+        listItemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mOnItemClickListener != null) {
+                    mOnItemClickListener.onItemClick(getItem(position));
+                }
+            }
+        });
+        return holder;
+    }
 
+    /**
+     * Starts timing how long rows just delivered by a loader take to reach the screen. The
+     * next bind records the time in {@link Metrics#FIRST_BIND}; if the rows change nothing on
+     * screen, the next delivery starts over.
+     */
+    public void markDelivered() {
+        mDeliveredNanos = System.nanoTime();
     }
 
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        if (mDeliveredNanos != 0) {
+            Metrics.FIRST_BIND.record((System.nanoTime() - mDeliveredNanos) / 1000);
+            mDeliveredNanos = 0;
+        }
+        getItem(position).bindTo(holder);
     }
 
-    private int getMagnitudeColor(double magnitude) {
+    /**
+     * Returns the color for a band from {@link EarthquakeFormatter#magnitudeBand}.
+     */
+    private int getMagnitudeColor(int band) {
         int magnitudeColorResourceId;
-        // Use Math class to do some mathematical calculations. Take the "floor" of the decimal
-        // magnitude value. This means finding the closest integer less than the decimal value.
-        // The floor of the value 1.2 would be the integer 1.
-        int magnitudeFloor = (int) Math.floor(magnitude);
-        switch (magnitudeFloor) {
+        switch (band) {
             case 0:
-            case 1:
                 magnitudeColorResourceId = R.color.magnitude1;
                 break;
-            case 2:
+            case 1:
                 magnitudeColorResourceId = R.color.magnitude2;
                 break;
-            case 3:
+            case 2:
                 magnitudeColorResourceId = R.color.magnitude3;
                 break;
-            case 4:
+            case 3:
                 magnitudeColorResourceId = R.color.magnitude4;
                 break;
-            case 5:
+            case 4:
                 magnitudeColorResourceId = R.color.magnitude5;
                 break;
-            case 6:
+            case 5:
                 magnitudeColorResourceId = R.color.magnitude6;
                 break;
-            case 7:
+            case 6:
                 magnitudeColorResourceId = R.color.magnitude7;
                 break;
-            case 8:
+            case 7:
                 magnitudeColorResourceId = R.color.magnitude8;
                 break;
-            case 9:
+            case 8:
                 magnitudeColorResourceId = R.color.magnitude9;
                 break;
             default:
@@ -142,8 +194,53 @@ public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
                 break;
         }
 
-        return ContextCompat.getColor(getContext(), magnitudeColorResourceId);
+        return ContextCompat.getColor(mContext, magnitudeColorResourceId);
+
+    }
+
+    /**
+     * Views of one row, looked up once when the row is inflated.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder implements EarthquakeRow.Target {
+        // Circle color for each magnitude band, shared with the adapter
+        final int[] magnitudeColors;
+        final TextView magnitude;
+        final GradientDrawable magnitudeCircle;
+        final TextView locationOffset;
+        final TextView primaryLocation;
+        final TextView date;
+        final TextView time;
+
+        ViewHolder(View view, int[] magnitudeColors) {
+            super(view);
+            this.magnitudeColors = magnitudeColors;
+            magnitude = (TextView) view.findViewById(R.id.magTextView);
+            // Each row gets its own copy of the circle so coloring one doesn't color them all
+            magnitudeCircle = (GradientDrawable) magnitude.getBackground().mutate();
+            locationOffset = (TextView) view.findViewById(R.id.offsetLocationTextView);
+            primaryLocation = (TextView) view.findViewById(R.id.locationTextView);
+            date = (TextView) view.findViewById(R.id.dateTextView);
+            time = (TextView) view.findViewById(R.id.timeTextView);
+        }
+
+        @Override
+        public void setMagnitude(String text, int band) {
+            magnitude.setText(text);
+            // Set the proper background color on the magnitude circle
+            magnitudeCircle.setColor(magnitudeColors[band]);
+        }
 
+        @Override
+        public void setLocation(String offset, String primaryLocation) {
+            locationOffset.setText(offset);
+            this.primaryLocation.setText(primaryLocation);
+        }
+
+        @Override
+        public void setTime(String date, String time) {
+            this.date.setText(date);
+            this.time.setText(time);
+        }
     }
 
 }
@@ -0,0 +1,439 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact binary encoding of earthquake records, written and read as a stream.
+ * <p>
+ * A stream starts with a magic number and a format version, followed by one record per event
+ * and an end marker. Within a record:
+ * <ul>
+ * <li>the id is stored as the length of the prefix it shares with the previous id plus the
+ * rest, and the event page URL is left out because it can be derived from the id;</li>
+ * <li>the time is a varint delta to the previous record's time, and the update time a delta
+ * to the event's own time;</li>
+ * <li>the magnitude is quantized to hundredths, coordinates to 0.00001 degrees and the depth
+ * to meters;</li>
+ * <li>places are dictionary coded: the first use of a place carries the text, later uses only
+ * its code.</li>
+ * </ul>
+ * Signed numbers use zigzag varints, so small values of either sign take one or two bytes.
+ * Readers reject versions newer than their own; every older version stays readable.
+ */
+public final class EarthquakeCodec {
+
+    /**
+     * Current format version, written into every stream.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x45514231; // "EQB1"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TAG_END = 0;
+    private static final int TAG_EVENT = 1;
+    private static final int TAG_DELETED = 2;
+
+    private static final double MAGNITUDE_SCALE = 100;
+    private static final double COORDINATE_SCALE = 100000;
+    private static final double DEPTH_SCALE = 1000;
+
+    private EarthquakeCodec() {
+    }
+
+    /**
+     * Encodes every event of the store to the stream, which is left open.
+     *
+     * @return the number of events written
+     */
+    public static int encode(EarthquakeStore earthquakes, OutputStream out) throws IOException {
+        Encoder encoder = new Encoder(out);
+        EarthquakeStore.Cursor cursor = earthquakes.newCursor();
+        synchronized (earthquakes) {
+            for (int row = 0; row < earthquakes.size(); row++) {
+                encoder.write(cursor.moveTo(row));
+            }
+        }
+        encoder.finish();
+        return earthquakes.size();
+    }
+
+    /**
+     * Decodes a whole stream into a new store. The stream is left open.
+     */
+    public static EarthquakeStore decode(InputStream in) throws IOException {
+        EarthquakeStore earthquakes = new EarthquakeStore();
+        new Decoder(in).readInto(earthquakes);
+        return earthquakes;
+    }
+
+    /**
+     * Writes records to a stream. Call {@link #finish()} after the last one.
+     */
+    public static final class Encoder implements Closeable {
+        private final OutputStream mOut;
+        private final byte[] mBuffer = new byte[8192];
+        private int mCount;
+
+        private final HashMap<String, Integer> mPlaceCodes = new HashMap<>();
+        private String mPreviousId = "";
+        private long mPreviousTime;
+        private boolean mFinished;
+
+        /**
+         * Writes the stream header.
+         */
+        public Encoder(OutputStream out) throws IOException {
+            mOut = out;
+            writeInt(MAGIC);
+            writeVarint(VERSION);
+        }
+
+        public void write(Earthquake earthquake) throws IOException {
+            String id = earthquake.getId() != null ? earthquake.getId() : earthquake.getEarthquakeUrl();
+            if (earthquake.isDeleted()) {
+                writeByte(TAG_DELETED);
+                writeId(id);
+                writeZigzag(earthquake.getUpdatedInMilliseconds() - mPreviousTime);
+                return;
+            }
+            write(id, earthquake.getMagnitude(), earthquake.getLocation(),
+                    earthquake.getTimeInMilliseconds(), earthquake.getUpdatedInMilliseconds(),
+                    earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getDepth());
+        }
+
+        public void write(EarthquakeStore.Cursor cursor) throws IOException {
+            write(cursor.getId(), cursor.getMagnitude(), cursor.getLocation(),
+                    cursor.getTimeInMilliseconds(), cursor.getUpdatedInMilliseconds(),
+                    cursor.getLatitude(), cursor.getLongitude(), cursor.getDepth());
+        }
+
+        public void write(String id, double magnitude, String place, long time, long updated,
+                          double latitude, double longitude, double depth) throws IOException {
+            if (mFinished) {
+                throw new IllegalStateException("Stream already finished");
+            }
+            writeByte(TAG_EVENT);
+            writeId(id);
+            writeZigzag(time - mPreviousTime);
+            mPreviousTime = time;
+            writeZigzag(updated - time);
+            writeZigzag(Math.round(magnitude * MAGNITUDE_SCALE));
+
+            if (place == null) {
+                place = "";
+            }
+            Integer code = mPlaceCodes.get(place);
+            if (code == null) {
+                // A code one past the last known one introduces a new place
+                code = mPlaceCodes.size();
+                mPlaceCodes.put(place, code);
+                writeVarint(code);
+                writeString(place);
+            } else {
+                writeVarint(code);
+            }
+
+            writeZigzag(Math.round(latitude * COORDINATE_SCALE));
+            writeZigzag(Math.round(longitude * COORDINATE_SCALE));
+            writeZigzag(Math.round(depth * DEPTH_SCALE));
+        }
+
+        /**
+         * Writes the end marker and flushes. The stream is not closed.
+         */
+        public void finish() throws IOException {
+            if (mFinished) {
+                return;
+            }
+            writeByte(TAG_END);
+            mFinished = true;
+            flushBuffer();
+            mOut.flush();
+        }
+
+        /**
+         * Finishes the stream and closes it.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                mOut.close();
+            }
+        }
+
+        private void writeId(String id) throws IOException {
+            int shared = 0;
+            int max = Math.min(id.length(), mPreviousId.length());
+            while (shared < max && id.charAt(shared) == mPreviousId.charAt(shared)) {
+                shared++;
+            }
+            writeVarint(shared);
+            writeString(id.substring(shared));
+            mPreviousId = id;
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(bytes.length);
+            if (mCount + bytes.length > mBuffer.length) {
+                flushBuffer();
+                if (bytes.length > mBuffer.length) {
+                    mOut.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+            mCount += bytes.length;
+        }
+
+        private void writeZigzag(long value) throws IOException {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarint(long value) throws IOException {
+            if (mCount + 10 > mBuffer.length) {
+                flushBuffer();
+            }
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mCount++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mCount++] = (byte) value;
+        }
+
+        private void writeInt(int value) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(value >>> shift);
+            }
+        }
+
+        private void writeByte(int value) throws IOException {
+            if (mCount == mBuffer.length) {
+                flushBuffer();
+            }
+            mBuffer[mCount++] = (byte) value;
+        }
+
+        private void flushBuffer() throws IOException {
+            if (mCount > 0) {
+                mOut.write(mBuffer, 0, mCount);
+                mCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads records from a stream.
+     */
+    public static final class Decoder implements Closeable {
+        private final InputStream mIn;
+        private final byte[] mBuffer = new byte[8192];
+        private int mPos;
+        private int mLimit;
+
+        private final int mVersion;
+        private final List<String> mPlaces = new ArrayList<>();
+        private byte[] mChars = new byte[64];
+        private String mPreviousId = "";
+        private long mPreviousTime;
+        private boolean mEnded;
+
+        /**
+         * Reads and checks the stream header.
+         *
+         * @throws IOException if the stream is not in this format or from a newer version
+         */
+        public Decoder(InputStream in) throws IOException {
+            mIn = in;
+            int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+            if (magic != MAGIC) {
+                throw new IOException("Not an earthquake stream");
+            }
+            mVersion = (int) readVarint();
+            if (mVersion < 1 || mVersion > VERSION) {
+                throw new IOException("Unsupported format version " + mVersion);
+            }
+        }
+
+        /**
+         * Returns the format version of the stream.
+         */
+        public int getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * Returns the next event, or null at the end of the stream. Deleted events come back
+         * with {@link Earthquake#isDeleted()} set and only their id and update time.
+         */
+        public Earthquake read() throws IOException {
+            int tag = nextTag();
+            if (tag == TAG_END) {
+                return null;
+            }
+            if (tag == TAG_DELETED) {
+                String id = readId();
+                long updated = mPreviousTime + readZigzag();
+                return new Earthquake(id, 0, null, 0, updated, null, 0, 0, 0, true);
+            }
+            String id = readId();
+            long time = mPreviousTime + readZigzag();
+            mPreviousTime = time;
+            long updated = time + readZigzag();
+            double magnitude = readZigzag() / MAGNITUDE_SCALE;
+            String place = readPlace();
+            double latitude = readZigzag() / COORDINATE_SCALE;
+            double longitude = readZigzag() / COORDINATE_SCALE;
+            double depth = readZigzag() / DEPTH_SCALE;
+            return new Earthquake(id, magnitude, place, time, updated, null, latitude, longitude,
+                    depth, false);
+        }
+
+        /**
+         * Passes every remaining event to the callback.
+         *
+         * @return the number of events read
+         */
+        public int readAll(EarthquakeStreamParser.Callback callback) throws IOException {
+            int count = 0;
+            Earthquake earthquake;
+            while ((earthquake = read()) != null) {
+                callback.onEarthquake(earthquake);
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Merges every remaining event into the store without creating {@link Earthquake}
+         * objects, except for deleted ones.
+         *
+         * @return the number of events read
+         */
+        public int readInto(EarthquakeStore earthquakes) throws IOException {
+            int count = 0;
+            int tag;
+            while ((tag = nextTag()) != TAG_END) {
+                String id = readId();
+                if (tag == TAG_DELETED) {
+                    long updated = mPreviousTime + readZigzag();
+                    earthquakes.upsert(new Earthquake(id, 0, null, 0, updated, null, 0, 0, 0, true));
+                } else {
+                    long time = mPreviousTime + readZigzag();
+                    mPreviousTime = time;
+                    long updated = time + readZigzag();
+                    double magnitude = readZigzag() / MAGNITUDE_SCALE;
+                    String place = readPlace();
+                    double latitude = readZigzag() / COORDINATE_SCALE;
+                    double longitude = readZigzag() / COORDINATE_SCALE;
+                    double depth = readZigzag() / DEPTH_SCALE;
+                    earthquakes.upsert(id, magnitude, place, time, updated, latitude, longitude,
+                            depth);
+                }
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private int nextTag() throws IOException {
+            if (mEnded) {
+                return TAG_END;
+            }
+            int tag = readByte();
+            if (tag == TAG_END) {
+                mEnded = true;
+            } else if (tag != TAG_EVENT && tag != TAG_DELETED) {
+                throw new IOException("Unknown record type " + tag);
+            }
+            return tag;
+        }
+
+        private String readId() throws IOException {
+            int shared = (int) readVarint();
+            if (shared > mPreviousId.length()) {
+                throw new IOException("Bad id prefix length " + shared);
+            }
+            String suffix = readString();
+            String id = shared == 0 ? suffix : mPreviousId.substring(0, shared).concat(suffix);
+            mPreviousId = id;
+            return id;
+        }
+
+        private String readPlace() throws IOException {
+            int code = (int) readVarint();
+            if (code < mPlaces.size()) {
+                return mPlaces.get(code);
+            }
+            if (code != mPlaces.size()) {
+                throw new IOException("Bad place code " + code);
+            }
+            String place = readString();
+            mPlaces.add(place);
+            return place;
+        }
+
+        private String readString() throws IOException {
+            int length = (int) readVarint();
+            if (length < 0) {
+                throw new IOException("Bad string length " + length);
+            }
+            if (mLimit - mPos >= length) {
+                String value = new String(mBuffer, mPos, length, UTF_8);
+                mPos += length;
+                return value;
+            }
+            if (mChars.length < length) {
+                mChars = new byte[Math.max(length, mChars.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                mChars[i] = (byte) readByte();
+            }
+            return new String(mChars, 0, length, UTF_8);
+        }
+
+        private long readZigzag() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private int readByte() throws IOException {
+            if (mPos == mLimit) {
+                mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+                mPos = 0;
+                if (mLimit <= 0) {
+                    mLimit = 0;
+                    throw new EOFException("Truncated earthquake stream");
+                }
+            }
+            return mBuffer[mPos++] & 0xFF;
+        }
+    }
+}
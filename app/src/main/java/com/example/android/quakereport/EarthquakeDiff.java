@@ -0,0 +1,167 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The changes that turn one list of {@link EarthquakeRow}s into another, matched up by event id.
+ * The diff is cheap enough to compute on a background thread and replay on the main thread as
+ * fine-grained adapter notifications, so only rows that really changed are rebound.
+ */
+public final class EarthquakeDiff {
+
+    /**
+     * Receives the changes in the order they have to be applied to the old list.
+     */
+    public interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final int INSERT = 1;
+    private static final int REMOVE = 2;
+    private static final int MOVE = 3;
+    private static final int CHANGE = 4;
+
+    // Operations as (type, first, second) triples
+    private final int[] mOps;
+    private final int mOpCount;
+
+    private EarthquakeDiff(int[] ops, int opCount) {
+        mOps = ops;
+        mOpCount = opCount;
+    }
+
+    /**
+     * Computes the changes from {@code oldRows} to {@code newRows}. Ids must be unique within
+     * each list. Neither list is modified.
+     */
+    public static EarthquakeDiff calculate(List<EarthquakeRow> oldRows, List<EarthquakeRow> newRows) {
+        Builder ops = new Builder();
+
+        HashMap<String, EarthquakeRow> newById = new HashMap<>(newRows.size() * 2);
+        for (EarthquakeRow row : newRows) {
+            newById.put(row.getId(), row);
+        }
+
+        // Removals first, from the back so the positions of earlier rows stay valid
+        ArrayList<EarthquakeRow> working = new ArrayList<>(oldRows);
+        for (int i = working.size() - 1; i >= 0; i--) {
+            if (!newById.containsKey(working.get(i).getId())) {
+                working.remove(i);
+                ops.add(REMOVE, i, 1);
+            }
+        }
+
+        // Then walk the new list, moving or inserting rows into place
+        HashSet<String> surviving = new HashSet<>(working.size() * 2);
+        for (EarthquakeRow row : working) {
+            surviving.add(row.getId());
+        }
+        for (int position = 0; position < newRows.size(); position++) {
+            EarthquakeRow target = newRows.get(position);
+            String id = target.getId();
+            if (position < working.size() && working.get(position).getId().equals(id)) {
+                if (!working.get(position).hasSameContents(target)) {
+                    ops.add(CHANGE, position, 1);
+                }
+                working.set(position, target);
+            } else if (surviving.contains(id)) {
+                int from = indexOf(working, id, position + 1);
+                EarthquakeRow moved = working.remove(from);
+                working.add(position, target);
+                ops.add(MOVE, from, position);
+                if (!moved.hasSameContents(target)) {
+                    ops.add(CHANGE, position, 1);
+                }
+            } else {
+                working.add(position, target);
+                ops.add(INSERT, position, 1);
+            }
+        }
+        return new EarthquakeDiff(ops.mOps, ops.mCount);
+    }
+
+    /**
+     * Replays the changes on the callback. Neighboring inserts, removes and changes arrive as
+     * single ranges.
+     */
+    public void dispatchTo(Callback callback) {
+        for (int i = 0; i < mOpCount; i += 3) {
+            int type = mOps[i];
+            int first = mOps[i + 1];
+            int second = mOps[i + 2];
+            switch (type) {
+                case INSERT:
+                    callback.onInserted(first, second);
+                    break;
+                case REMOVE:
+                    callback.onRemoved(first, second);
+                    break;
+                case MOVE:
+                    callback.onMoved(first, second);
+                    break;
+                case CHANGE:
+                    callback.onChanged(first, second);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + type);
+            }
+        }
+    }
+
+    /**
+     * Returns true if applying the diff changes nothing.
+     */
+    public boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    private static int indexOf(List<EarthquakeRow> rows, String id, int from) {
+        for (int i = from; i < rows.size(); i++) {
+            if (rows.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Row " + id + " not found");
+    }
+
+    /**
+     * Collects operations, extending the previous one when the new one continues its range.
+     */
+    private static final class Builder {
+        private int[] mOps = new int[48];
+        private int mCount;
+
+        void add(int type, int first, int second) {
+            if (mCount > 0 && mOps[mCount - 3] == type) {
+                int lastFirst = mOps[mCount - 2];
+                int lastCount = mOps[mCount - 1];
+                if ((type == INSERT || type == CHANGE) && first == lastFirst + lastCount) {
+                    mOps[mCount - 1] = lastCount + second;
+                    return;
+                }
+                if (type == REMOVE && first + second == lastFirst) {
+                    // Removals run back to front, so the next one ends where the last began
+                    mOps[mCount - 2] = first;
+                    mOps[mCount - 1] = lastCount + second;
+                    return;
+                }
+            }
+            if (mCount + 3 > mOps.length) {
+                mOps = Arrays.copyOf(mOps, mOps.length * 2);
+            }
+            mOps[mCount++] = type;
+            mOps[mCount++] = first;
+            mOps[mCount++] = second;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes stored earthquakes to a channel as CSV or GeoJSON, in the column names and layout the
+ * USGS feeds use, so other tools read the files the way they read those feeds.
+ * <p>
+ * Rows are encoded straight from the {@link EarthquakeStore}'s columns into one reused byte
+ * buffer, a batch at a time, and each batch is written out before the next is encoded. Memory
+ * use therefore does not grow with the number of events, and nothing but the odd number is
+ * allocated per row. The store's lock is held while a batch is encoded but not while it is
+ * written, so a slow destination does not hold up syncs.
+ */
+public final class EarthquakeExporter {
+
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_GEOJSON = 1;
+
+    // Rows encoded per batch; about 100 KB of GeoJSON
+    private static final int BATCH_ROWS = 256;
+    private static final int INITIAL_BUFFER_SIZE = 128 * 1024;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final int mFormat;
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private int mCount;
+
+    /**
+     * @param format {@link #FORMAT_CSV} or {@link #FORMAT_GEOJSON}
+     */
+    public EarthquakeExporter(int format) {
+        if (format != FORMAT_CSV && format != FORMAT_GEOJSON) {
+            throw new IllegalArgumentException("format " + format);
+        }
+        mFormat = format;
+    }
+
+    public String getMimeType() {
+        return mFormat == FORMAT_CSV ? "text/csv" : "application/geo+json";
+    }
+
+    public String getFileExtension() {
+        return mFormat == FORMAT_CSV ? "csv" : "geojson";
+    }
+
+    /**
+     * Writes the events of the store that match the query, in the query's order, and leaves the
+     * channel open. The query's limit applies; its offset is ignored.
+     *
+     * @param engine the store's query engine
+     * @return the number of events written
+     * @throws java.io.InterruptedIOException if the token was cancelled; the channel then holds
+     *                                        part of the export
+     * @throws IOException                    if writing failed, or the store changed during the
+     *                                        export
+     */
+    public int export(EarthquakeStore store, EarthquakeQueryEngine engine, EarthquakeQuery query,
+                      WritableByteChannel out, CancellationToken cancellation)
+            throws IOException {
+        int[] rows;
+        long version;
+        synchronized (store) {
+            rows = engine.select(query);
+            version = store.getVersion();
+        }
+        mCount = 0;
+        writeHeader(rows.length);
+        EarthquakeStore.Cursor cursor = store.newCursor();
+        for (int from = 0; from < rows.length; from += BATCH_ROWS) {
+            if (cancellation != null) {
+                cancellation.throwIfCancelled();
+            }
+            int to = Math.min(rows.length, from + BATCH_ROWS);
+            synchronized (store) {
+                // Row numbers are only valid for the version they were selected from
+                if (store.getVersion() != version) {
+                    throw new IOException("The earthquakes changed during the export");
+                }
+                for (int i = from; i < to; i++) {
+                    cursor.moveTo(rows[i]);
+                    if (mFormat == FORMAT_CSV) {
+                        writeCsvRow(cursor);
+                    } else {
+                        writeFeature(cursor, i == 0);
+                    }
+                }
+            }
+            flush(out);
+        }
+        writeFooter();
+        flush(out);
+        return rows.length;
+    }
+
+    private void writeHeader(int count) {
+        if (mFormat == FORMAT_CSV) {
+            writeAscii("time,latitude,longitude,depth,mag,id,updated,place,url\n");
+        } else {
+            writeAscii("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":");
+            writeLong(System.currentTimeMillis());
+            writeAscii(",\"title\":\"Quake Report export\",\"count\":");
+            writeLong(count);
+            writeAscii("},\"features\":[");
+        }
+    }
+
+    private void writeFooter() {
+        if (mFormat == FORMAT_GEOJSON) {
+            writeAscii("]}\n");
+        }
+    }
+
+    private void writeCsvRow(EarthquakeStore.Cursor cursor) {
+        writeTime(cursor.getTimeInMilliseconds());
+        writeByte(',');
+        writeDouble(cursor.getLatitude(), "");
+        writeByte(',');
+        writeDouble(cursor.getLongitude(), "");
+        writeByte(',');
+        writeDouble(cursor.getDepth(), "");
+        writeByte(',');
+        writeDouble(cursor.getMagnitude(), "");
+        writeByte(',');
+        writeCsvField(cursor.getId());
+        writeByte(',');
+        writeTime(cursor.getUpdatedInMilliseconds());
+        writeByte(',');
+        writeCsvField(cursor.getLocation());
+        writeByte(',');
+        writeCsvField(cursor.getEarthquakeUrl());
+        writeByte('\n');
+    }
+
+    private void writeFeature(EarthquakeStore.Cursor cursor, boolean first) {
+        if (!first) {
+            writeByte(',');
+        }
+        writeAscii("\n{\"type\":\"Feature\",\"properties\":{\"mag\":");
+        writeDouble(cursor.getMagnitude(), "null");
+        writeAscii(",\"place\":");
+        writeJsonString(cursor.getLocation());
+        writeAscii(",\"time\":");
+        writeLong(cursor.getTimeInMilliseconds());
+        writeAscii(",\"updated\":");
+        writeLong(cursor.getUpdatedInMilliseconds());
+        writeAscii(",\"url\":");
+        writeJsonString(cursor.getEarthquakeUrl());
+        writeAscii("},\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+        writeDouble(cursor.getLongitude(), "null");
+        writeByte(',');
+        writeDouble(cursor.getLatitude(), "null");
+        writeByte(',');
+        writeDouble(cursor.getDepth(), "null");
+        writeAscii("]},\"id\":");
+        writeJsonString(cursor.getId());
+        writeByte('}');
+    }
+
+    /**
+     * Quotes the field if it holds a separator, quote or line break, doubling any quotes.
+     */
+    private void writeCsvField(String text) {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writeUtf8(text);
+            return;
+        }
+        writeByte('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                writeUtf8(text.substring(start, i + 1));
+                start = i;
+            }
+        }
+        writeUtf8(text.substring(start));
+        writeByte('"');
+    }
+
+    private void writeJsonString(String text) {
+        writeByte('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+                writeByte(c);
+            } else if (c < 0x20) {
+                writeAscii("\\u00");
+                writeByte(HEX[c >> 4]);
+                writeByte(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else {
+                i = writeUtf8Char(text, i);
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeUtf8(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                writeByte(c);
+            } else {
+                i = writeUtf8Char(text, i);
+            }
+        }
+    }
+
+    /**
+     * Encodes the non-ASCII character at {@code i}, with the low surrogate that follows it if
+     * it is a high one.
+     *
+     * @return the index of the last char consumed
+     */
+    private int writeUtf8Char(String text, int i) {
+        ensureCapacity(4);
+        int c = text.charAt(i);
+        if (c < 0x800) {
+            mBuffer[mCount++] = (byte) (0xC0 | c >> 6);
+        } else if (Character.isHighSurrogate((char) c) && i + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint((char) c, text.charAt(++i));
+            mBuffer[mCount++] = (byte) (0xF0 | codePoint >> 18);
+            mBuffer[mCount++] = (byte) (0x80 | (codePoint >> 12 & 0x3F));
+            mBuffer[mCount++] = (byte) (0x80 | (codePoint >> 6 & 0x3F));
+            c = codePoint;
+        } else {
+            if (Character.isSurrogate((char) c)) {
+                // A lone surrogate is no character, write the replacement character instead
+                c = 0xFFFD;
+            }
+            mBuffer[mCount++] = (byte) (0xE0 | c >> 12);
+            mBuffer[mCount++] = (byte) (0x80 | (c >> 6 & 0x3F));
+        }
+        mBuffer[mCount++] = (byte) (0x80 | (c & 0x3F));
+        return i;
+    }
+
+    /**
+     * Writes the shortest decimal that reads back as the same double, or the fallback for NaN
+     * and infinities, which neither format can hold.
+     */
+    private void writeDouble(double value, String fallback) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeAscii(fallback);
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            writeLong((long) value);
+            writeAscii(".0");
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            mBuffer[mCount++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = mCount + digits - 1; i >= mCount; i--) {
+            mBuffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        mCount += digits;
+    }
+
+    /**
+     * Writes the time as UTC in ISO 8601 with milliseconds, as the USGS CSV feed does. Done by
+     * hand because a date formatter per row would take most of the export's time.
+     */
+    private void writeTime(long millis) {
+        long days = millis / MILLIS_PER_DAY;
+        long millisOfDay = millis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        // Civil date from days since 1970-01-01, in 400 year eras starting on 0000-03-01
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year >= 0 && year <= 9999) {
+            writePadded(year, 4);
+        } else {
+            writeLong(year);
+        }
+        writeByte('-');
+        writePadded(month, 2);
+        writeByte('-');
+        writePadded(day, 2);
+        writeByte('T');
+        writePadded(millisOfDay / 3600000, 2);
+        writeByte(':');
+        writePadded(millisOfDay / 60000 % 60, 2);
+        writeByte(':');
+        writePadded(millisOfDay / 1000 % 60, 2);
+        writeByte('.');
+        writePadded(millisOfDay % 1000, 3);
+        writeByte('Z');
+    }
+
+    private void writePadded(long value, int digits) {
+        ensureCapacity(digits);
+        for (int i = mCount + digits - 1; i >= mCount; i--) {
+            mBuffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        mCount += digits;
+    }
+
+    private void writeAscii(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            mBuffer[mCount++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    /**
+     * Grows the buffer rather than flushing it, as this runs with the store's lock held.
+     */
+    private void ensureCapacity(int bytes) {
+        if (mCount + bytes > mBuffer.length) {
+            byte[] grown = new byte[Math.max(mCount + bytes, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, grown, 0, mCount);
+            mBuffer = grown;
+        }
+    }
+
+    private void flush(WritableByteChannel out) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(mBuffer, 0, mCount);
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        mCount = 0;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns stored earthquakes into {@link EarthquakeRow}s. Meant to run on a loader thread: the
+ * date and number formats are created once and reused for every row, so an instance must not
+ * be shared between threads.
+ */
+public final class EarthquakeFormatter {
+
+    /**
+     * Number of magnitude color bands: 0 and 1 share the first band, 10 and above the last.
+     */
+    public static final int MAGNITUDE_BANDS = 10;
+
+    private static final String LOCATION_SEPARATOR = " of ";
+
+    // Date will look like Jan 21, 2016
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MMM dd, yyyy");
+    // time format will look like 11:22 PM
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("h:mm a");
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+    private final Date mDate = new Date();
+    private final String mNearThe;
+
+    /**
+     * @param nearThe the offset text shown for places without a distance, e.g. "Near the"
+     */
+    public EarthquakeFormatter(String nearThe) {
+        mNearThe = nearThe;
+    }
+
+    /**
+     * Formats every row of the store, in row order.
+     */
+    public List<EarthquakeRow> format(EarthquakeStore earthquakes) {
+        EarthquakeStore.Cursor cursor = earthquakes.newCursor();
+        synchronized (earthquakes) {
+            List<EarthquakeRow> rows = new ArrayList<>(earthquakes.size());
+            for (int i = 0; i < earthquakes.size(); i++) {
+                rows.add(format(cursor.moveTo(i)));
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Formats every feature of the response, in response order. Each feature is decoded once,
+     * for its row, and not kept.
+     *
+     * @throws IOException if a feature is not valid GeoJSON
+     */
+    public List<EarthquakeRow> format(EarthquakeResponseIndex earthquakes) throws IOException {
+        List<EarthquakeRow> rows = new ArrayList<>(earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            // Keyed like the store keys events, for diffing against rows formatted from it
+            String id = earthquake.getId() != null
+                    ? earthquake.getId() : earthquake.getEarthquakeUrl();
+            rows.add(format(id, earthquake.getLocation(),
+                    earthquakes.getTimeInMilliseconds(i), earthquakes.getMagnitude(i)));
+        }
+        return rows;
+    }
+
+    public EarthquakeRow format(EarthquakeStore.Cursor earthquake) {
+        return format(earthquake.getId(), earthquake.getLocation(),
+                earthquake.getTimeInMilliseconds(), earthquake.getMagnitude());
+    }
+
+    private EarthquakeRow format(String id, String originalLocation, long timeInMilliseconds,
+                                 double magnitude) {
+        // Split the location into the offset ("74km NW of") and the primary location
+        String locationOffset;
+        String primaryLocation;
+        int separator = originalLocation.indexOf(LOCATION_SEPARATOR);
+        if (separator >= 0) {
+            locationOffset = originalLocation.substring(0, separator + LOCATION_SEPARATOR.length());
+            primaryLocation = originalLocation.substring(separator + LOCATION_SEPARATOR.length());
+        } else {
+            locationOffset = mNearThe;
+            primaryLocation = originalLocation;
+        }
+
+        mDate.setTime(timeInMilliseconds);
+        return new EarthquakeRow(id,
+                formatMagnitude(magnitude),
+                magnitudeBand(magnitude),
+                locationOffset,
+                primaryLocation,
+                mDateFormat.format(mDate),
+                mTimeFormat.format(mDate));
+    }
+
+    public String formatMagnitude(double magnitude) {
+        return mMagnitudeFormat.format(magnitude);
+    }
+
+    /**
+     * Returns the color band of a magnitude, from 0 (below 2) to {@code MAGNITUDE_BANDS - 1}
+     * (10 and above). Takes the "floor" of the magnitude, so 1.2 and 1.9 share a band.
+     */
+    public static int magnitudeBand(double magnitude) {
+        int magnitudeFloor = (int) Math.floor(magnitude);
+        if (magnitudeFloor <= 1) {
+            return 0;
+        }
+        return Math.min(magnitudeFloor, MAGNITUDE_BANDS) - 1;
+    }
+}
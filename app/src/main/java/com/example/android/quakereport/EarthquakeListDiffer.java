@@ -0,0 +1,136 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the rows a list shows and works out how to get from them to newly submitted ones.
+ * Submitted rows are compared with the rows shown by event id on a background executor, and the
+ * changes are applied and reported on the main executor once the diff is ready. Pages appended
+ * in the meantime are kept below the submitted rows.
+ * <p>
+ * All methods must be called on the thread the main executor runs on.
+ */
+public final class EarthquakeListDiffer {
+
+    /**
+     * Told how the rows changed, on the main executor.
+     */
+    public interface Listener extends EarthquakeDiff.Callback {
+        /**
+         * The rows were replaced without a diff.
+         */
+        void onReplaced();
+    }
+
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final Listener mListener;
+    // Rows shown. Never changed in place, so a background diff can safely read it.
+    private List<EarthquakeRow> mRows = Collections.emptyList();
+    // Ids of the rows shown, so appended pages don't repeat events
+    private final HashSet<String> mIds = new HashSet<>();
+    // Incremented for every submitted list, so results of outdated diffs can be dropped
+    private int mGeneration;
+
+    public EarthquakeListDiffer(Executor backgroundExecutor, Executor mainExecutor,
+                                Listener listener) {
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mListener = listener;
+    }
+
+    /**
+     * Replaces the rows with the given ones. The difference to the rows shown is computed in
+     * the background and applied when it is ready.
+     */
+    public void submitRows(List<EarthquakeRow> rows) {
+        final List<EarthquakeRow> newRows = new ArrayList<>(rows.size());
+        final HashSet<String> newIds = new HashSet<>(rows.size() * 2);
+        for (EarthquakeRow row : rows) {
+            if (newIds.add(row.getId())) {
+                newRows.add(row);
+            }
+        }
+
+        final List<EarthquakeRow> oldRows = mRows;
+        final int generation = ++mGeneration;
+        if (oldRows.isEmpty()) {
+            // Nothing to compare with, show the rows right away
+            applyRows(newRows);
+            mListener.onReplaced();
+            return;
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final EarthquakeDiff diff = EarthquakeDiff.calculate(oldRows, newRows);
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // A newer list was submitted meanwhile
+                            return;
+                        }
+                        if (oldRows != mRows) {
+                            // Pages were appended meanwhile. Keep them below the submitted
+                            // rows and compare against what is shown now.
+                            List<EarthquakeRow> target = new ArrayList<>(newRows);
+                            for (EarthquakeRow row : mRows.subList(oldRows.size(), mRows.size())) {
+                                if (newIds.add(row.getId())) {
+                                    target.add(row);
+                                }
+                            }
+                            submitRows(target);
+                            return;
+                        }
+                        applyRows(newRows);
+                        diff.dispatchTo(mListener);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Appends the given rows, skipping events that are already shown.
+     */
+    public void addAll(List<EarthquakeRow> rows) {
+        List<EarthquakeRow> newRows = new ArrayList<>(mRows.size() + rows.size());
+        newRows.addAll(mRows);
+        int start = newRows.size();
+        for (EarthquakeRow row : rows) {
+            if (mIds.add(row.getId())) {
+                newRows.add(row);
+            }
+        }
+        mRows = newRows;
+        if (newRows.size() > start) {
+            mListener.onInserted(start, newRows.size() - start);
+        }
+    }
+
+    public void clear() {
+        mGeneration++;
+        applyRows(Collections.<EarthquakeRow>emptyList());
+        mListener.onReplaced();
+    }
+
+    /**
+     * Returns the rows currently shown. The list must not be modified.
+     */
+    public List<EarthquakeRow> getRows() {
+        return mRows;
+    }
+
+    private void applyRows(List<EarthquakeRow> rows) {
+        mRows = rows;
+        mIds.clear();
+        for (EarthquakeRow row : rows) {
+            mIds.add(row.getId());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.quakereport;
+
+/**
+ * Keeps track of the pages of the list: which USGS offset comes next, whether a page is being
+ * loaded and whether there is anything left to load.
+ * <p>
+ * USGS offsets are 1-based. The first page is the synced one; once it is shown, the pages after
+ * it are requested one at a time as the user scrolls within a prefetch distance of the end. A
+ * page that comes back short is the last one. All methods must be called on the main thread.
+ */
+public final class EarthquakePager {
+
+    private final int mPageSize;
+    private final int mPrefetchDistance;
+    // Offset of the next page to load, 0 until the first page is shown
+    private int mNextOffset;
+    private boolean mLoading;
+    private boolean mHasMorePages = true;
+
+    /**
+     * @param pageSize         number of events requested per page
+     * @param prefetchDistance rows left below the visible ones when the next page is requested
+     */
+    public EarthquakePager(int pageSize, int prefetchDistance) {
+        if (pageSize <= 0 || prefetchDistance < 0) {
+            throw new IllegalArgumentException("pageSize " + pageSize
+                    + ", prefetchDistance " + prefetchDistance);
+        }
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns the offset of the next page, 0 until the first page is shown.
+     */
+    public int getNextOffset() {
+        return mNextOffset;
+    }
+
+    public boolean isLoading() {
+        return mLoading;
+    }
+
+    public boolean hasMorePages() {
+        return mHasMorePages;
+    }
+
+    /**
+     * Forgets every page, for when the list starts over with a different query.
+     */
+    public void reset() {
+        mNextOffset = 0;
+        mLoading = false;
+        mHasMorePages = true;
+    }
+
+    /**
+     * Returns true if the user scrolled close enough to the end of the list for the next page
+     * to be requested.
+     *
+     * @param lastVisiblePosition adapter position of the last visible row
+     * @param itemCount           number of rows in the list
+     */
+    public boolean isNearEnd(int lastVisiblePosition, int itemCount) {
+        return itemCount > 0 && lastVisiblePosition >= itemCount - 1 - mPrefetchDistance;
+    }
+
+    /**
+     * Marks the next page as loading and returns its offset, or returns 0 if it should not be
+     * loaded now: one is already loading, there are no more, or the first page is not shown yet.
+     */
+    public int startNextPage() {
+        if (mLoading || !mHasMorePages || mNextOffset == 0) {
+            return 0;
+        }
+        mLoading = true;
+        return mNextOffset;
+    }
+
+    /**
+     * Called when a first page is shown.
+     *
+     * @param size       number of rows on the first page
+     * @param shownCount number of rows the list showed before
+     * @return true if the older pages shown below the first one stay, false if the list starts
+     * over from the first page
+     */
+    public boolean onFirstPageShown(int size, int shownCount) {
+        if (mNextOffset > 0 && shownCount > mPageSize) {
+            return true;
+        }
+        mNextOffset = mPageSize + 1;
+        mHasMorePages = size >= mPageSize;
+        return false;
+    }
+
+    /**
+     * Called when the first page came back empty, leaving nothing to page through.
+     */
+    public void onFirstPageEmpty() {
+        mNextOffset = 0;
+        mHasMorePages = false;
+    }
+
+    /**
+     * Called when a page finished loading.
+     *
+     * @param offset the offset the page was requested at
+     * @param size   number of rows on the page
+     * @return true if the page continues the rows shown and should be appended; pages of an
+     * earlier list, such as ones redelivered after the first page was refreshed, are not
+     */
+    public boolean onPageLoaded(int offset, int size) {
+        mLoading = false;
+        if (offset != mNextOffset) {
+            return false;
+        }
+        if (size == 0) {
+            mHasMorePages = false;
+            return false;
+        }
+        mNextOffset += size;
+        mHasMorePages = size >= mPageSize;
+        return true;
+    }
+
+    /**
+     * Called when a page load ended without a result, so the page can be requested again.
+     */
+    public void onPageAbandoned() {
+        mLoading = false;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.quakereport;
+
+/**
+ * The part of a USGS query that can be answered from local data: a magnitude, time and region
+ * filter, a sort order and a page of the result.
+ */
+public final class EarthquakeQuery {
+
+    private final double mMinMagnitude;
+    private final long mStartTime;
+    private final long mEndTime;
+    private final boolean mByMagnitude;
+    private final boolean mAscending;
+    private final int mOffset;
+    private final int mLimit;
+    // Area the epicenters must lie in, null for anywhere
+    private final Region mRegion;
+
+    /**
+     * @param minMagnitude smallest magnitude included
+     * @param startTime    earliest event time included, in milliseconds
+     * @param endTime      latest event time included, in milliseconds
+     * @param byMagnitude  true to order by magnitude, false to order by time
+     * @param ascending    true for smallest or oldest first
+     * @param offset       number of matching events to skip
+     * @param limit        largest number of events to return
+     */
+    public EarthquakeQuery(double minMagnitude, long startTime, long endTime, boolean byMagnitude,
+                           boolean ascending, int offset, int limit) {
+        this(minMagnitude, startTime, endTime, byMagnitude, ascending, offset, limit, null);
+    }
+
+    private EarthquakeQuery(double minMagnitude, long startTime, long endTime,
+                            boolean byMagnitude, boolean ascending, int offset, int limit,
+                            Region region) {
+        mMinMagnitude = minMagnitude;
+        mStartTime = startTime;
+        mEndTime = endTime;
+        mByMagnitude = byMagnitude;
+        mAscending = ascending;
+        mOffset = offset;
+        mLimit = limit;
+        mRegion = region;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    public boolean isByMagnitude() {
+        return mByMagnitude;
+    }
+
+    public boolean isAscending() {
+        return mAscending;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Returns the area the epicenters must lie in, or null if events anywhere match.
+     */
+    public Region getRegion() {
+        return mRegion;
+    }
+
+    /**
+     * Returns the same query restricted to events at or after the given time.
+     */
+    public EarthquakeQuery startingAt(long startTime) {
+        return new EarthquakeQuery(mMinMagnitude, Math.max(mStartTime, startTime), mEndTime,
+                mByMagnitude, mAscending, mOffset, mLimit, mRegion);
+    }
+
+    /**
+     * Returns the same query restricted to events in the region, or anywhere if it is null.
+     */
+    public EarthquakeQuery inRegion(Region region) {
+        return new EarthquakeQuery(mMinMagnitude, mStartTime, mEndTime, mByMagnitude, mAscending,
+                mOffset, mLimit, region);
+    }
+
+    /**
+     * A circle or a latitude and longitude box on the globe.
+     */
+    public static final class Region {
+        private final boolean mCircle;
+        private final double mLatitude;
+        private final double mLongitude;
+        private final double mRadiusKm;
+        private final double mSouth;
+        private final double mWest;
+        private final double mNorth;
+        private final double mEast;
+
+        private Region(boolean circle, double latitude, double longitude, double radiusKm,
+                       double south, double west, double north, double east) {
+            mCircle = circle;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mRadiusKm = radiusKm;
+            mSouth = south;
+            mWest = west;
+            mNorth = north;
+            mEast = east;
+        }
+
+        /**
+         * Returns the region within {@code radiusKm} kilometers of the point.
+         */
+        public static Region circle(double latitude, double longitude, double radiusKm) {
+            return new Region(true, latitude, longitude, radiusKm, 0, 0, 0, 0);
+        }
+
+        /**
+         * Returns the region inside the box. If {@code west} is greater than {@code east} the
+         * box crosses the 180th meridian.
+         */
+        public static Region box(double south, double west, double north, double east) {
+            return new Region(false, 0, 0, 0, south, west, north, east);
+        }
+
+        /**
+         * Returns the rows of the index inside the region.
+         */
+        int[] select(SpatialIndex index) {
+            return mCircle
+                    ? index.withinRadius(mLatitude, mLongitude, mRadiusKm)
+                    : index.withinBox(mSouth, mWest, mNorth, mEast);
+        }
+    }
+}
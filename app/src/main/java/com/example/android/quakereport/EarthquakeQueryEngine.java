@@ -0,0 +1,195 @@
+package com.example.android.quakereport;
+
+/**
+ * Answers {@link EarthquakeQuery}s from an {@link EarthquakeStore} without going to the network.
+ * <p>
+ * Rows are kept sorted by magnitude and by time in two index arrays, next to the sorted values
+ * themselves. A query binary searches the index for its own order to find where its filter
+ * starts, then walks it in the requested direction until the page is full. Queries with a
+ * region first look up the rows inside it in a {@link SpatialIndex}. The indexes are rebuilt
+ * only after the store has changed, the spatial one only once a region is asked for.
+ */
+public final class EarthquakeQueryEngine {
+
+    private final EarthquakeStore mStore;
+
+    // Store version the indexes were built for, -1 before the first build
+    private long mIndexedVersion = -1;
+    // Rows by ascending magnitude, and the magnitude of each entry
+    private int[] mByMagnitude;
+    private double[] mSortedMagnitudes;
+    // Rows by ascending time, and the time of each entry
+    private int[] mByTime;
+    private long[] mSortedTimes;
+    // Unsorted columns, indexed by row, for the filter that is not the sort key
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    // Epicenters of the rows, null until a query asks for a region
+    private SpatialIndex mSpatialIndex;
+
+    public EarthquakeQueryEngine(EarthquakeStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Returns the rows of the store that match the query, in the query's order. Row numbers
+     * refer to the store as it is when this returns.
+     */
+    public int[] select(EarthquakeQuery query) {
+        synchronized (mStore) {
+            updateIndexes();
+            int[] result = new int[Math.max(0, Math.min(query.getLimit(), mByTime.length))];
+            boolean[] inRegion = selectRegion(query.getRegion());
+            int count = query.isByMagnitude()
+                    ? selectByMagnitude(query, inRegion, result)
+                    : selectByTime(query, inRegion, result);
+            if (count < result.length) {
+                int[] trimmed = new int[count];
+                System.arraycopy(result, 0, trimmed, 0, count);
+                return trimmed;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Marks the rows inside the region, or returns null if there is no region to filter by.
+     */
+    private boolean[] selectRegion(EarthquakeQuery.Region region) {
+        if (region == null) {
+            return null;
+        }
+        if (mSpatialIndex == null) {
+            mSpatialIndex = SpatialIndex.build(mStore);
+        }
+        boolean[] inRegion = new boolean[mTimes.length];
+        for (int row : region.select(mSpatialIndex)) {
+            inRegion[row] = true;
+        }
+        return inRegion;
+    }
+
+    private int selectByMagnitude(EarthquakeQuery query, boolean[] inRegion, int[] result) {
+        int first = lowerBound(mSortedMagnitudes, query.getMinMagnitude());
+        int last = mByMagnitude.length - 1;
+        int skip = query.getOffset();
+        int count = 0;
+        int step = query.isAscending() ? 1 : -1;
+        for (int i = query.isAscending() ? first : last;
+             i >= first && i <= last && count < result.length; i += step) {
+            int row = mByMagnitude[i];
+            long time = mTimes[row];
+            if (time < query.getStartTime() || time > query.getEndTime()
+                    || (inRegion != null && !inRegion[row])) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            result[count++] = row;
+        }
+        return count;
+    }
+
+    private int selectByTime(EarthquakeQuery query, boolean[] inRegion, int[] result) {
+        int first = lowerBound(mSortedTimes, query.getStartTime());
+        int last = upperBound(mSortedTimes, query.getEndTime()) - 1;
+        int skip = query.getOffset();
+        int count = 0;
+        int step = query.isAscending() ? 1 : -1;
+        for (int i = query.isAscending() ? first : last;
+             i >= first && i <= last && count < result.length; i += step) {
+            int row = mByTime[i];
+            if (mMagnitudes[row] < query.getMinMagnitude()
+                    || (inRegion != null && !inRegion[row])) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            result[count++] = row;
+        }
+        return count;
+    }
+
+    private void updateIndexes() {
+        long version = mStore.getVersion();
+        if (version == mIndexedVersion) {
+            return;
+        }
+        int size = mStore.size();
+        mMagnitudes = new double[size];
+        mTimes = new long[size];
+        EarthquakeStore.Cursor cursor = mStore.newCursor();
+        for (int row = 0; row < size; row++) {
+            cursor.moveTo(row);
+            mMagnitudes[row] = cursor.getMagnitude();
+            mTimes[row] = cursor.getTimeInMilliseconds();
+        }
+        mByMagnitude = mStore.sortedRows(true, true);
+        mSortedMagnitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            mSortedMagnitudes[i] = mMagnitudes[mByMagnitude[i]];
+        }
+        mByTime = mStore.sortedRows(false, true);
+        mSortedTimes = new long[size];
+        for (int i = 0; i < size; i++) {
+            mSortedTimes[i] = mTimes[mByTime[i]];
+        }
+        mSpatialIndex = null;
+        mIndexedVersion = version;
+    }
+
+    /**
+     * Returns the first index whose value is at least {@code key}.
+     */
+    private static int lowerBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first index whose value is at least {@code key}.
+     */
+    private static int lowerBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first index whose value is greater than {@code key}.
+     */
+    private static int upperBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lazy view of a USGS GeoJSON response. Building it takes one pass that records where each
+ * feature starts, with its time and magnitude, in primitive arrays; everything else, strings
+ * included, is decoded from the raw bytes only when {@link #get} asks for that feature.
+ * <p>
+ * Sorting, filtering and paging by time or magnitude therefore never decode a feature, and a
+ * list that shows a screenful at a time decodes little more than that screenful. The bytes are
+ * usually a file mapped into memory, such as the copy in the {@link DiskResponseCache}, so they
+ * do not count against the heap either.
+ */
+public final class EarthquakeResponseIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The member names the scan looks for
+    private static final int NAME_OTHER = 0;
+    private static final int NAME_FEATURES = 1;
+    private static final int NAME_PROPERTIES = 2;
+    private static final int NAME_MAG = 3;
+    private static final int NAME_TIME = 4;
+    private static final int SCAN_CHUNK_SIZE = 64 * 1024;
+    // A feature is about a kilobyte, so decoding one rarely needs a second fill
+    private static final int FEATURE_BUFFER_SIZE = 2048;
+
+    private final ByteBuffer mBody;
+    private int mSize;
+    // Offset of each feature's opening brace in the body
+    private int[] mStarts = new int[INITIAL_CAPACITY];
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private double[] mMagnitudes = new double[INITIAL_CAPACITY];
+
+    private EarthquakeResponseIndex(ByteBuffer body) {
+        mBody = body;
+    }
+
+    /**
+     * Maps the file into memory and indexes it.
+     */
+    public static EarthquakeResponseIndex map(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        ByteBuffer body;
+        try {
+            FileChannel channel = input.getChannel();
+            body = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the file is closed
+            input.close();
+        }
+        return build(body);
+    }
+
+    /**
+     * Indexes the response in the buffer, from its position to its limit. The buffer is kept
+     * and must not change while the index is in use.
+     *
+     * @throws IOException if the response is not valid GeoJSON
+     */
+    public static EarthquakeResponseIndex build(ByteBuffer body) throws IOException {
+        EarthquakeResponseIndex index = new EarthquakeResponseIndex(body.slice());
+        index.scan();
+        return index;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getTimeInMilliseconds(int feature) {
+        checkIndex(feature);
+        return mTimes[feature];
+    }
+
+    public double getMagnitude(int feature) {
+        checkIndex(feature);
+        return mMagnitudes[feature];
+    }
+
+    /**
+     * Decodes the feature in full. Each call decodes it again, so callers that need it more
+     * than once should keep the result.
+     */
+    public Earthquake get(int feature) throws IOException {
+        checkIndex(feature);
+        ByteBuffer bytes = mBody.duplicate();
+        bytes.position(mStarts[feature]);
+        JsonByteReader reader = new JsonByteReader(new ByteBufferInputStream(bytes),
+                FEATURE_BUFFER_SIZE);
+        return EarthquakeStreamParser.readFeature(reader);
+    }
+
+    /**
+     * Returns all feature numbers sorted by magnitude or time. Ties keep response order.
+     */
+    public int[] sortedRows(boolean byMagnitude, boolean ascending) {
+        int[] rows = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            rows[i] = i;
+        }
+        mergeSort(rows, new int[mSize], 0, mSize, byMagnitude, ascending);
+        return rows;
+    }
+
+    /**
+     * Records the start, time and magnitude of every feature. Rather than tokenizing, this
+     * walks the bytes once keeping track of nesting only, and looks at no key other than
+     * "features", "properties", "mag" and "time". Strings are skipped without being decoded.
+     * The scan does not validate the JSON; {@link #get} does that for the features it decodes.
+     */
+    private void scan() throws IOException {
+        ByteBuffer body = mBody.duplicate();
+        // Bulk copies into an array are much faster than reading a mapped buffer byte by byte
+        byte[] chunk = new byte[SCAN_CHUNK_SIZE];
+        // Whether each open container is an object, by depth
+        boolean[] objects = new boolean[16];
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        int stringStart = 0;
+        boolean expectName = false;
+        int name = NAME_OTHER;
+        // Depth of the features array, 0 outside of it
+        int featuresDepth = 0;
+        boolean inProperties = false;
+        int start = 0;
+        boolean hasProperties = false;
+        long time = 0;
+        double magnitude = 0;
+
+        while (body.hasRemaining()) {
+            int base = body.position();
+            int count = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, count);
+            for (int j = 0; j < count; j++) {
+                byte b = chunk[j];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                        if (expectName) {
+                            name = nameOf(mBody, stringStart, base + j);
+                        }
+                    }
+                    continue;
+                }
+                switch (b) {
+                    case '"':
+                        inString = true;
+                        stringStart = base + j + 1;
+                        break;
+                    case '{':
+                    case '[':
+                        if (++depth == objects.length) {
+                            boolean[] grown = new boolean[depth * 2];
+                            System.arraycopy(objects, 0, grown, 0, depth);
+                            objects = grown;
+                        }
+                        objects[depth] = b == '{';
+                        expectName = b == '{';
+                        if (b == '[' && depth == 2 && name == NAME_FEATURES) {
+                            featuresDepth = depth;
+                        } else if (featuresDepth != 0 && depth == featuresDepth + 1) {
+                            start = base + j;
+                            hasProperties = false;
+                            time = 0;
+                            magnitude = 0;
+                        } else if (featuresDepth != 0 && depth == featuresDepth + 2
+                                && b == '{' && name == NAME_PROPERTIES) {
+                            inProperties = true;
+                            hasProperties = true;
+                        }
+                        break;
+                    case '}':
+                    case ']':
+                        if (featuresDepth != 0 && depth == featuresDepth + 1 && hasProperties) {
+                            // Features without properties are no events, the parser drops
+                            // them too
+                            add(start, time, magnitude);
+                        } else if (depth == featuresDepth) {
+                            featuresDepth = 0;
+                        } else if (depth == featuresDepth + 2) {
+                            inProperties = false;
+                        }
+                        if (--depth < 0) {
+                            throw new IOException("Unbalanced brackets at " + (base + j));
+                        }
+                        expectName = false;
+                        break;
+                    case ',':
+                        expectName = objects[depth];
+                        break;
+                    case ':':
+                        expectName = false;
+                        // Numbers hold no structural characters, so the loop can go on to
+                        // walk over the value after it has been read here
+                        if (inProperties && depth == featuresDepth + 2) {
+                            if (name == NAME_MAG) {
+                                magnitude = readNumber(mBody, base + j + 1, magnitude);
+                            } else if (name == NAME_TIME) {
+                                time = (long) readNumber(mBody, base + j + 1, time);
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        if (inString || depth != 0) {
+            throw new IOException("Truncated response");
+        }
+    }
+
+    private static int nameOf(ByteBuffer body, int from, int to) {
+        if (matches(body, from, to, "mag")) {
+            return NAME_MAG;
+        } else if (matches(body, from, to, "time")) {
+            return NAME_TIME;
+        } else if (matches(body, from, to, "properties")) {
+            return NAME_PROPERTIES;
+        } else if (matches(body, from, to, "features")) {
+            return NAME_FEATURES;
+        }
+        return NAME_OTHER;
+    }
+
+    private static boolean matches(ByteBuffer body, int from, int to, String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (body.get(from + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the number that follows {@code from} after optional whitespace. Times are whole
+     * milliseconds below 2^53, so a double holds them exactly.
+     *
+     * @return the number, or {@code fallback} if the value is not a number, such as a null
+     */
+    private static double readNumber(ByteBuffer body, int from, double fallback)
+            throws IOException {
+        int limit = body.limit();
+        int i = from;
+        while (i < limit && isWhitespace(body.get(i))) {
+            i++;
+        }
+        int start = i;
+        while (i < limit && isNumberByte(body.get(i))) {
+            i++;
+        }
+        if (i == start) {
+            return fallback;
+        }
+        byte[] literal = new byte[i - start];
+        for (int k = 0; k < literal.length; k++) {
+            literal[k] = body.get(start + k);
+        }
+        try {
+            return Double.parseDouble(new String(literal, "US-ASCII"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad number at " + start, e);
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private void add(int start, long time, double magnitude) {
+        if (mSize == mStarts.length) {
+            int capacity = mSize * 2;
+            int[] starts = new int[capacity];
+            long[] times = new long[capacity];
+            double[] magnitudes = new double[capacity];
+            System.arraycopy(mStarts, 0, starts, 0, mSize);
+            System.arraycopy(mTimes, 0, times, 0, mSize);
+            System.arraycopy(mMagnitudes, 0, magnitudes, 0, mSize);
+            mStarts = starts;
+            mTimes = times;
+            mMagnitudes = magnitudes;
+        }
+        mStarts[mSize] = start;
+        mTimes[mSize] = time;
+        mMagnitudes[mSize] = magnitude;
+        mSize++;
+    }
+
+    private void checkIndex(int feature) {
+        if (feature < 0 || feature >= mSize) {
+            throw new IndexOutOfBoundsException("feature " + feature + " of " + mSize);
+        }
+    }
+
+    private void mergeSort(int[] rows, int[] scratch, int from, int to, boolean byMagnitude,
+                           boolean ascending) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, scratch, from, middle, byMagnitude, ascending);
+        mergeSort(rows, scratch, middle, to, byMagnitude, ascending);
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle
+                    && compareRows(scratch[left], scratch[right], byMagnitude, ascending) <= 0)) {
+                rows[i] = scratch[left++];
+            } else {
+                rows[i] = scratch[right++];
+            }
+        }
+    }
+
+    private int compareRows(int a, int b, boolean byMagnitude, boolean ascending) {
+        int result;
+        if (byMagnitude) {
+            result = Double.compare(mMagnitudes[a], mMagnitudes[b]);
+        } else {
+            result = mTimes[a] < mTimes[b] ? -1 : (mTimes[a] == mTimes[b] ? 0 : 1);
+        }
+        return ascending ? result : -result;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.quakereport;
+
+/**
+ * Everything a list row shows for one earthquake, formatted ahead of time so that binding the
+ * row only has to copy references into views.
+ */
+public final class EarthquakeRow {
+
+    /**
+     * Shows the parts of a row, such as the list's view holder.
+     */
+    public interface Target {
+        /**
+         * @param band color band of the magnitude, see {@link EarthquakeFormatter#magnitudeBand}
+         */
+        void setMagnitude(String text, int band);
+
+        void setLocation(String offset, String primaryLocation);
+
+        void setTime(String date, String time);
+    }
+
+    private final String mId;
+    private final String mMagnitudeText;
+    private final int mMagnitudeBand;
+    private final String mLocationOffset;
+    private final String mPrimaryLocation;
+    private final String mDateText;
+    private final String mTimeText;
+
+    public EarthquakeRow(String id, String magnitudeText, int magnitudeBand, String locationOffset,
+                         String primaryLocation, String dateText, String timeText) {
+        mId = id;
+        mMagnitudeText = magnitudeText;
+        mMagnitudeBand = magnitudeBand;
+        mLocationOffset = locationOffset;
+        mPrimaryLocation = primaryLocation;
+        mDateText = dateText;
+        mTimeText = timeText;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public String getMagnitudeText() {
+        return mMagnitudeText;
+    }
+
+    /**
+     * Returns the color band of the magnitude, see {@link EarthquakeFormatter#magnitudeBand}.
+     */
+    public int getMagnitudeBand() {
+        return mMagnitudeBand;
+    }
+
+    public String getLocationOffset() {
+        return mLocationOffset;
+    }
+
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    public String getDateText() {
+        return mDateText;
+    }
+
+    public String getTimeText() {
+        return mTimeText;
+    }
+
+    /**
+     * Hands the formatted parts to the target. Allocates nothing, so it is cheap enough to run
+     * for every row bound during a fling.
+     */
+    public void bindTo(Target target) {
+        target.setMagnitude(mMagnitudeText, mMagnitudeBand);
+        target.setLocation(mLocationOffset, mPrimaryLocation);
+        target.setTime(mDateText, mTimeText);
+    }
+
+    /**
+     * Returns true if both rows would display exactly the same.
+     */
+    public boolean hasSameContents(EarthquakeRow other) {
+        return mMagnitudeBand == other.mMagnitudeBand
+                && mMagnitudeText.equals(other.mMagnitudeText)
+                && mLocationOffset.equals(other.mLocationOffset)
+                && mPrimaryLocation.equals(other.mPrimaryLocation)
+                && mDateText.equals(other.mDateText)
+                && mTimeText.equals(other.mTimeText);
+    }
+
+    public String getEarthquakeUrl() {
+        return Earthquake.eventPageUrl(mId);
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Last-known events of one query family, saved after each sync so a cold start can show them
+ * before the network answers.
+ * <p>
+ * The file holds a short header followed by the events in the {@link EarthquakeCodec} format,
+ * the same one the ingest tool writes.
+ */
+public final class EarthquakeSnapshot {
+
+    private static final int MAGIC = 0x45515331; // "EQS1"
+    private static final int VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SUFFIX = ".snapshot";
+
+    private final String mUrl;
+    private final double mMinMagnitude;
+    private final long mRequestedStart;
+    private final long mCompleteFrom;
+    private final long mLastSync;
+    private final EarthquakeStore mEarthquakes;
+
+    /**
+     * @param url            request the events were downloaded with
+     * @param minMagnitude   smallest magnitude the download asked for
+     * @param requestedStart start time the download asked for
+     * @param completeFrom   time from which every requested event is included
+     * @param lastSync       time of the last successful sync
+     * @param earthquakes    the events
+     */
+    public EarthquakeSnapshot(String url, double minMagnitude, long requestedStart,
+                              long completeFrom, long lastSync, EarthquakeStore earthquakes) {
+        mUrl = url;
+        mMinMagnitude = minMagnitude;
+        mRequestedStart = requestedStart;
+        mCompleteFrom = completeFrom;
+        mLastSync = lastSync;
+        mEarthquakes = earthquakes;
+    }
+
+    /**
+     * Returns the name of the file that holds the snapshot of a query family.
+     *
+     * @param coverageKey the family's key, see {@link QueryUrls#coverageKey}
+     */
+    public static String fileName(String coverageKey) {
+        return DiskResponseCache.keyFor(coverageKey) + SUFFIX;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public long getRequestedStart() {
+        return mRequestedStart;
+    }
+
+    public long getCompleteFrom() {
+        return mCompleteFrom;
+    }
+
+    public long getLastSync() {
+        return mLastSync;
+    }
+
+    public EarthquakeStore getEarthquakes() {
+        return mEarthquakes;
+    }
+
+    /**
+     * Writes the snapshot to the file. The old file stays intact until the new one is complete.
+     */
+    public void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 16 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mLastSync);
+            out.writeDouble(mMinMagnitude);
+            out.writeLong(mRequestedStart);
+            out.writeLong(mCompleteFrom);
+            writeString(out, mUrl);
+            EarthquakeCodec.encode(mEarthquakes, out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write}. The file is mapped into memory and decoded
+     * from the mapping, which skips copying it through a stream buffer on the way to the
+     * decoder's own.
+     *
+     * @throws IOException if the file is missing, damaged or from an unknown version
+     */
+    public static EarthquakeSnapshot read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = input.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the file is closed
+            input.close();
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            long lastSync = buffer.getLong();
+            double minMagnitude = buffer.getDouble();
+            long requestedStart = buffer.getLong();
+            long completeFrom = buffer.getLong();
+            String url = readString(buffer);
+            EarthquakeStore earthquakes =
+                    EarthquakeCodec.decode(new ByteBufferInputStream(buffer));
+            return new EarthquakeSnapshot(url, minMagnitude, requestedStart, completeFrom,
+                    lastSync, earthquakes);
+        } catch (RuntimeException e) {
+            // Truncated headers underflow the buffer
+            throw new IOException("Damaged snapshot " + file, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
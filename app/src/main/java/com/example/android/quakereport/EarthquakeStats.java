@@ -0,0 +1,183 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Running summaries of the events in an {@link EarthquakeStore}: how many fall into each
+ * magnitude color band, how many happened on each day, and the largest one of each region.
+ * <p>
+ * The summaries are updated as the store adds, replaces and removes events, so reading them
+ * costs time in proportion to the number of bands, days or regions asked for, not to the
+ * number of events.
+ */
+public final class EarthquakeStats implements EarthquakeStore.Listener {
+
+    public static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String LOCATION_SEPARATOR = " of ";
+
+    private final EarthquakeStore mStore;
+
+    // Events per color band, indexed as by EarthquakeFormatter.magnitudeBand
+    private final int[] mBandCounts = new int[EarthquakeFormatter.MAGNITUDE_BANDS];
+    // Events per UTC day, keyed by days since the epoch
+    private final HashMap<Long, int[]> mDayCounts = new HashMap<>();
+    // Events of each region, largest last
+    private final HashMap<String, TreeSet<Entry>> mRegions = new HashMap<>();
+
+    /**
+     * Starts summarizing the store, including the events it already holds.
+     */
+    public EarthquakeStats(EarthquakeStore store) {
+        mStore = store;
+        store.addListener(this);
+    }
+
+    /**
+     * Stops following the store. The summaries keep their last values.
+     */
+    public void detach() {
+        mStore.removeListener(this);
+    }
+
+    /**
+     * Returns the number of events in each magnitude color band, from band 0 (below 2) to
+     * {@code MAGNITUDE_BANDS - 1} (10 and above).
+     */
+    public int[] getBandCounts() {
+        synchronized (mStore) {
+            return mBandCounts.clone();
+        }
+    }
+
+    /**
+     * Returns the number of events on each of {@code days} UTC days, starting with the day
+     * that holds {@code startTime}.
+     */
+    public int[] getDailyCounts(long startTime, int days) {
+        long firstDay = dayOf(startTime);
+        int[] counts = new int[days];
+        synchronized (mStore) {
+            for (int i = 0; i < days; i++) {
+                int[] count = mDayCounts.get(firstDay + i);
+                counts[i] = count != null ? count[0] : 0;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the largest event of each region, by region name. Of equally large events the
+     * one with the greatest id is picked.
+     *
+     * @see #regionOf(String)
+     */
+    public Map<String, Earthquake> getLargestByRegion() {
+        TreeMap<String, Earthquake> largest = new TreeMap<>();
+        synchronized (mStore) {
+            for (Map.Entry<String, TreeSet<Entry>> region : mRegions.entrySet()) {
+                largest.put(region.getKey(), mStore.get(region.getValue().last().mId));
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Returns the region part of a USGS place: the text after its last comma, such as "Alaska"
+     * for "10km NW of Anchorage, Alaska". Without a comma it is the text after "of", and
+     * places such as "South Sandwich Islands region" are regions themselves.
+     */
+    public static String regionOf(String place) {
+        if (place == null) {
+            return "";
+        }
+        int comma = place.lastIndexOf(',');
+        if (comma >= 0) {
+            return place.substring(comma + 1).trim();
+        }
+        int separator = place.indexOf(LOCATION_SEPARATOR);
+        if (separator >= 0) {
+            return place.substring(separator + LOCATION_SEPARATOR.length()).trim();
+        }
+        return place.trim();
+    }
+
+    /**
+     * Returns the UTC day of a time, in days since the epoch.
+     */
+    public static long dayOf(long timeInMilliseconds) {
+        long day = timeInMilliseconds / DAY_MILLIS;
+        // Division rounds toward zero, days before the epoch have to be rounded down
+        return timeInMilliseconds % DAY_MILLIS < 0 ? day - 1 : day;
+    }
+
+    @Override
+    public void onAdded(String id, double magnitude, String place, long time) {
+        mBandCounts[EarthquakeFormatter.magnitudeBand(magnitude)]++;
+
+        Long day = dayOf(time);
+        int[] count = mDayCounts.get(day);
+        if (count == null) {
+            count = new int[1];
+            mDayCounts.put(day, count);
+        }
+        count[0]++;
+
+        String region = regionOf(place);
+        TreeSet<Entry> events = mRegions.get(region);
+        if (events == null) {
+            events = new TreeSet<>();
+            mRegions.put(region, events);
+        }
+        events.add(new Entry(magnitude, id));
+    }
+
+    @Override
+    public void onRemoved(String id, double magnitude, String place, long time) {
+        mBandCounts[EarthquakeFormatter.magnitudeBand(magnitude)]--;
+
+        Long day = dayOf(time);
+        int[] count = mDayCounts.get(day);
+        if (--count[0] == 0) {
+            mDayCounts.remove(day);
+        }
+
+        String region = regionOf(place);
+        TreeSet<Entry> events = mRegions.get(region);
+        events.remove(new Entry(magnitude, id));
+        if (events.isEmpty()) {
+            mRegions.remove(region);
+        }
+    }
+
+    @Override
+    public void onCleared() {
+        for (int band = 0; band < mBandCounts.length; band++) {
+            mBandCounts[band] = 0;
+        }
+        mDayCounts.clear();
+        mRegions.clear();
+    }
+
+    /**
+     * One event of a region, ordered by magnitude and then id.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final double mMagnitude;
+        final String mId;
+
+        Entry(double magnitude, String id) {
+            mMagnitude = magnitude;
+            mId = id;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Double.compare(mMagnitude, other.mMagnitude);
+            return result != 0 ? result : mId.compareTo(other.mId);
+        }
+    }
+}
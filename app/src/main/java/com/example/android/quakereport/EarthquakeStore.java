@@ -0,0 +1,592 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Local set of earthquakes keyed by USGS event id. Tracks the most recent
+ * {@link Earthquake#getUpdatedInMilliseconds() update time} it has seen so that later requests
+ * only have to ask for events changed after it.
+ * <p>
+ * Events are stored column by column in primitive arrays rather than as {@link Earthquake}
+ * objects. Place names are dictionary coded, since many events share the same place, and the
+ * event page URL is not stored at all because it can be derived from the id. Use a
+ * {@link Cursor} to read rows without allocating.
+ * <p>
+ * {@link Listener}s hear about every event added, replaced or removed, so summaries of the
+ * stored events can be kept up to date without rescanning them.
+ */
+public final class EarthquakeStore {
+
+    /**
+     * Told about each change while the store's lock is held. A replaced event is reported as
+     * removed in its old version and added in its new one.
+     */
+    public interface Listener {
+        void onAdded(String id, double magnitude, String place, long time);
+
+        void onRemoved(String id, double magnitude, String place, long time);
+
+        /**
+         * All events were removed at once.
+         */
+        void onCleared();
+    }
+
+    private static final int INITIAL_CAPACITY = 32;
+    // Unused place names kept before the dictionary is compacted
+    private static final int MIN_DEAD_PLACES = 64;
+
+    private int mSize;
+    private String[] mIds = new String[INITIAL_CAPACITY];
+    private double[] mMagnitudes = new double[INITIAL_CAPACITY];
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private long[] mUpdated = new long[INITIAL_CAPACITY];
+    private int[] mPlaceCodes = new int[INITIAL_CAPACITY];
+    private double[] mLatitudes = new double[INITIAL_CAPACITY];
+    private double[] mLongitudes = new double[INITIAL_CAPACITY];
+    private double[] mDepths = new double[INITIAL_CAPACITY];
+
+    // Dictionary of distinct place names, indexed by the codes in mPlaceCodes
+    private final ArrayList<String> mPlaces = new ArrayList<>();
+    private final HashMap<String, Integer> mPlaceCodeByName = new HashMap<>();
+    // Number of rows using each place code, and how many codes no row uses anymore
+    private int[] mPlaceRefs = new int[INITIAL_CAPACITY];
+    private int mDeadPlaces;
+
+    // Open addressing table of row + 1 for each id, 0 marks a free slot
+    private int[] mIdTable = new int[INITIAL_CAPACITY * 2];
+
+    private long mHighWaterMark;
+    // Incremented on every change, so derived indexes know when to rebuild
+    private long mVersion;
+
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+
+    /**
+     * Inserts the earthquake or replaces the stored version of it. Deleted events are removed.
+     * Versions older than the stored one are ignored.
+     *
+     * @return true if the store changed
+     */
+    public synchronized boolean upsert(Earthquake earthquake) {
+        String id = earthquake.getId() != null ? earthquake.getId() : earthquake.getEarthquakeUrl();
+        if (earthquake.isDeleted()) {
+            raiseHighWaterMark(earthquake.getUpdatedInMilliseconds());
+            return remove(id);
+        }
+        return upsert(id, earthquake.getMagnitude(), earthquake.getLocation(),
+                earthquake.getTimeInMilliseconds(), earthquake.getUpdatedInMilliseconds(),
+                earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getDepth());
+    }
+
+    /**
+     * Inserts or replaces an event from its individual fields.
+     *
+     * @return true if the store changed
+     */
+    public synchronized boolean upsert(String id, double magnitude, String place, long time,
+                                       long updated, double latitude, double longitude,
+                                       double depth) {
+        raiseHighWaterMark(updated);
+        int row = indexOf(id);
+        if (row < 0) {
+            row = mSize;
+            ensureCapacity(mSize + 1);
+            mSize++;
+            mIds[row] = id;
+            insertId(id, row);
+        } else if (mUpdated[row] >= updated) {
+            return false;
+        } else {
+            notifyRemoved(row);
+            releasePlace(mPlaceCodes[row]);
+        }
+        mMagnitudes[row] = magnitude;
+        mTimes[row] = time;
+        mUpdated[row] = updated;
+        mPlaceCodes[row] = placeCode(place);
+        compactPlaces();
+        mLatitudes[row] = latitude;
+        mLongitudes[row] = longitude;
+        mDepths[row] = depth;
+        mVersion++;
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onAdded(id, magnitude, mPlaces.get(mPlaceCodes[row]), time);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the event with the given id. The last row takes its place, so row order is not
+     * kept across removals.
+     */
+    public synchronized boolean remove(String id) {
+        int row = indexOf(id);
+        if (row < 0) {
+            return false;
+        }
+        notifyRemoved(row);
+        releasePlace(mPlaceCodes[row]);
+        int last = mSize - 1;
+        deleteId(id);
+        if (row != last) {
+            // Point the last row's table entry at the row it is moving into
+            mIdTable[slotOf(mIds[last])] = row + 1;
+            mIds[row] = mIds[last];
+            mMagnitudes[row] = mMagnitudes[last];
+            mTimes[row] = mTimes[last];
+            mUpdated[row] = mUpdated[last];
+            mPlaceCodes[row] = mPlaceCodes[last];
+            mLatitudes[row] = mLatitudes[last];
+            mLongitudes[row] = mLongitudes[last];
+            mDepths[row] = mDepths[last];
+        }
+        mIds[last] = null;
+        mSize = last;
+        mVersion++;
+        compactPlaces();
+        // Give memory back once the store has shrunk to a quarter of its capacity
+        if (mSize < mIds.length / 4 && mIds.length > INITIAL_CAPACITY) {
+            resize(Math.max(INITIAL_CAPACITY, mIds.length / 2));
+        }
+        return true;
+    }
+
+    /**
+     * Returns the stored event as an {@link Earthquake}, or null if there is none.
+     */
+    public synchronized Earthquake get(String id) {
+        int row = indexOf(id);
+        return row < 0 ? null : toEarthquake(row);
+    }
+
+    /**
+     * Returns the row of the event with the given id, or -1.
+     */
+    public synchronized int indexOf(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int mask = mIdTable.length - 1;
+        for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            int entry = mIdTable[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (id.equals(mIds[entry - 1])) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the latest update time of any event merged so far, or 0 if the store is empty.
+     */
+    public synchronized long getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * Returns a number that changes whenever an event is added, replaced or removed.
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Returns the stored events as {@link Earthquake} objects in row order.
+     */
+    public synchronized List<Earthquake> toList() {
+        List<Earthquake> earthquakes = new ArrayList<>(mSize);
+        for (int row = 0; row < mSize; row++) {
+            earthquakes.add(toEarthquake(row));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Appends the events of another store that are not in this one yet, keeping their order.
+     */
+    public void addAll(EarthquakeStore other) {
+        // Copy the other store's rows before locking this one, so two stores merged into each
+        // other at the same time cannot deadlock
+        int size;
+        String[] ids;
+        double[] magnitudes;
+        String[] places;
+        long[] times;
+        long[] updated;
+        double[] latitudes;
+        double[] longitudes;
+        double[] depths;
+        synchronized (other) {
+            size = other.mSize;
+            ids = Arrays.copyOf(other.mIds, size);
+            magnitudes = Arrays.copyOf(other.mMagnitudes, size);
+            places = new String[size];
+            for (int row = 0; row < size; row++) {
+                places[row] = other.mPlaces.get(other.mPlaceCodes[row]);
+            }
+            times = Arrays.copyOf(other.mTimes, size);
+            updated = Arrays.copyOf(other.mUpdated, size);
+            latitudes = Arrays.copyOf(other.mLatitudes, size);
+            longitudes = Arrays.copyOf(other.mLongitudes, size);
+            depths = Arrays.copyOf(other.mDepths, size);
+        }
+        synchronized (this) {
+            ensureCapacity(mSize + size);
+            for (int row = 0; row < size; row++) {
+                upsert(ids[row], magnitudes[row], places[row], times[row], updated[row],
+                        latitudes[row], longitudes[row], depths[row]);
+            }
+        }
+    }
+
+    /**
+     * Returns a new store holding every row, in row order.
+     */
+    public synchronized EarthquakeStore copy() {
+        int[] rows = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            rows[i] = i;
+        }
+        return copyOf(rows, mSize);
+    }
+
+    /**
+     * Returns a new store holding the first {@code count} rows of {@code rows}, in that order.
+     */
+    public synchronized EarthquakeStore copyOf(int[] rows, int count) {
+        EarthquakeStore copy = new EarthquakeStore();
+        copy.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            copy.upsert(mIds[row], mMagnitudes[row], mPlaces.get(mPlaceCodes[row]), mTimes[row],
+                    mUpdated[row], mLatitudes[row], mLongitudes[row], mDepths[row]);
+        }
+        copy.mHighWaterMark = mHighWaterMark;
+        return copy;
+    }
+
+    /**
+     * Returns all row numbers sorted by magnitude or time. Ties keep row order.
+     */
+    public synchronized int[] sortedRows(boolean byMagnitude, boolean ascending) {
+        int[] rows = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            rows[i] = i;
+        }
+        mergeSort(rows, new int[mSize], 0, mSize, byMagnitude, ascending);
+        return rows;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(mIds, 0, mSize, null);
+        mSize = 0;
+        resize(INITIAL_CAPACITY);
+        Arrays.fill(mIdTable, 0);
+        mPlaces.clear();
+        mPlaceCodeByName.clear();
+        mPlaceRefs = new int[INITIAL_CAPACITY];
+        mDeadPlaces = 0;
+        mHighWaterMark = 0;
+        mVersion++;
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onCleared();
+        }
+    }
+
+    /**
+     * Registers a listener and tells it about every event already stored, as if each had just
+     * been added.
+     */
+    public synchronized void addListener(Listener listener) {
+        mListeners.add(listener);
+        for (int row = 0; row < mSize; row++) {
+            listener.onAdded(mIds[row], mMagnitudes[row], mPlaces.get(mPlaceCodes[row]),
+                    mTimes[row]);
+        }
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns a cursor over this store's rows.
+     */
+    public Cursor newCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Flyweight view of one row. Moving the cursor and reading from it allocates nothing.
+     * A cursor must not be used while another thread changes the store.
+     */
+    public final class Cursor {
+        private int mRow;
+
+        Cursor() {
+        }
+
+        public Cursor moveTo(int row) {
+            if (row < 0 || row >= mSize) {
+                throw new IndexOutOfBoundsException("row " + row + " of " + mSize);
+            }
+            mRow = row;
+            return this;
+        }
+
+        public int getPosition() {
+            return mRow;
+        }
+
+        public String getId() {
+            return mIds[mRow];
+        }
+
+        public double getMagnitude() {
+            return mMagnitudes[mRow];
+        }
+
+        public String getLocation() {
+            return mPlaces.get(mPlaceCodes[mRow]);
+        }
+
+        /**
+         * Returns the dictionary code of the place, equal for events with the same place.
+         */
+        public int getLocationCode() {
+            return mPlaceCodes[mRow];
+        }
+
+        public long getTimeInMilliseconds() {
+            return mTimes[mRow];
+        }
+
+        public long getUpdatedInMilliseconds() {
+            return mUpdated[mRow];
+        }
+
+        public double getLatitude() {
+            return mLatitudes[mRow];
+        }
+
+        public double getLongitude() {
+            return mLongitudes[mRow];
+        }
+
+        public double getDepth() {
+            return mDepths[mRow];
+        }
+
+        /**
+         * Builds the USGS event page URL. Allocates, so call it on demand only.
+         */
+        public String getEarthquakeUrl() {
+            return Earthquake.eventPageUrl(mIds[mRow]);
+        }
+    }
+
+    private Earthquake toEarthquake(int row) {
+        return new Earthquake(mIds[row], mMagnitudes[row], mPlaces.get(mPlaceCodes[row]),
+                mTimes[row], mUpdated[row], null, mLatitudes[row], mLongitudes[row], mDepths[row],
+                false);
+    }
+
+    private void notifyRemoved(int row) {
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onRemoved(mIds[row], mMagnitudes[row],
+                    mPlaces.get(mPlaceCodes[row]), mTimes[row]);
+        }
+    }
+
+    private void raiseHighWaterMark(long updated) {
+        if (updated > mHighWaterMark) {
+            mHighWaterMark = updated;
+        }
+    }
+
+    private int placeCode(String place) {
+        if (place == null) {
+            place = "";
+        }
+        Integer code = mPlaceCodeByName.get(place);
+        if (code == null) {
+            code = mPlaces.size();
+            mPlaces.add(place);
+            mPlaceCodeByName.put(place, code);
+            if (code == mPlaceRefs.length) {
+                mPlaceRefs = Arrays.copyOf(mPlaceRefs, code * 2);
+            }
+        } else if (mPlaceRefs[code] == 0) {
+            mDeadPlaces--;
+        }
+        mPlaceRefs[code]++;
+        return code;
+    }
+
+    private void releasePlace(int code) {
+        if (--mPlaceRefs[code] == 0) {
+            mDeadPlaces++;
+        }
+    }
+
+    /**
+     * Drops the place names no row uses anymore once they make up most of the dictionary,
+     * renumbering the codes of the rest.
+     */
+    private void compactPlaces() {
+        if (mDeadPlaces < MIN_DEAD_PLACES || mDeadPlaces * 2 < mPlaces.size()) {
+            return;
+        }
+        int[] newCodes = new int[mPlaces.size()];
+        int live = 0;
+        for (int code = 0; code < mPlaces.size(); code++) {
+            String place = mPlaces.get(code);
+            if (mPlaceRefs[code] == 0) {
+                mPlaceCodeByName.remove(place);
+                continue;
+            }
+            newCodes[code] = live;
+            mPlaces.set(live, place);
+            mPlaceRefs[live] = mPlaceRefs[code];
+            mPlaceCodeByName.put(place, live);
+            live++;
+        }
+        mPlaces.subList(live, mPlaces.size()).clear();
+        mPlaces.trimToSize();
+        mPlaceRefs = Arrays.copyOf(mPlaceRefs, Math.max(INITIAL_CAPACITY, live * 2));
+        mDeadPlaces = 0;
+        for (int row = 0; row < mSize; row++) {
+            mPlaceCodes[row] = newCodes[mPlaceCodes[row]];
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        resize(Math.max(capacity, mIds.length * 2));
+    }
+
+    /**
+     * Moves the columns into arrays of the given capacity, which must hold every row.
+     */
+    private void resize(int newCapacity) {
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mUpdated = Arrays.copyOf(mUpdated, newCapacity);
+        mPlaceCodes = Arrays.copyOf(mPlaceCodes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        if (newCapacity * 2 < mIdTable.length) {
+            rebuildIdTable(newCapacity * 2);
+        }
+    }
+
+    private void insertId(String id, int row) {
+        // Keep the table at most half full so probe sequences stay short
+        if (mSize * 2 > mIdTable.length) {
+            rebuildIdTable(mIdTable.length * 2);
+            return;
+        }
+        int mask = mIdTable.length - 1;
+        int slot = hash(id) & mask;
+        while (mIdTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mIdTable[slot] = row + 1;
+    }
+
+    private int slotOf(String id) {
+        int mask = mIdTable.length - 1;
+        int slot = hash(id) & mask;
+        while (!id.equals(mIds[mIdTable[slot] - 1])) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the id from the table, shifting later entries of its probe sequence back so
+     * lookups never stop at the hole.
+     */
+    private void deleteId(String id) {
+        int mask = mIdTable.length - 1;
+        int hole = slotOf(id);
+        mIdTable[hole] = 0;
+        for (int slot = (hole + 1) & mask; mIdTable[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hash(mIds[mIdTable[slot] - 1]) & mask;
+            boolean reachable = hole <= slot
+                    ? hole < home && home <= slot
+                    : hole < home || home <= slot;
+            if (!reachable) {
+                mIdTable[hole] = mIdTable[slot];
+                mIdTable[slot] = 0;
+                hole = slot;
+            }
+        }
+    }
+
+    private void rebuildIdTable(int length) {
+        mIdTable = new int[length];
+        int mask = length - 1;
+        for (int row = 0; row < mSize; row++) {
+            int slot = hash(mIds[row]) & mask;
+            while (mIdTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mIdTable[slot] = row + 1;
+        }
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private void mergeSort(int[] rows, int[] scratch, int from, int to, boolean byMagnitude,
+                           boolean ascending) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, scratch, from, middle, byMagnitude, ascending);
+        mergeSort(rows, scratch, middle, to, byMagnitude, ascending);
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle
+                    && compareRows(scratch[left], scratch[right], byMagnitude, ascending) <= 0)) {
+                rows[i] = scratch[left++];
+            } else {
+                rows[i] = scratch[right++];
+            }
+        }
+    }
+
+    private int compareRows(int a, int b, boolean byMagnitude, boolean ascending) {
+        int result;
+        if (byMagnitude) {
+            result = Double.compare(mMagnitudes[a], mMagnitudes[b]);
+        } else {
+            result = mTimes[a] < mTimes[b] ? -1 : (mTimes[a] == mTimes[b] ? 0 : 1);
+        }
+        return ascending ? result : -result;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for the USGS GeoJSON feed. Features are read one at a time straight from the
+ * {@link InputStream} and handed to a {@link Callback}, so memory use depends on the size of a
+ * single feature rather than on the size of the whole response.
+ */
+public final class EarthquakeStreamParser {
+
+    /**
+     * Receives each {@link Earthquake} as soon as its feature has been parsed.
+     */
+    public interface Callback {
+        void onEarthquake(Earthquake earthquake);
+    }
+
+    // Read buffer of each thread, reused by every response it parses
+    private static final ThreadLocal<byte[]> READ_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
+    private EarthquakeStreamParser() {
+    }
+
+    /**
+     * Parse the GeoJSON read from the given stream and pass every earthquake to the callback.
+     * The stream is not closed.
+     *
+     * @return the number of earthquakes parsed
+     */
+    public static int parse(InputStream in, Callback callback) throws IOException {
+        return parse(in, callback, null);
+    }
+
+    /**
+     * Like {@link #parse(InputStream, Callback)}, but stops between two features once the
+     * token is cancelled.
+     *
+     * @throws java.io.InterruptedIOException if the token was cancelled
+     */
+    public static int parse(InputStream in, Callback callback, CancellationToken cancellation)
+            throws IOException {
+        JsonByteReader reader = new JsonByteReader(in, READ_BUFFER.get());
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("features".equals(reader.nextName())) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (cancellation != null) {
+                        cancellation.throwIfCancelled();
+                    }
+                    Earthquake earthquake = readFeature(reader);
+                    if (earthquake != null) {
+                        callback.onEarthquake(earthquake);
+                        count++;
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    /**
+     * Parse the GeoJSON read from the given stream into a list of earthquakes.
+     */
+    public static List<Earthquake> parse(InputStream in) throws IOException {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        parse(in, new Callback() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+        return earthquakes;
+    }
+
+    /**
+     * Reads one feature, starting at its opening brace.
+     *
+     * @return the earthquake, or null if the feature has no properties
+     */
+    static Earthquake readFeature(JsonByteReader reader) throws IOException {
+        String id = null;
+        boolean hasProperties = false;
+        double magnitude = 0;
+        String location = "";
+        long time = 0;
+        long updated = 0;
+        String url = null;
+        double latitude = 0;
+        double longitude = 0;
+        double depth = 0;
+        boolean deleted = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String featureName = reader.nextName();
+            if ("id".equals(featureName) && reader.peek() == JsonByteReader.STRING) {
+                id = reader.nextString();
+            } else if ("properties".equals(featureName)
+                    && reader.peek() == JsonByteReader.BEGIN_OBJECT) {
+                hasProperties = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonByteReader.NULL) {
+                        // USGS leaves some fields null for events that have not been reviewed yet
+                        reader.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "mag":
+                            magnitude = reader.nextDouble();
+                            break;
+                        case "place":
+                            location = reader.nextString();
+                            break;
+                        case "time":
+                            time = reader.nextLong();
+                            break;
+                        case "updated":
+                            updated = reader.nextLong();
+                            break;
+                        case "url":
+                            url = reader.nextString();
+                            break;
+                        case "status":
+                            deleted = "deleted".equals(reader.nextString());
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
+            } else if ("geometry".equals(featureName)
+                    && reader.peek() == JsonByteReader.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("coordinates".equals(reader.nextName())
+                            && reader.peek() == JsonByteReader.BEGIN_ARRAY) {
+                        // GeoJSON points are [longitude, latitude, depth]
+                        reader.beginArray();
+                        for (int i = 0; reader.hasNext(); i++) {
+                            if (reader.peek() != JsonByteReader.NUMBER) {
+                                reader.skipValue();
+                            } else if (i == 0) {
+                                longitude = reader.nextDouble();
+                            } else if (i == 1) {
+                                latitude = reader.nextDouble();
+                            } else if (i == 2) {
+                                depth = reader.nextDouble();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasProperties) {
+            return null;
+        }
+        return new Earthquake(id, magnitude, location, time, updated, url, latitude, longitude,
+                depth, deleted);
+    }
+}
@@ -0,0 +1,759 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Keeps local copies of USGS data in step with the server and answers queries from them.
+ * <p>
+ * Queries that differ only in magnitude, time range, region, order or page share one local
+ * {@link EarthquakeStore}, filled by a single download of recent events that covers all of
+ * them. Changing one of those settings is then answered from memory by an
+ * {@link EarthquakeQueryEngine}; the network is only used when a query reaches past what was
+ * downloaded. After the first download only events updated since the store's high-water mark
+ * are requested and merged in by event id.
+ * <p>
+ * With a snapshot directory set, each family is saved after it syncs and loaded again in a new
+ * process, so a cold start can answer from the last-known data while it revalidates.
+ * <p>
+ * The family's lock is not held while downloading. Syncs running at the same time plan the same
+ * request and share it through {@link QueryUtils#fetchEarthquakes}, and each can give up on it
+ * without holding up the others.
+ * <p>
+ * A delta that comes back with as many events as USGS returns at most was cut off, for example
+ * after a long time offline. It is then downloaded again by a {@link SplitRangeFetcher} in
+ * time windows small enough to come back whole.
+ */
+public final class EarthquakeSync {
+
+    private static final String LOG_TAG = EarthquakeSync.class.getSimpleName();
+
+    // Largest page USGS returns for a single query
+    private static final int MAX_DELTA_LIMIT = 20000;
+    // Most recent events downloaded to cover a family of queries
+    private static final int COVERAGE_LIMIT = 2000;
+    // USGS searches the last 30 days when a query has no starttime
+    private static final long DEFAULT_WINDOW_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    // Queries within this long of the last sync are answered without asking USGS for changes
+    private static final long MIN_SYNC_INTERVAL_MILLIS = 60 * 1000;
+    // Windows of a cut-off delta downloaded at the same time, all from the same host
+    private static final int SPLIT_CONCURRENCY = 4;
+    private static final String[] TIME_FORMATS = {
+            "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"
+    };
+
+    private static final EarthquakeSync sInstance = new EarthquakeSync();
+
+    private final Map<String, Coverage> mCoverages = new HashMap<>();
+    // Downloads deltas too large for a single request
+    private final SplitRangeFetcher mSplitFetcher;
+    // Where each coverage is saved after a sync, null to keep the data in memory only
+    private volatile File mSnapshotDirectory;
+
+    EarthquakeSync() {
+        this(new SplitRangeFetcher(SPLIT_CONCURRENCY, SPLIT_CONCURRENCY, MAX_DELTA_LIMIT));
+    }
+
+    EarthquakeSync(SplitRangeFetcher splitFetcher) {
+        mSplitFetcher = splitFetcher;
+    }
+
+    public static EarthquakeSync getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Saves the data of every query family to the directory after each sync, and loads it from
+     * there the first time the family is used in this process.
+     */
+    public void setSnapshotDirectory(File directory) {
+        directory.mkdirs();
+        mSnapshotDirectory = directory;
+    }
+
+    /**
+     * Brings the local data for the query up to date and returns its events, ordered and
+     * limited the way the query asks for. If USGS cannot be reached, the events stored for the
+     * query are returned instead, marked as {@link Answer#isStale stale}.
+     */
+    public Answer sync(String queryUrl) {
+        try {
+            return sync(queryUrl, null);
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+            return new Answer(new EarthquakeStore(), true);
+        }
+    }
+
+    /**
+     * Like {@link #sync(String)}, but stops waiting for the network once the token is cancelled.
+     *
+     * @param cancellation may be null
+     * @throws InterruptedIOException if the token was cancelled
+     */
+    public Answer sync(String queryUrl, CancellationToken cancellation)
+            throws InterruptedIOException {
+        long now = System.currentTimeMillis();
+        EarthquakeQuery query = parseQuery(queryUrl, now);
+        String key = QueryUrls.coverageKey(queryUrl);
+        Coverage coverage = getCoverage(key);
+        Update update = null;
+        boolean stale = false;
+        synchronized (coverage) {
+            restoreSnapshot(key, coverage);
+            if (!coverage.covers(query) || now - coverage.lastSync >= MIN_SYNC_INTERVAL_MILLIS) {
+                update = plan(coverage, queryUrl, query, now);
+            }
+        }
+        if (update != null) {
+            List<Earthquake> earthquakes = fetch(update, cancellation);
+            stale = earthquakes == null;
+            synchronized (coverage) {
+                if (earthquakes != null && apply(coverage, query, update, earthquakes)) {
+                    scheduleSnapshot(key, coverage);
+                }
+            }
+        }
+        synchronized (coverage) {
+            // After a failed download the coverage may still leave out what the query asks for
+            EarthquakeStore result = coverage.covers(query) ? coverage.answer(query) : null;
+            if (result != null) {
+                return new Answer(result, stale);
+            }
+        }
+
+        // Not enough is stored to answer this order, ask USGS for the page itself
+        List<Earthquake> earthquakes = fetch(queryUrl, cancellation);
+        if (earthquakes == null) {
+            // Show whatever is stored rather than nothing, but say it may be incomplete
+            synchronized (coverage) {
+                synchronized (coverage.store) {
+                    int[] rows = coverage.engine.select(query);
+                    return new Answer(coverage.store.copyOf(rows, rows.length), true);
+                }
+            }
+        }
+        EarthquakeStore page = new EarthquakeStore();
+        for (Earthquake earthquake : earthquakes) {
+            page.upsert(earthquake);
+        }
+        return new Answer(page, false);
+    }
+
+    /**
+     * Asks USGS for changes to the query's data right away, however recently it was synced.
+     *
+     * @return true if any event was added, changed or removed
+     * @throws IOException if the data could not be downloaded
+     */
+    public boolean refresh(String queryUrl) throws IOException {
+        return refresh(queryUrl, null);
+    }
+
+    /**
+     * Like {@link #refresh(String)}, but gives up once the token is cancelled.
+     *
+     * @param cancellation may be null
+     * @throws InterruptedIOException if the token was cancelled
+     */
+    public boolean refresh(String queryUrl, CancellationToken cancellation) throws IOException {
+        long now = System.currentTimeMillis();
+        EarthquakeQuery query = parseQuery(queryUrl, now);
+        String key = QueryUrls.coverageKey(queryUrl);
+        Coverage coverage = getCoverage(key);
+        Update update;
+        long version;
+        synchronized (coverage) {
+            restoreSnapshot(key, coverage);
+            version = coverage.store.getVersion();
+            update = plan(coverage, queryUrl, query, now);
+        }
+        List<Earthquake> earthquakes = fetchUpdate(update, cancellation);
+        boolean changed;
+        synchronized (coverage) {
+            apply(coverage, query, update, earthquakes);
+            changed = coverage.store.getVersion() != version;
+        }
+        saveSnapshot(key, coverage);
+        return changed;
+    }
+
+    /**
+     * Answers the query from the data already stored, without using the network.
+     *
+     * @return the events, or null if the stored data cannot answer the query
+     */
+    public EarthquakeStore query(String queryUrl) {
+        String key = QueryUrls.coverageKey(queryUrl);
+        Coverage coverage = getCoverage(key);
+        EarthquakeQuery query = parseQuery(queryUrl, System.currentTimeMillis());
+        synchronized (coverage) {
+            restoreSnapshot(key, coverage);
+            return coverage.covers(query) ? coverage.answer(query) : null;
+        }
+    }
+
+    /**
+     * Writes every event stored for the query's family that passes its magnitude filter, in
+     * its order and however old, without using the network.
+     *
+     * @return the number of events written
+     * @see EarthquakeExporter#export
+     */
+    public int export(String queryUrl, EarthquakeExporter exporter, WritableByteChannel out,
+                      CancellationToken cancellation) throws IOException {
+        String key = QueryUrls.coverageKey(queryUrl);
+        Coverage coverage = getCoverage(key);
+        EarthquakeQuery query = parseQuery(queryUrl, System.currentTimeMillis());
+        synchronized (coverage) {
+            restoreSnapshot(key, coverage);
+        }
+        EarthquakeQuery everything = new EarthquakeQuery(query.getMinMagnitude(), Long.MIN_VALUE,
+                Long.MAX_VALUE, query.isByMagnitude(), query.isAscending(), 0, Integer.MAX_VALUE)
+                .inRegion(query.getRegion());
+        // The coverage's lock is not held, so syncs go on while the file is written
+        return exporter.export(coverage.store, coverage.engine, everything, out, cancellation);
+    }
+
+    /**
+     * Returns running summaries of the events stored for the query's family. Later syncs keep
+     * them up to date. They cover everything downloaded for the family, not only the events
+     * the query itself selects.
+     */
+    public EarthquakeStats getStats(String queryUrl) {
+        String key = QueryUrls.coverageKey(queryUrl);
+        Coverage coverage = getCoverage(key);
+        synchronized (coverage) {
+            restoreSnapshot(key, coverage);
+            if (coverage.stats == null) {
+                coverage.stats = new EarthquakeStats(coverage.store);
+            }
+            return coverage.stats;
+        }
+    }
+
+    /**
+     * Returns the place search index of the events stored for the query's family, kept up to
+     * date by every later sync.
+     */
+    public PlaceSearchIndex getPlaceIndex(String queryUrl) {
+        String key = QueryUrls.coverageKey(queryUrl);
+        Coverage coverage = getCoverage(key);
+        synchronized (coverage) {
+            restoreSnapshot(key, coverage);
+            if (coverage.places == null) {
+                coverage.places = new PlaceSearchIndex(coverage.store);
+            }
+            return coverage.places;
+        }
+    }
+
+    /**
+     * Builds the request for everything the query matches that changed after the given time,
+     * including events USGS has deleted since.
+     */
+    static String deltaUrl(String queryUrl, long updatedAfter) {
+        String url = QueryUrls.setParameter(queryUrl, "updatedafter",
+                QueryUtils.formatQueryTime(updatedAfter));
+        url = QueryUrls.setParameter(url, "includedeleted", "true");
+        // The original limit applies to the merged result, not to the changes
+        return QueryUrls.setParameter(url, "limit", String.valueOf(MAX_DELTA_LIMIT));
+    }
+
+    /**
+     * Reads the locally answerable part of a USGS query URL.
+     */
+    static EarthquakeQuery parseQuery(String queryUrl, long now) {
+        String minMagnitude = QueryUrls.getParameter(queryUrl, "minmag");
+        if (minMagnitude == null) {
+            minMagnitude = QueryUrls.getParameter(queryUrl, "minmagnitude");
+        }
+        String orderBy = QueryUrls.getParameter(queryUrl, "orderby");
+        // USGS offsets count from 1
+        int offset = parseInt(QueryUrls.getParameter(queryUrl, "offset"), 1) - 1;
+        return new EarthquakeQuery(
+                parseDouble(minMagnitude, Double.NEGATIVE_INFINITY),
+                parseTime(QueryUrls.getParameter(queryUrl, "starttime"),
+                        now - DEFAULT_WINDOW_MILLIS),
+                parseTime(QueryUrls.getParameter(queryUrl, "endtime"), Long.MAX_VALUE),
+                orderBy != null && orderBy.startsWith("magnitude"),
+                orderBy != null && orderBy.endsWith("-asc"),
+                Math.max(0, offset),
+                parseInt(QueryUrls.getParameter(queryUrl, "limit"), MAX_DELTA_LIMIT))
+                .inRegion(parseRegion(queryUrl));
+    }
+
+    /**
+     * Reads the circle or the rectangle of a query, or returns null if it has neither.
+     */
+    private static EarthquakeQuery.Region parseRegion(String queryUrl) {
+        double latitude = parseDouble(QueryUrls.getParameter(queryUrl, "latitude"),
+                Double.NaN);
+        double longitude = parseDouble(QueryUrls.getParameter(queryUrl, "longitude"),
+                Double.NaN);
+        double radiusKm = parseDouble(QueryUrls.getParameter(queryUrl, "maxradiuskm"),
+                Double.NaN);
+        if (Double.isNaN(radiusKm)) {
+            // The other radius is in degrees, 180 by default
+            radiusKm = parseDouble(QueryUrls.getParameter(queryUrl, "maxradius"), 180)
+                    * SpatialIndex.KM_PER_DEGREE;
+        }
+        if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+            return EarthquakeQuery.Region.circle(latitude, longitude, radiusKm);
+        }
+
+        String[] bounds = {"minlatitude", "minlongitude", "maxlatitude", "maxlongitude"};
+        double[] box = {-90, -180, 90, 180};
+        boolean any = false;
+        for (int i = 0; i < bounds.length; i++) {
+            String value = QueryUrls.getParameter(queryUrl, bounds[i]);
+            if (value != null) {
+                box[i] = parseDouble(value, box[i]);
+                any = true;
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        // USGS takes longitudes from -360 to 360 so a box can cross the 180th meridian
+        double west = box[1] < -180 ? box[1] + 360 : box[1];
+        double east = box[3] > 180 ? box[3] - 360 : box[3];
+        return EarthquakeQuery.Region.box(box[0], west, box[2], east);
+    }
+
+    private Coverage getCoverage(String key) {
+        synchronized (mCoverages) {
+            Coverage coverage = mCoverages.get(key);
+            if (coverage == null) {
+                coverage = new Coverage();
+                mCoverages.put(key, coverage);
+            }
+            return coverage;
+        }
+    }
+
+    /**
+     * Loads the coverage from its snapshot the first time it is used, if there is one.
+     */
+    private void restoreSnapshot(String key, Coverage coverage) {
+        File directory = mSnapshotDirectory;
+        if (coverage.restored || directory == null) {
+            return;
+        }
+        coverage.restored = true;
+        File file = new File(directory, EarthquakeSnapshot.fileName(key));
+        if (coverage.url != null || !file.exists()) {
+            return;
+        }
+        try {
+            EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(file);
+            coverage.store.addAll(snapshot.getEarthquakes());
+            coverage.url = snapshot.getUrl();
+            coverage.minMagnitude = snapshot.getMinMagnitude();
+            coverage.requestedStart = snapshot.getRequestedStart();
+            coverage.completeFrom = snapshot.getCompleteFrom();
+            coverage.lastSync = snapshot.getLastSync();
+            coverage.savedVersion = coverage.store.getVersion();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Discarding unreadable snapshot", e);
+            file.delete();
+        }
+    }
+
+    /**
+     * Saves the coverage in the maintenance lane, so the load that changed it does not wait for
+     * the disk. Called with the coverage's lock held.
+     */
+    private void scheduleSnapshot(final String key, final Coverage coverage) {
+        // A save dropped from a full queue is done without having run
+        if (mSnapshotDirectory == null
+                || (coverage.snapshotTask != null && !coverage.snapshotTask.isDone())) {
+            return;
+        }
+        coverage.snapshotTask = TaskScheduler.getInstance().submit(TaskScheduler.LANE_MAINTENANCE,
+                new TaskScheduler.Job<Void>() {
+                    @Override
+                    public Void run(CancellationToken cancellation) {
+                        synchronized (coverage) {
+                            coverage.snapshotTask = null;
+                        }
+                        saveSnapshot(key, coverage);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Saves the coverage if its events changed since it was last saved or restored. Called
+     * without the coverage's lock: it is only held while the events are copied, so queries and
+     * syncs do not wait for the disk.
+     */
+    private void saveSnapshot(String key, Coverage coverage) {
+        File directory = mSnapshotDirectory;
+        if (directory == null) {
+            return;
+        }
+        // Saves of the same coverage share a temporary file, so they take turns
+        synchronized (coverage.snapshotLock) {
+            EarthquakeSnapshot snapshot;
+            long version;
+            synchronized (coverage) {
+                version = coverage.store.getVersion();
+                if (coverage.url == null || version == coverage.savedVersion) {
+                    return;
+                }
+                snapshot = new EarthquakeSnapshot(coverage.url, coverage.minMagnitude,
+                        coverage.requestedStart, coverage.completeFrom, coverage.lastSync,
+                        coverage.store.copy());
+            }
+            try {
+                snapshot.write(new File(directory, EarthquakeSnapshot.fileName(key)));
+                synchronized (coverage) {
+                    coverage.savedVersion = version;
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not save snapshot", e);
+            }
+        }
+    }
+
+    /**
+     * Works out the request that brings the coverage up to date: a download of what the query
+     * needs if the coverage does not hold it yet, or else the events changed since the last
+     * sync. Called with the coverage's lock held.
+     */
+    private static Update plan(Coverage coverage, String queryUrl, EarthquakeQuery query,
+                               long now) {
+        if (coverage.covers(query) && coverage.store.getHighWaterMark() != 0) {
+            String deltaUrl = deltaUrl(coverage.url, coverage.store.getHighWaterMark());
+            return new Update(deltaUrl, false, coverage.minMagnitude, coverage.requestedStart,
+                    now, coverage.generation);
+        }
+
+        // Download the most recent events the query could need, keeping the smaller
+        // magnitudes the coverage already holds
+        double minMagnitude = query.getMinMagnitude();
+        if (coverage.url != null) {
+            minMagnitude = Math.min(minMagnitude, coverage.minMagnitude);
+        }
+        String url = QueryUrls.coverageKey(queryUrl);
+        if (minMagnitude != Double.NEGATIVE_INFINITY) {
+            url = QueryUrls.setParameter(url, "minmag", String.valueOf(minMagnitude));
+        }
+        String startTime = QueryUrls.getParameter(queryUrl, "starttime");
+        if (startTime != null) {
+            url = QueryUrls.setParameter(url, "starttime", startTime);
+        }
+        url = QueryUrls.setParameter(url, "orderby", "time");
+        url = QueryUrls.setParameter(url, "limit", String.valueOf(COVERAGE_LIMIT));
+        return new Update(url, true, minMagnitude, query.getStartTime(), now,
+                coverage.generation);
+    }
+
+    /**
+     * Stores the response to a planned update: a download replaces the coverage's data, changes
+     * are merged in by event id. Called with the coverage's lock held.
+     *
+     * @return true if the coverage took the response, false if a concurrent sync had already
+     * stored data at least as fresh
+     */
+    private static boolean apply(Coverage coverage, EarthquakeQuery query, Update update,
+                                 List<Earthquake> earthquakes) {
+        if (!update.download) {
+            // Merging is idempotent, so a delta shared by concurrent syncs can be applied twice
+            for (Earthquake earthquake : earthquakes) {
+                coverage.store.upsert(earthquake);
+            }
+            trimToLimit(coverage);
+        } else if (coverage.generation != update.generation && coverage.covers(query)) {
+            return false;
+        } else {
+            EarthquakeStore downloaded = new EarthquakeStore();
+            for (Earthquake earthquake : earthquakes) {
+                downloaded.upsert(earthquake);
+            }
+            // A download of the events already stored leaves the store and its version alone,
+            // so callers only see a change when an event was added, updated or removed
+            if (!sameEvents(coverage.store, downloaded)) {
+                coverage.store.clear();
+                coverage.store.addAll(downloaded);
+            }
+            coverage.url = update.url;
+            coverage.minMagnitude = update.minMagnitude;
+            coverage.requestedStart = query.getStartTime();
+            // A full download holds everything since the requested start, a cut-off one only
+            // reaches back to its oldest event
+            coverage.completeFrom = downloaded.size() < COVERAGE_LIMIT
+                    ? query.getStartTime()
+                    : oldestTime(downloaded);
+        }
+        coverage.lastSync = Math.max(coverage.lastSync, update.time);
+        coverage.generation++;
+        return true;
+    }
+
+    /**
+     * Returns true if both stores hold the same events, in the same versions.
+     */
+    private static boolean sameEvents(EarthquakeStore stored, EarthquakeStore downloaded) {
+        synchronized (stored) {
+            synchronized (downloaded) {
+                if (stored.size() != downloaded.size()) {
+                    return false;
+                }
+                EarthquakeStore.Cursor storedCursor = stored.newCursor();
+                EarthquakeStore.Cursor cursor = downloaded.newCursor();
+                for (int row = 0; row < downloaded.size(); row++) {
+                    cursor.moveTo(row);
+                    int storedRow = stored.indexOf(cursor.getId());
+                    if (storedRow < 0 || storedCursor.moveTo(storedRow).getUpdatedInMilliseconds()
+                            != cursor.getUpdatedInMilliseconds()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest events once merged changes have grown the coverage past what a download
+     * would hold, so a coverage that keeps syncing does not keep every event it ever saw.
+     * Called with the coverage's lock held.
+     */
+    private static void trimToLimit(Coverage coverage) {
+        EarthquakeStore store = coverage.store;
+        if (store.size() <= COVERAGE_LIMIT) {
+            return;
+        }
+        String[] dropped;
+        long oldestKept;
+        synchronized (store) {
+            int[] newestFirst = store.sortedRows(false, false);
+            EarthquakeStore.Cursor cursor = store.newCursor();
+            dropped = new String[newestFirst.length - COVERAGE_LIMIT];
+            for (int i = 0; i < dropped.length; i++) {
+                dropped[i] = cursor.moveTo(newestFirst[COVERAGE_LIMIT + i]).getId();
+            }
+            oldestKept = cursor.moveTo(newestFirst[COVERAGE_LIMIT - 1]).getTimeInMilliseconds();
+        }
+        for (String id : dropped) {
+            store.remove(id);
+        }
+        // Events as old as the oldest one kept may have been dropped with the older ones
+        coverage.completeFrom = Math.max(coverage.completeFrom, oldestKept + 1);
+    }
+
+    /**
+     * Downloads a planned update. A delta that comes back full was cut off at the USGS cap, so
+     * it is downloaded again in time windows from the start of the coverage.
+     *
+     * @throws InterruptedIOException if the token was cancelled
+     * @throws IOException            if the update could not be downloaded
+     */
+    private List<Earthquake> fetchUpdate(Update update, CancellationToken cancellation)
+            throws IOException {
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakes(update.url, cancellation);
+        if (update.download || earthquakes.size() < mSplitFetcher.getMaxEventsPerQuery()) {
+            return earthquakes;
+        }
+        return mSplitFetcher.fetch(update.url, update.start, Long.MAX_VALUE, cancellation);
+    }
+
+    /**
+     * Like {@link #fetchUpdate}, but reports failures as null.
+     */
+    private List<Earthquake> fetch(Update update, CancellationToken cancellation)
+            throws InterruptedIOException {
+        try {
+            return fetchUpdate(update, cancellation);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // Already logged where it failed
+            return null;
+        }
+    }
+
+    /**
+     * Downloads the events at the URL, joining a download of it that is already running.
+     *
+     * @return the events, or null if the request failed
+     * @throws InterruptedIOException if the token was cancelled
+     */
+    private static List<Earthquake> fetch(String url, CancellationToken cancellation)
+            throws InterruptedIOException {
+        try {
+            return QueryUtils.fetchEarthquakes(url, cancellation);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // Already logged where it failed
+            return null;
+        }
+    }
+
+    private static long oldestTime(EarthquakeStore earthquakes) {
+        long oldest = Long.MAX_VALUE;
+        EarthquakeStore.Cursor cursor = earthquakes.newCursor();
+        for (int row = 0; row < earthquakes.size(); row++) {
+            oldest = Math.min(oldest, cursor.moveTo(row).getTimeInMilliseconds());
+        }
+        return oldest;
+    }
+
+    private static double parseDouble(String value, double fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static int parseInt(String value, int fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static long parseTime(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        for (String pattern : TIME_FORMATS) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            format.setLenient(false);
+            try {
+                return format.parse(value).getTime();
+            } catch (ParseException ignored) {
+                // Try the next, shorter pattern
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Local data shared by the queries with one coverage key. Guarded by its own lock.
+     */
+    private static final class Coverage {
+        final EarthquakeStore store = new EarthquakeStore();
+        final EarthquakeQueryEngine engine = new EarthquakeQueryEngine(store);
+        // Held while the snapshot is written, without the coverage's own lock
+        final Object snapshotLock = new Object();
+        // Summaries of the stored events, created when first asked for
+        EarthquakeStats stats;
+        // Search index over the stored places, created when first asked for
+        PlaceSearchIndex places;
+        // Request the data was downloaded with, null before the first download
+        String url;
+        double minMagnitude;
+        // Start time the download asked for
+        long requestedStart;
+        // Every event since this time that the download asked for is stored
+        long completeFrom;
+        long lastSync;
+        // True once the snapshot, if any, has been loaded
+        boolean restored;
+        // Store version last written to or read from the snapshot
+        long savedVersion = -1;
+        // Save waiting in the maintenance lane, null once it has started
+        TaskScheduler.Task<Void> snapshotTask;
+        // Counts the updates applied, so a sync can tell whether another one got in first
+        int generation;
+
+        /**
+         * Returns true if the query asks for nothing the download left out on purpose.
+         */
+        boolean covers(EarthquakeQuery query) {
+            return url != null
+                    && query.getMinMagnitude() >= minMagnitude
+                    && query.getStartTime() >= requestedStart;
+        }
+
+        /**
+         * Returns the query's events, or null if the stored data is not deep enough to be sure
+         * of them.
+         */
+        EarthquakeStore answer(EarthquakeQuery query) {
+            synchronized (store) {
+                int[] rows = engine.select(query.startingAt(completeFrom));
+                boolean complete = query.getStartTime() >= completeFrom
+                        // Newest first only needs enough recent events to fill the page
+                        || (!query.isByMagnitude() && !query.isAscending()
+                        && rows.length == query.getLimit());
+                return complete ? store.copyOf(rows, rows.length) : null;
+            }
+        }
+    }
+
+    /**
+     * The events answering a query.
+     */
+    public static final class Answer {
+        private final EarthquakeStore mEarthquakes;
+        private final boolean mStale;
+
+        Answer(EarthquakeStore earthquakes, boolean stale) {
+            mEarthquakes = earthquakes;
+            mStale = stale;
+        }
+
+        public EarthquakeStore getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        /**
+         * Returns true if USGS could not be reached, so the events are the ones stored earlier.
+         * They may be out of date, and some events the query matches may be missing.
+         */
+        public boolean isStale() {
+            return mStale;
+        }
+    }
+
+    /**
+     * Request planned for a coverage while holding its lock, sent after releasing it.
+     */
+    private static final class Update {
+        final String url;
+        // True if the response replaces the coverage's data, false if it is merged in
+        final boolean download;
+        final double minMagnitude;
+        // Oldest event time the update asks for
+        final long start;
+        // When the update was planned, becomes the coverage's last sync time
+        final long time;
+        // Coverage generation the update was planned against
+        final int generation;
+
+        Update(String url, boolean download, double minMagnitude, long start, long time,
+               int generation) {
+            this.url = url;
+            this.download = download;
+            this.minMagnitude = minMagnitude;
+            this.start = start;
+            this.time = time;
+            this.generation = generation;
+        }
+    }
+}
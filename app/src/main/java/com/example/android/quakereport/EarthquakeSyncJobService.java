@@ -0,0 +1,166 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Refreshes the stored earthquakes in the background, so opening the app finds them up to
+ * date. Syncs only run on an unmetered network while the device is charging and idle. Each
+ * run schedules the next one after the delay {@link SyncScheduler} works out.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class EarthquakeSyncJobService extends JobService {
+
+    private static final String LOG_TAG = EarthquakeSyncJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+    // JobScheduler does not run jobs more often than every 15 minutes anyway
+    private static final long MIN_INTERVAL_MILLIS = 15 * 60 * 1000;
+    private static final long MAX_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String PREFS_NAME = "earthquake_sync";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_FAILURE_COUNT = "failure_count";
+    private static final String KEY_LAST_SUCCESS = "last_success";
+    private static final String KEY_NEXT_RUN = "next_run";
+
+    /**
+     * Schedules the next sync unless one is already pending.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        schedule(context, newScheduler(context, null).getDelay());
+    }
+
+    private static void schedule(Context context, long delay) {
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, EarthquakeSyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setMinimumLatency(delay)
+                .setPersisted(true)
+                .build();
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Could not schedule the earthquake sync");
+        }
+    }
+
+    // The running sync, null while none is. Guarded by this.
+    private TaskScheduler.Task<Long> mTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final Context context = getApplicationContext();
+        final TaskScheduler.Task<Long> task = TaskScheduler.getInstance().submit(
+                TaskScheduler.LANE_MAINTENANCE,
+                new TaskScheduler.Job<Long>() {
+                    @Override
+                    public Long run(final CancellationToken cancellation) throws IOException {
+                        EarthquakeActivity.setUpStorage(context);
+                        final String queryUrl = EarthquakeActivity.buildQueryUrl(context);
+                        SyncScheduler.Fetcher fetcher = new SyncScheduler.Fetcher() {
+                            @Override
+                            public boolean fetch() throws IOException {
+                                return EarthquakeSync.getInstance()
+                                        .refresh(queryUrl, cancellation);
+                            }
+                        };
+                        SyncScheduler scheduler = newScheduler(context, fetcher);
+                        long delay = scheduler.run();
+                        // Preempted by a load the user is waiting for. Nothing is saved, so the
+                        // run counts neither as a failure nor a success, and it starts over once
+                        // the lane gets a worker again.
+                        cancellation.throwIfCancelled();
+                        save(context, scheduler);
+                        return delay;
+                    }
+                });
+        synchronized (this) {
+            mTask = task;
+        }
+        // Runs however the task ends, including when it fails or is dropped from a full lane
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                long delay;
+                try {
+                    delay = task.get();
+                } catch (IOException e) {
+                    if (!(e instanceof InterruptedIOException)) {
+                        Log.e(LOG_TAG, "Earthquake sync failed", e);
+                    }
+                    // Try again later without hammering USGS, the saved state has not moved on
+                    delay = Math.max(MIN_INTERVAL_MILLIS, newScheduler(context, null).getDelay());
+                }
+                synchronized (EarthquakeSyncJobService.this) {
+                    if (mTask != task) {
+                        // Stopped by the system, which reschedules the job itself
+                        return;
+                    }
+                    mTask = null;
+                }
+                jobFinished(params, false);
+                schedule(context, delay);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        TaskScheduler.Task<Long> task;
+        synchronized (this) {
+            task = mTask;
+            mTask = null;
+        }
+        if (task == null) {
+            // Already finished and scheduled the next run
+            return false;
+        }
+        task.cancel();
+        // Have the system run the job again
+        return true;
+    }
+
+    /**
+     * Returns a scheduler in the state the last run left it in.
+     */
+    private static SyncScheduler newScheduler(Context context, SyncScheduler.Fetcher fetcher) {
+        SyncScheduler scheduler = new SyncScheduler(SyncScheduler.SYSTEM_CLOCK, fetcher,
+                MIN_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS);
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        scheduler.restore(prefs.getLong(KEY_INTERVAL, MIN_INTERVAL_MILLIS),
+                prefs.getInt(KEY_FAILURE_COUNT, 0),
+                prefs.getLong(KEY_LAST_SUCCESS, 0),
+                prefs.getLong(KEY_NEXT_RUN, 0));
+        return scheduler;
+    }
+
+    private static void save(Context context, SyncScheduler scheduler) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(KEY_INTERVAL, scheduler.getInterval())
+                .putInt(KEY_FAILURE_COUNT, scheduler.getFailureCount())
+                .putLong(KEY_LAST_SUCCESS, scheduler.getLastSuccessTime())
+                .putLong(KEY_NEXT_RUN, scheduler.getNextRunTime())
+                .apply();
+    }
+}
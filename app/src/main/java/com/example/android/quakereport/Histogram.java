@@ -0,0 +1,143 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, recorded from any thread without locking.
+ * <p>
+ * Values below 16 are counted exactly. Larger ones go into eight buckets per power of two, so
+ * percentiles are within about 6% of the true value while the whole histogram stays a few
+ * kilobytes.
+ */
+public final class Histogram {
+
+    private static final int EXACT = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = EXACT + (63 - 4) * SUB_BUCKETS;
+
+    private final String mName;
+    private final String mUnit;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param name what is measured, such as "parse"
+     * @param unit unit of the recorded values, such as "us"
+     */
+    public Histogram(String name, String unit) {
+        mName = name;
+        mUnit = unit;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getUnit() {
+        return mUnit;
+    }
+
+    /**
+     * Records one value. Negative values count as 0.
+     * <p>
+     * The maximum and the bucket are updated before the count, so a reader running at the same
+     * time finds every value its count includes.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // Another thread raised the maximum meanwhile, check again
+        }
+        mCounts.incrementAndGet(bucketOf(value));
+        mSum.addAndGet(value);
+        mCount.incrementAndGet();
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values fall, 0 if nothing
+     * was recorded.
+     */
+    public long getPercentile(double percent) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        double clamped = Math.min(100, Math.max(0, percent));
+        long rank = Math.max(1, (long) Math.ceil(count * clamped / 100));
+        if (rank >= count) {
+            return mMax.get();
+        }
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mCounts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(middleOf(bucket), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Forgets every recorded value.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            mCounts.set(bucket, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Returns a one-line summary such as {@code parse: n=12 mean=840 p50=790 p90=1200 p99=1500
+     * max=1530 us}.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: n=%d mean=%.0f p50=%d p90=%d p99=%d max=%d %s",
+                mName, getCount(), getMean(), getPercentile(50), getPercentile(90),
+                getPercentile(99), getMax(), mUnit);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long middleOf(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int exponent = (bucket - EXACT) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - EXACT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (1L << exponent) + subBucket * width;
+        return lower + width / 2;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link Transport} over {@link HttpURLConnection} that asks for gzip and keeps connections
+ * alive.
+ * <p>
+ * Responses are decompressed while the parser reads them. Connections are not disconnected
+ * after use: once a body has been read to the end and closed, the connection goes back to the
+ * platform's keep-alive pool and the next request to the same host skips the TCP and TLS
+ * handshakes. Only a cancelled request closes its socket, which stops the download at once
+ * and fails the read blocked on it.
+ * Counters of requests, bytes and time spent are kept for the whole transport.
+ */
+public final class HttpTransport implements Transport {
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    // Bodies with at most this much left are read to the end on close so the connection can
+    // be reused, longer ones are cut off
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    // Buffer of each thread for draining bodies, the bytes are thrown away
+    private static final ThreadLocal<byte[]> DRAIN_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[4096];
+        }
+    };
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mBodyBytes = new AtomicLong();
+    private final AtomicLong mRequestNanos = new AtomicLong();
+
+    @Override
+    public Response get(String url, Map<String, String> headers, CancellationToken cancellation)
+            throws IOException {
+        long start = System.nanoTime();
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setRequestMethod("GET");
+        // Asking explicitly turns off transparent decompression, so we can count wire bytes
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        // Closing the socket from the cancelling thread fails whatever read is blocked on it
+        Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addListener(abort);
+        }
+        try {
+            connection.connect();
+            Metrics.CONNECT.record((System.nanoTime() - start) / 1000);
+            int code = connection.getResponseCode();
+            Metrics.FIRST_BYTE.record((System.nanoTime() - start) / 1000);
+            mRequestCount.incrementAndGet();
+            return new HttpResponse(connection, code, start, cancellation, abort);
+        } catch (IOException e) {
+            if (cancellation != null) {
+                cancellation.removeListener(abort);
+            }
+            connection.disconnect();
+            mRequestNanos.addAndGet(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of requests that got a response.
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the number of body bytes received from the network, before decompression.
+     */
+    public long getWireBytes() {
+        return mWireBytes.get();
+    }
+
+    /**
+     * Returns the number of body bytes handed to readers, after decompression.
+     */
+    public long getBodyBytes() {
+        return mBodyBytes.get();
+    }
+
+    /**
+     * Returns the time from sending requests to closing their responses, summed up.
+     */
+    public long getRequestTimeMillis() {
+        return mRequestNanos.get() / 1000000;
+    }
+
+    private final class HttpResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final long mStartNanos;
+        private final CancellationToken mCancellation;
+        private final Runnable mAbort;
+        private CountingInputStream mRaw;
+        private InputStream mBody;
+        private boolean mClosed;
+
+        HttpResponse(HttpURLConnection connection, int code, long startNanos,
+                     CancellationToken cancellation, Runnable abort) {
+            mConnection = connection;
+            mCode = code;
+            mStartNanos = startNanos;
+            mCancellation = cancellation;
+            mAbort = abort;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream raw = mCode < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getInputStream()
+                        : mConnection.getErrorStream();
+                if (raw == null) {
+                    raw = new ByteArrayInputStream(new byte[0]);
+                }
+                mRaw = new CountingInputStream(raw, mWireBytes);
+                InputStream decoded = mRaw;
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    decoded = new GZIPInputStream(mRaw, 8192);
+                }
+                mBody = new CountingInputStream(decoded, mBodyBytes);
+                if (mCancellation != null) {
+                    mBody = new CancellableInputStream(mBody, mCancellation);
+                }
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (mCancellation != null) {
+                    mCancellation.removeListener(mAbort);
+                    if (mCancellation.isCancelled()) {
+                        // Nobody wants the rest of the body, don't spend bandwidth on it
+                        mConnection.disconnect();
+                        return;
+                    }
+                }
+                InputStream raw = mRaw;
+                if (raw == null) {
+                    getBody();
+                    raw = mRaw;
+                }
+                // A connection is only reused once its body has been read to the end
+                if (!drain(raw)) {
+                    mConnection.disconnect();
+                }
+                mBody.close();
+                Metrics.RESPONSE_BYTES.record(mRaw.getCount());
+            } finally {
+                mRequestNanos.addAndGet(System.nanoTime() - mStartNanos);
+            }
+        }
+
+        private boolean drain(InputStream in) {
+            byte[] buffer = DRAIN_BUFFER.get();
+            int left = MAX_DRAIN_BYTES;
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    left -= read;
+                    if (left < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Fails reads once the token is cancelled. Some connections report the end of the body
+     * when their socket is closed under a read, which would pass for a complete response.
+     */
+    private static final class CancellableInputStream extends FilterInputStream {
+        private final CancellationToken mCancellation;
+
+        CancellableInputStream(InputStream in, CancellationToken cancellation) {
+            super(in);
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            mCancellation.throwIfCancelled();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            mCancellation.throwIfCancelled();
+            return read;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, and adds them to a shared counter too.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+        private long mCount;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCounter.incrementAndGet();
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCounter.addAndGet(read);
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCounter.addAndGet(skipped);
+            mCount += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
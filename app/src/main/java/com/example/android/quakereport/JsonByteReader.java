@@ -0,0 +1,623 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Minimal pull-style JSON tokenizer that reads UTF-8 bytes straight from an {@link InputStream}.
+ * The API mirrors android.util.JsonReader, but it has no Android dependencies, keeps only a
+ * small fixed read buffer and knows the byte offset of the next token.
+ */
+final class JsonByteReader implements Closeable {
+
+    static final int BEGIN_OBJECT = 1;
+    static final int END_OBJECT = 2;
+    static final int BEGIN_ARRAY = 3;
+    static final int END_ARRAY = 4;
+    static final int NAME = 5;
+    static final int STRING = 6;
+    static final int NUMBER = 7;
+    static final int BOOLEAN = 8;
+    static final int NULL = 9;
+    static final int END_DOCUMENT = 10;
+
+    private static final int PEEKED_NONE = 0;
+
+    private static final int EMPTY_DOCUMENT = 1;
+    private static final int NONEMPTY_DOCUMENT = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int EMPTY_ARRAY = 6;
+    private static final int NONEMPTY_ARRAY = 7;
+
+    // Powers of ten that are exactly representable as doubles, used by the number fast path.
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream mIn;
+    private final byte[] mBuffer;
+    private int mPos;
+    private int mLimit;
+    // Number of bytes discarded from the front of the buffer so far
+    private long mBufferStart;
+
+    private int[] mStack = new int[16];
+    private int mStackSize;
+    private int mPeeked = PEEKED_NONE;
+
+    private char[] mChars = new char[64];
+
+    JsonByteReader(InputStream in) {
+        this(in, 8192);
+    }
+
+    JsonByteReader(InputStream in, int bufferSize) {
+        this(in, new byte[bufferSize]);
+    }
+
+    /**
+     * Reads through the given buffer, which can be reused once this reader is done with it.
+     */
+    JsonByteReader(InputStream in, byte[] buffer) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        mIn = in;
+        mBuffer = buffer;
+        mStack[mStackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    int peek() throws IOException {
+        if (mPeeked == PEEKED_NONE) {
+            mPeeked = doPeek();
+        }
+        return mPeeked;
+    }
+
+    /**
+     * Returns the absolute byte offset in the stream of the next unread byte.
+     */
+    long position() {
+        return mBufferStart + mPos;
+    }
+
+    boolean hasNext() throws IOException {
+        int p = peek();
+        return p != END_OBJECT && p != END_ARRAY && p != END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        expect(BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+        mPeeked = PEEKED_NONE;
+    }
+
+    void endObject() throws IOException {
+        expect(END_OBJECT);
+        mStackSize--;
+        mPeeked = PEEKED_NONE;
+    }
+
+    void beginArray() throws IOException {
+        expect(BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+        mPeeked = PEEKED_NONE;
+    }
+
+    void endArray() throws IOException {
+        expect(END_ARRAY);
+        mStackSize--;
+        mPeeked = PEEKED_NONE;
+    }
+
+    String nextName() throws IOException {
+        expect(NAME);
+        mPeeked = PEEKED_NONE;
+        return readString();
+    }
+
+    /**
+     * Returns the next string value. Numbers are returned in their literal form.
+     */
+    String nextString() throws IOException {
+        int p = peek();
+        mPeeked = PEEKED_NONE;
+        if (p == STRING) {
+            return readString();
+        } else if (p == NUMBER) {
+            return readNumberLiteral();
+        }
+        throw syntaxError("Expected a string but was " + p);
+    }
+
+    double nextDouble() throws IOException {
+        expect(NUMBER);
+        mPeeked = PEEKED_NONE;
+
+        // Fast path for plain decimals such as "4.53" or "-117.5", which is all USGS sends
+        // for magnitudes and coordinates. Anything else falls back to Double.parseDouble.
+        if (!ensure(1)) {
+            throw new EOFException();
+        }
+        int start = mPos;
+        boolean negative = false;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        int i = mPos;
+        if (mBuffer[i] == '-') {
+            negative = true;
+            i++;
+        }
+        while (true) {
+            if (i == mLimit) {
+                // The literal straddles the buffer boundary, use the slow path.
+                return Double.parseDouble(readNumberLiteral(start));
+            }
+            byte b = mBuffer[i];
+            if (b >= '0' && b <= '9') {
+                if (++digits > 15) {
+                    return Double.parseDouble(readNumberLiteral(start));
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (b == 'e' || b == 'E') {
+                return Double.parseDouble(readNumberLiteral(start));
+            } else {
+                break;
+            }
+            i++;
+        }
+        if (digits == 0) {
+            throw syntaxError("Malformed number");
+        }
+        mPos = i;
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    long nextLong() throws IOException {
+        expect(NUMBER);
+        mPeeked = PEEKED_NONE;
+
+        if (!ensure(1)) {
+            throw new EOFException();
+        }
+        int start = mPos;
+        boolean negative = false;
+        long value = 0;
+        int digits = 0;
+        int i = mPos;
+        if (mBuffer[i] == '-') {
+            negative = true;
+            i++;
+        }
+        while (true) {
+            if (i == mLimit) {
+                return parseLong(readNumberLiteral(start));
+            }
+            byte b = mBuffer[i];
+            if (b >= '0' && b <= '9') {
+                if (++digits > 18) {
+                    return parseLong(readNumberLiteral(start));
+                }
+                value = value * 10 + (b - '0');
+            } else if (b == '.' || b == 'e' || b == 'E') {
+                return parseLong(readNumberLiteral(start));
+            } else {
+                break;
+            }
+            i++;
+        }
+        if (digits == 0) {
+            throw syntaxError("Malformed number");
+        }
+        mPos = i;
+        return negative ? -value : value;
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(BOOLEAN);
+        mPeeked = PEEKED_NONE;
+        if (mBuffer[mPos] == 't') {
+            consumeLiteral("true");
+            return true;
+        }
+        consumeLiteral("false");
+        return false;
+    }
+
+    void nextNull() throws IOException {
+        expect(NULL);
+        mPeeked = PEEKED_NONE;
+        consumeLiteral("null");
+    }
+
+    /**
+     * Skips the next value, including nested objects and arrays, without decoding it.
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int p = peek();
+            mPeeked = PEEKED_NONE;
+            switch (p) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    mStackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case NUMBER:
+                    skipNumber();
+                    break;
+                case BOOLEAN:
+                    consumeLiteral(mBuffer[mPos] == 't' ? "true" : "false");
+                    break;
+                case NULL:
+                    consumeLiteral("null");
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of document");
+            }
+        } while (depth != 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private int doPeek() throws IOException {
+        int scope = mStack[mStackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    mPos++;
+                    return END_ARRAY;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                mPos++;
+                if (c == ']') {
+                    return END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    mPos++;
+                    return END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    mPos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                mPos++;
+                return NAME;
+            case DANGLING_NAME:
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                mPos++;
+                break;
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                if (skipWhitespace()) {
+                    throw syntaxError("Unexpected data after the document");
+                }
+                return END_DOCUMENT;
+            default:
+                throw new IllegalStateException("Unknown scope " + scope);
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                mPos++;
+                return BEGIN_OBJECT;
+            case '[':
+                mPos++;
+                return BEGIN_ARRAY;
+            case '"':
+                mPos++;
+                return STRING;
+            case 't':
+            case 'f':
+                return BOOLEAN;
+            case 'n':
+                return NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Skips whitespace and returns the next byte without consuming it.
+     */
+    private int nextNonWhitespace() throws IOException {
+        if (!skipWhitespace()) {
+            throw new EOFException("End of input at byte " + position());
+        }
+        return mBuffer[mPos];
+    }
+
+    /**
+     * Skips whitespace, returning false if the end of the stream was reached.
+     */
+    private boolean skipWhitespace() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !ensure(1)) {
+                return false;
+            }
+            byte b = mBuffer[mPos];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                mPos++;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads the body of a string whose opening quote has been consumed.
+     */
+    private String readString() throws IOException {
+        int length = 0;
+        while (true) {
+            if (mPos == mLimit && !ensure(1)) {
+                throw new EOFException("Unterminated string");
+            }
+            int b = mBuffer[mPos++];
+            if (b == '"') {
+                return new String(mChars, 0, length);
+            }
+            if (length + 2 > mChars.length) {
+                char[] grown = new char[mChars.length * 2];
+                System.arraycopy(mChars, 0, grown, 0, length);
+                mChars = grown;
+            }
+            if (b == '\\') {
+                mChars[length++] = readEscape();
+            } else if (b >= 0) {
+                mChars[length++] = (char) b;
+            } else {
+                int codePoint = readMultiByte(b);
+                if (codePoint >= 0x10000) {
+                    mChars[length++] = Character.highSurrogate(codePoint);
+                    mChars[length++] = Character.lowSurrogate(codePoint);
+                } else {
+                    mChars[length++] = (char) codePoint;
+                }
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !ensure(1)) {
+                throw new EOFException("Unterminated string");
+            }
+            byte b = mBuffer[mPos++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                readEscape();
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (mPos == mLimit && !ensure(1)) {
+            throw new EOFException("Unterminated escape sequence");
+        }
+        byte b = mBuffer[mPos++];
+        switch (b) {
+            case 'u':
+                if (!ensure(4)) {
+                    throw new EOFException("Unterminated escape sequence");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(mBuffer[mPos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) b;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private int readMultiByte(int first) throws IOException {
+        int extra;
+        int codePoint;
+        if ((first & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = first & 0x1F;
+        } else if ((first & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = first & 0x0F;
+        } else if ((first & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = first & 0x07;
+        } else {
+            throw syntaxError("Malformed UTF-8");
+        }
+        if (!ensure(extra)) {
+            throw new EOFException("Truncated UTF-8 sequence");
+        }
+        for (int i = 0; i < extra; i++) {
+            codePoint = (codePoint << 6) | (mBuffer[mPos++] & 0x3F);
+        }
+        return codePoint;
+    }
+
+    private String readNumberLiteral() throws IOException {
+        return readNumberLiteral(mPos);
+    }
+
+    /**
+     * Reads a number literal that starts at {@code start} in the current buffer.
+     */
+    private String readNumberLiteral(int start) throws IOException {
+        mPos = start;
+        StringBuilder literal = new StringBuilder();
+        while (true) {
+            if (mPos == mLimit && !ensure(1)) {
+                break;
+            }
+            byte b = mBuffer[mPos];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                literal.append((char) b);
+                mPos++;
+            } else {
+                break;
+            }
+        }
+        return literal.toString();
+    }
+
+    private void skipNumber() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !ensure(1)) {
+                return;
+            }
+            byte b = mBuffer[mPos];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                mPos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private long parseLong(String literal) throws IOException {
+        try {
+            return Long.parseLong(literal);
+        } catch (NumberFormatException e) {
+            double value = Double.parseDouble(literal);
+            if (value != (long) value) {
+                throw syntaxError("Expected a long but was " + literal);
+            }
+            return (long) value;
+        }
+    }
+
+    private void consumeLiteral(String literal) throws IOException {
+        int length = literal.length();
+        if (!ensure(length)) {
+            throw new EOFException("Truncated literal");
+        }
+        for (int i = 0; i < length; i++) {
+            if (mBuffer[mPos + i] != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+        mPos += length;
+    }
+
+    /**
+     * Makes sure at least {@code count} unread bytes are buffered, returning false at the end
+     * of the stream. Moves the unread bytes to the front of the buffer when it has to refill.
+     */
+    private boolean ensure(int count) throws IOException {
+        if (mLimit - mPos >= count) {
+            return true;
+        }
+        if (mPos > 0) {
+            mBufferStart += mPos;
+            mLimit -= mPos;
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit);
+            mPos = 0;
+        }
+        while (mLimit < count) {
+            int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read == -1) {
+                return false;
+            }
+            mLimit += read;
+        }
+        return true;
+    }
+
+    private void expect(int token) throws IOException {
+        int p = peek();
+        if (p != token) {
+            throw syntaxError("Expected token " + token + " but was " + p);
+        }
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] grown = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, grown, 0, mStackSize);
+            mStack = grown;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at byte " + position());
+    }
+}
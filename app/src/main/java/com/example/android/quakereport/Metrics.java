@@ -0,0 +1,119 @@
+package com.example.android.quakereport;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timings and sizes of every load, one {@link Histogram} per stage. Recording costs a few atomic
+ * increments, so it stays on in release builds; the numbers can be read from the debug menu
+ * or with {@code adb shell dumpsys activity com.example.android.quakereport}.
+ */
+public final class Metrics {
+
+    /**
+     * Opening the connection, including the DNS lookup and TLS handshake. Close to 0 when a
+     * kept-alive connection is reused.
+     */
+    public static final Histogram CONNECT = new Histogram("connect", "us");
+
+    /**
+     * From sending the request to receiving the response headers.
+     */
+    public static final Histogram FIRST_BYTE = new Histogram("first byte", "us");
+
+    /**
+     * Body bytes received from the network per response, before decompression.
+     */
+    public static final Histogram RESPONSE_BYTES = new Histogram("response size", "bytes");
+
+    /**
+     * Time spent waiting for body bytes while parsing a response.
+     */
+    public static final Histogram DOWNLOAD = new Histogram("download", "us");
+
+    /**
+     * Time spent parsing a response, without the waits counted by {@link #DOWNLOAD}.
+     */
+    public static final Histogram PARSE = new Histogram("parse", "us");
+
+    /**
+     * Events parsed per second of {@link #PARSE} time.
+     */
+    public static final Histogram PARSE_RATE = new Histogram("parse rate", "events/s");
+
+    /**
+     * From a loader delivering its rows to the list binding the first of them.
+     */
+    public static final Histogram FIRST_BIND = new Histogram("first bind", "us");
+
+    /**
+     * Time jobs wait in each lane of a {@link TaskScheduler} before a worker starts them,
+     * indexed by lane. A preempted job counts one wait per time it is started.
+     */
+    public static final Histogram[] LANE_WAIT = {
+            new Histogram("visible wait", "us"),
+            new Histogram("prefetch wait", "us"),
+            new Histogram("maintenance wait", "us")
+    };
+
+    /**
+     * Time jobs of each lane of a {@link TaskScheduler} take to run, indexed by lane.
+     */
+    public static final Histogram[] LANE_RUN = {
+            new Histogram("visible run", "us"),
+            new Histogram("prefetch run", "us"),
+            new Histogram("maintenance run", "us")
+    };
+
+    private static final Histogram[] ALL = {
+            CONNECT, FIRST_BYTE, RESPONSE_BYTES, DOWNLOAD, PARSE, PARSE_RATE, FIRST_BIND,
+            LANE_WAIT[TaskScheduler.LANE_VISIBLE], LANE_RUN[TaskScheduler.LANE_VISIBLE],
+            LANE_WAIT[TaskScheduler.LANE_PREFETCH], LANE_RUN[TaskScheduler.LANE_PREFETCH],
+            LANE_WAIT[TaskScheduler.LANE_MAINTENANCE], LANE_RUN[TaskScheduler.LANE_MAINTENANCE]
+    };
+
+    private Metrics() {
+    }
+
+    public static List<Histogram> getAll() {
+        List<Histogram> histograms = new ArrayList<>(ALL.length);
+        for (Histogram histogram : ALL) {
+            histograms.add(histogram);
+        }
+        return histograms;
+    }
+
+    /**
+     * Writes one summary line per histogram, followed by the job counts of each lane of the
+     * shared {@link TaskScheduler}.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        for (Histogram histogram : ALL) {
+            writer.print(prefix);
+            writer.println(histogram);
+        }
+        for (String lane : TaskScheduler.getInstance().toString().split("\n")) {
+            writer.print(prefix);
+            writer.println(lane);
+        }
+    }
+
+    /**
+     * Returns the summary lines of {@link #dump(String, PrintWriter)} as one string.
+     */
+    public static String dump() {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        dump("", writer);
+        writer.flush();
+        return text.toString();
+    }
+
+    public static void reset() {
+        for (Histogram histogram : ALL) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Type-ahead search over the places of the events in an {@link EarthquakeStore}.
+ * <p>
+ * Only the primary location is indexed, the part after "of" that the list shows in large
+ * print, so "74km NW of Rumoi, Japan" is found by "rum" or "japan" but not by "nw". Events
+ * sharing a primary location share one entry, which keeps the term map far smaller than the
+ * store, and each entry keeps the time and magnitude of its events so a search never has to
+ * look at the store until it knows which events to return. Each word of each entry goes into
+ * a sorted map of terms, and a query looks up every one of its words as a prefix, so the last
+ * word may still be half typed. The index follows the store's changes as they happen.
+ */
+public final class PlaceSearchIndex implements EarthquakeStore.Listener {
+
+    private static final String LOCATION_SEPARATOR = " of ";
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final EarthquakeStore mStore;
+
+    // Indexed places by primary location
+    private final HashMap<String, Place> mPlaces = new HashMap<>();
+    // Every word of every place, with the places it occurs in
+    private final TreeMap<String, ArrayList<Place>> mTerms = new TreeMap<>();
+    // Position of each event within its place
+    private final HashMap<String, Integer> mSlots = new HashMap<>();
+
+    /**
+     * Indexes the places of the store, including those of the events it already holds.
+     */
+    public PlaceSearchIndex(EarthquakeStore store) {
+        mStore = store;
+        store.addListener(this);
+    }
+
+    /**
+     * Stops following the store.
+     */
+    public void detach() {
+        mStore.removeListener(this);
+    }
+
+    /**
+     * Returns the primary locations that match the query, those with the most events first.
+     */
+    public List<String> suggest(String query, int limit) {
+        ArrayList<Place> places;
+        synchronized (mStore) {
+            places = new ArrayList<>(match(query));
+        }
+        Collections.sort(places, new Comparator<Place>() {
+            @Override
+            public int compare(Place a, Place b) {
+                int result = b.mSize - a.mSize;
+                return result != 0 ? result : a.mName.compareTo(b.mName);
+            }
+        });
+        List<String> names = new ArrayList<>(Math.min(limit, places.size()));
+        for (int i = 0; i < places.size() && i < limit; i++) {
+            names.add(places.get(i).mName);
+        }
+        return names;
+    }
+
+    /**
+     * Returns the most recent events of at least the given magnitude whose primary location
+     * matches the query, newest first.
+     */
+    public EarthquakeStore search(String query, double minMagnitude, int limit) {
+        synchronized (mStore) {
+            // Min-heap of the newest events seen so far, the oldest of them at the top
+            String[] ids = new String[Math.max(0, limit)];
+            long[] times = new long[ids.length];
+            int count = 0;
+            for (Place place : match(query)) {
+                for (int slot = 0; slot < place.mSize; slot++) {
+                    if (place.mMagnitudes[slot] < minMagnitude) {
+                        continue;
+                    }
+                    long time = place.mTimes[slot];
+                    if (count < ids.length) {
+                        siftUp(ids, times, count++, place.mIds[slot], time);
+                    } else if (count > 0 && time > times[0]) {
+                        siftDown(ids, times, count, place.mIds[slot], time);
+                    }
+                }
+            }
+            // Take the oldest off the top one by one, filling the result from the back
+            int[] newestFirst = new int[count];
+            for (int i = count - 1; i >= 0; i--) {
+                newestFirst[i] = mStore.indexOf(ids[0]);
+                siftDown(ids, times, i, ids[i], times[i]);
+            }
+            return mStore.copyOf(newestFirst, count);
+        }
+    }
+
+    /**
+     * Returns the part of a USGS place after "of", or the whole place if it has none.
+     */
+    public static String primaryLocation(String place) {
+        if (place == null) {
+            return "";
+        }
+        int separator = place.indexOf(LOCATION_SEPARATOR);
+        return separator >= 0 ? place.substring(separator + LOCATION_SEPARATOR.length()) : place;
+    }
+
+    @Override
+    public void onAdded(String id, double magnitude, String place, long time) {
+        String name = primaryLocation(place);
+        Place entry = mPlaces.get(name);
+        if (entry == null) {
+            entry = new Place(name);
+            mPlaces.put(name, entry);
+            for (String term : entry.mTerms) {
+                ArrayList<Place> places = mTerms.get(term);
+                if (places == null) {
+                    places = new ArrayList<>(1);
+                    mTerms.put(term, places);
+                }
+                places.add(entry);
+            }
+        }
+        mSlots.put(id, entry.add(id, magnitude, time));
+    }
+
+    @Override
+    public void onRemoved(String id, double magnitude, String place, long time) {
+        String name = primaryLocation(place);
+        Place entry = mPlaces.get(name);
+        int slot = mSlots.remove(id);
+        String moved = entry.remove(slot);
+        if (moved != null) {
+            mSlots.put(moved, slot);
+        }
+        if (entry.mSize > 0) {
+            return;
+        }
+        mPlaces.remove(name);
+        for (String term : entry.mTerms) {
+            ArrayList<Place> places = mTerms.get(term);
+            places.remove(entry);
+            if (places.isEmpty()) {
+                mTerms.remove(term);
+            }
+        }
+    }
+
+    @Override
+    public void onCleared() {
+        mPlaces.clear();
+        mTerms.clear();
+        mSlots.clear();
+    }
+
+    /**
+     * Returns the places that have a word starting with each word of the query. Called with
+     * the store's lock held.
+     */
+    private HashSet<Place> match(String query) {
+        HashSet<Place> result = null;
+        for (String word : words(query)) {
+            HashSet<Place> matches = new HashSet<>();
+            // Every term with the prefix sorts between the prefix and the prefix plus the
+            // largest char
+            for (ArrayList<Place> places
+                    : mTerms.subMap(word, word + Character.MAX_VALUE).values()) {
+                for (Place place : places) {
+                    if (result == null || result.contains(place)) {
+                        matches.add(place);
+                    }
+                }
+            }
+            result = matches;
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : new HashSet<Place>();
+    }
+
+    private static String[] words(String text) {
+        String[] words = WORD_SEPARATOR.split(text.toLowerCase(Locale.ROOT));
+        // A leading separator leaves an empty first word
+        if (words.length > 0 && words[0].isEmpty()) {
+            String[] trimmed = new String[words.length - 1];
+            System.arraycopy(words, 1, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return words;
+    }
+
+    private static void siftUp(String[] ids, long[] times, int index, String id, long time) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (times[parent] <= time) {
+                break;
+            }
+            ids[index] = ids[parent];
+            times[index] = times[parent];
+            index = parent;
+        }
+        ids[index] = id;
+        times[index] = time;
+    }
+
+    /**
+     * Replaces the top of a heap of {@code size} entries and moves the new entry down into
+     * place.
+     */
+    private static void siftDown(String[] ids, long[] times, int size, String id, long time) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && times[child + 1] < times[child]) {
+                child++;
+            }
+            if (time <= times[child]) {
+                break;
+            }
+            ids[index] = ids[child];
+            times[index] = times[child];
+            index = child;
+        }
+        if (size > 0) {
+            ids[index] = id;
+            times[index] = time;
+        }
+    }
+
+    /**
+     * One primary location and the events at it, column by column.
+     */
+    private static final class Place {
+        final String mName;
+        final String[] mTerms;
+        int mSize;
+        String[] mIds = new String[4];
+        long[] mTimes = new long[4];
+        double[] mMagnitudes = new double[4];
+
+        Place(String name) {
+            mName = name;
+            // Each distinct word once, so a place is listed once per term
+            HashSet<String> terms = new HashSet<>();
+            for (String word : words(name)) {
+                terms.add(word);
+            }
+            mTerms = terms.toArray(new String[terms.size()]);
+        }
+
+        /**
+         * @return the slot of the new event
+         */
+        int add(String id, double magnitude, long time) {
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+                mTimes = Arrays.copyOf(mTimes, mSize * 2);
+                mMagnitudes = Arrays.copyOf(mMagnitudes, mSize * 2);
+            }
+            mIds[mSize] = id;
+            mTimes[mSize] = time;
+            mMagnitudes[mSize] = magnitude;
+            return mSize++;
+        }
+
+        /**
+         * Removes the event in the slot. The last event takes its place.
+         *
+         * @return the id of the event that moved into the slot, or null if none did
+         */
+        String remove(int slot) {
+            int last = --mSize;
+            String moved = null;
+            if (slot != last) {
+                moved = mIds[last];
+                mIds[slot] = moved;
+                mTimes[slot] = mTimes[last];
+                mMagnitudes[slot] = mMagnitudes[last];
+            }
+            mIds[last] = null;
+            return moved;
+        }
+    }
+}
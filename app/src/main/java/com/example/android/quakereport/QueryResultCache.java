@@ -0,0 +1,150 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formatted rows of recently shown queries, kept in memory for the whole process so a query
+ * the user returns to is shown at once, without parsing or formatting anything.
+ * <p>
+ * Entries are keyed by the query URL, which holds every parameter the loaders build it from,
+ * and weighed by an estimate of the heap their rows take. The least recently used are evicted
+ * once the total exceeds the budget. {@link #trimToPercent} shrinks the cache further when the
+ * system runs short of memory; it fills up to the full budget again as queries are loaded.
+ */
+public final class QueryResultCache {
+
+    // Object header and fields of a row, and of the list slot that points at it
+    private static final int ROW_OVERHEAD_BYTES = 48;
+    // Header, hash and array header of a string; each char takes two bytes more
+    private static final int STRING_OVERHEAD_BYTES = 40;
+    // Map entry, key string and list
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long mMaxBytes;
+    private long mBytes;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param maxBytes the heap the cached rows may take, by {@link #estimateBytes}
+     */
+    public QueryResultCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the rows last stored for the query, or null if there are none.
+     */
+    public synchronized List<EarthquakeRow> get(String queryUrl) {
+        Entry entry = mEntries.get(queryUrl);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.mRows;
+    }
+
+    /**
+     * Stores the rows of the query, replacing any stored before. Rows larger than the whole
+     * budget are not kept.
+     */
+    public synchronized void put(String queryUrl, List<EarthquakeRow> rows) {
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<>(rows)),
+                estimateBytes(queryUrl, rows));
+        Entry old = mEntries.remove(queryUrl);
+        if (old != null) {
+            mBytes -= old.mBytes;
+        }
+        if (entry.mBytes > mMaxBytes) {
+            return;
+        }
+        mEntries.put(queryUrl, entry);
+        mBytes += entry.mBytes;
+        trimTo(mMaxBytes);
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache holds at most the given percentage
+     * of its budget. The budget itself stays the same.
+     */
+    public synchronized void trimToPercent(int percent) {
+        trimTo(mMaxBytes * percent / 100);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the estimated heap of the cached rows.
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mEntries.size() + " queries, " + mBytes / 1024 + " of " + mMaxBytes / 1024
+                + " KB, " + mHitCount + " hits, " + mMissCount + " misses";
+    }
+
+    /**
+     * Returns roughly how much heap an entry for the rows takes. Strings that rows share, such as
+     * dates, are counted for every row, so this errs on the high side.
+     */
+    static long estimateBytes(String queryUrl, List<EarthquakeRow> rows) {
+        long bytes = ENTRY_OVERHEAD_BYTES + stringBytes(queryUrl);
+        for (EarthquakeRow row : rows) {
+            bytes += ROW_OVERHEAD_BYTES
+                    + stringBytes(row.getId())
+                    + stringBytes(row.getMagnitudeText())
+                    + stringBytes(row.getLocationOffset())
+                    + stringBytes(row.getPrimaryLocation())
+                    + stringBytes(row.getDateText())
+                    + stringBytes(row.getTimeText());
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String text) {
+        return text != null ? STRING_OVERHEAD_BYTES + 2L * text.length() : 0;
+    }
+
+    private void trimTo(long maxBytes) {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            mBytes -= eldest.getValue().mBytes;
+        }
+    }
+
+    private static final class Entry {
+        final List<EarthquakeRow> mRows;
+        final long mBytes;
+
+        Entry(List<EarthquakeRow> rows, long bytes) {
+            mRows = rows;
+            mBytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+/**
+ * Reads and rewrites the parameters of USGS query URLs. Kept apart from {@link QueryUtils} so
+ * the desktop tools name query families the same way the app does.
+ */
+public final class QueryUrls {
+
+    // Parameters the query engine applies locally, so they are left out of the coverage key
+    private static final String[] LOCAL_PARAMETERS = {
+            "minmag", "minmagnitude", "starttime", "endtime", "orderby", "limit", "offset",
+            "latitude", "longitude", "maxradius", "maxradiuskm",
+            "minlatitude", "maxlatitude", "minlongitude", "maxlongitude"
+    };
+
+    private QueryUrls() {
+    }
+
+    /**
+     * Returns the query URL without the parameters that are applied locally. Queries with the
+     * same key can share one download.
+     */
+    public static String coverageKey(String queryUrl) {
+        String key = queryUrl;
+        for (String name : LOCAL_PARAMETERS) {
+            key = setParameter(key, name, null);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the decoded value of a query parameter of the URL, or null if it is not set.
+     */
+    public static String getParameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String pair : url.substring(query + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            if (key.equals(name)) {
+                return equals < 0 ? "" : decode(pair.substring(equals + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URL with the query parameter set to the value, replacing any existing value.
+     * A null value removes the parameter.
+     */
+    public static String setParameter(String url, String name, String value) {
+        int query = url.indexOf('?');
+        StringBuilder result = new StringBuilder(query < 0 ? url : url.substring(0, query));
+        char separator = '?';
+        if (query >= 0) {
+            for (String pair : url.substring(query + 1).split("&")) {
+                int equals = pair.indexOf('=');
+                String key = equals < 0 ? pair : pair.substring(0, equals);
+                if (!key.equals(name) && !pair.isEmpty()) {
+                    result.append(separator).append(pair);
+                    separator = '&';
+                }
+            }
+        }
+        if (value == null) {
+            return result.toString();
+        }
+        return result.append(separator).append(name).append('=').append(encode(value)).toString();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -3,20 +3,27 @@ package com.example.android.quakereport;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -33,91 +40,354 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    // Optional cache of raw responses used to revalidate repeat requests
+    private static volatile DiskResponseCache sResponseCache;
+
+    /**
+     * Install a response cache that all following requests are revalidated against.
+     * Pass null to turn caching off.
+     */
+    public static void setResponseCache(DiskResponseCache cache) {
+        sResponseCache = cache;
+    }
+
+    public static DiskResponseCache getResponseCache() {
+        return sResponseCache;
+    }
+
+    // Sends the requests, replaceable so other HTTP stacks or stand-in servers can be used
+    private static volatile Transport sTransport = new HttpTransport();
+
+    /**
+     * Install the transport all following requests are sent through.
+     */
+    public static void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new NullPointerException("transport == null");
+        }
+        sTransport = transport;
+    }
+
+    public static Transport getTransport() {
+        return sTransport;
+    }
+
+    // Downloads running now, so concurrent requests for the same URL share one
+    private static final SingleFlight<List<Earthquake>> sFlights = new SingleFlight<>();
+
+    /**
+     * Query the USGS dataset and return its earthquakes. A request for a URL that is already
+     * being downloaded waits for that download instead of sending another one.
+     * <p>
+     * The first caller downloads on its own thread. Cancelling the token returns right away,
+     * except for that caller while others still wait for its download. The download itself
+     * is aborted, socket and parser included, once no caller is waiting for it.
+     *
+     * @param cancellation may be null
+     * @return the earthquakes in response order, shared with the other callers so read-only
+     * @throws InterruptedIOException if the token was cancelled
+     * @throws IOException            if the request failed
+     */
+    public static List<Earthquake> fetchEarthquakes(final String requestUrl,
+                                                    CancellationToken cancellation)
+            throws IOException {
+        return sFlights.get(requestUrl, new SingleFlight.Call<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call(CancellationToken shared) throws IOException {
+                final List<Earthquake> earthquakes = new ArrayList<>();
+                boolean fetched = makeHttpRequest(createUrl(requestUrl),
+                        new EarthquakeStreamParser.Callback() {
+                            @Override
+                            public void onEarthquake(Earthquake earthquake) {
+                                earthquakes.add(earthquake);
+                            }
+                        }, shared);
+                if (!fetched) {
+                    throw new IOException("Could not load " + requestUrl);
+                }
+                return Collections.unmodifiableList(earthquakes);
+            }
+        }, cancellation);
+    }
+
     /**
      * Query the USGS dataset and return an {@link ArrayList<Earthquake>}
      * object to represent a single earthquake.
      */
     public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        fetchEarthquakeData(requestUrl, new EarthquakeStreamParser.Callback() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+
+        return earthquakes;
+    }
+
+    /**
+     * Query the USGS dataset and pass each {@link Earthquake} to the callback as soon as it has
+     * been read from the response, without buffering the whole response first.
+     *
+     * @return true if the request succeeded and the response was parsed
+     */
+    public static boolean fetchEarthquakeData(String requestUrl, EarthquakeStreamParser.Callback callback) {
         // Create URL object
         URL url = createUrl(requestUrl);
 
-        // Use this code to test the progress bar. Will delay load time.
-//        try {
-//            Thread.sleep(2000);
-//        } catch (InterruptedException e) {
-//            e.printStackTrace();
-//        }
-
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the JSON response as it arrives
         try {
-            jsonResponse = makeHttpRequest(url);
+            return makeHttpRequest(url, callback, null);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error closing input stream", e);
         }
+        return false;
+    }
 
-        // Extract relevant fields from the JSON response and create an {@link Event} object
-        List<Earthquake> earthquakes = extractEarthquakes(jsonResponse);
+    /**
+     * Ask the USGS count endpoint how many events the query matches. Paging and ordering
+     * parameters are ignored.
+     *
+     * @param cancellation may be null
+     * @return the number of events, or -1 if it could not be retrieved
+     * @throws InterruptedIOException if the token was cancelled
+     */
+    public static int fetchEarthquakeCount(String queryUrl, CancellationToken cancellation)
+            throws InterruptedIOException {
+        String countUrl = queryUrl.replace("/query?", "/count?");
+        countUrl = QueryUrls.setParameter(countUrl, "format", "geojson");
+        countUrl = QueryUrls.setParameter(countUrl, "limit", null);
+        countUrl = QueryUrls.setParameter(countUrl, "offset", null);
+        countUrl = QueryUrls.setParameter(countUrl, "orderby", null);
+        if (createUrl(countUrl) == null) {
+            return -1;
+        }
 
-        Log.i("QueryUtils", "fetchEarthquakeData initialized");
+        Transport.Response response = null;
+        try {
+            response = sTransport.get(countUrl, null, cancellation);
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code: " + response.getCode());
+                return -1;
+            }
+            // The response looks like {"count":1234,"maxAllowed":20000}
+            JsonByteReader reader = new JsonByteReader(response.getBody());
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("count".equals(reader.nextName())) {
+                    return (int) reader.nextLong();
+                }
+                reader.skipValue();
+            }
+        } catch (IOException e) {
+            if (cancellation != null && cancellation.isCancelled()) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            Log.e(LOG_TAG, "Problem retrieving the earthquake count.", e);
+        } finally {
+            closeQuietly(response);
+        }
+        return -1;
+    }
 
-        // Return the {@link Event}
-        return earthquakes;
+    /**
+     * Query the USGS dataset and index the response without decoding its events, see
+     * {@link EarthquakeResponseIndex}. With a response cache installed the body is stored
+     * there and mapped from the file, otherwise it is held in memory.
+     *
+     * @param cancellation may be null
+     * @return the index, or null if the request failed
+     * @throws InterruptedIOException if the token was cancelled
+     */
+    public static EarthquakeResponseIndex fetchEarthquakeIndex(String requestUrl,
+                                                               CancellationToken cancellation)
+            throws InterruptedIOException {
+        if (createUrl(requestUrl) == null) {
+            return null;
+        }
+        DiskResponseCache cache = sResponseCache;
+        DiskResponseCache.Entry cached = cache != null ? cache.get(requestUrl) : null;
+        DiskResponseCache.Editor editor = null;
+        Transport.Response response = null;
+        try {
+            response = sTransport.get(requestUrl, validatorHeaders(cached), cancellation);
+            int responseCode = response.getCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                return EarthquakeResponseIndex.map(cached.getFile());
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                return null;
+            }
+
+            long start = System.nanoTime();
+            InputStream body = response.getBody();
+            if (cache != null) {
+                editor = cache.edit(requestUrl);
+                body = editor.tee(body);
+            }
+            // Without a cache the body is read straight into one array, which is then wrapped
+            // rather than copied; with one, the array is only a scratch buffer for the tee
+            byte[] buffer = new byte[8192];
+            int length = 0;
+            int read;
+            while ((read = body.read(buffer, length, buffer.length - length)) != -1) {
+                if (editor == null) {
+                    length += read;
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, length * 2);
+                    }
+                }
+            }
+            Metrics.DOWNLOAD.record((System.nanoTime() - start) / 1000);
+
+            start = System.nanoTime();
+            ByteBuffer bytes;
+            if (editor != null) {
+                // Mapped before committing, so eviction of a large body cannot take it away
+                bytes = editor.map();
+                editor.commit(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                editor = null;
+            } else {
+                bytes = ByteBuffer.wrap(buffer, 0, length);
+            }
+            EarthquakeResponseIndex index = EarthquakeResponseIndex.build(bytes);
+            recordParse(index.size(), System.nanoTime() - start);
+            return index;
+        } catch (IOException e) {
+            if (cancellation != null && cancellation.isCancelled()) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            Log.e(LOG_TAG, "Problem indexing the earthquake JSON results.", e);
+        } finally {
+            if (editor != null) {
+                editor.abort();
+            }
+            closeQuietly(response);
+        }
+        return null;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Formats a time the way USGS query parameters such as starttime expect it.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    public static String formatQueryTime(long timeInMilliseconds) {
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return isoFormat.format(new Date(timeInMilliseconds));
+    }
 
+    /**
+     * Make an HTTP request to the given URL and stream the response through the parser. If a
+     * response cache is installed, the request is revalidated against the cached copy and the
+     * cached body is parsed when the server answers 304 Not Modified.
+     *
+     * @throws InterruptedIOException if the token was cancelled, other failures return false
+     */
+    private static boolean makeHttpRequest(URL url, EarthquakeStreamParser.Callback callback,
+                                           CancellationToken cancellation) throws IOException {
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return false;
         }
 
-        HttpURLConnection urlConnection = null;
+        DiskResponseCache cache = sResponseCache;
+        String cacheKey = url.toString();
+        DiskResponseCache.Entry cached = cache != null ? cache.get(cacheKey) : null;
+        DiskResponseCache.Editor editor = null;
+
+        Transport.Response response = null;
         InputStream inputStream = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            response = sTransport.get(cacheKey, validatorHeaders(cached), cancellation);
+
+            int responseCode = response.getCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // Nothing changed on the server, so parse the copy we already have
+                inputStream = cached.newInputStream();
+                long start = System.nanoTime();
+                int count = EarthquakeStreamParser.parse(inputStream, callback, cancellation);
+                recordParse(count, System.nanoTime() - start);
+                return true;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // If the request was successful (response code 200),
+                // then parse the input stream as it is read.
+                // The body is closed along with the response
+                long start = System.nanoTime();
+                WaitTimingInputStream download = new WaitTimingInputStream(response.getBody());
+                InputStream body = download;
+                if (cache != null) {
+                    editor = cache.edit(cacheKey);
+                    body = editor.tee(body);
+                }
+                int count = EarthquakeStreamParser.parse(body, callback, cancellation);
+                long waitNanos = download.getWaitNanos();
+                Metrics.DOWNLOAD.record(waitNanos / 1000);
+                recordParse(count, System.nanoTime() - start - waitNanos);
+                if (editor != null) {
+                    // Keep any trailing bytes so the cached body is the complete response
+                    byte[] rest = new byte[1024];
+                    while (body.read(rest) != -1) {
+                        // Discard, the tee has already copied it
+                    }
+                    editor.commit(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                    editor = null;
+                }
+                return true;
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
             }
         } catch (IOException e) {
+            if (cancellation != null && cancellation.isCancelled()) {
+                // Whatever failed was most likely the aborted socket
+                throw new InterruptedIOException("Cancelled");
+            }
             Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (editor != null) {
+                editor.abort();
             }
             if (inputStream != null) {
                 inputStream.close();
             }
+            // Leaves the connection open for the next request
+            closeQuietly(response);
         }
-        return jsonResponse;
+        return false;
     }
 
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+    /**
+     * Returns the headers that make the server answer 304 if the cached copy is still current.
+     */
+    private static Map<String, String> validatorHeaders(DiskResponseCache.Entry cached) {
+        Map<String, String> headers = new HashMap<>();
+        if (cached != null) {
+            if (cached.getETag() != null) {
+                headers.put("If-None-Match", cached.getETag());
+            }
+            if (cached.getLastModified() != null) {
+                headers.put("If-Modified-Since", cached.getLastModified());
             }
         }
-        return output.toString();
+        return headers;
+    }
+
+    private static void recordParse(int count, long nanos) {
+        Metrics.PARSE.record(nanos / 1000);
+        if (nanos > 0) {
+            Metrics.PARSE_RATE.record(count * 1000000000L / nanos);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing response", e);
+        }
     }
 
     /**
@@ -131,37 +401,27 @@ public final class QueryUtils {
             return null;
         }
 
+        return extractEarthquakes(new ByteArrayInputStream(earthquakeJSON.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    /**
+     * Return a list of {@link Earthquake} objects parsed from a stream of JSON. Earthquakes
+     * read before a malformed part of the response are kept.
+     */
+    public static List<Earthquake> extractEarthquakes(InputStream earthquakeJSON) {
         // Empty ArrayList to add earthquakes to
-        List<Earthquake> earthquakes = new ArrayList<>();
+        final List<Earthquake> earthquakes = new ArrayList<>();
 
-        // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
+        // If there's a problem with the way the JSON is formatted, an IOException is thrown.
         // Catch the exception so the app doesn't crash, and print the error message to the logs.
         try {
-
-            // TODO: Parse the response given by the SAMPLE_JSON_RESPONSE string and
-            // build up a list of Earthquake objects with the corresponding data.
-            JSONObject jsonEarthquakeObject = new JSONObject(earthquakeJSON);
-            JSONArray earthquakesArray = jsonEarthquakeObject.getJSONArray("features");
-            // For each earthquake in the earthquakeArray, create an {@link Earthquake} object
-            for (int i = 0; i < earthquakesArray.length(); i++) {
-                JSONObject currentEarthquake = earthquakesArray.getJSONObject(i);
-                JSONObject properties = currentEarthquake.getJSONObject("properties");
-                double magnitude = properties.getDouble("mag");
-                String location = properties.getString("place");
-                long time = properties.getLong("time");
-                String url = properties.getString("url");
-
-
-                earthquakes.add(new Earthquake(magnitude, location, time, url));
-
-                Log.v("QueryUtils", "JSON data successfully parsed");
-            }
-
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
+            EarthquakeStreamParser.parse(earthquakeJSON, new EarthquakeStreamParser.Callback() {
+                @Override
+                public void onEarthquake(Earthquake earthquake) {
+                    earthquakes.add(earthquake);
+                }
+            });
+        } catch (IOException e) {
             Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
         }
 
@@ -182,6 +442,40 @@ public final class QueryUtils {
         return url;
     }
 
+    /**
+     * Adds up the time spent waiting in reads, which for a response body is the time spent
+     * waiting for the network.
+     */
+    private static final class WaitTimingInputStream extends FilterInputStream {
+        private long mWaitNanos;
+
+        WaitTimingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                mWaitNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                mWaitNanos += System.nanoTime() - start;
+            }
+        }
 
+        long getWaitNanos() {
+            return mWaitNanos;
+        }
+    }
 }
 
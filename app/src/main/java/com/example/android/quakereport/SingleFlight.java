@@ -0,0 +1,206 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs at most one call per key at a time. Callers asking for a key that is already being
+ * fetched wait for that fetch and share its result instead of starting their own.
+ * <p>
+ * The first caller of a key runs the call on its own thread, so no threads are added besides
+ * those of the callers. A waiting caller can give up with a {@link CancellationToken} and
+ * returns right away. The caller running the call returns once the call ends: when it gives
+ * up while others still wait, it finishes the call for them and then reports its
+ * cancellation. The call is only cancelled once every caller has given up, so it stops using
+ * the network as soon as nobody needs it. Results are not kept: a caller arriving after a
+ * call finished starts a new one.
+ */
+public final class SingleFlight<V> {
+
+    /**
+     * The work shared by all callers of one key.
+     */
+    public interface Call<V> {
+        /**
+         * @param cancellation cancelled once no caller wants the result anymore
+         */
+        V call(CancellationToken cancellation) throws IOException;
+    }
+
+    private final Map<String, Flight<V>> mFlights = new HashMap<>();
+
+    /**
+     * Returns the result of the call for the key, joining a call already running for it.
+     *
+     * @param cancellation cancels this caller's wait, may be null
+     * @throws InterruptedIOException if this caller was cancelled or interrupted
+     * @throws IOException            if the call failed
+     */
+    public V get(String key, Call<V> call, CancellationToken cancellation) throws IOException {
+        final Flight<V> flight;
+        boolean lead = false;
+        synchronized (mFlights) {
+            Flight<V> running = mFlights.get(key);
+            if (running == null) {
+                running = new Flight<>();
+                mFlights.put(key, running);
+                lead = true;
+            }
+            flight = running;
+            flight.mWaiters++;
+        }
+        if (lead) {
+            return lead(key, flight, call, cancellation);
+        }
+
+        Runnable wakeUp = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (flight) {
+                    flight.notifyAll();
+                }
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addListener(wakeUp);
+        }
+        try {
+            synchronized (flight) {
+                while (!flight.mDone && (cancellation == null || !cancellation.isCancelled())) {
+                    flight.wait();
+                }
+                if (flight.mDone) {
+                    return resultOf(flight);
+                }
+            }
+            leave(key, flight);
+            throw new InterruptedIOException("Cancelled");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            leave(key, flight);
+            throw new InterruptedIOException("Interrupted");
+        } finally {
+            if (cancellation != null) {
+                cancellation.removeListener(wakeUp);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of calls running now.
+     */
+    public int size() {
+        synchronized (mFlights) {
+            return mFlights.size();
+        }
+    }
+
+    /**
+     * Returns the number of callers waiting for the key's call, 0 if none is running.
+     */
+    int getWaiterCount(String key) {
+        synchronized (mFlights) {
+            Flight<V> flight = mFlights.get(key);
+            return flight != null ? flight.mWaiters : 0;
+        }
+    }
+
+    /**
+     * Runs the flight's call on the calling thread and hands its outcome to every waiter.
+     */
+    private V lead(final String key, final Flight<V> flight, Call<V> call,
+                   CancellationToken cancellation) throws IOException {
+        // Set once this caller stopped counting as a waiter, guarded by itself
+        final boolean[] left = new boolean[1];
+        Runnable giveUp = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (left) {
+                    if (left[0]) {
+                        return;
+                    }
+                    left[0] = true;
+                }
+                leave(key, flight);
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addListener(giveUp);
+        }
+
+        V result = null;
+        IOException error = null;
+        try {
+            result = call.call(flight.mCancellation);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        } finally {
+            if (cancellation != null) {
+                cancellation.removeListener(giveUp);
+            }
+            synchronized (left) {
+                left[0] = true;
+            }
+        }
+        synchronized (mFlights) {
+            if (mFlights.get(key) == flight) {
+                mFlights.remove(key);
+            }
+        }
+        synchronized (flight) {
+            flight.mResult = result;
+            flight.mError = error;
+            flight.mDone = true;
+            flight.notifyAll();
+            if (cancellation != null && cancellation.isCancelled()) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            return resultOf(flight);
+        }
+    }
+
+    /**
+     * Returns the result of a finished flight or throws its error. Guarded by the flight's lock.
+     */
+    private V resultOf(Flight<V> flight) throws IOException {
+        if (flight.mError instanceof InterruptedIOException) {
+            // Callers tell cancellation apart from failure by its type
+            throw (InterruptedIOException) flight.mError;
+        }
+        if (flight.mError != null) {
+            throw new IOException(flight.mError.getMessage(), flight.mError);
+        }
+        return flight.mResult;
+    }
+
+    /**
+     * Stops waiting for the flight, cancelling it if this was the last caller.
+     */
+    private void leave(String key, Flight<V> flight) {
+        boolean abandoned;
+        synchronized (mFlights) {
+            abandoned = --flight.mWaiters == 0;
+            if (abandoned && mFlights.get(key) == flight) {
+                // Callers arriving from now on start afresh instead of joining a cancelled call
+                mFlights.remove(key);
+            }
+        }
+        if (abandoned) {
+            flight.mCancellation.cancel();
+        }
+    }
+
+    private static final class Flight<V> {
+        final CancellationToken mCancellation = new CancellationToken();
+        // Callers still waiting, guarded by the map's lock
+        int mWaiters;
+        // Guarded by the flight's own lock
+        boolean mDone;
+        V mResult;
+        IOException mError;
+    }
+}
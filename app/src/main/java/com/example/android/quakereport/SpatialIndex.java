@@ -0,0 +1,213 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Grid index over earthquake epicenters for "near me" and "in this region" queries on the local
+ * data, without asking USGS again. The globe is cut into one-degree cells and the rows of each
+ * cell are stored next to each other, so a query only looks at the events in the few cells its
+ * area touches.
+ * <p>
+ * The index is a snapshot: query results are row numbers of the {@link EarthquakeStore} as it
+ * was when the index was built.
+ */
+public final class SpatialIndex {
+
+    // Mean radius of the earth, as used by the haversine formula
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private static final int LAT_CELLS = 180;
+    private static final int LON_CELLS = 360;
+
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    // Rows grouped by cell: the rows of cell c are mRows[mCellStart[c] .. mCellStart[c + 1])
+    private final int[] mCellStart;
+    private final int[] mRows;
+
+    /**
+     * Builds an index over the epicenters of every row of the store.
+     */
+    public static SpatialIndex build(EarthquakeStore earthquakes) {
+        EarthquakeStore.Cursor cursor = earthquakes.newCursor();
+        synchronized (earthquakes) {
+            int count = earthquakes.size();
+            double[] latitudes = new double[count];
+            double[] longitudes = new double[count];
+            for (int row = 0; row < count; row++) {
+                cursor.moveTo(row);
+                latitudes[row] = cursor.getLatitude();
+                longitudes[row] = cursor.getLongitude();
+            }
+            return new SpatialIndex(latitudes, longitudes);
+        }
+    }
+
+    /**
+     * Builds an index over the given coordinates, where row i is at
+     * ({@code latitudes[i]}, {@code longitudes[i]}). The arrays are kept, not copied.
+     */
+    public SpatialIndex(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length");
+        }
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+
+        // Counting sort of the rows by cell
+        int count = latitudes.length;
+        int[] cells = new int[count];
+        mCellStart = new int[LAT_CELLS * LON_CELLS + 1];
+        for (int row = 0; row < count; row++) {
+            cells[row] = cellOf(latCell(latitudes[row]), lonCell(longitudes[row]));
+            mCellStart[cells[row] + 1]++;
+        }
+        for (int cell = 0; cell < LAT_CELLS * LON_CELLS; cell++) {
+            mCellStart[cell + 1] += mCellStart[cell];
+        }
+        mRows = new int[count];
+        int[] next = Arrays.copyOf(mCellStart, LAT_CELLS * LON_CELLS);
+        for (int row = 0; row < count; row++) {
+            mRows[next[cells[row]]++] = row;
+        }
+    }
+
+    public int size() {
+        return mRows.length;
+    }
+
+    /**
+     * Returns the rows whose epicenter lies within {@code radiusKm} kilometers of the point.
+     */
+    public int[] withinRadius(double latitude, double longitude, double radiusKm) {
+        double latSpan = radiusKm / KM_PER_DEGREE;
+        double south = latitude - latSpan;
+        double north = latitude + latSpan;
+
+        Rows result = new Rows();
+        if (south <= -90 || north >= 90) {
+            // The circle covers a pole, so every longitude is in range
+            scan(Math.max(south, -90), Math.min(north, 90), -180, 180, latitude, longitude, radiusKm,
+                    result);
+        } else {
+            // Degrees of longitude get shorter away from the equator, widen the span to match
+            double widestLatitude = Math.max(Math.abs(south), Math.abs(north));
+            double lonSpan = latSpan / Math.cos(Math.toRadians(widestLatitude));
+            if (lonSpan >= 180) {
+                scan(south, north, -180, 180, latitude, longitude, radiusKm, result);
+            } else {
+                scanWrapped(south, north, longitude - lonSpan, longitude + lonSpan, latitude,
+                        longitude, radiusKm, result);
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Returns the rows whose epicenter lies inside the box. If {@code west} is greater than
+     * {@code east} the box crosses the 180th meridian.
+     */
+    public int[] withinBox(double south, double west, double north, double east) {
+        Rows result = new Rows();
+        if (west > east) {
+            scan(south, north, west, 180, Double.NaN, 0, 0, result);
+            scan(south, north, -180, east, Double.NaN, 0, 0, result);
+        } else {
+            scan(south, north, west, east, Double.NaN, 0, 0, result);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Returns the great-circle distance between two points in kilometers.
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLon = Math.sin(dLon / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Scans a longitude range that may extend past -180 or 180 by splitting it in two.
+     */
+    private void scanWrapped(double south, double north, double west, double east,
+                             double centerLat, double centerLon, double radiusKm, Rows result) {
+        if (west < -180) {
+            scan(south, north, west + 360, 180, centerLat, centerLon, radiusKm, result);
+            scan(south, north, -180, east, centerLat, centerLon, radiusKm, result);
+        } else if (east > 180) {
+            scan(south, north, west, 180, centerLat, centerLon, radiusKm, result);
+            scan(south, north, -180, east - 360, centerLat, centerLon, radiusKm, result);
+        } else {
+            scan(south, north, west, east, centerLat, centerLon, radiusKm, result);
+        }
+    }
+
+    /**
+     * Adds the rows inside the box to the result. If {@code centerLat} is a number, rows must
+     * also be within {@code radiusKm} of the center.
+     */
+    private void scan(double south, double north, double west, double east, double centerLat,
+                      double centerLon, double radiusKm, Rows result) {
+        boolean radius = !Double.isNaN(centerLat);
+        int firstLat = latCell(south);
+        int lastLat = latCell(north);
+        int firstLon = lonCell(west);
+        int lastLon = east >= 180 ? LON_CELLS - 1 : lonCell(east);
+        for (int latCell = firstLat; latCell <= lastLat; latCell++) {
+            for (int lonCell = firstLon; lonCell <= lastLon; lonCell++) {
+                int cell = cellOf(latCell, lonCell);
+                for (int i = mCellStart[cell]; i < mCellStart[cell + 1]; i++) {
+                    int row = mRows[i];
+                    double lat = mLatitudes[row];
+                    double lon = mLongitudes[row];
+                    if (lat < south || lat > north || lon < west || lon > east) {
+                        continue;
+                    }
+                    if (radius && distanceKm(centerLat, centerLon, lat, lon) > radiusKm) {
+                        continue;
+                    }
+                    result.add(row);
+                }
+            }
+        }
+    }
+
+    private static int latCell(double latitude) {
+        int cell = (int) Math.floor(latitude + 90);
+        return Math.max(0, Math.min(LAT_CELLS - 1, cell));
+    }
+
+    private static int lonCell(double longitude) {
+        int cell = (int) Math.floor(longitude + 180);
+        return Math.max(0, Math.min(LON_CELLS - 1, cell));
+    }
+
+    private static int cellOf(int latCell, int lonCell) {
+        return latCell * LON_CELLS + lonCell;
+    }
+
+    /**
+     * Growable list of row numbers.
+     */
+    private static final class Rows {
+        private int[] mRows = new int[16];
+        private int mSize;
+
+        void add(int row) {
+            if (mSize == mRows.length) {
+                mRows = Arrays.copyOf(mRows, mSize * 2);
+            }
+            mRows[mSize++] = row;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mRows, mSize);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a long time window that would exceed the USGS cap of 20,000 events per query.
+ * <p>
+ * The window is cut into sub-windows that are requested at the same time, each one parsed on
+ * the thread that downloaded it. The number of sub-windows comes from the USGS count endpoint
+ * when it answers. A sub-window that still comes back full is split in half and requested
+ * again. The parts are merged by event id into one list, newest first.
+ * <p>
+ * Every sub-window goes through {@link QueryUtils#fetchEarthquakes}, so it can be cancelled and
+ * is shared with any other caller asking for the same URL. The download threads are daemons
+ * and stop once they have been idle for a while.
+ */
+public final class SplitRangeFetcher {
+
+    // Most events USGS returns for a single query
+    static final int MAX_EVENTS_PER_QUERY = 20000;
+    // Windows shorter than this are not split any further
+    private static final long MIN_WINDOW_MILLIS = 60 * 1000;
+    // How long an idle download thread is kept
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final int mConcurrency;
+    private final int mMaxRequestsPerHost;
+    private final int mMaxEventsPerQuery;
+    private final ThreadPoolExecutor mExecutor;
+    private final Map<String, Semaphore> mHostPermits = new HashMap<>();
+
+    /**
+     * @param concurrency        number of sub-windows downloaded at the same time
+     * @param maxRequestsPerHost number of requests open to a single host at the same time
+     */
+    public SplitRangeFetcher(int concurrency, int maxRequestsPerHost) {
+        this(concurrency, maxRequestsPerHost, MAX_EVENTS_PER_QUERY);
+    }
+
+    /**
+     * @param maxEventsPerQuery most events the server returns for one query
+     */
+    SplitRangeFetcher(int concurrency, int maxRequestsPerHost, int maxEventsPerQuery) {
+        if (concurrency < 1 || maxRequestsPerHost < 1 || maxEventsPerQuery < 2) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        mConcurrency = concurrency;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        mMaxEventsPerQuery = maxEventsPerQuery;
+        mExecutor = new ThreadPoolExecutor(concurrency, concurrency,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "split-range-" + ++mCount);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the most events a single query returns. A response this large was cut off.
+     */
+    public int getMaxEventsPerQuery() {
+        return mMaxEventsPerQuery;
+    }
+
+    /**
+     * Downloads every event the query matches between the two times, ignoring any time range,
+     * order or paging parameters of the query itself. Other parameters, such as updatedafter,
+     * apply to every sub-window.
+     *
+     * @param endTime      end of the window, or {@code Long.MAX_VALUE} to include everything up
+     *                     to the time the last sub-window is answered
+     * @param cancellation may be null
+     * @throws InterruptedIOException if the token was cancelled
+     * @throws IOException            if a sub-window could not be downloaded
+     */
+    public List<Earthquake> fetch(String queryUrl, long startTime, long endTime,
+                                  CancellationToken cancellation) throws IOException {
+        String baseUrl = queryUrl;
+        for (String name : new String[]{"starttime", "endtime", "orderby", "limit", "offset"}) {
+            baseUrl = QueryUrls.setParameter(baseUrl, name, null);
+        }
+        Semaphore permits = permitsFor(baseUrl);
+        boolean openEnd = endTime == Long.MAX_VALUE;
+        if (openEnd) {
+            // Split points are picked up to now, the last window stays open
+            endTime = Math.max(startTime + 1, System.currentTimeMillis());
+        }
+
+        int windowCount = mConcurrency;
+        int count = QueryUtils.fetchEarthquakeCount(
+                windowUrl(baseUrl, startTime, endTime, openEnd), cancellation);
+        if (count == 0) {
+            return Collections.emptyList();
+        } else if (count > 0) {
+            // Size sub-windows well below the cap, so few of them have to be split again
+            int perWindow = mMaxEventsPerQuery / 2;
+            windowCount = Math.max(windowCount, (count + perWindow - 1) / perWindow);
+        }
+
+        // Cancelled when the caller gives up or a sub-window fails, stops the others
+        final CancellationToken windows = new CancellationToken();
+        Runnable cancelWindows = new Runnable() {
+            @Override
+            public void run() {
+                windows.cancel();
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addListener(cancelWindows);
+        }
+
+        CompletionService<Window> completion = new ExecutorCompletionService<>(mExecutor);
+        List<Future<Window>> pending = new ArrayList<>();
+        long span = endTime - startTime;
+        for (int i = 0; i < windowCount; i++) {
+            boolean last = i == windowCount - 1;
+            long windowStart = startTime + span * i / windowCount;
+            long windowEnd = last ? endTime : startTime + span * (i + 1) / windowCount;
+            pending.add(completion.submit(new Window(baseUrl, windowStart, windowEnd,
+                    last && openEnd, permits, windows)));
+        }
+
+        Map<String, Earthquake> merged = new HashMap<>();
+        try {
+            int outstanding = pending.size();
+            while (outstanding > 0) {
+                Window window = get(completion);
+                outstanding--;
+                if (window.isCutOff()) {
+                    // The window hit the cap, fetch each half of it instead
+                    long middle = window.mStart + (window.mEnd - window.mStart) / 2;
+                    pending.add(completion.submit(new Window(baseUrl, window.mStart, middle,
+                            false, permits, windows)));
+                    pending.add(completion.submit(new Window(baseUrl, middle, window.mEnd,
+                            window.mOpenEnd, permits, windows)));
+                    outstanding += 2;
+                } else {
+                    // Windows share their boundaries, events on them are merged by id
+                    for (Earthquake earthquake : window.mEarthquakes) {
+                        Earthquake known = merged.get(earthquake.getId());
+                        if (known == null || known.getUpdatedInMilliseconds()
+                                < earthquake.getUpdatedInMilliseconds()) {
+                            merged.put(earthquake.getId(), earthquake);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (cancellation != null) {
+                cancellation.removeListener(cancelWindows);
+            }
+            // Nothing is left running after a failure; after a success this does nothing
+            windows.cancel();
+            for (Future<Window> future : pending) {
+                future.cancel(false);
+            }
+        }
+
+        List<Earthquake> newestFirst = new ArrayList<>(merged.values());
+        Collections.sort(newestFirst, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake a, Earthquake b) {
+                long left = a.getTimeInMilliseconds();
+                long right = b.getTimeInMilliseconds();
+                return left > right ? -1 : (left == right ? a.getId().compareTo(b.getId()) : 1);
+            }
+        });
+        return newestFirst;
+    }
+
+    private static Window get(CompletionService<Window> completion) throws IOException {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                // Cancellations keep their type
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Window download failed", e.getCause());
+        }
+    }
+
+    private Semaphore permitsFor(String url) throws IOException {
+        String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            throw new IOException("Bad query URL " + url, e);
+        }
+        synchronized (mHostPermits) {
+            Semaphore permits = mHostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(mMaxRequestsPerHost);
+                mHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    private static String windowUrl(String baseUrl, long startTime, long endTime,
+                                    boolean openEnd) {
+        String url = QueryUrls.setParameter(baseUrl, "starttime",
+                QueryUtils.formatQueryTime(startTime));
+        return QueryUrls.setParameter(url, "endtime",
+                openEnd ? null : QueryUtils.formatQueryTime(endTime));
+    }
+
+    /**
+     * Download of one sub-window.
+     */
+    private final class Window implements Callable<Window> {
+        final String mBaseUrl;
+        final long mStart;
+        final long mEnd;
+        // True if the window reaches up to the time it is answered rather than to mEnd
+        final boolean mOpenEnd;
+        final Semaphore mPermits;
+        final CancellationToken mCancellation;
+        List<Earthquake> mEarthquakes;
+
+        Window(String baseUrl, long start, long end, boolean openEnd, Semaphore permits,
+               CancellationToken cancellation) {
+            mBaseUrl = baseUrl;
+            mStart = start;
+            mEnd = end;
+            mOpenEnd = openEnd;
+            mPermits = permits;
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public Window call() throws IOException {
+            String url = windowUrl(mBaseUrl, mStart, mEnd, mOpenEnd);
+            url = QueryUrls.setParameter(url, "limit", String.valueOf(mMaxEventsPerQuery));
+            try {
+                mPermits.acquire();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted");
+            }
+            try {
+                mCancellation.throwIfCancelled();
+                mEarthquakes = QueryUtils.fetchEarthquakes(url, mCancellation);
+            } finally {
+                mPermits.release();
+            }
+            return this;
+        }
+
+        boolean isCutOff() {
+            return mEarthquakes.size() >= mMaxEventsPerQuery && mEnd - mStart > MIN_WINDOW_MILLIS;
+        }
+    }
+}
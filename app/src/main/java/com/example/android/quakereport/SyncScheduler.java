@@ -0,0 +1,137 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+
+/**
+ * Decides when the background sync runs next.
+ * <p>
+ * The interval starts short and doubles every time a sync finds nothing new, up to a maximum,
+ * so a quiet feed costs few wake-ups. As soon as a sync brings in changes the interval drops
+ * back to the minimum. Failed syncs are retried separately with their own backoff, without
+ * touching the interval. The clock and the fetcher are passed in so the policy can be driven
+ * by fakes.
+ */
+public final class SyncScheduler {
+
+    /**
+     * Source of the current time.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    /**
+     * Brings the local data up to date.
+     */
+    public interface Fetcher {
+        /**
+         * @return true if any event was added, changed or removed
+         * @throws IOException if the data could not be downloaded
+         */
+        boolean fetch() throws IOException;
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    // Failures in a row after which the retry delay stops growing
+    private static final int MAX_BACKOFF_STEPS = 16;
+
+    private final Clock mClock;
+    private final Fetcher mFetcher;
+    private final long mMinInterval;
+    private final long mMaxInterval;
+
+    private long mInterval;
+    private int mFailureCount;
+    private long mLastSuccessTime;
+    private long mNextRunTime;
+
+    public SyncScheduler(Clock clock, Fetcher fetcher, long minInterval, long maxInterval) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Bad interval range " + minInterval + ".." + maxInterval);
+        }
+        mClock = clock;
+        mFetcher = fetcher;
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+        mInterval = minInterval;
+    }
+
+    /**
+     * Restores the state saved from an earlier instance, such as one in a process that has
+     * since been killed.
+     */
+    public void restore(long interval, int failureCount, long lastSuccessTime, long nextRunTime) {
+        mInterval = Math.max(mMinInterval, Math.min(mMaxInterval, interval));
+        mFailureCount = Math.max(0, failureCount);
+        mLastSuccessTime = lastSuccessTime;
+        mNextRunTime = nextRunTime;
+    }
+
+    /**
+     * Runs one sync and works out when the next one is due.
+     *
+     * @return the delay until the next sync in milliseconds
+     */
+    public long run() {
+        long delay;
+        try {
+            boolean changed = mFetcher.fetch();
+            mFailureCount = 0;
+            mLastSuccessTime = mClock.currentTimeMillis();
+            mInterval = changed ? mMinInterval : Math.min(mInterval * 2, mMaxInterval);
+            delay = mInterval;
+        } catch (IOException e) {
+            mFailureCount++;
+            delay = getRetryDelay();
+        }
+        mNextRunTime = mClock.currentTimeMillis() + delay;
+        return delay;
+    }
+
+    /**
+     * Returns true if the next sync is due now.
+     */
+    public boolean isDue() {
+        return mClock.currentTimeMillis() >= mNextRunTime;
+    }
+
+    /**
+     * Returns the time left until the next sync is due, 0 if it is overdue.
+     */
+    public long getDelay() {
+        return Math.max(0, mNextRunTime - mClock.currentTimeMillis());
+    }
+
+    /**
+     * Returns the time between syncs while they succeed.
+     */
+    public long getInterval() {
+        return mInterval;
+    }
+
+    public int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * Returns the time of the last sync that succeeded, 0 if none has.
+     */
+    public long getLastSuccessTime() {
+        return mLastSuccessTime;
+    }
+
+    public long getNextRunTime() {
+        return mNextRunTime;
+    }
+
+    private long getRetryDelay() {
+        int steps = Math.min(mFailureCount - 1, MAX_BACKOFF_STEPS);
+        return Math.min(mMinInterval << steps, mMaxInterval);
+    }
+}
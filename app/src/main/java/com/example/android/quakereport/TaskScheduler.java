@@ -0,0 +1,454 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Runs background work on a few worker threads in three lanes: loads the user is waiting for,
+ * prefetches, and maintenance such as saving snapshots or the periodic sync.
+ * <p>
+ * Workers always take the highest lane with work first, and the two background lanes together
+ * never hold every worker, so a visible load starts right away however much background work
+ * is queued. If visible loads do have to wait, the most recently started background job is
+ * preempted: its {@link CancellationToken} is cancelled and, once it gives up, it goes back to
+ * the front of its lane to run again later. Each lane's queue is bounded; when one is full the
+ * oldest job waiting in it is dropped, as newer requests usually supersede it. A preempted job
+ * is older than any job waiting in its lane, so it is the one dropped if the lane filled up
+ * while it ran. Waiting and running times of each lane are recorded in {@link Metrics}.
+ */
+public final class TaskScheduler {
+
+    public static final int LANE_VISIBLE = 0;
+    public static final int LANE_PREFETCH = 1;
+    public static final int LANE_MAINTENANCE = 2;
+
+    private static final String[] LANE_NAMES = {"visible", "prefetch", "maintenance"};
+    private static final int LANES = LANE_NAMES.length;
+
+    // Downloads mostly wait for the network, so a few may run side by side even on one core
+    private static final int DEFAULT_WORKERS = 3;
+    private static final int[] DEFAULT_CAPACITIES = {8, 4, 8};
+
+    private static final TaskScheduler sInstance =
+            new TaskScheduler(DEFAULT_WORKERS, DEFAULT_CAPACITIES);
+
+    /**
+     * Work run by the scheduler.
+     */
+    public interface Job<V> {
+        /**
+         * @param cancellation cancelled when the job is cancelled or preempted; jobs that check
+         *                     it give up sooner, those that do not simply run to the end
+         */
+        V run(CancellationToken cancellation) throws IOException;
+    }
+
+    private final int mWorkers;
+    private final Object mLock = new Object();
+    private final ArrayDeque<Task<?>>[] mQueues;
+    private final int[] mCapacities;
+    // Guarded by mLock
+    private final ArrayList<Task<?>> mRunning = new ArrayList<>();
+    private final int[] mRunningCounts = new int[LANES];
+    private final long[] mCompletedCounts = new long[LANES];
+    private final long[] mPreemptedCounts = new long[LANES];
+    private final long[] mDroppedCounts = new long[LANES];
+    private int mStartedWorkers;
+
+    /**
+     * @param workers    number of worker threads, at least 2 so background work can run
+     * @param capacities most jobs that may wait in each lane, by lane
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TaskScheduler(int workers, int[] capacities) {
+        if (workers < 2 || capacities.length != LANES) {
+            throw new IllegalArgumentException("workers " + workers);
+        }
+        mWorkers = workers;
+        mCapacities = capacities.clone();
+        mQueues = new ArrayDeque[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+            mQueues[lane] = new ArrayDeque<>();
+        }
+    }
+
+    public static TaskScheduler getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Queues the job in the lane.
+     */
+    public <V> Task<V> submit(int lane, Job<V> job) {
+        Task<V> task = new Task<>(lane, job);
+        Task<?> dropped = null;
+        ArrayList<CancellationToken> preempted;
+        synchronized (mLock) {
+            ArrayDeque<Task<?>> queue = mQueues[lane];
+            if (queue.size() >= mCapacities[lane]) {
+                dropped = queue.pollFirst();
+                dropped.mState = Task.DONE;
+                mDroppedCounts[lane]++;
+            }
+            enqueue(task, false);
+            startWorkerIfNeeded();
+            preempted = preemptIfNeeded();
+        }
+        if (dropped != null) {
+            dropped.complete(null, new InterruptedIOException("Dropped from a full queue"));
+        }
+        for (CancellationToken cancellation : preempted) {
+            cancellation.cancel();
+        }
+        return task;
+    }
+
+    /**
+     * Runs the job in the lane and waits for its result.
+     *
+     * @param cancellation cancels the job, may be null
+     * @throws InterruptedIOException if the job was cancelled or dropped
+     * @throws IOException            if the job failed
+     */
+    public <V> V run(int lane, Job<V> job, CancellationToken cancellation) throws IOException {
+        final Task<V> task = submit(lane, job);
+        Runnable cancel = new Runnable() {
+            @Override
+            public void run() {
+                task.cancel();
+            }
+        };
+        if (cancellation != null) {
+            cancellation.addListener(cancel);
+        }
+        try {
+            return task.get();
+        } finally {
+            if (cancellation != null) {
+                cancellation.removeListener(cancel);
+            }
+        }
+    }
+
+    public int getQueuedCount(int lane) {
+        synchronized (mLock) {
+            return mQueues[lane].size();
+        }
+    }
+
+    public int getRunningCount(int lane) {
+        synchronized (mLock) {
+            return mRunningCounts[lane];
+        }
+    }
+
+    public long getCompletedCount(int lane) {
+        synchronized (mLock) {
+            return mCompletedCounts[lane];
+        }
+    }
+
+    public long getPreemptedCount(int lane) {
+        synchronized (mLock) {
+            return mPreemptedCounts[lane];
+        }
+    }
+
+    public long getDroppedCount(int lane) {
+        synchronized (mLock) {
+            return mDroppedCounts[lane];
+        }
+    }
+
+    /**
+     * Returns one line per lane with its queued, running, completed, preempted and dropped jobs.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        synchronized (mLock) {
+            for (int lane = 0; lane < LANES; lane++) {
+                if (lane > 0) {
+                    text.append('\n');
+                }
+                text.append(LANE_NAMES[lane]).append(" lane: ")
+                        .append(mQueues[lane].size()).append(" queued, ")
+                        .append(mRunningCounts[lane]).append(" running, ")
+                        .append(mCompletedCounts[lane]).append(" done, ")
+                        .append(mPreemptedCounts[lane]).append(" preempted, ")
+                        .append(mDroppedCounts[lane]).append(" dropped");
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void enqueue(Task<?> task, boolean first) {
+        task.mState = Task.QUEUED;
+        task.mQueuedNanos = System.nanoTime();
+        if (first) {
+            mQueues[task.mLane].addFirst(task);
+        } else {
+            mQueues[task.mLane].addLast(task);
+        }
+        mLock.notifyAll();
+    }
+
+    /**
+     * Starts another worker while there is more work than idle workers. Called with the lock
+     * held.
+     */
+    private void startWorkerIfNeeded() {
+        if (mStartedWorkers == mWorkers || mStartedWorkers > mRunning.size()) {
+            return;
+        }
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "earthquake-worker-" + (mStartedWorkers + 1));
+        worker.setDaemon(true);
+        worker.start();
+        mStartedWorkers++;
+    }
+
+    /**
+     * Marks the most recently started background jobs as preempted until every waiting visible
+     * load has a worker. Called with the lock held.
+     *
+     * @return the tokens to cancel once the lock is released
+     */
+    private ArrayList<CancellationToken> preemptIfNeeded() {
+        ArrayList<CancellationToken> preempted = new ArrayList<>(1);
+        int free = mWorkers - mRunning.size();
+        for (Task<?> task : mRunning) {
+            if (task.mPreempted) {
+                // Already giving up its worker
+                free++;
+            }
+        }
+        int waiting = mQueues[LANE_VISIBLE].size();
+        while (waiting > free) {
+            Task<?> victim = null;
+            for (int i = mRunning.size() - 1; i >= 0; i--) {
+                Task<?> task = mRunning.get(i);
+                if (task.mLane != LANE_VISIBLE && !task.mPreempted
+                        && (victim == null || task.mLane > victim.mLane)) {
+                    victim = task;
+                }
+            }
+            if (victim == null) {
+                break;
+            }
+            victim.mPreempted = true;
+            preempted.add(victim.mAttempt);
+            free++;
+        }
+        return preempted;
+    }
+
+    /**
+     * Returns the next job a worker may start, or null if there is none. Called with the lock
+     * held.
+     */
+    private Task<?> next() {
+        if (!mQueues[LANE_VISIBLE].isEmpty()) {
+            return mQueues[LANE_VISIBLE].pollFirst();
+        }
+        int background = mRunning.size() - mRunningCounts[LANE_VISIBLE];
+        // One worker always stays free for visible loads
+        if (background >= mWorkers - 1) {
+            return null;
+        }
+        for (int lane = LANE_VISIBLE + 1; lane < LANES; lane++) {
+            if (!mQueues[lane].isEmpty()) {
+                return mQueues[lane].pollFirst();
+            }
+        }
+        return null;
+    }
+
+    private void work() {
+        while (true) {
+            Task<?> task;
+            CancellationToken attempt;
+            synchronized (mLock) {
+                while ((task = next()) == null) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Workers live as long as the process
+                    }
+                }
+                task.mState = Task.RUNNING;
+                task.mPreempted = false;
+                attempt = new CancellationToken();
+                task.mAttempt = attempt;
+                mRunning.add(task);
+                mRunningCounts[task.mLane]++;
+                startWorkerIfNeeded();
+            }
+            long start = System.nanoTime();
+            Metrics.LANE_WAIT[task.mLane].record((start - task.mQueuedNanos) / 1000);
+            run(task, attempt, start);
+        }
+    }
+
+    private <V> void run(Task<V> task, CancellationToken attempt, long start) {
+        V result = null;
+        IOException error = null;
+        try {
+            result = task.mJob.run(attempt);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        }
+        Metrics.LANE_RUN[task.mLane].record((System.nanoTime() - start) / 1000);
+        synchronized (mLock) {
+            mRunning.remove(task);
+            mRunningCounts[task.mLane]--;
+            // A job that finished before noticing the preemption keeps its result
+            if (task.mPreempted && !task.mCancelled && error instanceof InterruptedIOException) {
+                mPreemptedCounts[task.mLane]++;
+                if (mQueues[task.mLane].size() < mCapacities[task.mLane]) {
+                    enqueue(task, true);
+                    return;
+                }
+                mDroppedCounts[task.mLane]++;
+                error = new InterruptedIOException("Dropped from a full queue");
+            } else {
+                mCompletedCounts[task.mLane]++;
+            }
+            task.mState = Task.DONE;
+            // A worker is free again, background work may have been waiting for it
+            mLock.notifyAll();
+        }
+        task.complete(result, error);
+    }
+
+    /**
+     * A submitted job, which can be waited for or cancelled.
+     */
+    public final class Task<V> {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+
+        private final int mLane;
+        private final Job<V> mJob;
+        // Guarded by the scheduler's lock
+        private int mState;
+        private long mQueuedNanos;
+        private boolean mPreempted;
+        private boolean mCancelled;
+        private CancellationToken mAttempt;
+        // Guarded by the task's own lock
+        private boolean mDone;
+        private V mResult;
+        private IOException mError;
+        private ArrayList<Runnable> mListeners;
+
+        Task(int lane, Job<V> job) {
+            mLane = lane;
+            mJob = job;
+        }
+
+        /**
+         * Removes the job from its queue, or cancels its token if it is running. Does nothing
+         * once it has finished.
+         */
+        public void cancel() {
+            CancellationToken attempt = null;
+            boolean dequeued = false;
+            synchronized (mLock) {
+                if (mState == DONE || mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                if (mState == QUEUED) {
+                    mQueues[mLane].remove(this);
+                    mState = DONE;
+                    dequeued = true;
+                } else {
+                    attempt = mAttempt;
+                }
+            }
+            if (dequeued) {
+                complete(null, new InterruptedIOException("Cancelled"));
+            } else {
+                attempt.cancel();
+            }
+        }
+
+        /**
+         * Waits for the job to finish.
+         *
+         * @throws InterruptedIOException if the job was cancelled or dropped, or the calling
+         *                                thread was interrupted
+         * @throws IOException            if the job failed
+         */
+        public V get() throws IOException {
+            synchronized (this) {
+                while (!mDone) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancel();
+                        throw new InterruptedIOException("Interrupted");
+                    }
+                }
+                if (mError != null) {
+                    throw mError;
+                }
+                return mResult;
+            }
+        }
+
+        public boolean isDone() {
+            synchronized (this) {
+                return mDone;
+            }
+        }
+
+        /**
+         * Runs the listener once the job has finished, failed, or been cancelled or dropped,
+         * right away if it already has. Listeners run on the thread that finishes the job.
+         */
+        public void addListener(Runnable listener) {
+            synchronized (this) {
+                if (!mDone) {
+                    if (mListeners == null) {
+                        mListeners = new ArrayList<>(1);
+                    }
+                    mListeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        private void complete(V result, IOException error) {
+            ArrayList<Runnable> listeners;
+            synchronized (this) {
+                mResult = result;
+                mError = error;
+                mDone = true;
+                notifyAll();
+                listeners = mListeners;
+                mListeners = null;
+            }
+            if (listeners != null) {
+                for (Runnable listener : listeners) {
+                    listener.run();
+                }
+            }
+        }
+    }
+}
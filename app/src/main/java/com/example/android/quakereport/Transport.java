@@ -0,0 +1,40 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Performs the HTTP GET requests of {@link QueryUtils}. The default is {@link HttpTransport};
+ * another one can be installed with {@link QueryUtils#setTransport(Transport)}.
+ */
+public interface Transport {
+
+    /**
+     * Sends a GET request with the given extra headers and returns once the response headers
+     * have arrived.
+     *
+     * @param cancellation when cancelled, aborts the request and fails any read blocked on its
+     *                     body; may be null
+     */
+    Response get(String url, Map<String, String> headers, CancellationToken cancellation)
+            throws IOException;
+
+    /**
+     * Response to a request. It must be closed so its connection can be reused.
+     */
+    interface Response extends Closeable {
+        int getCode();
+
+        /**
+         * Returns the value of a response header, or null if it is not set.
+         */
+        String getHeader(String name);
+
+        /**
+         * Returns the body, already decompressed.
+         */
+        InputStream getBody() throws IOException;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskResponseCacheTest {
+
+    private static final String URL_A = "https://example.com/query?limit=1";
+    private static final String URL_B = "https://example.com/query?limit=2";
+    private static final String URL_C = "https://example.com/query?limit=3";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("responses", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void committedBodyIsReturnedWithItsValidators() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "body a", "\"etag-a\"", "Mon, 01 Jan 2018 00:00:00 GMT");
+
+        DiskResponseCache.Entry entry = cache.get(URL_A);
+        assertNotNull(entry);
+        assertEquals("body a", read(entry));
+        assertEquals("\"etag-a\"", entry.getETag());
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", entry.getLastModified());
+        assertNull(cache.get(URL_B));
+    }
+
+    @Test
+    public void missingValidatorIsNull() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "body a", null, "Mon, 01 Jan 2018 00:00:00 GMT");
+
+        DiskResponseCache.Entry entry = cache.get(URL_A);
+        assertNull(entry.getETag());
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", entry.getLastModified());
+    }
+
+    @Test
+    public void bodyWithoutValidatorsIsNotKept() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "body a", null, null);
+
+        assertNull(cache.get(URL_A));
+        assertEquals(0, cache.size());
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void abortedEditLeavesNothingBehind() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        DiskResponseCache.Editor editor = cache.edit(URL_A);
+        drain(editor.tee(new ByteArrayInputStream("partial".getBytes("UTF-8"))));
+        editor.abort();
+
+        assertNull(cache.get(URL_A));
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void newerBodyReplacesOlderOne() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "old", "\"1\"", null);
+        put(cache, URL_A, "newer", "\"2\"", null);
+
+        DiskResponseCache.Entry entry = cache.get(URL_A);
+        assertEquals("newer", read(entry));
+        assertEquals("\"2\"", entry.getETag());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedFirst() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 20);
+        put(cache, URL_A, "aaaaaaaaaa", "\"a\"", null);
+        put(cache, URL_B, "bbbbbbbbbb", "\"b\"", null);
+        // Reading A makes B the least recently used
+        assertNotNull(cache.get(URL_A));
+        put(cache, URL_C, "cccccccccc", "\"c\"", null);
+
+        assertNotNull(cache.get(URL_A));
+        assertNull(cache.get(URL_B));
+        assertNotNull(cache.get(URL_C));
+        assertEquals(20, cache.size());
+    }
+
+    @Test
+    public void removedEntryIsGone() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "body a", "\"a\"", null);
+        cache.remove(URL_A);
+
+        assertNull(cache.get(URL_A));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "body a", "\"a\"", null);
+        put(cache, URL_B, "body b", "\"b\"", null);
+
+        DiskResponseCache reopened = new DiskResponseCache(mDirectory, 1024);
+        assertEquals(12, reopened.size());
+        assertEquals("body a", read(reopened.get(URL_A)));
+        assertEquals("\"b\"", reopened.get(URL_B).getETag());
+    }
+
+    @Test
+    public void reopeningWithSmallerLimitTrims() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "aaaaaaaaaa", "\"a\"", null);
+        put(cache, URL_B, "bbbbbbbbbb", "\"b\"", null);
+
+        DiskResponseCache reopened = new DiskResponseCache(mDirectory, 10);
+        assertEquals(10, reopened.size());
+    }
+
+    @Test
+    public void directoryIsOnlyReadOnFirstUse() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        put(cache, URL_A, "body a", "\"a\"", null);
+        File leftover = new File(mDirectory, "unfinished.tmp");
+        assertTrue(leftover.createNewFile());
+
+        DiskResponseCache reopened = new DiskResponseCache(mDirectory, 1024);
+        assertTrue(leftover.exists());
+        reopened.ensureLoaded();
+        assertFalse(leftover.exists());
+        assertEquals(6, reopened.size());
+    }
+
+    @Test
+    public void directoryIsCreatedOnFirstUse() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024);
+        assertFalse(mDirectory.exists());
+        assertNull(cache.get(URL_A));
+        assertTrue(mDirectory.isDirectory());
+    }
+
+    private static void put(DiskResponseCache cache, String url, String body, String eTag,
+                            String lastModified) throws IOException {
+        DiskResponseCache.Editor editor = cache.edit(url);
+        drain(editor.tee(new ByteArrayInputStream(body.getBytes("UTF-8"))));
+        editor.commit(eTag, lastModified);
+    }
+
+    private static String read(DiskResponseCache.Entry entry) throws IOException {
+        InputStream in = entry.newInputStream();
+        try {
+            return drain(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String drain(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EarthquakeCodecTest {
+
+    @Test
+    public void storeRoundTripsAtTheFormatsPrecision() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("us7000abcd", 6.12, "10km N of Zürich", 1500000000000L, 1500000600000L,
+                47.41234, 8.54321, 10.125);
+        store.upsert("us7000abce", 2.5, "Off the coast of Chile", 1400000000000L,
+                1400000000000L, -33.00001, -179.99999, -1.5);
+        store.upsert("nc12345", 4.0, "10km N of Zürich", 1600000000000L, 1600000000001L,
+                0, 0, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(3, EarthquakeCodec.encode(store, out));
+        EarthquakeStore decoded = EarthquakeCodec.decode(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(store.size(), decoded.size());
+        EarthquakeStore.Cursor want = store.newCursor();
+        EarthquakeStore.Cursor got = decoded.newCursor();
+        for (int row = 0; row < store.size(); row++) {
+            want.moveTo(row);
+            got.moveTo(row);
+            assertEquals(want.getId(), got.getId());
+            assertEquals(want.getMagnitude(), got.getMagnitude(), 0.005);
+            assertEquals(want.getLocation(), got.getLocation());
+            assertEquals(want.getTimeInMilliseconds(), got.getTimeInMilliseconds());
+            assertEquals(want.getUpdatedInMilliseconds(), got.getUpdatedInMilliseconds());
+            assertEquals(want.getLatitude(), got.getLatitude(), 0.000005);
+            assertEquals(want.getLongitude(), got.getLongitude(), 0.000005);
+            assertEquals(want.getDepth(), got.getDepth(), 0.0005);
+        }
+    }
+
+    @Test
+    public void deletionsComeBackAsDeletedEvents() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EarthquakeCodec.Encoder encoder = new EarthquakeCodec.Encoder(out);
+        encoder.write("us1", 5.0, "Somewhere", 1000, 2000, 1, 2, 3);
+        encoder.write(new Earthquake("us1", 0, null, 0, 3000, null, 0, 0, 0, true));
+        encoder.finish();
+
+        EarthquakeCodec.Decoder decoder =
+                new EarthquakeCodec.Decoder(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(EarthquakeCodec.VERSION, decoder.getVersion());
+        Earthquake event = decoder.read();
+        assertEquals("us1", event.getId());
+        Earthquake deletion = decoder.read();
+        assertTrue(deletion.isDeleted());
+        assertEquals("us1", deletion.getId());
+        assertEquals(3000, deletion.getUpdatedInMilliseconds());
+        assertNull(decoder.read());
+
+        // Merged into a store, the deletion removes the event again
+        EarthquakeStore store = EarthquakeCodec.decode(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void versionFollowsTheMagic() throws IOException {
+        byte[] bytes = encodeOne();
+
+        assertEquals("EQB1", new String(bytes, 0, 4, "US-ASCII"));
+        assertEquals(EarthquakeCodec.VERSION, bytes[4]);
+    }
+
+    @Test
+    public void newerVersionIsRejected() throws IOException {
+        byte[] bytes = encodeOne();
+        bytes[4] = (byte) (EarthquakeCodec.VERSION + 1);
+
+        assertUnreadable(bytes);
+    }
+
+    @Test
+    public void otherStreamIsRejected() throws IOException {
+        byte[] bytes = encodeOne();
+        bytes[0] = '{';
+
+        assertUnreadable(bytes);
+    }
+
+    @Test
+    public void truncatedStreamIsRejected() throws IOException {
+        byte[] bytes = encodeOne();
+
+        assertUnreadable(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    private static byte[] encodeOne() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("us1", 5.0, "Somewhere", 1000, 2000, 1, 2, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EarthquakeCodec.encode(store, out);
+        return out.toByteArray();
+    }
+
+    private static void assertUnreadable(byte[] bytes) {
+        try {
+            EarthquakeCodec.decode(new ByteArrayInputStream(bytes));
+            fail("Decoded a bad stream");
+        } catch (IOException expected) {
+            // Callers treat the data as missing
+        }
+    }
+}
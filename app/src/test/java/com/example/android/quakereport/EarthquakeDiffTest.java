@@ -0,0 +1,167 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeDiffTest {
+
+    @Test
+    public void equalListsGiveAnEmptyDiff() {
+        List<EarthquakeRow> rows = rows("a", "b", "c");
+        EarthquakeDiff diff = EarthquakeDiff.calculate(rows, rows("a", "b", "c"));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void neighboringRemovalsArriveAsOneRange() {
+        Recorder recorder = replay(rows("a", "b", "c", "d", "e"), rows("a", "e"));
+
+        assertEquals(Arrays.asList("remove 1+3"), recorder.mOps);
+    }
+
+    @Test
+    public void neighboringInsertsArriveAsOneRange() {
+        Recorder recorder = replay(rows("a", "d"), rows("a", "b", "c", "d"));
+
+        assertEquals(Arrays.asList("insert 1+2"), recorder.mOps);
+    }
+
+    @Test
+    public void rowMovedToTheFrontIsOneMove() {
+        Recorder recorder = replay(rows("a", "b", "c", "d"), rows("d", "a", "b", "c"));
+
+        assertEquals(Arrays.asList("move 3>0"), recorder.mOps);
+    }
+
+    @Test
+    public void changedContentsAreReportedOnlyForChangedRows() {
+        List<EarthquakeRow> newRows = rows("a", "b", "c", "d");
+        newRows.set(1, row("b", "5.0"));
+        newRows.set(2, row("c", "5.0"));
+        Recorder recorder = replay(rows("a", "b", "c", "d"), newRows);
+
+        assertEquals(Arrays.asList("change 1+2"), recorder.mOps);
+    }
+
+    @Test
+    public void movedRowWithNewContentsIsAlsoChanged() {
+        List<EarthquakeRow> newRows = rows("c", "a", "b");
+        newRows.set(0, row("c", "6.1"));
+        Recorder recorder = replay(rows("a", "b", "c"), newRows);
+
+        assertEquals(Arrays.asList("move 2>0", "change 0+1"), recorder.mOps);
+    }
+
+    @Test
+    public void removeInsertMoveAndChangeTogether() {
+        List<EarthquakeRow> newRows = rows("e", "c", "a", "f");
+        newRows.set(2, row("a", "7.0"));
+        replay(rows("a", "b", "c", "d", "e"), newRows);
+    }
+
+    @Test
+    public void randomListsReplayToTheNewList() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            replay(randomRows(random), randomRows(random));
+        }
+    }
+
+    /**
+     * Replays the diff on a copy of the old list and checks that it ends up as the new one.
+     */
+    private static Recorder replay(List<EarthquakeRow> oldRows, List<EarthquakeRow> newRows) {
+        Recorder recorder = new Recorder(oldRows, newRows);
+        EarthquakeDiff.calculate(oldRows, newRows).dispatchTo(recorder);
+
+        assertEquals(ids(newRows), ids(recorder.mRows));
+        for (int i = 0; i < newRows.size(); i++) {
+            assertTrue("row " + i + " not rebound",
+                    recorder.mRows.get(i).hasSameContents(newRows.get(i)));
+        }
+        return recorder;
+    }
+
+    private static List<EarthquakeRow> randomRows(Random random) {
+        List<EarthquakeRow> rows = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            if (random.nextInt(3) > 0) {
+                rows.add(row("id" + i, random.nextInt(4) == 0 ? "9.9" : "1.0"));
+            }
+        }
+        Collections.shuffle(rows, random);
+        return rows;
+    }
+
+    private static List<EarthquakeRow> rows(String... ids) {
+        List<EarthquakeRow> rows = new ArrayList<>();
+        for (String id : ids) {
+            rows.add(row(id, "1.0"));
+        }
+        return rows;
+    }
+
+    private static EarthquakeRow row(String id, String magnitude) {
+        return new EarthquakeRow(id, magnitude, 0, "Near the", "Place " + id, "Jan 01, 2018",
+                "1:00 AM");
+    }
+
+    private static List<String> ids(List<EarthquakeRow> rows) {
+        List<String> ids = new ArrayList<>();
+        for (EarthquakeRow row : rows) {
+            ids.add(row.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Applies the operations to a list the way a RecyclerView would and records them.
+     */
+    private static final class Recorder implements EarthquakeDiff.Callback {
+        final List<EarthquakeRow> mRows;
+        final List<EarthquakeRow> mNewRows;
+        final List<String> mOps = new ArrayList<>();
+
+        Recorder(List<EarthquakeRow> oldRows, List<EarthquakeRow> newRows) {
+            mRows = new ArrayList<>(oldRows);
+            mNewRows = newRows;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mOps.add("insert " + position + "+" + count);
+            for (int i = 0; i < count; i++) {
+                mRows.add(position + i, mNewRows.get(position + i));
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mOps.add("remove " + position + "+" + count);
+            mRows.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mOps.add("move " + fromPosition + ">" + toPosition);
+            mRows.add(toPosition, mRows.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            mOps.add("change " + position + "+" + count);
+            for (int i = 0; i < count; i++) {
+                mRows.set(position + i, mNewRows.get(position + i));
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EarthquakeExporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final EarthquakeQuery NEWEST_FIRST = new EarthquakeQuery(-10, Long.MIN_VALUE,
+            Long.MAX_VALUE, false, false, 0, Integer.MAX_VALUE);
+
+    @Test
+    public void csvHasTheUsgsHeader() throws IOException {
+        String csv = export(EarthquakeExporter.FORMAT_CSV, new EarthquakeStore());
+
+        assertEquals("time,latitude,longitude,depth,mag,id,updated,place,url\n", csv);
+    }
+
+    @Test
+    public void csvQuotesOnlyFieldsThatNeedIt() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("us1", 4.5, "74km NW of Rumoi, Japan", 4000, 4000, 44.6, 141.2, 10.5);
+        store.upsert("us2", 3.0, "The \"Big\" One", 3000, 3000, 0, 0, 0);
+        store.upsert("us3", 2.5, "Line\nbreak", 2000, 2000, 0, 0, 0);
+        store.upsert("us4", 2.0, "Ciudad de México", 1000, 1000, 0, 0, 0);
+        String[] lines = export(EarthquakeExporter.FORMAT_CSV, store).split("\n", -1);
+
+        assertEquals("1970-01-01T00:00:04.000Z,44.6,141.2,10.5,4.5,us1,"
+                + "1970-01-01T00:00:04.000Z,\"74km NW of Rumoi, Japan\","
+                + "https://earthquake.usgs.gov/earthquakes/eventpage/us1", lines[1]);
+        assertTrue(lines[2], lines[2].contains(",\"The \"\"Big\"\" One\","));
+        // The quoted line break spans two lines of the file
+        assertTrue(lines[3], lines[3].endsWith(",\"Line"));
+        assertTrue(lines[4], lines[4].startsWith("break\","));
+        assertTrue(lines[5], lines[5].contains(",Ciudad de México,"));
+        assertEquals("", lines[6]);
+    }
+
+    @Test
+    public void geoJsonReadsBackAsTheStoredEvents() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("us1", 4.5, "74km NW of Rumoi, Japan", 4000, 4001, 44.6, 141.2, 10.5);
+        store.upsert("us2", -0.25, "Quote \" backslash \\ tab \t bell \u0007", 3000, 3001,
+                -30.5, -70.1, 0);
+        store.upsert("us3", 1.0, "Emoji 🌋 and é", -5000, 1, 0, 0, Double.NaN);
+        String json = export(EarthquakeExporter.FORMAT_GEOJSON, store);
+
+        List<Earthquake> read = EarthquakeStreamParser.parse(
+                new ByteArrayInputStream(json.getBytes(UTF_8)));
+        assertEquals(3, read.size());
+        EarthquakeStore.Cursor cursor = store.newCursor();
+        for (Earthquake earthquake : read) {
+            cursor.moveTo(store.indexOf(earthquake.getId()));
+            assertEquals(cursor.getLocation(), earthquake.getLocation());
+            assertEquals(cursor.getTimeInMilliseconds(), earthquake.getTimeInMilliseconds());
+            assertEquals(cursor.getUpdatedInMilliseconds(),
+                    earthquake.getUpdatedInMilliseconds());
+            assertEquals(cursor.getLatitude(), earthquake.getLatitude(), 0);
+            assertEquals(cursor.getLongitude(), earthquake.getLongitude(), 0);
+            if (!Double.isNaN(cursor.getDepth())) {
+                assertEquals(cursor.getDepth(), earthquake.getDepth(), 0);
+            }
+            assertEquals(cursor.getEarthquakeUrl(), earthquake.getEarthquakeUrl());
+        }
+        assertEquals(4.5, read.get(0).getMagnitude(), 0);
+        assertEquals(-0.25, read.get(1).getMagnitude(), 0);
+        // An unknown depth is written as null, which reads as 0
+        assertTrue(json.contains("[0.0,0.0,null]"));
+        assertEquals(0, read.get(2).getDepth(), 0);
+        assertTrue(json.contains("\"count\":3"));
+    }
+
+    @Test
+    public void emptyGeoJsonIsValid() throws IOException {
+        String json = export(EarthquakeExporter.FORMAT_GEOJSON, new EarthquakeStore());
+
+        assertTrue(json, json.endsWith("\"features\":[]}\n"));
+        assertEquals(0, EarthquakeStreamParser.parse(
+                new ByteArrayInputStream(json.getBytes(UTF_8))).size());
+    }
+
+    @Test
+    public void timesAroundTheEpochAndLeapDays() throws IOException {
+        assertEquals("1970-01-01T00:00:00.000Z", csvTime(0));
+        assertEquals("1969-12-31T23:59:59.999Z", csvTime(-1));
+        assertEquals("1969-12-31T00:00:00.000Z", csvTime(-86400000L));
+        assertEquals("1969-12-30T23:59:59.999Z", csvTime(-86400001L));
+        assertEquals("1900-01-01T00:00:00.000Z", csvTime(-2208988800000L));
+        // 1900 is no leap year, 2000 is and 2100 is not
+        assertEquals("1900-03-01T00:00:00.000Z", csvTime(-2203891200000L));
+        assertEquals("2000-02-29T23:59:59.999Z", csvTime(951868799999L));
+        assertEquals("2000-03-01T00:00:00.000Z", csvTime(951868800000L));
+        assertEquals("2016-02-29T12:34:56.789Z", csvTime(1456749296789L));
+        assertEquals("2100-03-01T00:00:00.000Z", csvTime(4107542400000L));
+    }
+
+    @Test
+    public void timesMatchADateFormatter() throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // From 1700 to 2300, where the formatter's calendar is Gregorian too
+        long from = -8520336000000L;
+        long to = 10413792000000L;
+        Random random = new Random(42);
+        EarthquakeStore store = new EarthquakeStore();
+        long[] times = new long[500];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = from + (long) (random.nextDouble() * (to - from));
+            store.upsert("id" + i, 1, "Place", times[i], 1, 0, 0, 0);
+        }
+        String[] lines = export(EarthquakeExporter.FORMAT_CSV, store).split("\n");
+
+        for (int i = 1; i < lines.length; i++) {
+            String id = lines[i].split(",")[5];
+            long time = times[Integer.parseInt(id.substring(2))];
+            assertEquals(format.format(time), lines[i].substring(0, lines[i].indexOf(',')));
+        }
+    }
+
+    @Test
+    public void storeChangedDuringTheExportFailsIt() throws IOException {
+        final EarthquakeStore store = new EarthquakeStore();
+        // More than one batch, so the store is checked again after the first is written
+        for (int i = 0; i < 600; i++) {
+            store.upsert("id" + i, 1, "Place", i, 1, 0, 0, 0);
+        }
+        WritableByteChannel out = new CountingChannel() {
+            @Override
+            void onWrite(int writes) {
+                if (writes == 1) {
+                    store.upsert("late", 2, "Place", 1000, 2, 0, 0, 0);
+                }
+            }
+        };
+        try {
+            new EarthquakeExporter(EarthquakeExporter.FORMAT_CSV).export(store,
+                    new EarthquakeQueryEngine(store), NEWEST_FIRST, out, null);
+            fail("Exported rows of a changed store");
+        } catch (InterruptedIOException e) {
+            fail("A changed store was reported as a cancellation");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void cancelledExportStopsBetweenBatches() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 600; i++) {
+            store.upsert("id" + i, 1, "Place", i, 1, 0, 0, 0);
+        }
+        final CancellationToken cancellation = new CancellationToken();
+        CountingChannel out = new CountingChannel() {
+            @Override
+            void onWrite(int writes) {
+                cancellation.cancel();
+            }
+        };
+        try {
+            new EarthquakeExporter(EarthquakeExporter.FORMAT_GEOJSON).export(store,
+                    new EarthquakeQueryEngine(store), NEWEST_FIRST, out, cancellation);
+            fail("A cancelled export ran to the end");
+        } catch (InterruptedIOException e) {
+            assertEquals(1, out.mWrites);
+        }
+    }
+
+    @Test
+    public void exporterCanBeReused() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("us1", 4.5, "Place", 0, 1, 0, 0, 0);
+        EarthquakeExporter exporter = new EarthquakeExporter(EarthquakeExporter.FORMAT_CSV);
+        String first = export(exporter, store);
+
+        assertEquals(first, export(exporter, store));
+    }
+
+    private static String csvTime(long time) throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("a", 1, "Place", time, 1, 0, 0, 0);
+        String row = export(EarthquakeExporter.FORMAT_CSV, store).split("\n")[1];
+        return row.substring(0, row.indexOf(','));
+    }
+
+    private static String export(int format, EarthquakeStore store) throws IOException {
+        return export(new EarthquakeExporter(format), store);
+    }
+
+    private static String export(EarthquakeExporter exporter, EarthquakeStore store)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int count = exporter.export(store, new EarthquakeQueryEngine(store), NEWEST_FIRST,
+                Channels.newChannel(bytes), null);
+        assertEquals(store.size(), count);
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Accepts everything written to it, calling {@link #onWrite} after each write.
+     */
+    private abstract static class CountingChannel implements WritableByteChannel {
+        int mWrites;
+
+        abstract void onWrite(int writes);
+
+        @Override
+        public int write(ByteBuffer source) {
+            int count = source.remaining();
+            source.position(source.limit());
+            onWrite(++mWrites);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
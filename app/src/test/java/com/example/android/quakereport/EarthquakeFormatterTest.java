@@ -0,0 +1,139 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class EarthquakeFormatterTest {
+
+    @Test
+    public void placeIsSplitAtTheOffset() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("a", 4.56, "74km NW of Rumoi, Japan", 0, 1, 0, 0, 0);
+        EarthquakeRow row = new EarthquakeFormatter("Near the").format(store).get(0);
+
+        assertEquals("a", row.getId());
+        assertEquals("74km NW of ", row.getLocationOffset());
+        assertEquals("Rumoi, Japan", row.getPrimaryLocation());
+    }
+
+    @Test
+    public void placeWithoutOffsetIsNearThePlace() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("a", 4.5, "Pacific-Antarctic Ridge", 0, 1, 0, 0, 0);
+        EarthquakeRow row = new EarthquakeFormatter("Near the").format(store).get(0);
+
+        assertEquals("Near the", row.getLocationOffset());
+        assertEquals("Pacific-Antarctic Ridge", row.getPrimaryLocation());
+    }
+
+    @Test
+    public void rowsKeepStoreOrder() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("b", 1.0, "B", 0, 1, 0, 0, 0);
+        store.upsert("a", 2.0, "A", 0, 1, 0, 0, 0);
+
+        assertEquals("b", new EarthquakeFormatter("Near the").format(store).get(0).getId());
+        assertEquals("a", new EarthquakeFormatter("Near the").format(store).get(1).getId());
+    }
+
+    @Test
+    public void indexedResponseFormatsLikeTheStore() throws IOException {
+        byte[] body = FakeTransport.features(
+                "a", 4.56, 1454124312220L, 1454124312220L,
+                "b", 6.1, 1454100000000L, 1454100000001L).getBytes(Charset.forName("UTF-8"));
+        EarthquakeStore store = new EarthquakeStore();
+        for (Earthquake earthquake : EarthquakeStreamParser.parse(new ByteArrayInputStream(body))) {
+            store.upsert(earthquake);
+        }
+        EarthquakeFormatter formatter = new EarthquakeFormatter("Near the");
+        List<EarthquakeRow> stored = formatter.format(store);
+        List<EarthquakeRow> indexed =
+                formatter.format(EarthquakeResponseIndex.build(ByteBuffer.wrap(body)));
+
+        assertEquals(stored.size(), indexed.size());
+        for (int i = 0; i < stored.size(); i++) {
+            assertEquals(stored.get(i).getId(), indexed.get(i).getId());
+            assertTrue(stored.get(i).hasSameContents(indexed.get(i)));
+        }
+    }
+
+    @Test
+    public void magnitudeBandsFloorTheMagnitude() {
+        assertEquals(0, EarthquakeFormatter.magnitudeBand(0.3));
+        assertEquals(0, EarthquakeFormatter.magnitudeBand(1.9));
+        assertEquals(1, EarthquakeFormatter.magnitudeBand(2.0));
+        assertEquals(6, EarthquakeFormatter.magnitudeBand(7.99));
+        assertEquals(EarthquakeFormatter.MAGNITUDE_BANDS - 1, EarthquakeFormatter.magnitudeBand(10.0));
+        assertEquals(EarthquakeFormatter.MAGNITUDE_BANDS - 1, EarthquakeFormatter.magnitudeBand(12.4));
+    }
+
+    @Test
+    public void bindingRowsAllocatesNothing() {
+        assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 100; i++) {
+            store.upsert("id" + i, i / 10.0, (i + 1) + "km NW of Place " + i, i * 60000L, 1,
+                    0, 0, 0);
+        }
+        List<EarthquakeRow> rows = new EarthquakeFormatter("Near the").format(store);
+        CountingTarget target = new CountingTarget();
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up, so class loading and the first compilations are not counted
+        bind(rows, target, 1000);
+        target.mParts = 0;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        int binds = bind(rows, target, 100000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(binds * 6L, target.mParts);
+        // Reading the counter itself may allocate a few bytes, a single allocation per bind
+        // would already be more than a megabyte
+        assertTrue(allocated + " bytes for " + binds + " binds", allocated < 1024);
+    }
+
+    private static int bind(List<EarthquakeRow> rows, CountingTarget target, int binds) {
+        for (int i = 0; i < binds; i++) {
+            rows.get(i % rows.size()).bindTo(target);
+        }
+        return binds;
+    }
+
+    /**
+     * Stands in for the view holder, counting what it is given.
+     */
+    private static final class CountingTarget implements EarthquakeRow.Target {
+        long mParts;
+
+        @Override
+        public void setMagnitude(String text, int band) {
+            mParts += text != null && band >= 0 ? 2 : 0;
+        }
+
+        @Override
+        public void setLocation(String offset, String primaryLocation) {
+            mParts += offset != null && primaryLocation != null ? 2 : 0;
+        }
+
+        @Override
+        public void setTime(String date, String time) {
+            mParts += date != null && time != null ? 2 : 0;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeListDifferTest {
+
+    private QueueExecutor mBackground;
+    private QueueExecutor mMain;
+    private List<String> mEvents;
+    private EarthquakeListDiffer mDiffer;
+
+    @Before
+    public void setUp() {
+        mBackground = new QueueExecutor();
+        mMain = new QueueExecutor();
+        mEvents = new ArrayList<>();
+        mDiffer = new EarthquakeListDiffer(mBackground, mMain, new EarthquakeListDiffer.Listener() {
+            @Override
+            public void onReplaced() {
+                mEvents.add("replaced");
+            }
+
+            @Override
+            public void onInserted(int position, int count) {
+                mEvents.add("insert " + position + "+" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                mEvents.add("remove " + position + "+" + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                mEvents.add("move " + fromPosition + ">" + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                mEvents.add("change " + position + "+" + count);
+            }
+        });
+    }
+
+    @Test
+    public void firstRowsAreShownRightAway() {
+        mDiffer.submitRows(rows("a", "b", "a"));
+
+        assertEquals(Arrays.asList("a", "b"), ids(mDiffer.getRows()));
+        assertEquals(Arrays.asList("replaced"), mEvents);
+    }
+
+    @Test
+    public void laterRowsAreShownOnceTheDiffIsDone() {
+        mDiffer.submitRows(rows("a", "b"));
+        mDiffer.submitRows(rows("c", "a", "b"));
+        assertEquals(Arrays.asList("a", "b"), ids(mDiffer.getRows()));
+
+        runAll();
+        assertEquals(Arrays.asList("c", "a", "b"), ids(mDiffer.getRows()));
+        assertEquals(Arrays.asList("replaced", "insert 0+1"), mEvents);
+    }
+
+    @Test
+    public void appendedPagesSkipShownEvents() {
+        mDiffer.submitRows(rows("a", "b"));
+        mDiffer.addAll(rows("b", "c"));
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(mDiffer.getRows()));
+        assertEquals(Arrays.asList("replaced", "insert 2+1"), mEvents);
+    }
+
+    @Test
+    public void pageAppendedDuringADiffIsKept() {
+        mDiffer.submitRows(rows("a", "b", "c"));
+        // The first page is refreshed while the next page is being appended
+        mDiffer.submitRows(rows("new", "a", "b"));
+        mBackground.runAll();
+        mDiffer.addAll(rows("d", "e"));
+        runAll();
+
+        assertEquals(Arrays.asList("new", "a", "b", "d", "e"), ids(mDiffer.getRows()));
+        assertEquals(Arrays.asList("replaced", "insert 3+2", "remove 2+1", "insert 0+1"),
+                mEvents);
+    }
+
+    @Test
+    public void appendedRowsAlreadyInTheSubmittedRowsAreNotRepeated() {
+        mDiffer.submitRows(rows("a", "b"));
+        mDiffer.submitRows(rows("c", "a", "b"));
+        mDiffer.addAll(rows("c", "d"));
+        runAll();
+
+        assertEquals(Arrays.asList("c", "a", "b", "d"), ids(mDiffer.getRows()));
+    }
+
+    @Test
+    public void outdatedDiffIsDropped() {
+        mDiffer.submitRows(rows("a"));
+        mDiffer.submitRows(rows("b"));
+        mDiffer.submitRows(rows("c"));
+        runAll();
+
+        assertEquals(Arrays.asList("c"), ids(mDiffer.getRows()));
+        assertEquals(Arrays.asList("replaced", "remove 0+1", "insert 0+1"), mEvents);
+    }
+
+    @Test
+    public void clearDropsPendingDiff() {
+        mDiffer.submitRows(rows("a"));
+        mDiffer.submitRows(rows("b"));
+        mDiffer.clear();
+        runAll();
+
+        assertEquals(0, mDiffer.getRows().size());
+    }
+
+    private void runAll() {
+        while (!mBackground.isEmpty() || !mMain.isEmpty()) {
+            mBackground.runAll();
+            mMain.runAll();
+        }
+    }
+
+    private static List<EarthquakeRow> rows(String... ids) {
+        List<EarthquakeRow> rows = new ArrayList<>();
+        for (String id : ids) {
+            rows.add(new EarthquakeRow(id, "1.0", 0, "Near the", "Place " + id, "Jan 01, 2018",
+                    "1:00 AM"));
+        }
+        return rows;
+    }
+
+    private static List<String> ids(List<EarthquakeRow> rows) {
+        List<String> ids = new ArrayList<>();
+        for (EarthquakeRow row : rows) {
+            ids.add(row.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Runs tasks only when told to, so the test decides how they interleave.
+     */
+    private static final class QueueExecutor implements Executor {
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        boolean isEmpty() {
+            return mTasks.isEmpty();
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakePagerTest {
+
+    private static final int PAGE_SIZE = 25;
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private EarthquakePager mPager;
+
+    @Before
+    public void setUp() {
+        mPager = new EarthquakePager(PAGE_SIZE, PREFETCH_DISTANCE);
+    }
+
+    @Test
+    public void nothingLoadsBeforeTheFirstPageIsShown() {
+        assertEquals(0, mPager.startNextPage());
+        assertFalse(mPager.isLoading());
+    }
+
+    @Test
+    public void pagesFollowEachOtherByOffset() {
+        assertFalse(mPager.onFirstPageShown(PAGE_SIZE, 0));
+
+        assertEquals(26, mPager.startNextPage());
+        assertTrue(mPager.onPageLoaded(26, PAGE_SIZE));
+        assertEquals(51, mPager.startNextPage());
+        assertTrue(mPager.onPageLoaded(51, PAGE_SIZE));
+        assertEquals(76, mPager.getNextOffset());
+        assertTrue(mPager.hasMorePages());
+    }
+
+    @Test
+    public void onlyOnePageLoadsAtATime() {
+        mPager.onFirstPageShown(PAGE_SIZE, 0);
+
+        assertEquals(26, mPager.startNextPage());
+        assertEquals(0, mPager.startNextPage());
+        mPager.onPageAbandoned();
+        assertEquals(26, mPager.startNextPage());
+    }
+
+    @Test
+    public void lastPartialPageEndsPaging() {
+        mPager.onFirstPageShown(PAGE_SIZE, 0);
+
+        assertEquals(26, mPager.startNextPage());
+        assertTrue(mPager.onPageLoaded(26, PAGE_SIZE - 1));
+        assertFalse(mPager.hasMorePages());
+        assertEquals(50, mPager.getNextOffset());
+        assertEquals(0, mPager.startNextPage());
+    }
+
+    @Test
+    public void shortFirstPageEndsPaging() {
+        mPager.onFirstPageShown(PAGE_SIZE - 1, 0);
+
+        assertFalse(mPager.hasMorePages());
+        assertEquals(0, mPager.startNextPage());
+    }
+
+    @Test
+    public void emptyPageEndsPagingWithoutAppending() {
+        mPager.onFirstPageShown(PAGE_SIZE, 0);
+
+        assertEquals(26, mPager.startNextPage());
+        assertFalse(mPager.onPageLoaded(26, 0));
+        assertFalse(mPager.hasMorePages());
+        assertFalse(mPager.isLoading());
+        assertEquals(0, mPager.startNextPage());
+    }
+
+    @Test
+    public void emptyFirstPageLeavesNothingToLoad() {
+        mPager.onFirstPageEmpty();
+
+        assertEquals(0, mPager.getNextOffset());
+        assertEquals(0, mPager.startNextPage());
+    }
+
+    @Test
+    public void pageOfAnEarlierListIsIgnored() {
+        mPager.onFirstPageShown(PAGE_SIZE, 0);
+        mPager.startNextPage();
+        assertTrue(mPager.onPageLoaded(26, PAGE_SIZE));
+
+        // Redelivered after the list moved on
+        assertFalse(mPager.onPageLoaded(26, PAGE_SIZE));
+        assertEquals(51, mPager.getNextOffset());
+        assertFalse(mPager.isLoading());
+    }
+
+    @Test
+    public void refreshedFirstPageKeepsOlderPages() {
+        mPager.onFirstPageShown(PAGE_SIZE, 0);
+        mPager.startNextPage();
+        mPager.onPageLoaded(26, PAGE_SIZE);
+
+        assertTrue(mPager.onFirstPageShown(PAGE_SIZE, 2 * PAGE_SIZE));
+        assertEquals(51, mPager.getNextOffset());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        mPager.onFirstPageShown(PAGE_SIZE, 0);
+        mPager.startNextPage();
+        mPager.onPageLoaded(26, PAGE_SIZE - 1);
+
+        mPager.reset();
+        assertEquals(0, mPager.getNextOffset());
+        assertTrue(mPager.hasMorePages());
+        assertFalse(mPager.onFirstPageShown(PAGE_SIZE, 2 * PAGE_SIZE));
+        assertEquals(26, mPager.startNextPage());
+    }
+
+    @Test
+    public void prefetchStartsWithinTheDistanceOfTheEnd() {
+        int itemCount = 50;
+        // The last 11 rows: the last visible one and the 10 below it
+        assertFalse(mPager.isNearEnd(itemCount - 2 - PREFETCH_DISTANCE, itemCount));
+        assertTrue(mPager.isNearEnd(itemCount - 1 - PREFETCH_DISTANCE, itemCount));
+        assertTrue(mPager.isNearEnd(itemCount - 1, itemCount));
+    }
+
+    @Test
+    public void shortListIsAlwaysNearItsEnd() {
+        assertTrue(mPager.isNearEnd(0, 5));
+        assertFalse(mPager.isNearEnd(-1, 0));
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EarthquakeQueryEngineTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void selectMatchesBruteForce() {
+        Random random = new Random(7);
+        EarthquakeStore store = randomStore(random, 2000);
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(store);
+        for (int round = 0; round < 200; round++) {
+            EarthquakeQuery query = randomQuery(random);
+            assertArrayEquals(bruteForce(store, query, null), engine.select(query));
+        }
+    }
+
+    @Test
+    public void regionQueriesMatchBruteForce() {
+        Random random = new Random(11);
+        EarthquakeStore store = randomStore(random, 2000);
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(store);
+        for (int round = 0; round < 200; round++) {
+            EarthquakeQuery query = randomQuery(random);
+            double[] area;
+            EarthquakeQuery.Region region;
+            if (random.nextBoolean()) {
+                area = new double[]{random.nextDouble() * 180 - 90,
+                        random.nextDouble() * 360 - 180, random.nextDouble() * 5000};
+                region = EarthquakeQuery.Region.circle(area[0], area[1], area[2]);
+            } else {
+                double south = random.nextDouble() * 180 - 90;
+                double west = random.nextDouble() * 360 - 180;
+                double east = west + random.nextDouble() * 90;
+                // Boxes reaching past 180 cross the meridian
+                area = new double[]{south, west, Math.min(90, south + random.nextDouble() * 60),
+                        east > 180 ? east - 360 : east};
+                region = EarthquakeQuery.Region.box(area[0], area[1], area[2], area[3]);
+            }
+            assertArrayEquals(bruteForce(store, query, area), engine.select(query.inRegion(region)));
+        }
+    }
+
+    @Test
+    public void regionIndexFollowsStoreChanges() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("tokyo", 5.0, "Tokyo", 1, 1, 35.7, 139.7, 10);
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine(store);
+        EarthquakeQuery nearLima = query(false, false).inRegion(
+                EarthquakeQuery.Region.circle(-12.0, -77.0, 500));
+        assertEquals(0, engine.select(nearLima).length);
+
+        store.upsert("lima", 4.0, "Lima", 2, 1, -12.1, -77.0, 10);
+        int[] rows = engine.select(nearLima);
+        assertEquals(1, rows.length);
+        assertEquals("lima", store.newCursor().moveTo(rows[0]).getId());
+    }
+
+    @Test
+    public void regionIsReadFromTheQueryUrl() {
+        String base = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+        assertNull(EarthquakeSync.parseQuery(base, 0).getRegion());
+        assertNotNull(EarthquakeSync.parseQuery(
+                base + "&latitude=35&longitude=139&maxradiuskm=100", 0).getRegion());
+        assertNotNull(EarthquakeSync.parseQuery(base + "&minlatitude=30", 0).getRegion());
+        // Queries in different regions share one download
+        assertEquals(QueryUrls.coverageKey(base),
+                QueryUrls.coverageKey(base + "&minlatitude=30&maxlongitude=200"));
+    }
+
+    private static EarthquakeStore randomStore(Random random, int count) {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < count; i++) {
+            store.upsert("id" + i, Math.round(random.nextDouble() * 80) / 10.0, "Place",
+                    random.nextInt(30) * DAY + random.nextInt(1000), 1,
+                    random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, 10);
+        }
+        return store;
+    }
+
+    private static EarthquakeQuery randomQuery(Random random) {
+        long start = random.nextInt(30) * DAY;
+        return new EarthquakeQuery(random.nextInt(8), start, start + random.nextInt(30) * DAY,
+                random.nextBoolean(), random.nextBoolean(), random.nextInt(20),
+                1 + random.nextInt(100));
+    }
+
+    private static EarthquakeQuery query(boolean byMagnitude, boolean ascending) {
+        return new EarthquakeQuery(Double.NEGATIVE_INFINITY, Long.MIN_VALUE, Long.MAX_VALUE,
+                byMagnitude, ascending, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Filters and sorts every row the obvious way.
+     *
+     * @param area a circle as (latitude, longitude, radius) or a box as (south, west, north,
+     *             east), null for anywhere
+     */
+    private static int[] bruteForce(EarthquakeStore store, final EarthquakeQuery query,
+                                    double[] area) {
+        final EarthquakeStore.Cursor cursor = store.newCursor();
+        final EarthquakeStore.Cursor second = store.newCursor();
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < store.size(); row++) {
+            cursor.moveTo(row);
+            if (cursor.getMagnitude() >= query.getMinMagnitude()
+                    && cursor.getTimeInMilliseconds() >= query.getStartTime()
+                    && cursor.getTimeInMilliseconds() <= query.getEndTime()
+                    && isInside(area, cursor.getLatitude(), cursor.getLongitude())) {
+                rows.add(row);
+            }
+        }
+        Collections.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                cursor.moveTo(a);
+                second.moveTo(b);
+                int result = query.isByMagnitude()
+                        ? Double.compare(cursor.getMagnitude(), second.getMagnitude())
+                        : Long.compare(cursor.getTimeInMilliseconds(),
+                        second.getTimeInMilliseconds());
+                return query.isAscending() ? result : -result;
+            }
+        });
+        if (!query.isAscending()) {
+            // The engine walks its ascending index backwards, so ties come in reverse row order
+            for (int i = 0; i < rows.size(); ) {
+                int j = i + 1;
+                while (j < rows.size() && compareKey(store, query, rows.get(i), rows.get(j)) == 0) {
+                    j++;
+                }
+                Collections.reverse(rows.subList(i, j));
+                i = j;
+            }
+        }
+        int from = Math.min(query.getOffset(), rows.size());
+        int to = Math.min(rows.size(), from + query.getLimit());
+        int[] result = new int[to - from];
+        for (int i = from; i < to; i++) {
+            result[i - from] = rows.get(i);
+        }
+        return result;
+    }
+
+    private static boolean isInside(double[] area, double latitude, double longitude) {
+        if (area == null) {
+            return true;
+        }
+        if (area.length == 3) {
+            return SpatialIndex.distanceKm(area[0], area[1], latitude, longitude) <= area[2];
+        }
+        boolean inLongitude = area[1] <= area[3]
+                ? longitude >= area[1] && longitude <= area[3]
+                : longitude >= area[1] || longitude <= area[3];
+        return latitude >= area[0] && latitude <= area[2] && inLongitude;
+    }
+
+    private static int compareKey(EarthquakeStore store, EarthquakeQuery query, int a, int b) {
+        EarthquakeStore.Cursor left = store.newCursor().moveTo(a);
+        EarthquakeStore.Cursor right = store.newCursor().moveTo(b);
+        return query.isByMagnitude()
+                ? Double.compare(left.getMagnitude(), right.getMagnitude())
+                : Long.compare(left.getTimeInMilliseconds(), right.getTimeInMilliseconds());
+    }
+}
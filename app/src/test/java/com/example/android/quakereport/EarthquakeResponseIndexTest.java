@@ -0,0 +1,137 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class EarthquakeResponseIndexTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Covers what the scan skips over rather than decodes: escapes, names reused outside of
+    // properties, nulls, exponents, a feature without properties and members in any order
+    private static final String RESPONSE = "{\"type\":\"FeatureCollection\","
+            + "\"metadata\":{\"mag\":9.9,\"time\":1,\"title\":\"features \\\"mag\\\" {[\"},"
+            + "\"features\":[\n"
+            + " {\"type\":\"Feature\",\"properties\":{\"mag\":6.1,\"place\":\"74km NW of Rumoi,"
+            + " Japan\",\"time\":1454124312220,\"updated\":1454124500000,"
+            + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us1\","
+            + "\"status\":\"reviewed\"},\"geometry\":{\"type\":\"Point\","
+            + "\"coordinates\":[141.2,44.6,10.5]},\"id\":\"us1\"},\n"
+            + " {\"id\":\"us2\",\"geometry\":{\"coordinates\":[-70.1,-30.5,null]},"
+            + "\"properties\":{\"time\":1454100000000,\"tz\":null,\"place\":\"Off \\\"the\\\""
+            + " coast of Chile \\u00e9\\n\",\"mag\":4.2e0,\"updated\":1454100000001,"
+            + "\"status\":\"deleted\",\"nested\":{\"mag\":1,\"time\":[2,3]}}},\n"
+            + " {\"type\":\"Feature\",\"geometry\":null,\"id\":\"us3\"},\n"
+            + " {\"properties\":{\"mag\":null,\"place\":\"Near the coast of Peru\","
+            + "\"time\":-1000,\"updated\":5},\"id\":\"us4\",\"extra\":[{\"mag\":7}]},\n"
+            + " {\"properties\":{\"place\":\"Fiji region\",\"mag\":-0.5,\"time\":1454200000000,"
+            + "\"updated\":1454200000000},\"id\":\"us5\"}\n"
+            + "],\"bbox\":[1,2,3]}";
+
+    @Test
+    public void decodedFeaturesMatchTheStreamParser() throws IOException {
+        byte[] bytes = RESPONSE.getBytes(UTF_8);
+        List<Earthquake> parsed = EarthquakeStreamParser.parse(new ByteArrayInputStream(bytes));
+        EarthquakeResponseIndex index = EarthquakeResponseIndex.build(ByteBuffer.wrap(bytes));
+
+        // The feature without properties is no event for either
+        assertEquals(4, parsed.size());
+        assertEquals(parsed.size(), index.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            Earthquake expected = parsed.get(i);
+            assertEquals(expected.getTimeInMilliseconds(), index.getTimeInMilliseconds(i));
+            assertEquals(expected.getMagnitude(), index.getMagnitude(i), 0);
+            assertSameEarthquake(expected, index.get(i));
+        }
+    }
+
+    @Test
+    public void bufferIsReadFromItsPosition() throws IOException {
+        byte[] bytes = ("garbage" + RESPONSE).getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position("garbage".length());
+        EarthquakeResponseIndex index = EarthquakeResponseIndex.build(buffer);
+
+        assertEquals(4, index.size());
+        assertEquals("us5", index.get(3).getId());
+    }
+
+    @Test
+    public void rowsSortWithoutDecoding() throws IOException {
+        EarthquakeResponseIndex index =
+                EarthquakeResponseIndex.build(ByteBuffer.wrap(RESPONSE.getBytes(UTF_8)));
+
+        assertArrayEquals(new int[]{3, 0, 1, 2}, index.sortedRows(false, false));
+        assertArrayEquals(new int[]{2, 1, 0, 3}, index.sortedRows(false, true));
+        // The null magnitude reads as 0, like the parser reads it
+        assertArrayEquals(new int[]{0, 1, 2, 3}, index.sortedRows(true, false));
+        assertArrayEquals(new int[]{3, 2, 1, 0}, index.sortedRows(true, true));
+    }
+
+    @Test
+    public void truncatedResponseIsRejected() {
+        String truncated = RESPONSE.substring(0, RESPONSE.length() / 2);
+        try {
+            EarthquakeResponseIndex.build(ByteBuffer.wrap(truncated.getBytes(UTF_8)));
+            fail("Indexed a truncated response");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void fetchedIndexMatchesTheFetchedEarthquakes() throws IOException {
+        Transport defaultTransport = QueryUtils.getTransport();
+        FakeTransport transport = new FakeTransport();
+        // Enough events to outgrow the first read buffer
+        Object[] events = new Object[200 * 4];
+        for (int i = 0; i < 200; i++) {
+            events[i * 4] = "id" + i;
+            events[i * 4 + 1] = 1.0 + i / 100.0;
+            events[i * 4 + 2] = 1000L * i;
+            events[i * 4 + 3] = 1000L * i + 1;
+        }
+        transport.setBody(FakeTransport.features(events));
+        QueryUtils.setTransport(transport);
+        try {
+            String url = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+            EarthquakeResponseIndex index = QueryUtils.fetchEarthquakeIndex(url, null);
+            List<Earthquake> parsed = QueryUtils.fetchEarthquakes(url + "&limit=200", null);
+
+            assertNotNull(index);
+            assertEquals(200, index.size());
+            for (int i = 0; i < parsed.size(); i++) {
+                assertSameEarthquake(parsed.get(i), index.get(i));
+            }
+
+            transport.setFailing(true);
+            assertNull(QueryUtils.fetchEarthquakeIndex(url, null));
+        } finally {
+            QueryUtils.setTransport(defaultTransport);
+        }
+    }
+
+    private static void assertSameEarthquake(Earthquake expected, Earthquake actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+        assertEquals(expected.getLocation(), actual.getLocation());
+        assertEquals(expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+        assertEquals(expected.getUpdatedInMilliseconds(), actual.getUpdatedInMilliseconds());
+        assertEquals(expected.getEarthquakeUrl(), actual.getEarthquakeUrl());
+        assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+        assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+        assertEquals(expected.getDepth(), actual.getDepth(), 0);
+        assertEquals(expected.isDeleted(), actual.isDeleted());
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class EarthquakeSnapshotTest {
+
+    private static final String URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=2.5";
+
+    private File mDirectory;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("snapshots", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mFile = new File(mDirectory, "coverage.snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void roundTripKeepsEveryField() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("a", 6.1, "10km N of Zürich", 3000, 3100, 47.4, 8.5, 10.0);
+        store.upsert("b", 2.5, "Off the coast of Chile", 2000, 2200, -33.0, -72.0, 35.5);
+        // Shares its place with the first event
+        store.upsert("c", 4.0, "10km N of Zürich", 1000, 1000, 47.5, 8.6, 2.25);
+        new EarthquakeSnapshot(URL, 2.5, -5000, 1500, 9000, store).write(mFile);
+
+        EarthquakeSnapshot read = EarthquakeSnapshot.read(mFile);
+
+        assertEquals(URL, read.getUrl());
+        assertEquals(2.5, read.getMinMagnitude(), 0);
+        assertEquals(-5000, read.getRequestedStart());
+        assertEquals(1500, read.getCompleteFrom());
+        assertEquals(9000, read.getLastSync());
+        assertSameEvents(store, read.getEarthquakes());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void emptyStoreRoundTrips() throws IOException {
+        new EarthquakeSnapshot(URL, 0, 0, 0, 0, new EarthquakeStore()).write(mFile);
+
+        assertEquals(0, EarthquakeSnapshot.read(mFile).getEarthquakes().size());
+    }
+
+    @Test
+    public void writeReplacesTheOldFile() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("a", 6.1, "Somewhere", 3000, 3100, 1, 2, 3);
+        new EarthquakeSnapshot(URL, 2.5, 0, 0, 100, store).write(mFile);
+        store.upsert("b", 5.0, "Elsewhere", 4000, 4000, 4, 5, 6);
+        new EarthquakeSnapshot(URL, 2.5, 0, 0, 200, store).write(mFile);
+
+        EarthquakeSnapshot read = EarthquakeSnapshot.read(mFile);
+        assertEquals(200, read.getLastSync());
+        assertSameEvents(store, read.getEarthquakes());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("a", 6.1, "Somewhere", 3000, 3100, 1, 2, 3);
+        new EarthquakeSnapshot(URL, 2.5, 0, 0, 100, store).write(mFile);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 9);
+        } finally {
+            file.close();
+        }
+
+        assertUnreadable();
+    }
+
+    @Test
+    public void truncatedHeaderIsRejected() throws IOException {
+        new EarthquakeSnapshot(URL, 2.5, 0, 0, 100, new EarthquakeStore()).write(mFile);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            // Cuts the url short, so its length runs past the end of the mapping
+            file.setLength(44);
+        } finally {
+            file.close();
+        }
+
+        assertUnreadable();
+
+        file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(12);
+        } finally {
+            file.close();
+        }
+
+        assertUnreadable();
+    }
+
+    @Test
+    public void otherFileIsRejected() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write("{\"type\":\"FeatureCollection\"}".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        assertUnreadable();
+    }
+
+    @Test
+    public void otherVersionIsRejected() throws IOException {
+        // The first version stored one column per field, its files are synced again instead
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile));
+        try {
+            out.writeInt(0x45515331);
+            out.writeInt(1);
+            out.writeLong(9000);
+        } finally {
+            out.close();
+        }
+
+        assertUnreadable();
+    }
+
+    private void assertUnreadable() {
+        try {
+            EarthquakeSnapshot.read(mFile);
+            fail("Read a damaged snapshot");
+        } catch (IOException expected) {
+            // Callers fall back to the network
+        }
+    }
+
+    private static void assertSameEvents(EarthquakeStore expected, EarthquakeStore actual) {
+        assertEquals(expected.size(), actual.size());
+        EarthquakeStore.Cursor want = expected.newCursor();
+        EarthquakeStore.Cursor got = actual.newCursor();
+        for (int row = 0; row < expected.size(); row++) {
+            want.moveTo(row);
+            got.moveTo(row);
+            assertEquals(want.getId(), got.getId());
+            assertEquals(want.getMagnitude(), got.getMagnitude(), 0);
+            assertEquals(want.getLocation(), got.getLocation());
+            assertEquals(want.getTimeInMilliseconds(), got.getTimeInMilliseconds());
+            assertEquals(want.getUpdatedInMilliseconds(), got.getUpdatedInMilliseconds());
+            assertEquals(want.getLatitude(), got.getLatitude(), 0);
+            assertEquals(want.getLongitude(), got.getLongitude(), 0);
+            assertEquals(want.getDepth(), got.getDepth(), 0);
+        }
+    }
+}
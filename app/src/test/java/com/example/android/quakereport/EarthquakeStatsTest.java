@@ -0,0 +1,114 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeStatsTest {
+
+    private static final String[] PLACES = {
+            "10km NW of Anchorage, Alaska", "5km S of Fairbanks, Alaska", "Fiji region",
+            "South Sandwich Islands region", "20km E of Hilo, Hawaii", "Off the coast of Chile",
+            "30km W of Ovalle, Chile", "Near the east coast of Honshu, Japan"
+    };
+    private static final long START = -3 * EarthquakeStats.DAY_MILLIS;
+    private static final int DAYS = 14;
+
+    @Test
+    public void regionIsTheTextAfterTheLastCommaOrOf() {
+        assertEquals("Alaska", EarthquakeStats.regionOf("10km NW of Anchorage, Alaska"));
+        assertEquals("Chile", EarthquakeStats.regionOf("Off the coast of Chile"));
+        assertEquals("Fiji region", EarthquakeStats.regionOf(" Fiji region "));
+        assertEquals("", EarthquakeStats.regionOf(null));
+    }
+
+    @Test
+    public void dayRoundsDownBeforeTheEpoch() {
+        assertEquals(0, EarthquakeStats.dayOf(0));
+        assertEquals(0, EarthquakeStats.dayOf(EarthquakeStats.DAY_MILLIS - 1));
+        assertEquals(-1, EarthquakeStats.dayOf(-1));
+        assertEquals(-1, EarthquakeStats.dayOf(-EarthquakeStats.DAY_MILLIS));
+        assertEquals(-2, EarthquakeStats.dayOf(-EarthquakeStats.DAY_MILLIS - 1));
+    }
+
+    @Test
+    public void summariesMatchACountOfTheStoredEvents() {
+        Random random = new Random(19);
+        EarthquakeStore store = new EarthquakeStore();
+        // Events stored before the summaries start count too
+        for (int i = 0; i < 50; i++) {
+            upsertRandom(store, random, i);
+        }
+        EarthquakeStats stats = new EarthquakeStats(store);
+        assertMatches(store, stats);
+
+        for (int step = 0; step < 2000; step++) {
+            int choice = random.nextInt(10);
+            if (choice < 6) {
+                // New events and new versions of stored ones
+                upsertRandom(store, random, random.nextInt(300));
+            } else if (choice < 9) {
+                store.remove("us" + random.nextInt(300));
+            } else if (step % 500 == 9) {
+                store.clear();
+            }
+            if (step % 50 == 0) {
+                assertMatches(store, stats);
+            }
+        }
+        assertMatches(store, stats);
+
+        stats.detach();
+        int[] bands = stats.getBandCounts();
+        upsertRandom(store, random, 1000);
+        assertArrayEquals(bands, stats.getBandCounts());
+    }
+
+    private static void upsertRandom(EarthquakeStore store, Random random, int id) {
+        // Magnitudes from below 0 to above 10, times on both sides of the epoch
+        double magnitude = Math.round((random.nextDouble() * 12 - 1) * 10) / 10.0;
+        long time = START + (long) (random.nextDouble() * (DAYS + 2) * EarthquakeStats.DAY_MILLIS)
+                - EarthquakeStats.DAY_MILLIS;
+        store.upsert("us" + id, magnitude, PLACES[random.nextInt(PLACES.length)], time,
+                random.nextInt(1000000), 0, 0, 0);
+    }
+
+    private static void assertMatches(EarthquakeStore store, EarthquakeStats stats) {
+        List<Earthquake> earthquakes = store.toList();
+
+        int[] bands = new int[EarthquakeFormatter.MAGNITUDE_BANDS];
+        int[] days = new int[DAYS];
+        long firstDay = EarthquakeStats.dayOf(START);
+        Map<String, Earthquake> largest = new HashMap<>();
+        for (Earthquake earthquake : earthquakes) {
+            bands[EarthquakeFormatter.magnitudeBand(earthquake.getMagnitude())]++;
+            long time = earthquake.getTimeInMilliseconds();
+            long day = (long) Math.floor(time / (double) EarthquakeStats.DAY_MILLIS);
+            if (day >= firstDay && day < firstDay + DAYS) {
+                days[(int) (day - firstDay)]++;
+            }
+            String region = EarthquakeStats.regionOf(earthquake.getLocation());
+            Earthquake known = largest.get(region);
+            if (known == null || earthquake.getMagnitude() > known.getMagnitude()
+                    || (earthquake.getMagnitude() == known.getMagnitude()
+                    && earthquake.getId().compareTo(known.getId()) > 0)) {
+                largest.put(region, earthquake);
+            }
+        }
+
+        assertArrayEquals(bands, stats.getBandCounts());
+        assertArrayEquals(days, stats.getDailyCounts(START, DAYS));
+        Map<String, Earthquake> actual = stats.getLargestByRegion();
+        assertEquals(largest.keySet(), actual.keySet());
+        for (Map.Entry<String, Earthquake> region : largest.entrySet()) {
+            assertEquals(region.getKey(), region.getValue().getId(),
+                    actual.get(region.getKey()).getId());
+        }
+    }
+}
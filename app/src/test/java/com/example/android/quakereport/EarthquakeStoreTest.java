@@ -0,0 +1,147 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeStoreTest {
+
+    @Test
+    public void newerVersionReplacesOlderOne() {
+        EarthquakeStore store = new EarthquakeStore();
+        assertTrue(store.upsert("a", 4.0, "Here", 100, 1, 0, 0, 10));
+        assertFalse(store.upsert("a", 5.0, "There", 100, 1, 0, 0, 10));
+        assertTrue(store.upsert("a", 5.0, "There", 100, 2, 0, 0, 10));
+
+        assertEquals(1, store.size());
+        assertEquals(5.0, store.get("a").getMagnitude(), 0);
+        assertEquals("There", store.get("a").getLocation());
+        assertEquals(2, store.getHighWaterMark());
+    }
+
+    @Test
+    public void removedRowIsTakenByTheLastOne() {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 5; i++) {
+            store.upsert("id" + i, i, "Place " + i, i, 1, 0, 0, 0);
+        }
+        assertTrue(store.remove("id1"));
+        assertFalse(store.remove("id1"));
+
+        assertEquals(4, store.size());
+        assertEquals(-1, store.indexOf("id1"));
+        assertEquals(1, store.indexOf("id4"));
+        assertEquals("Place 4", store.newCursor().moveTo(1).getLocation());
+    }
+
+    @Test
+    public void addAllKeepsOrderAndSkipsOlderVersions() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.upsert("b", 2.0, "Newer", 20, 5, 0, 0, 0);
+        EarthquakeStore other = new EarthquakeStore();
+        other.upsert("a", 1.0, "First", 10, 1, 0, 0, 0);
+        other.upsert("b", 2.5, "Older", 20, 4, 0, 0, 0);
+        other.upsert("c", 3.0, "Third", 30, 1, 0, 0, 0);
+        store.addAll(other);
+
+        assertEquals(3, store.size());
+        assertEquals("Newer", store.get("b").getLocation());
+        assertEquals(1, store.indexOf("a"));
+        assertEquals(2, store.indexOf("c"));
+    }
+
+    @Test(timeout = 10000)
+    public void storesMergedIntoEachOtherDoNotDeadlock() throws InterruptedException {
+        final EarthquakeStore left = new EarthquakeStore();
+        final EarthquakeStore right = new EarthquakeStore();
+        for (int i = 0; i < 200; i++) {
+            left.upsert("left" + i, 1.0, "Left", i, 1, 0, 0, 0);
+            right.upsert("right" + i, 1.0, "Right", i, 1, 0, 0, 0);
+        }
+        Thread leftIntoRight = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 500; i++) {
+                    right.addAll(left);
+                }
+            }
+        });
+        leftIntoRight.start();
+        for (int i = 0; i < 500; i++) {
+            left.addAll(right);
+        }
+        leftIntoRight.join();
+
+        assertEquals(400, left.size());
+        assertEquals(400, right.size());
+    }
+
+    @Test
+    public void placesOfRemovedEventsAreCompactedAway() {
+        EarthquakeStore store = new EarthquakeStore();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            store.upsert("id" + i, 4.0, "Place " + i, i, 1, 0, 0, 0);
+        }
+        for (int i = 0; i < count; i += 4) {
+            // Moves to a place another event already uses
+            store.upsert("id" + i, 4.0, "Place " + (i + 1), i, 2, 0, 0, 0);
+        }
+        for (int i = 0; i < count; i++) {
+            if (i % 4 == 2 || i % 4 == 3) {
+                store.remove("id" + i);
+            }
+        }
+
+        // Only the places of events 1, 5, 9, ... are still used
+        EarthquakeStore.Cursor cursor = store.newCursor();
+        int maxCode = 0;
+        for (int row = 0; row < store.size(); row++) {
+            maxCode = Math.max(maxCode, cursor.moveTo(row).getLocationCode());
+        }
+        assertTrue("codes were not compacted: " + maxCode, maxCode < count / 2);
+        assertEquals(count / 2, store.size());
+        for (int i = 0; i < count; i += 4) {
+            assertEquals("Place " + (i + 1), store.get("id" + i).getLocation());
+            assertEquals("Place " + (i + 1), store.get("id" + (i + 1)).getLocation());
+            assertNull(store.get("id" + (i + 2)));
+        }
+    }
+
+    @Test
+    public void storeStaysUsableAfterShrinking() {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 500; i++) {
+            store.upsert("id" + i, 1.0, "Place", i, 1, 0, 0, 0);
+        }
+        for (int i = 0; i < 495; i++) {
+            store.remove("id" + i);
+        }
+        store.upsert("new", 2.0, "Elsewhere", 1000, 1, 0, 0, 0);
+
+        assertEquals(6, store.size());
+        for (int i = 495; i < 500; i++) {
+            assertEquals("Place", store.get("id" + i).getLocation());
+        }
+        assertEquals("Elsewhere", store.get("new").getLocation());
+    }
+
+    @Test
+    public void clearedStoreStartsOver() {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 100; i++) {
+            store.upsert("id" + i, 1.0, "Place " + i, i, 5, 0, 0, 0);
+        }
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(0, store.getHighWaterMark());
+        assertNull(store.get("id1"));
+        store.upsert("id1", 3.0, "Again", 1, 1, 0, 0, 0);
+        assertEquals("Again", store.get("id1").getLocation());
+        assertEquals(0, store.newCursor().moveTo(0).getLocationCode());
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSyncTest {
+
+    private static final String BASE_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private Transport mDefaultTransport;
+    private FakeTransport mTransport;
+    private EarthquakeSync mSync;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mDefaultTransport = QueryUtils.getTransport();
+        mTransport = new FakeTransport();
+        QueryUtils.setTransport(mTransport);
+        mSync = new EarthquakeSync();
+        mNow = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(mDefaultTransport);
+    }
+
+    @Test
+    public void downloadedAnswerIsNotStale() {
+        mTransport.setBody(FakeTransport.features(
+                "a", 6.1, mNow - HOUR, mNow - HOUR,
+                "b", 5.2, mNow - 2 * HOUR, mNow - 2 * HOUR));
+        EarthquakeSync.Answer answer = mSync.sync(BASE_URL + "&minmag=5&orderby=time");
+
+        assertFalse(answer.isStale());
+        assertEquals(2, answer.getEarthquakes().size());
+    }
+
+    @Test
+    public void unreachableFirstSyncIsEmptyAndStale() {
+        mTransport.setFailing(true);
+        EarthquakeSync.Answer answer = mSync.sync(BASE_URL + "&minmag=5&orderby=time");
+
+        assertTrue(answer.isStale());
+        assertEquals(0, answer.getEarthquakes().size());
+    }
+
+    @Test
+    public void queryBeyondTheStoredDataIsStaleWhenUnreachable() {
+        mTransport.setBody(FakeTransport.features(
+                "a", 6.1, mNow - HOUR, mNow - HOUR,
+                "b", 5.2, mNow - 2 * HOUR, mNow - 2 * HOUR));
+        mSync.sync(BASE_URL + "&minmag=5&orderby=time");
+
+        // Smaller magnitudes were never downloaded, so the stored events are not the full answer
+        mTransport.setFailing(true);
+        EarthquakeSync.Answer answer = mSync.sync(BASE_URL + "&minmag=3&orderby=time");
+
+        assertTrue(answer.isStale());
+        assertEquals(2, answer.getEarthquakes().size());
+    }
+
+    @Test
+    public void queryBeyondTheStoredDataIsDownloaded() {
+        mTransport.setBody(FakeTransport.features("a", 6.1, mNow - HOUR, mNow - HOUR));
+        mSync.sync(BASE_URL + "&minmag=5&orderby=time");
+
+        mTransport.setBody(FakeTransport.features(
+                "a", 6.1, mNow - HOUR, mNow - HOUR,
+                "c", 3.5, mNow - 3 * HOUR, mNow - 3 * HOUR));
+        EarthquakeSync.Answer answer = mSync.sync(BASE_URL + "&minmag=3&orderby=time");
+
+        assertFalse(answer.isStale());
+        assertEquals(2, answer.getEarthquakes().size());
+    }
+
+    @Test
+    public void refreshOnlyReportsRealChanges() throws Exception {
+        String body = FakeTransport.features(
+                "a", 6.1, mNow - HOUR, mNow - HOUR,
+                "b", 5.2, mNow - 2 * HOUR, mNow - 2 * HOUR);
+        mTransport.setBody(body);
+        assertTrue(mSync.refresh(BASE_URL + "&minmag=5&orderby=time"));
+
+        // Changes since the last sync that are already stored
+        assertFalse(mSync.refresh(BASE_URL + "&minmag=5&orderby=time"));
+        // A new download that brings back the same events
+        assertFalse(mSync.refresh(BASE_URL + "&minmag=3&orderby=time"));
+
+        mTransport.setBody(FakeTransport.features(
+                "a", 6.3, mNow - HOUR, mNow,
+                "b", 5.2, mNow - 2 * HOUR, mNow - 2 * HOUR));
+        assertTrue(mSync.refresh(BASE_URL + "&minmag=3&orderby=time"));
+    }
+
+    @Test
+    public void cutOffDeltaIsDownloadedAgainInWindows() throws Exception {
+        RangeTransport transport = new RangeTransport(4);
+        transport.add("a", mNow - 3 * HOUR);
+        transport.add("b", mNow - 2 * HOUR);
+        QueryUtils.setTransport(transport);
+        EarthquakeSync sync = new EarthquakeSync(new SplitRangeFetcher(2, 2, 4));
+        assertTrue(sync.refresh(BASE_URL + "&minmag=3&orderby=time"));
+
+        // More changes than the server returns for one query
+        for (int i = 0; i < 10; i++) {
+            transport.add("n" + i, mNow - HOUR + i * 60 * 1000);
+        }
+        assertTrue(sync.refresh(BASE_URL + "&minmag=3&orderby=time"));
+
+        EarthquakeSync.Answer answer = sync.sync(BASE_URL + "&minmag=3&orderby=time");
+        assertEquals(12, answer.getEarthquakes().size());
+        // The first download and the delta, then the windows
+        assertTrue(transport.getWindowCount() > 3);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Answers every request with the same GeoJSON body, or fails it, without using the network.
+ */
+final class FakeTransport implements Transport {
+
+    private volatile String mBody = features();
+    private volatile boolean mFailing;
+    private final List<String> mUrls = new ArrayList<>();
+
+    /**
+     * Builds a USGS GeoJSON response. Each event is given as id, magnitude, time and updated
+     * time, in that order.
+     */
+    static String features(Object... events) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < events.length; i += 4) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{"
+                            + "\"mag\":%s,\"place\":\"10km N of Somewhere\",\"time\":%d,"
+                            + "\"updated\":%d,\"status\":\"reviewed\"},"
+                            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[1.5,2.5,10]},"
+                            + "\"id\":\"%s\"}",
+                    events[i + 1], events[i + 2], events[i + 3], events[i]));
+        }
+        return json.append("]}").toString();
+    }
+
+    void setBody(String body) {
+        mBody = body;
+    }
+
+    void setFailing(boolean failing) {
+        mFailing = failing;
+    }
+
+    synchronized List<String> getUrls() {
+        return new ArrayList<>(mUrls);
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers, CancellationToken cancellation)
+            throws IOException {
+        synchronized (this) {
+            mUrls.add(url);
+        }
+        if (mFailing) {
+            throw new IOException("Unreachable");
+        }
+        final byte[] body = mBody.getBytes(Charset.forName("UTF-8"));
+        return new Response() {
+            @Override
+            public int getCode() {
+                return 200;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return null;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(body);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValuesAreCountedExactly() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, bucketValue(value));
+        }
+    }
+
+    @Test
+    public void bucketsSplitEachPowerOfTwoInEight() {
+        // From 16 to 31 the buckets are two wide, and read as their middle
+        assertEquals(17, bucketValue(16));
+        assertEquals(17, bucketValue(17));
+        assertEquals(19, bucketValue(18));
+        assertEquals(31, bucketValue(31));
+        // From 32 to 63 they are four wide
+        assertEquals(34, bucketValue(32));
+        assertEquals(34, bucketValue(35));
+        assertEquals(38, bucketValue(36));
+        assertEquals(62, bucketValue(63));
+        assertEquals(68, bucketValue(64));
+    }
+
+    @Test
+    public void bucketsAreWithinASixteenthOfTheirValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = 16 + (long) Math.pow(2, random.nextDouble() * 50);
+            long read = bucketValue(value);
+            assertTrue(value + " read as " + read, Math.abs(read - value) <= value / 16);
+        }
+        Histogram largest = new Histogram("largest", "us");
+        largest.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, largest.getPercentile(50));
+    }
+
+    @Test
+    public void percentilesOfOneToAHundred() {
+        Histogram histogram = new Histogram("test", "us");
+        for (int value = 100; value >= 1; value--) {
+            histogram.record(value);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0);
+        assertEquals(100, histogram.getMax());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(10, histogram.getPercentile(10));
+        // The 50th value is in the bucket from 48 to 51, the 90th in the one from 88 to 95
+        assertEquals(50, histogram.getPercentile(50));
+        assertEquals(92, histogram.getPercentile(90));
+        // Buckets never read above the largest value recorded
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(100, histogram.getPercentile(100));
+        assertEquals(100, histogram.getPercentile(250));
+        assertEquals(1, histogram.getPercentile(-5));
+        assertEquals("test: n=100 mean=51 p50=50 p90=92 p99=100 max=100 us",
+                histogram.toString());
+    }
+
+    @Test
+    public void emptyAndResetHistogramsReadZero() {
+        Histogram histogram = new Histogram("test", "us");
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean(), 0);
+
+        histogram.record(-7);
+        assertEquals(0, histogram.getMax());
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test(timeout = 10000)
+    public void readingWhileRecordingSeesEveryCountedValue() throws Exception {
+        final Histogram histogram = new Histogram("test", "us");
+        final int values = 2000000;
+        Thread recorder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int value = 1; value <= values; value++) {
+                    histogram.record(value);
+                }
+            }
+        });
+        recorder.start();
+        try {
+            // Values go up one by one, so once n are counted the largest is at least n
+            long count;
+            do {
+                count = histogram.getCount();
+                assertTrue(histogram.getMax() >= count);
+                assertTrue(histogram.getPercentile(100) >= count);
+            } while (count < values);
+        } finally {
+            recorder.join();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void valuesRecordedConcurrentlyAreAllCounted() throws Exception {
+        final Histogram histogram = new Histogram("test", "us");
+        final int threads = 4;
+        final int values = 100000;
+        ExecutorService recorders = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                done.add(recorders.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < values; j++) {
+                            histogram.record(j % 2 == 0 ? 10 : 1000);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> recorder : done) {
+                recorder.get();
+            }
+        } finally {
+            recorders.shutdownNow();
+        }
+        assertEquals(threads * values, histogram.getCount());
+        assertEquals(505, histogram.getMean(), 0);
+        assertEquals(10, histogram.getPercentile(50));
+        assertEquals(bucketValue(1000), histogram.getPercentile(51));
+    }
+
+    /**
+     * Returns what the bucket holding the value reads as, by recording a larger value after it
+     * so the median is not simply the maximum.
+     */
+    private static long bucketValue(long value) {
+        Histogram histogram = new Histogram("test", "us");
+        histogram.record(value);
+        histogram.record(Long.MAX_VALUE);
+        return histogram.getPercentile(50);
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpTransportTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BODY = "{\"type\":\"FeatureCollection\",\"features\":[]}";
+
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private String mBaseUrl;
+    private final List<String> mAcceptEncodings = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mIfNoneMatch = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> mClientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/plain", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                record(exchange);
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                send(exchange, 200, BODY.getBytes(UTF_8));
+            }
+        });
+        mServer.createContext("/gzip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                record(exchange);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                send(exchange, 200, gzip(repeated(1000)));
+            }
+        });
+        mServer.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                record(exchange);
+                send(exchange, 404, "Not found".getBytes(UTF_8));
+            }
+        });
+        mServer.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                record(exchange);
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write("{\"features\":[".getBytes(UTF_8));
+                    out.flush();
+                    // Some connections only give up a blocked read once more bytes arrive
+                    Thread.sleep(1000);
+                    out.write("]}".getBytes(UTF_8));
+                } catch (InterruptedException ignored) {
+                    // Stopping the server
+                } catch (IOException ignored) {
+                    // The client hung up
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServerExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        // Wakes up handlers still holding a response back
+        mServerExecutor.shutdownNow();
+        mServer.stop(0);
+    }
+
+    @Test
+    public void plainBodyAndHeadersPassThrough() throws IOException {
+        HttpTransport transport = new HttpTransport();
+        Transport.Response response = transport.get(mBaseUrl + "/plain",
+                Collections.singletonMap("If-None-Match", "\"v0\""), null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals("\"v1\"", response.getHeader("ETag"));
+            assertEquals(BODY, read(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals("gzip", mAcceptEncodings.get(0));
+        assertEquals("\"v0\"", mIfNoneMatch.get(0));
+        assertEquals(1, transport.getRequestCount());
+        assertEquals(BODY.length(), transport.getWireBytes());
+        assertEquals(BODY.length(), transport.getBodyBytes());
+    }
+
+    @Test
+    public void gzipBodyIsDecompressedAndCountedOnTheWire() throws IOException {
+        HttpTransport transport = new HttpTransport();
+        Transport.Response response = transport.get(mBaseUrl + "/gzip", null, null);
+        try {
+            assertEquals(new String(repeated(1000), UTF_8), read(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(repeated(1000).length, transport.getBodyBytes());
+        assertTrue("wire bytes " + transport.getWireBytes(),
+                transport.getWireBytes() < transport.getBodyBytes() / 10);
+    }
+
+    @Test
+    public void errorBodyIsReadable() throws IOException {
+        Transport.Response response = new HttpTransport().get(mBaseUrl + "/missing", null, null);
+        try {
+            assertEquals(404, response.getCode());
+            assertEquals("Not found", read(response.getBody()));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void closedResponseLeavesTheConnectionForTheNextRequest() throws IOException {
+        HttpTransport transport = new HttpTransport();
+        for (int i = 0; i < 3; i++) {
+            // Closing without reading drains the short body, so the connection can be reused
+            transport.get(mBaseUrl + "/plain", null, null).close();
+        }
+        assertEquals(3, mClientPorts.size());
+        assertEquals(mClientPorts.get(0), mClientPorts.get(1));
+        assertEquals(mClientPorts.get(0), mClientPorts.get(2));
+    }
+
+    @Test(timeout = 5000)
+    public void cancellingFailsABlockedRead() throws IOException {
+        final CancellationToken cancellation = new CancellationToken();
+        Transport.Response response = new HttpTransport().get(mBaseUrl + "/slow", null,
+                cancellation);
+        InputStream body = response.getBody();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                    // Cancel right away
+                }
+                cancellation.cancel();
+            }
+        }).start();
+        try {
+            read(body);
+            fail("Read the whole body of a cancelled request");
+        } catch (IOException expected) {
+            // The read blocked at cancel time failed instead of returning the rest
+        } finally {
+            response.close();
+        }
+    }
+
+    private void record(HttpExchange exchange) {
+        mAcceptEncodings.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        mIfNoneMatch.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+        mClientPorts.add(exchange.getRemoteAddress().getPort());
+    }
+
+    private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static byte[] repeated(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("{\"mag\":4.5,\"place\":\"Somewhere\"},");
+        }
+        return text.toString().getBytes(UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Before
+    public void setUp() {
+        Metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void everyHistogramIsListedOnceUnderItsOwnName() {
+        List<Histogram> histograms = Metrics.getAll();
+        HashSet<String> names = new HashSet<>();
+        for (Histogram histogram : histograms) {
+            names.add(histogram.getName());
+        }
+
+        assertEquals(13, histograms.size());
+        assertEquals(histograms.size(), names.size());
+        assertTrue(histograms.contains(Metrics.PARSE));
+        assertTrue(histograms.contains(Metrics.LANE_RUN[TaskScheduler.LANE_MAINTENANCE]));
+    }
+
+    @Test
+    public void dumpHasALinePerHistogramThenOnePerLane() {
+        Metrics.PARSE.record(100);
+
+        String[] lines = Metrics.dump().split("\n");
+
+        assertEquals(Metrics.getAll().size() + 3, lines.length);
+        assertTrue(lines[4], lines[4].startsWith("parse: n=1 "));
+        assertTrue(lines[lines.length - 3], lines[lines.length - 3].startsWith("visible lane: "));
+        assertTrue(lines[lines.length - 1],
+                lines[lines.length - 1].startsWith("maintenance lane: "));
+    }
+
+    @Test
+    public void resetClearsEveryHistogram() {
+        for (Histogram histogram : Metrics.getAll()) {
+            histogram.record(42);
+        }
+
+        Metrics.reset();
+
+        for (Histogram histogram : Metrics.getAll()) {
+            assertEquals(histogram.getName(), 0, histogram.getCount());
+            assertEquals(histogram.getName(), 0, histogram.getMax());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void dumpWhileRecordingReadsOnlyRecordedValues() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread recorder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stop.get()) {
+                    Metrics.PARSE.record(100);
+                }
+            }
+        });
+        recorder.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                String parse = Metrics.dump().split("\n")[4];
+                if (!parse.startsWith("parse: n=0 ")) {
+                    assertTrue(parse, parse.endsWith(" p50=100 p90=100 p99=100 max=100 us"));
+                }
+            }
+        } finally {
+            stop.set(true);
+            recorder.join();
+        }
+    }
+}
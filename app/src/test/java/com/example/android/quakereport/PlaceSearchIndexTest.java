@@ -0,0 +1,124 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlaceSearchIndexTest {
+
+    private EarthquakeStore mStore;
+    private PlaceSearchIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mStore = new EarthquakeStore();
+        mStore.upsert("r1", 4.5, "74km NW of Rumoi, Japan", 1000, 1000, 0, 0, 0);
+        mStore.upsert("r2", 3.0, "10km S of Rumoi, Japan", 2000, 2000, 0, 0, 0);
+        mStore.upsert("t1", 5.5, "5km E of Tokyo, Japan", 3000, 3000, 0, 0, 0);
+        mStore.upsert("f1", 6.0, "Fiji region", 4000, 4000, 0, 0, 0);
+        mIndex = new PlaceSearchIndex(mStore);
+    }
+
+    @Test
+    public void lastWordMatchesAsAPrefix() {
+        assertEquals(Collections.singletonList("Rumoi, Japan"), mIndex.suggest("rum", 10));
+        assertEquals(Collections.singletonList("Rumoi, Japan"), mIndex.suggest("Rumoi, Ja", 10));
+        // Every word but the last may be a prefix too
+        assertEquals(Collections.singletonList("Tokyo, Japan"), mIndex.suggest("to jap", 10));
+    }
+
+    @Test
+    public void everyWordOfTheQueryMustMatch() {
+        assertEquals(Arrays.asList("Rumoi, Japan", "Tokyo, Japan"),
+                mIndex.suggest("japan", 10));
+        assertEquals(Collections.singletonList("Tokyo, Japan"), mIndex.suggest("japan tok", 10));
+        assertTrue(mIndex.suggest("rumoi tokyo", 10).isEmpty());
+        assertTrue(mIndex.suggest("japan fiji", 10).isEmpty());
+    }
+
+    @Test
+    public void onlyThePrimaryLocationIsIndexed() {
+        assertTrue(mIndex.suggest("nw", 10).isEmpty());
+        assertTrue(mIndex.suggest("74km", 10).isEmpty());
+        assertTrue(mIndex.suggest("of", 10).isEmpty());
+        // A place without "of" is indexed whole
+        assertEquals(Collections.singletonList("Fiji region"), mIndex.suggest("region", 10));
+        assertEquals("Rumoi, Japan", PlaceSearchIndex.primaryLocation("74km NW of Rumoi, Japan"));
+        assertEquals("Fiji region", PlaceSearchIndex.primaryLocation("Fiji region"));
+    }
+
+    @Test
+    public void suggestionsWithMoreEventsComeFirst() {
+        // Rumoi has two events, Tokyo one
+        assertEquals(Collections.singletonList("Rumoi, Japan"), mIndex.suggest("japan", 1));
+        mStore.upsert("t2", 2.0, "3km N of Tokyo, Japan", 5000, 5000, 0, 0, 0);
+        mStore.upsert("t3", 2.0, "Tokyo, Japan", 6000, 6000, 0, 0, 0);
+        assertEquals(Arrays.asList("Tokyo, Japan", "Rumoi, Japan"), mIndex.suggest("japan", 5));
+    }
+
+    @Test
+    public void searchReturnsTheNewestEventsAboveTheMagnitudeNewestFirst() {
+        for (int i = 0; i < 10; i++) {
+            mStore.upsert("j" + i, i, i + "km W of Kobe, Japan", 10000 + i * 1000,
+                    10000 + i * 1000, 0, 0, 0);
+        }
+
+        assertIds(mIndex.search("japan", 4.0, 3), "j9", "j8", "j7");
+        assertIds(mIndex.search("japan", 5.0, 20), "j9", "j8", "j7", "j6", "j5", "t1");
+        assertIds(mIndex.search("kobe", 0, 0));
+        // Matches across places are merged by time
+        assertIds(mIndex.search("japan", 3.0, 20), "j9", "j8", "j7", "j6", "j5", "j4", "j3",
+                "t1", "r2", "r1");
+    }
+
+    @Test
+    public void removalMovesTheLastEventOfAPlaceIntoItsSlot() {
+        mStore.upsert("r3", 2.0, "Rumoi, Japan", 5000, 5000, 0, 0, 0);
+        // r1 is in the first slot of Rumoi, r3 in the last, which moves into r1's slot
+        mStore.remove("r1");
+        assertIds(mIndex.search("rumoi", 0, 10), "r3", "r2");
+
+        // The moved event is still found in its new slot
+        mStore.remove("r3");
+        assertIds(mIndex.search("rumoi", 0, 10), "r2");
+        mStore.upsert("r2", 3.5, "Rumoi, Japan", 2000, 2500, 0, 0, 0);
+        assertIds(mIndex.search("rumoi", 3.5, 10), "r2");
+
+        mStore.remove("r2");
+        assertTrue(mIndex.suggest("rumoi", 10).isEmpty());
+        assertEquals(Collections.singletonList("Tokyo, Japan"), mIndex.suggest("japan", 10));
+    }
+
+    @Test
+    public void emptyAndSeparatorOnlyQueriesMatchNothing() {
+        for (String query : new String[]{"", " ", ", -", "\t"}) {
+            assertTrue(query, mIndex.suggest(query, 10).isEmpty());
+            assertEquals(query, 0, mIndex.search(query, 0, 10).size());
+        }
+    }
+
+    @Test
+    public void clearedStoreEmptiesTheIndexAndDetachStopsFollowing() {
+        mStore.clear();
+        assertTrue(mIndex.suggest("japan", 10).isEmpty());
+
+        mStore.upsert("k1", 3.0, "Kobe, Japan", 1000, 1000, 0, 0, 0);
+        assertEquals(Collections.singletonList("Kobe, Japan"), mIndex.suggest("kobe", 10));
+        mIndex.detach();
+        mStore.upsert("o1", 3.0, "Osaka, Japan", 1000, 1000, 0, 0, 0);
+        assertTrue(mIndex.suggest("osaka", 10).isEmpty());
+    }
+
+    private static void assertIds(EarthquakeStore store, String... ids) {
+        assertEquals(ids.length, store.size());
+        EarthquakeStore.Cursor cursor = store.newCursor();
+        for (int row = 0; row < ids.length; row++) {
+            assertEquals(ids[row], cursor.moveTo(row).getId());
+        }
+    }
+}
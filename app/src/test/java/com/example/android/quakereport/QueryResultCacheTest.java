@@ -0,0 +1,162 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryResultCacheTest {
+
+    // Queries of the same length with rows of the same size weigh the same
+    private static final long WEIGHT = QueryResultCache.estimateBytes("q0", rows(10));
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedFirst() {
+        QueryResultCache cache = new QueryResultCache(3 * WEIGHT);
+        cache.put("q1", rows(10));
+        cache.put("q2", rows(10));
+        cache.put("q3", rows(10));
+        assertNotNull(cache.get("q1"));
+
+        cache.put("q4", rows(10));
+
+        assertNull(cache.get("q2"));
+        assertNotNull(cache.get("q1"));
+        assertNotNull(cache.get("q3"));
+        assertNotNull(cache.get("q4"));
+        assertEquals(3 * WEIGHT, cache.getBytes());
+    }
+
+    @Test
+    public void heavyEntryEvictsAsManyAsItNeeds() {
+        QueryResultCache cache = new QueryResultCache(4 * WEIGHT);
+        cache.put("q1", rows(10));
+        cache.put("q2", rows(10));
+        cache.put("q3", rows(10));
+        cache.put("q4", rows(10));
+
+        // A little more than two of the others
+        cache.put("q5", rows(21));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("q1"));
+        assertNull(cache.get("q2"));
+        assertNull(cache.get("q3"));
+        assertNotNull(cache.get("q4"));
+        assertEquals(WEIGHT + QueryResultCache.estimateBytes("q5", rows(21)), cache.getBytes());
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void entryOverTheWholeBudgetIsNotKept() {
+        QueryResultCache cache = new QueryResultCache(3 * WEIGHT);
+        cache.put("q1", rows(10));
+        cache.put("q2", rows(10));
+
+        cache.put("q1", rows(40));
+
+        // The rows stored before are gone too, they are out of date
+        assertNull(cache.get("q1"));
+        assertNotNull(cache.get("q2"));
+        assertEquals(1, cache.size());
+        assertEquals(WEIGHT, cache.getBytes());
+    }
+
+    @Test
+    public void replacedEntryIsWeighedAgain() {
+        QueryResultCache cache = new QueryResultCache(10 * WEIGHT);
+        cache.put("q1", rows(10));
+        cache.put("q1", rows(20));
+
+        assertEquals(1, cache.size());
+        assertEquals(20, cache.get("q1").size());
+        assertEquals(QueryResultCache.estimateBytes("q1", rows(20)), cache.getBytes());
+    }
+
+    @Test
+    public void trimToPercentKeepsTheMostRecentlyUsed() {
+        QueryResultCache cache = new QueryResultCache(4 * WEIGHT);
+        cache.put("q1", rows(10));
+        cache.put("q2", rows(10));
+        cache.put("q3", rows(10));
+        cache.put("q4", rows(10));
+        cache.get("q1");
+
+        cache.trimToPercent(50);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("q1"));
+        assertNotNull(cache.get("q4"));
+        assertEquals(2 * WEIGHT, cache.getBytes());
+        // The budget stays, so the cache fills up again
+        assertEquals(4 * WEIGHT, cache.getMaxBytes());
+        cache.put("q5", rows(10));
+        cache.put("q6", rows(10));
+        assertEquals(4, cache.size());
+
+        cache.trimToPercent(0);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        QueryResultCache cache = new QueryResultCache(4 * WEIGHT);
+        assertNull(cache.get("q1"));
+        cache.put("q1", rows(10));
+        cache.get("q1");
+        cache.get("q1");
+        assertNull(cache.get("q2"));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.toString(), cache.toString().endsWith("2 hits, 2 misses"));
+    }
+
+    @Test
+    public void storedRowsAreACopyThatCannotChange() {
+        QueryResultCache cache = new QueryResultCache(4 * WEIGHT);
+        List<EarthquakeRow> rows = rows(10);
+        cache.put("q1", rows);
+        rows.clear();
+
+        List<EarthquakeRow> cached = cache.get("q1");
+        assertEquals(10, cached.size());
+        try {
+            cached.clear();
+            fail("Cached rows were changed");
+        } catch (UnsupportedOperationException e) {
+            // Shared with every caller, so read-only
+        }
+    }
+
+    @Test
+    public void estimateGrowsWithRowsAndText() {
+        List<EarthquakeRow> longer = new ArrayList<>();
+        for (EarthquakeRow row : rows(10)) {
+            longer.add(new EarthquakeRow(row.getId(), row.getMagnitudeText(), 0,
+                    row.getLocationOffset(), row.getPrimaryLocation() + " region",
+                    row.getDateText(), row.getTimeText()));
+        }
+
+        assertTrue(QueryResultCache.estimateBytes("q0", rows(11)) > WEIGHT);
+        // Seven more chars in each of ten rows
+        assertEquals(WEIGHT + 10 * 7 * 2, QueryResultCache.estimateBytes("q0", longer));
+        assertTrue(QueryResultCache.estimateBytes("q0-longer", rows(10)) > WEIGHT);
+    }
+
+    private static List<EarthquakeRow> rows(int count) {
+        List<EarthquakeRow> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new EarthquakeRow("id" + (i % 10), "1.0", 0, "Near the", "Place",
+                    "Jan 01, 2018", "1:00 AM"));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers USGS queries and counts from a list of events, honouring starttime, endtime and limit
+ * the way USGS does: both ends inclusive, newest events first, never more than the limit or the
+ * server's own cap.
+ */
+final class RangeTransport implements Transport {
+    private final int mCap;
+    private final List<String> mIds = new ArrayList<>();
+    private final List<Long> mTimes = new ArrayList<>();
+    private final List<String> mWindowUrls = new ArrayList<>();
+    private final AtomicInteger mOpen = new AtomicInteger();
+    private int mMaxOpen;
+    private int mCutOff;
+    private volatile boolean mCountFailing;
+    private volatile int mFailingWindow = -1;
+    private volatile long mDelayMillis;
+    private volatile CountDownLatch mBlockingLatch;
+    private volatile Runnable mObserver;
+
+    /**
+     * @param cap most events answered to a single query, whatever its limit
+     */
+    RangeTransport(int cap) {
+        mCap = cap;
+    }
+
+    synchronized void add(String id, long time) {
+        mIds.add(id);
+        mTimes.add(time);
+    }
+
+    void setCountFailing(boolean failing) {
+        mCountFailing = failing;
+    }
+
+    void setFailingWindow(int window) {
+        mFailingWindow = window;
+    }
+
+    void setDelayMillis(long delayMillis) {
+        mDelayMillis = delayMillis;
+    }
+
+    /**
+     * Makes window requests block until cancelled, counting the latch down once one does.
+     */
+    void setBlockingLatch(CountDownLatch latch) {
+        mBlockingLatch = latch;
+    }
+
+    void setObserver(Runnable observer) {
+        mObserver = observer;
+    }
+
+    synchronized List<String> getWindowUrls() {
+        return new ArrayList<>(mWindowUrls);
+    }
+
+    synchronized int getWindowCount() {
+        return mWindowUrls.size();
+    }
+
+    /**
+     * Returns how many windows came back with as many events as the cap.
+     */
+    synchronized int getCutOffCount() {
+        return mCutOff;
+    }
+
+    synchronized int getMaxOpenRequests() {
+        return mMaxOpen;
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers,
+                        final CancellationToken cancellation) throws IOException {
+        if (url.contains("/count?")) {
+            if (mCountFailing) {
+                throw new IOException("No count");
+            }
+            return response("{\"count\":" + select(url).size() + ",\"maxAllowed\":" + mCap
+                    + "}");
+        }
+        Runnable observer = mObserver;
+        if (observer != null) {
+            observer.run();
+        }
+        int window;
+        int open = mOpen.incrementAndGet();
+        synchronized (this) {
+            window = mWindowUrls.size();
+            mWindowUrls.add(url);
+            mMaxOpen = Math.max(mMaxOpen, open);
+        }
+        try {
+            block(cancellation);
+            if (window == mFailingWindow) {
+                throw new IOException("Unreachable");
+            }
+            List<Integer> selected = select(url);
+            String limitParameter = QueryUrls.getParameter(url, "limit");
+            int limit = limitParameter == null ? mCap
+                    : Math.min(mCap, Integer.parseInt(limitParameter));
+            Object[] events = new Object[Math.min(limit, selected.size()) * 4];
+            synchronized (this) {
+                for (int i = 0; i < events.length / 4; i++) {
+                    int event = selected.get(i);
+                    events[i * 4] = mIds.get(event);
+                    events[i * 4 + 1] = 3.0;
+                    events[i * 4 + 2] = mTimes.get(event);
+                    events[i * 4 + 3] = mTimes.get(event);
+                }
+                if (selected.size() >= limit) {
+                    mCutOff++;
+                }
+            }
+            return response(FakeTransport.features(events));
+        } finally {
+            mOpen.decrementAndGet();
+        }
+    }
+
+    private void block(CancellationToken cancellation) throws IOException {
+        long delayMillis = mDelayMillis;
+        CountDownLatch latch = mBlockingLatch;
+        if (latch != null) {
+            latch.countDown();
+            while (!cancellation.isCancelled()) {
+                sleep(1);
+            }
+            throw new InterruptedIOException("Cancelled");
+        }
+        if (delayMillis > 0) {
+            sleep(delayMillis);
+        }
+    }
+
+    /**
+     * Returns the events in the query's range, newest first.
+     */
+    private synchronized List<Integer> select(String url) throws IOException {
+        long start = parseTime(QueryUrls.getParameter(url, "starttime"), Long.MIN_VALUE);
+        long end = parseTime(QueryUrls.getParameter(url, "endtime"), Long.MAX_VALUE);
+        List<Integer> selected = new ArrayList<>();
+        for (int i = mTimes.size() - 1; i >= 0; i--) {
+            long time = mTimes.get(i);
+            if (time >= start && time <= end) {
+                selected.add(i);
+            }
+        }
+        return selected;
+    }
+
+    private static long parseTime(String value, long fallback) throws IOException {
+        if (value == null) {
+            return fallback;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+
+    private static Response response(String body) {
+        final byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        return new Response() {
+            @Override
+            public int getCode() {
+                return 200;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return null;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
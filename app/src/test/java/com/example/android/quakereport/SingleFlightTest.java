@@ -0,0 +1,283 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private ExecutorService mCallers;
+    private SingleFlight<String> mFlight;
+
+    @Before
+    public void setUp() {
+        mCallers = Executors.newCachedThreadPool();
+        mFlight = new SingleFlight<>();
+    }
+
+    @After
+    public void tearDown() {
+        mCallers.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void concurrentCallersShareOneCall() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+            @Override
+            public String call(CancellationToken cancellation) throws IOException {
+                calls.incrementAndGet();
+                await(release);
+                return "result";
+            }
+        };
+
+        List<Future<String>> results = startCallers(call);
+        waitForWaiters();
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("result", result.get());
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, mFlight.size());
+    }
+
+    @Test(timeout = 5000)
+    public void errorIsSharedByEveryCaller() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final IOException failure = new IOException("Unreachable");
+        SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+            @Override
+            public String call(CancellationToken cancellation) throws IOException {
+                calls.incrementAndGet();
+                await(release);
+                throw failure;
+            }
+        };
+
+        List<Future<String>> results = startCallers(call);
+        waitForWaiters();
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get();
+                fail("A caller got a result from a failed call");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause().getCause());
+            }
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test(timeout = 5000)
+    public void cancelledCallIsRethrownAsIs() throws Exception {
+        final InterruptedIOException cancelled = new InterruptedIOException("Cancelled");
+        try {
+            mFlight.get("key", new SingleFlight.Call<String>() {
+                @Override
+                public String call(CancellationToken cancellation) throws IOException {
+                    throw cancelled;
+                }
+            }, null);
+            fail("Returned a result of a cancelled call");
+        } catch (InterruptedIOException e) {
+            assertSame(cancelled, e);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void callRunsOnTheFirstCallersThread() throws Exception {
+        final Thread[] callThread = new Thread[1];
+        mFlight.get("key", new SingleFlight.Call<String>() {
+            @Override
+            public String call(CancellationToken cancellation) {
+                callThread[0] = Thread.currentThread();
+                return "result";
+            }
+        }, null);
+        assertSame(Thread.currentThread(), callThread[0]);
+    }
+
+    @Test(timeout = 5000)
+    public void callIsCancelledOnlyOnceEveryCallerGaveUp() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+            @Override
+            public String call(CancellationToken cancellation) throws IOException {
+                cancellation.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancelled.countDown();
+                    }
+                });
+                started.countDown();
+                await(cancelled);
+                throw new InterruptedIOException("Cancelled");
+            }
+        };
+        CancellationToken leader = new CancellationToken();
+        CancellationToken waiter = new CancellationToken();
+        Future<String> leaderResult = startCaller(call, leader);
+        started.await();
+        Future<String> waiterResult = startCaller(call, waiter);
+        waitForWaiters(2);
+
+        waiter.cancel();
+        assertCancelled(waiterResult);
+        assertFalse(cancelled.await(100, TimeUnit.MILLISECONDS));
+
+        leader.cancel();
+        assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+        assertCancelled(leaderResult);
+        assertEquals(0, mFlight.size());
+    }
+
+    @Test(timeout = 5000)
+    public void firstCallerThatGaveUpFinishesTheCallForTheOthers() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger cancellations = new AtomicInteger();
+        SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+            @Override
+            public String call(CancellationToken cancellation) throws IOException {
+                cancellation.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancellations.incrementAndGet();
+                    }
+                });
+                started.countDown();
+                await(release);
+                return "result";
+            }
+        };
+        CancellationToken leader = new CancellationToken();
+        Future<String> leaderResult = startCaller(call, leader);
+        started.await();
+        Future<String> waiterResult = startCaller(call, null);
+        waitForWaiters(2);
+
+        leader.cancel();
+        assertFalse(leaderResult.isDone());
+        release.countDown();
+
+        assertEquals("result", waiterResult.get());
+        assertCancelled(leaderResult);
+        assertEquals(0, cancellations.get());
+    }
+
+    @Test(timeout = 5000)
+    public void callIsCancelledWhenTheWaitersGiveUpAfterTheLeader() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+            @Override
+            public String call(CancellationToken cancellation) throws IOException {
+                final CountDownLatch cancelled = new CountDownLatch(1);
+                cancellation.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancelled.countDown();
+                    }
+                });
+                started.countDown();
+                await(cancelled);
+                throw new InterruptedIOException("Cancelled");
+            }
+        };
+        CancellationToken leader = new CancellationToken();
+        CancellationToken first = new CancellationToken();
+        CancellationToken second = new CancellationToken();
+        Future<String> leaderResult = startCaller(call, leader);
+        started.await();
+        Future<String> firstResult = startCaller(call, first);
+        Future<String> secondResult = startCaller(call, second);
+        waitForWaiters(3);
+
+        leader.cancel();
+        first.cancel();
+        assertCancelled(firstResult);
+        // The second waiter still needs the call, so its leader keeps running it
+        assertFalse(leaderResult.isDone());
+        assertEquals(1, mFlight.getWaiterCount("key"));
+
+        second.cancel();
+        assertCancelled(secondResult);
+        assertCancelled(leaderResult);
+        assertEquals(0, mFlight.size());
+    }
+
+    private List<Future<String>> startCallers(SingleFlight.Call<String> call) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(startCaller(call, null));
+        }
+        return results;
+    }
+
+    private Future<String> startCaller(final SingleFlight.Call<String> call,
+                                       final CancellationToken cancellation) {
+        return mCallers.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return mFlight.get("key", call, cancellation);
+            }
+        });
+    }
+
+    private void waitForWaiters() throws InterruptedException {
+        waitForWaiters(CALLERS);
+    }
+
+    /**
+     * Waits until the callers have joined the flight. Callers that have not reached it yet
+     * would start a second call once the first one is done.
+     */
+    private void waitForWaiters(int count) throws InterruptedException {
+        while (mFlight.getWaiterCount("key") < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void assertCancelled(Future<String> result) throws InterruptedException {
+        try {
+            result.get();
+            fail("A cancelled caller got a result");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+}
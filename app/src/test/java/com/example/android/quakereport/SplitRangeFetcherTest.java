@@ -0,0 +1,199 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SplitRangeFetcherTest {
+
+    private static final String QUERY_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=2.5";
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long START = 1500000000000L;
+    private static final int EVENTS = 50;
+    private static final int CAP = 8;
+
+    private Transport mDefaultTransport;
+    private RangeTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mDefaultTransport = QueryUtils.getTransport();
+        // One event an hour, for 50 hours
+        mTransport = new RangeTransport(CAP);
+        for (int i = 0; i < EVENTS; i++) {
+            mTransport.add("e" + i, START + i * HOUR + HOUR / 2);
+        }
+        QueryUtils.setTransport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(mDefaultTransport);
+    }
+
+    @Test(timeout = 5000)
+    public void rangeIsSplitUntilEveryWindowComesBackWhole() throws IOException {
+        // Without a count, two windows of 25 events come back full and are split again
+        mTransport.setCountFailing(true);
+        List<Earthquake> earthquakes = new SplitRangeFetcher(2, 2, CAP)
+                .fetch(QUERY_URL, START, START + EVENTS * HOUR, null);
+
+        assertNewestFirstAndComplete(earthquakes);
+        // Every window that came back full was requested again as two halves
+        assertTrue(mTransport.getCutOffCount() > 0);
+        assertEquals(2 + 2 * mTransport.getCutOffCount(), mTransport.getWindowCount());
+    }
+
+    @Test(timeout = 5000)
+    public void countSizesTheWindows() throws IOException {
+        List<Earthquake> earthquakes = new SplitRangeFetcher(2, 2, CAP)
+                .fetch(QUERY_URL, START, START + EVENTS * HOUR, null);
+
+        assertNewestFirstAndComplete(earthquakes);
+        // 50 events in windows of about half the cap need 13 of them, none of which is full
+        assertEquals(13, mTransport.getWindowCount());
+        assertEquals(0, mTransport.getCutOffCount());
+    }
+
+    @Test(timeout = 5000)
+    public void emptyCountSkipsTheDownload() throws IOException {
+        List<Earthquake> earthquakes = new SplitRangeFetcher(2, 2, CAP)
+                .fetch(QUERY_URL, START - 10 * HOUR, START, null);
+
+        assertTrue(earthquakes.isEmpty());
+        assertEquals(0, mTransport.getWindowCount());
+    }
+
+    @Test(timeout = 5000)
+    public void windowsKeepTheOtherParameters() throws IOException {
+        new SplitRangeFetcher(2, 2, CAP).fetch(QUERY_URL + "&updatedafter=2017-07-14"
+                + "&orderby=magnitude&limit=20000&offset=3", START, START + EVENTS * HOUR, null);
+
+        for (String url : mTransport.getWindowUrls()) {
+            assertEquals("2.5", QueryUrls.getParameter(url, "minmag"));
+            assertEquals("2017-07-14", QueryUrls.getParameter(url, "updatedafter"));
+            assertEquals(String.valueOf(CAP), QueryUrls.getParameter(url, "limit"));
+            assertNull(QueryUrls.getParameter(url, "orderby"));
+            assertNull(QueryUrls.getParameter(url, "offset"));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void openRangeLeavesTheLastWindowOpen() throws IOException {
+        List<Earthquake> earthquakes = new SplitRangeFetcher(2, 2, CAP)
+                .fetch(QUERY_URL, START, Long.MAX_VALUE, null);
+
+        assertEquals(EVENTS, earthquakes.size());
+        int open = 0;
+        for (String url : mTransport.getWindowUrls()) {
+            if (QueryUrls.getParameter(url, "endtime") == null) {
+                open++;
+            }
+        }
+        assertEquals(1, open);
+    }
+
+    @Test(timeout = 5000)
+    public void eventsOnWindowBoundariesAreMergedById() throws IOException {
+        // Exactly where the range is first cut in half, both halves return it
+        mTransport.setCountFailing(true);
+        mTransport.add("edge", START + EVENTS * HOUR / 2);
+        List<Earthquake> earthquakes = new SplitRangeFetcher(2, 2, CAP)
+                .fetch(QUERY_URL, START, START + EVENTS * HOUR, null);
+
+        Set<String> ids = new HashSet<>();
+        for (Earthquake earthquake : earthquakes) {
+            assertTrue(earthquake.getId(), ids.add(earthquake.getId()));
+        }
+        assertEquals(EVENTS + 1, ids.size());
+    }
+
+    @Test(timeout = 5000)
+    public void requestsPerHostStayWithinTheLimit() throws IOException {
+        mTransport.setDelayMillis(20);
+        new SplitRangeFetcher(4, 2, CAP).fetch(QUERY_URL, START, START + EVENTS * HOUR, null);
+
+        assertTrue(mTransport.getMaxOpenRequests() <= 2);
+    }
+
+    @Test(timeout = 5000)
+    public void failedWindowFailsTheFetch() throws IOException {
+        mTransport.setFailingWindow(3);
+        try {
+            new SplitRangeFetcher(2, 2, CAP).fetch(QUERY_URL, START, START + EVENTS * HOUR, null);
+            fail("Returned a partial history");
+        } catch (InterruptedIOException e) {
+            fail("A failure was reported as a cancellation");
+        } catch (IOException e) {
+            // Failed as a whole
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void cancellationStopsTheWindows() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mTransport.setBlockingLatch(blocked);
+        final CancellationToken cancellation = new CancellationToken();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Earthquake>> result = caller.submit(new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() throws IOException {
+                    return new SplitRangeFetcher(2, 2, CAP)
+                            .fetch(QUERY_URL, START, START + EVENTS * HOUR, cancellation);
+                }
+            });
+            blocked.await();
+            cancellation.cancel();
+            try {
+                result.get();
+                fail("A cancelled fetch returned a result");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof InterruptedIOException);
+            }
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    public void downloadThreadsAreDaemons() throws Exception {
+        final Thread[] thread = new Thread[1];
+        mTransport.setObserver(new Runnable() {
+            @Override
+            public void run() {
+                thread[0] = Thread.currentThread();
+            }
+        });
+        new SplitRangeFetcher(1, 1, CAP).fetch(QUERY_URL, START, START + HOUR, null);
+
+        assertTrue(thread[0].isDaemon());
+        assertFalse(thread[0] == Thread.currentThread());
+    }
+
+    private static void assertNewestFirstAndComplete(List<Earthquake> earthquakes) {
+        assertEquals(EVENTS, earthquakes.size());
+        for (int i = 0; i < EVENTS; i++) {
+            assertEquals("e" + (EVENTS - 1 - i), earthquakes.get(i).getId());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncSchedulerTest {
+
+    private static final long MIN = 15 * 60 * 1000;
+    private static final long MAX = 16 * MIN;
+
+    private long mNow;
+    private boolean mChanged;
+    private boolean mFailing;
+    private SyncScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mNow = 1000000;
+        SyncScheduler.Clock clock = new SyncScheduler.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return mNow;
+            }
+        };
+        SyncScheduler.Fetcher fetcher = new SyncScheduler.Fetcher() {
+            @Override
+            public boolean fetch() throws IOException {
+                if (mFailing) {
+                    throw new IOException("Unreachable");
+                }
+                return mChanged;
+            }
+        };
+        mScheduler = new SyncScheduler(clock, fetcher, MIN, MAX);
+    }
+
+    @Test
+    public void quietSyncsDoubleTheIntervalUpToTheMaximum() {
+        assertEquals(2 * MIN, mScheduler.run());
+        assertEquals(4 * MIN, mScheduler.run());
+        assertEquals(8 * MIN, mScheduler.run());
+        assertEquals(16 * MIN, mScheduler.run());
+        assertEquals(MAX, mScheduler.run());
+        assertEquals(MAX, mScheduler.getInterval());
+    }
+
+    @Test
+    public void changesResetTheInterval() {
+        mScheduler.run();
+        mScheduler.run();
+        mChanged = true;
+
+        assertEquals(MIN, mScheduler.run());
+        assertEquals(MIN, mScheduler.getInterval());
+    }
+
+    @Test
+    public void failuresBackOffWithoutTouchingTheInterval() {
+        mScheduler.run();
+        mFailing = true;
+
+        assertEquals(MIN, mScheduler.run());
+        assertEquals(2 * MIN, mScheduler.run());
+        assertEquals(4 * MIN, mScheduler.run());
+        assertEquals(3, mScheduler.getFailureCount());
+        assertEquals(2 * MIN, mScheduler.getInterval());
+
+        for (int i = 0; i < 40; i++) {
+            mScheduler.run();
+        }
+        assertEquals(MAX, mScheduler.run());
+    }
+
+    @Test
+    public void successResetsTheFailures() {
+        mFailing = true;
+        mScheduler.run();
+        mScheduler.run();
+        mNow += 1000;
+        mFailing = false;
+
+        mScheduler.run();
+        assertEquals(0, mScheduler.getFailureCount());
+        assertEquals(mNow, mScheduler.getLastSuccessTime());
+    }
+
+    @Test
+    public void nextRunFollowsTheClock() {
+        long delay = mScheduler.run();
+        assertEquals(mNow + delay, mScheduler.getNextRunTime());
+        assertFalse(mScheduler.isDue());
+
+        mNow += delay - 1;
+        assertEquals(1, mScheduler.getDelay());
+        mNow += 1;
+        assertTrue(mScheduler.isDue());
+        mNow += MIN;
+        assertEquals(0, mScheduler.getDelay());
+    }
+
+    @Test
+    public void restoreClampsTheSavedState() {
+        mScheduler.restore(100 * MAX, -1, 5, mNow + 10);
+
+        assertEquals(MAX, mScheduler.getInterval());
+        assertEquals(0, mScheduler.getFailureCount());
+        assertEquals(5, mScheduler.getLastSuccessTime());
+        assertEquals(10, mScheduler.getDelay());
+    }
+}
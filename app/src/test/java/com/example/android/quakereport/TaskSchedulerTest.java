@@ -0,0 +1,219 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TaskSchedulerTest {
+
+    private TaskScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        // Two workers: one for background work, one always free for visible loads
+        mScheduler = new TaskScheduler(2, new int[]{8, 1, 8});
+    }
+
+    @Test(timeout = 5000)
+    public void fullLaneDropsItsOldestJob() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TaskScheduler.Task<String> running =
+                mScheduler.submit(TaskScheduler.LANE_PREFETCH, block(started, release, "running"));
+        started.await();
+
+        // The only background worker is busy, so these wait in a lane that holds one job
+        TaskScheduler.Task<String> oldest =
+                mScheduler.submit(TaskScheduler.LANE_PREFETCH, value("oldest"));
+        final AtomicInteger listened = new AtomicInteger();
+        oldest.addListener(new Runnable() {
+            @Override
+            public void run() {
+                listened.incrementAndGet();
+            }
+        });
+        TaskScheduler.Task<String> newest =
+                mScheduler.submit(TaskScheduler.LANE_PREFETCH, value("newest"));
+
+        // Listeners hear of the drop although the job never ran
+        assertTrue(oldest.isDone());
+        assertEquals(1, listened.get());
+        try {
+            oldest.get();
+            fail("A dropped job returned a result");
+        } catch (InterruptedIOException e) {
+            // Dropped
+        }
+        assertEquals(1, mScheduler.getDroppedCount(TaskScheduler.LANE_PREFETCH));
+
+        release.countDown();
+        assertEquals("running", running.get());
+        assertEquals("newest", newest.get());
+    }
+
+    @Test(timeout = 5000)
+    public void visibleWorkPreemptsBackgroundWork() throws Exception {
+        CountDownLatch visibleStarted = new CountDownLatch(1);
+        CountDownLatch releaseVisible = new CountDownLatch(1);
+        TaskScheduler.Task<String> firstVisible = mScheduler.submit(TaskScheduler.LANE_VISIBLE,
+                block(visibleStarted, releaseVisible, "first"));
+        visibleStarted.await();
+
+        CountDownLatch backgroundStarted = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+        TaskScheduler.Task<String> background = mScheduler.submit(TaskScheduler.LANE_MAINTENANCE,
+                preemptible(backgroundStarted, attempts, "background"));
+        backgroundStarted.await();
+
+        // Both workers are busy, the second visible load takes the background job's worker
+        TaskScheduler.Task<String> secondVisible =
+                mScheduler.submit(TaskScheduler.LANE_VISIBLE, value("second"));
+        assertEquals("second", secondVisible.get());
+        assertFalse(firstVisible.isDone());
+        assertEquals(1, mScheduler.getPreemptedCount(TaskScheduler.LANE_MAINTENANCE));
+
+        // Requeued, it runs again once a worker is free for background work
+        releaseVisible.countDown();
+        assertEquals("first", firstVisible.get());
+        assertEquals("background", background.get());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test(timeout = 5000)
+    public void preemptedJobIsDroppedFromALaneThatFilledUp() throws Exception {
+        CountDownLatch visibleStarted = new CountDownLatch(1);
+        CountDownLatch releaseVisible = new CountDownLatch(1);
+        TaskScheduler.Task<String> firstVisible = mScheduler.submit(TaskScheduler.LANE_VISIBLE,
+                block(visibleStarted, releaseVisible, "first"));
+        visibleStarted.await();
+        CountDownLatch backgroundStarted = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+        TaskScheduler.Task<String> preempted = mScheduler.submit(TaskScheduler.LANE_PREFETCH,
+                preemptible(backgroundStarted, attempts, "preempted"));
+        backgroundStarted.await();
+        // Fills the lane, which holds one job
+        TaskScheduler.Task<String> queued =
+                mScheduler.submit(TaskScheduler.LANE_PREFETCH, value("queued"));
+
+        TaskScheduler.Task<String> secondVisible =
+                mScheduler.submit(TaskScheduler.LANE_VISIBLE, value("second"));
+        assertEquals("second", secondVisible.get());
+
+        // Older than the job waiting in the full lane, the preempted one goes instead of it
+        try {
+            preempted.get();
+            fail("A job dropped after its preemption returned a result");
+        } catch (InterruptedIOException e) {
+            // Dropped
+        }
+        assertEquals(1, mScheduler.getPreemptedCount(TaskScheduler.LANE_PREFETCH));
+        assertEquals(1, mScheduler.getDroppedCount(TaskScheduler.LANE_PREFETCH));
+        assertTrue(mScheduler.getQueuedCount(TaskScheduler.LANE_PREFETCH) <= 1);
+
+        releaseVisible.countDown();
+        assertEquals("first", firstVisible.get());
+        assertEquals("queued", queued.get());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test(timeout = 5000)
+    public void cancelledQueuedJobNeverRuns() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        mScheduler.submit(TaskScheduler.LANE_MAINTENANCE, block(started, release, "running"));
+        started.await();
+
+        final AtomicInteger runs = new AtomicInteger();
+        TaskScheduler.Task<String> queued = mScheduler.submit(TaskScheduler.LANE_MAINTENANCE,
+                new TaskScheduler.Job<String>() {
+                    @Override
+                    public String run(CancellationToken cancellation) {
+                        runs.incrementAndGet();
+                        return "queued";
+                    }
+                });
+        queued.cancel();
+        release.countDown();
+
+        try {
+            queued.get();
+            fail("A cancelled job returned a result");
+        } catch (InterruptedIOException e) {
+            // Cancelled
+        }
+        assertEquals(0, mScheduler.getQueuedCount(TaskScheduler.LANE_MAINTENANCE));
+        assertEquals(0, runs.get());
+    }
+
+    private static TaskScheduler.Job<String> value(final String value) {
+        return new TaskScheduler.Job<String>() {
+            @Override
+            public String run(CancellationToken cancellation) {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Returns a job that holds its worker until released, ignoring cancellation.
+     */
+    private static TaskScheduler.Job<String> block(final CountDownLatch started,
+                                                   final CountDownLatch release,
+                                                   final String value) {
+        return new TaskScheduler.Job<String>() {
+            @Override
+            public String run(CancellationToken cancellation) throws IOException {
+                started.countDown();
+                await(release);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Returns a job that runs until it is cancelled the first time, and to the end when run
+     * again.
+     */
+    private static TaskScheduler.Job<String> preemptible(final CountDownLatch started,
+                                                         final AtomicInteger attempts,
+                                                         final String value) {
+        return new TaskScheduler.Job<String>() {
+            @Override
+            public String run(CancellationToken cancellation) throws IOException {
+                if (attempts.incrementAndGet() > 1) {
+                    return value;
+                }
+                final CountDownLatch cancelled = new CountDownLatch(1);
+                cancellation.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancelled.countDown();
+                    }
+                });
+                started.countDown();
+                await(cancelled);
+                throw new InterruptedIOException("Cancelled");
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new InterruptedIOException("Timed out");
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loads pages of several sizes from a {@link FakeFdsnServer} through the app's own network and
+ * parse path, and reports how long the user waits for the first row and for the whole page.
+ * <p>
+ * Each load sends the request the first page loader sends, through {@link HttpTransport} with
+ * gzip and keep-alive, streams the body through {@link EarthquakeStreamParser} into an
+ * {@link EarthquakeStore} and formats the rows with {@link EarthquakeFormatter}. The first row
+ * counts as shown once the first event is parsed and formatted; the page once every row is.
+ * The disk cache and the Android loader machinery are left out, they need the framework.
+ *
+ * <pre>
+ * EndToEndBenchmark [--sizes N,N,...] [--events N] [--iterations N] [--warmup N]
+ *                   [--latency MS] [--bandwidth KB/S] [--error-rate FRACTION]
+ * </pre>
+ */
+public final class EndToEndBenchmark {
+
+    private EndToEndBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {25, 1000, 20000};
+        int events = 20000;
+        int iterations = 50;
+        int warmup = 10;
+        long latencyMillis = 0;
+        long kilobytesPerSecond = 0;
+        double errorRate = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--sizes":
+                        String[] parts = args[++i].split(",");
+                        sizes = new int[parts.length];
+                        for (int j = 0; j < parts.length; j++) {
+                            sizes[j] = Integer.parseInt(parts[j].trim());
+                        }
+                        break;
+                    case "--events":
+                        events = Integer.parseInt(args[++i]);
+                        break;
+                    case "--iterations":
+                        iterations = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++i]);
+                        break;
+                    case "--latency":
+                        latencyMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--bandwidth":
+                        kilobytesPerSecond = Long.parseLong(args[++i]);
+                        break;
+                    case "--error-rate":
+                        errorRate = Double.parseDouble(args[++i]);
+                        break;
+                    default:
+                        usage();
+                        return;
+                }
+            }
+        } catch (RuntimeException e) {
+            usage();
+            return;
+        }
+        if (iterations < 1 || warmup < 0) {
+            usage();
+            return;
+        }
+
+        FakeFdsnServer server = new FakeFdsnServer(0, events, 42);
+        server.setLatencyMillis(latencyMillis);
+        server.setBytesPerSecond(kilobytesPerSecond * 1024);
+        server.setErrorRate(errorRate);
+        server.start();
+        try {
+            System.out.println(String.format(Locale.US,
+                    "%d events served, latency %d ms, bandwidth %s, error rate %.2f",
+                    events, latencyMillis,
+                    kilobytesPerSecond > 0 ? kilobytesPerSecond + " KB/s" : "unlimited",
+                    errorRate));
+            System.out.println(String.format(Locale.US, "%8s %6s %6s %10s %10s %10s %10s %10s",
+                    "rows", "loads", "errors", "wire KB", "first p50", "first p99",
+                    "page p50", "page p99"));
+            HttpTransport transport = new HttpTransport();
+            for (int size : sizes) {
+                run(transport, server.getQueryUrl(), size, iterations, warmup);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void run(HttpTransport transport, String baseUrl, int size, int iterations,
+                            int warmup) {
+        String url = baseUrl + "?format=geojson&limit=" + size + "&minmag=0&orderby=time";
+        Histogram firstRow = new Histogram("first row", "us");
+        Histogram page = new Histogram("page", "us");
+        int errors = 0;
+        long wireBytes = transport.getWireBytes();
+        for (int i = 0; i < warmup + iterations; i++) {
+            long[] times;
+            try {
+                times = load(transport, url);
+            } catch (IOException e) {
+                times = null;
+            }
+            if (i < warmup) {
+                wireBytes = transport.getWireBytes();
+                continue;
+            }
+            if (times == null) {
+                errors++;
+                continue;
+            }
+            firstRow.record(times[0]);
+            page.record(times[1]);
+        }
+        long loads = page.getCount();
+        System.out.println(String.format(Locale.US,
+                "%8d %6d %6d %10.1f %8.2fms %8.2fms %8.2fms %8.2fms",
+                size, loads, errors,
+                loads > 0 ? (transport.getWireBytes() - wireBytes) / 1024.0 / loads : 0,
+                firstRow.getPercentile(50) / 1000.0, firstRow.getPercentile(99) / 1000.0,
+                page.getPercentile(50) / 1000.0, page.getPercentile(99) / 1000.0));
+    }
+
+    /**
+     * Loads the page once.
+     *
+     * @return microseconds until the first row and until every row was formatted
+     * @throws IOException if the request failed or the server answered with an error
+     */
+    private static long[] load(Transport transport, String url) throws IOException {
+        final long start = System.nanoTime();
+        final long[] firstRow = new long[1];
+        final EarthquakeFormatter formatter = new EarthquakeFormatter("Near the");
+        final EarthquakeStore earthquakes = new EarthquakeStore();
+        final EarthquakeStore.Cursor cursor = earthquakes.newCursor();
+        final List<EarthquakeRow> rows = new ArrayList<>();
+        Transport.Response response = transport.get(url, null, null);
+        try {
+            if (response.getCode() != 200) {
+                throw new IOException("HTTP " + response.getCode());
+            }
+            InputStream body = response.getBody();
+            EarthquakeStreamParser.parse(body, new EarthquakeStreamParser.Callback() {
+                @Override
+                public void onEarthquake(Earthquake earthquake) {
+                    earthquakes.upsert(earthquake);
+                    if (firstRow[0] == 0) {
+                        rows.add(formatter.format(cursor.moveTo(0)));
+                        firstRow[0] = (System.nanoTime() - start) / 1000;
+                    }
+                }
+            });
+        } finally {
+            response.close();
+        }
+        if (earthquakes.isEmpty()) {
+            throw new IOException("No events");
+        }
+        rows.clear();
+        rows.addAll(formatter.format(earthquakes));
+        return new long[]{firstRow[0], (System.nanoTime() - start) / 1000};
+    }
+
+    private static void usage() {
+        System.err.println("usage: EndToEndBenchmark [--sizes N,N,...] [--events N]"
+                + " [--iterations N] [--warmup N] [--latency MS] [--bandwidth KB/S]"
+                + " [--error-rate FRACTION]");
+        System.exit(2);
+    }
+}
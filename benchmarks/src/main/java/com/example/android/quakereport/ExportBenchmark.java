@@ -0,0 +1,76 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exporting the stored events. The channel discards what it is given, so this measures the
+ * encoding alone; the allocation profiler shows that it does not grow with the event count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"1000", "100000"})
+    public int features;
+
+    private EarthquakeStore mEarthquakes;
+    private EarthquakeQueryEngine mEngine;
+    private EarthquakeQuery mQuery;
+    private WritableByteChannel mDiscard;
+
+    @Setup
+    public void setUp() {
+        mEarthquakes = GeoJsonFixtures.store(features, 42);
+        mEngine = new EarthquakeQueryEngine(mEarthquakes);
+        mQuery = new EarthquakeQuery(Double.NEGATIVE_INFINITY, Long.MIN_VALUE, Long.MAX_VALUE,
+                true, false, 0, Integer.MAX_VALUE);
+        mDiscard = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) {
+                int count = source.remaining();
+                source.position(source.limit());
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Benchmark
+    public int exportCsv() throws IOException {
+        return new EarthquakeExporter(EarthquakeExporter.FORMAT_CSV)
+                .export(mEarthquakes, mEngine, mQuery, mDiscard, null);
+    }
+
+    @Benchmark
+    public int exportGeoJson() throws IOException {
+        return new EarthquakeExporter(EarthquakeExporter.FORMAT_GEOJSON)
+                .export(mEarthquakes, mEngine, mQuery, mDiscard, null);
+    }
+}
@@ -0,0 +1,547 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the USGS FDSN event service, serving a synthetic catalog so loads can be
+ * measured and repeated without the network.
+ * <p>
+ * The catalog is generated once from a seed and spread over the 30 days before the server
+ * started, so the app's default window finds all of it. The query endpoint understands the
+ * parameters the app sends: {@code format=geojson}, {@code starttime}, {@code endtime},
+ * {@code updatedafter}, {@code minmag}/{@code minmagnitude}, {@code orderby}, {@code offset}
+ * and {@code limit}; {@code includedeleted} is accepted, the catalog has no deleted events.
+ * The count endpoint answers like the real one. Responses are gzipped when asked to and carry
+ * an ETag that conditional requests are checked against. A delay before each response, a
+ * bandwidth limit and a share of requests that fail with 503 can be set to mimic slow or
+ * flaky networks.
+ *
+ * <pre>
+ * FakeFdsnServer [--port N] [--events N] [--seed N] [--latency MS] [--bandwidth KB/S]
+ *                [--error-rate FRACTION]
+ * </pre>
+ *
+ * A debug build talks to it when built with
+ * {@code -PusgsBaseUrl=http://10.0.2.2:PORT/fdsnws/event/1/query} from the emulator.
+ */
+public final class FakeFdsnServer {
+
+    public static final String QUERY_PATH = "/fdsnws/event/1/query";
+    public static final String COUNT_PATH = "/fdsnws/event/1/count";
+
+    private static final int MAX_LIMIT = 20000;
+    private static final long DEFAULT_WINDOW_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    private static final String[] TIME_FORMATS = {
+            "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"
+    };
+    // Bandwidth is enforced per write of at most this many bytes
+    private static final int THROTTLE_CHUNK_BYTES = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static {
+        // Without it the last small chunk of each body waits for the client's delayed ACK,
+        // adding 40 ms to every response that real servers do not add
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    // The catalog, newest first
+    private final long mCreated;
+    private final long[] mTimes;
+    private final long[] mUpdated;
+    private final double[] mMagnitudes;
+    private final byte[][] mFeatures;
+    // Event numbers by magnitude, largest first; ties newest first
+    private final int[] mByMagnitude;
+
+    private volatile long mLatencyMillis;
+    private volatile long mBytesPerSecond;
+    private volatile double mErrorRate;
+    private final Random mErrors;
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mErrorCount = new AtomicLong();
+
+    /**
+     * Generates the catalog and binds the port; {@link #start()} starts serving.
+     *
+     * @param port 0 for any free port
+     */
+    public FakeFdsnServer(int port, int events, long seed) throws IOException {
+        mCreated = System.currentTimeMillis();
+        mTimes = new long[events];
+        mUpdated = new long[events];
+        mMagnitudes = new double[events];
+        mFeatures = new byte[events][];
+        mErrors = new Random(seed);
+
+        Random random = new Random(seed);
+        // Twice the mean gap at most, so the catalog fills the window on average
+        int maxGap = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 1,
+                2 * DEFAULT_WINDOW_MILLIS / Math.max(1, events)));
+        long time = mCreated;
+        StringBuilder json = new StringBuilder(1200);
+        for (int i = 0; i < events; i++) {
+            time -= random.nextInt(maxGap + 1);
+            String id = "fk" + Integer.toString(1000000 + i * 37, 36) + (char) ('a' + i % 26);
+            double magnitude = random.nextInt(800) / 100.0;
+            String place = GeoJsonFixtures.randomPlace(random);
+            double latitude = -70 + random.nextDouble() * 140;
+            double longitude = -180 + random.nextDouble() * 360;
+            double depth = random.nextDouble() * 600;
+            long updated = Math.min(mCreated, time + random.nextInt(3600000));
+            json.setLength(0);
+            GeoJsonFixtures.appendFeature(json, random, id, magnitude, place, time, updated,
+                    longitude, latitude, depth);
+            mTimes[i] = time;
+            mUpdated[i] = updated;
+            mMagnitudes[i] = magnitude;
+            mFeatures[i] = json.toString().getBytes(UTF_8);
+        }
+        mByMagnitude = sortByMagnitude(mMagnitudes);
+
+        mServer = HttpServer.create(new InetSocketAddress(port), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(QUERY_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange, false);
+            }
+        });
+        mServer.createContext(COUNT_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange, true);
+            }
+        });
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the query endpoint, to be used where the app uses the USGS one.
+     */
+    public String getQueryUrl() {
+        return "http://localhost:" + mServer.getAddress().getPort() + QUERY_PATH;
+    }
+
+    public int getEventCount() {
+        return mTimes.length;
+    }
+
+    /**
+     * Delays the headers of every response by this long.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Limits each response body to this many bytes per second on the wire, 0 for no limit.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Answers this share of requests, from 0 to 1, with 503 Service Unavailable.
+     */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the number of requests failed on purpose.
+     */
+    public long getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    private void serve(HttpExchange exchange, boolean count) throws IOException {
+        try {
+            mRequestCount.incrementAndGet();
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                // No body, a HEAD response must not have one
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (failNow()) {
+                mErrorCount.incrementAndGet();
+                sendText(exchange, 503, "Service Unavailable");
+                return;
+            }
+            int[] rows;
+            try {
+                rows = select(parseQuery(exchange.getRequestURI().getRawQuery()), count);
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, "Bad Request: " + e.getMessage());
+                return;
+            }
+            if (count) {
+                sendText(exchange, 200, "{\"count\":" + rows.length + ",\"maxAllowed\":"
+                        + MAX_LIMIT + "}");
+            } else {
+                sendFeatures(exchange, rows);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean failNow() {
+        double errorRate = mErrorRate;
+        if (errorRate <= 0) {
+            return false;
+        }
+        synchronized (mErrors) {
+            return mErrors.nextDouble() < errorRate;
+        }
+    }
+
+    /**
+     * Returns the numbers of the events the query asks for, in the order it asks for.
+     *
+     * @throws IllegalArgumentException if a parameter is not understood
+     */
+    private int[] select(Map<String, String> query, boolean count) {
+        String format = query.get("format");
+        if (!count && !"geojson".equals(format)) {
+            throw new IllegalArgumentException("only format=geojson is served");
+        }
+        long startTime = parseTime(query.get("starttime"),
+                System.currentTimeMillis() - DEFAULT_WINDOW_MILLIS);
+        long endTime = parseTime(query.get("endtime"), Long.MAX_VALUE);
+        long updatedAfter = parseTime(query.get("updatedafter"), Long.MIN_VALUE);
+        String minMagnitude = query.get("minmag");
+        if (minMagnitude == null) {
+            minMagnitude = query.get("minmagnitude");
+        }
+        double magnitude = minMagnitude != null
+                ? parseDouble("minmagnitude", minMagnitude) : Double.NEGATIVE_INFINITY;
+        String orderBy = query.containsKey("orderby") ? query.get("orderby") : "time";
+        int offset = query.containsKey("offset") ? parseInt("offset", query.get("offset")) : 1;
+        int limit = query.containsKey("limit") ? parseInt("limit", query.get("limit")) : -1;
+        if (offset < 1 || limit == 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("offset or limit out of range");
+        }
+
+        int[] order;
+        boolean reverse;
+        switch (orderBy) {
+            case "time":
+                order = null;
+                reverse = false;
+                break;
+            case "time-asc":
+                order = null;
+                reverse = true;
+                break;
+            case "magnitude":
+                order = mByMagnitude;
+                reverse = false;
+                break;
+            case "magnitude-asc":
+                order = mByMagnitude;
+                reverse = true;
+                break;
+            default:
+                throw new IllegalArgumentException("orderby " + orderBy);
+        }
+
+        int size = mTimes.length;
+        int[] rows = new int[Math.min(size, limit > 0 ? limit : size)];
+        int found = 0;
+        int skip = offset - 1;
+        for (int i = 0; i < size && found < rows.length; i++) {
+            int position = reverse ? size - 1 - i : i;
+            int event = order != null ? order[position] : position;
+            if (mTimes[event] < startTime || mTimes[event] > endTime
+                    || mUpdated[event] <= updatedAfter || mMagnitudes[event] < magnitude) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            rows[found++] = event;
+        }
+        if (limit < 0 && !count && found == rows.length && found > MAX_LIMIT) {
+            throw new IllegalArgumentException("more than " + MAX_LIMIT + " events match");
+        }
+        return Arrays.copyOf(rows, found);
+    }
+
+    private void sendFeatures(HttpExchange exchange, int[] rows) throws IOException {
+        // The catalog never changes, so the events selected identify the response
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(rows)) + "-" + rows.length + "\"";
+        exchange.getResponseHeaders().set("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        // Length 0 sends the body chunked, as USGS does
+        exchange.sendResponseHeaders(200, 0);
+
+        OutputStream out = new ThrottledOutputStream(exchange.getResponseBody(), mBytesPerSecond);
+        // One chunk per feature would be mostly chunk headers
+        out = gzip ? new GZIPOutputStream(out, 8192) : new BufferedOutputStream(out, 8192);
+        try {
+            out.write(("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":" + mCreated
+                    + ",\"url\":\"" + exchange.getRequestURI()
+                    + "\",\"title\":\"Fake FDSN Earthquakes\",\"status\":200,\"api\":\"1.5.8\""
+                    + ",\"count\":" + rows.length + "},\"features\":[").getBytes(UTF_8));
+            for (int i = 0; i < rows.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(mFeatures[rows[i]]);
+            }
+            out.write("],\"bbox\":[-180,-70,0,180,70,600]}".getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int code, String text)
+            throws IOException {
+        byte[] body = text.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                text.startsWith("{") ? "application/json" : "text/plain");
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        try {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        return query;
+    }
+
+    /**
+     * Reads a time in one of the ISO 8601 forms USGS accepts, always in UTC.
+     */
+    private static long parseTime(String text, long fallback) {
+        if (text == null) {
+            return fallback;
+        }
+        for (String pattern : TIME_FORMATS) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            format.setLenient(false);
+            try {
+                return format.parse(text).getTime();
+            } catch (ParseException e) {
+                // Try the next form
+            }
+        }
+        throw new IllegalArgumentException("time " + text);
+    }
+
+    private static int parseInt(String name, String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " " + text);
+        }
+    }
+
+    private static double parseDouble(String name, String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " " + text);
+        }
+    }
+
+    private static int[] sortByMagnitude(final double[] magnitudes) {
+        Integer[] events = new Integer[magnitudes.length];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = i;
+        }
+        // Stable, so equal magnitudes stay newest first
+        Arrays.sort(events, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(magnitudes[b], magnitudes[a]);
+            }
+        });
+        int[] sorted = new int[events.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = events[i];
+        }
+        return sorted;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        int events = 20000;
+        long seed = 42;
+        long latencyMillis = 0;
+        long kilobytesPerSecond = 0;
+        double errorRate = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--events":
+                        events = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--latency":
+                        latencyMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--bandwidth":
+                        kilobytesPerSecond = Long.parseLong(args[++i]);
+                        break;
+                    case "--error-rate":
+                        errorRate = Double.parseDouble(args[++i]);
+                        break;
+                    default:
+                        usage();
+                        return;
+                }
+            }
+        } catch (RuntimeException e) {
+            usage();
+            return;
+        }
+
+        FakeFdsnServer server = new FakeFdsnServer(port, events, seed);
+        server.setLatencyMillis(latencyMillis);
+        server.setBytesPerSecond(kilobytesPerSecond * 1024);
+        server.setErrorRate(errorRate);
+        server.start();
+        System.out.println(String.format(Locale.US,
+                "Serving %d events at %s (latency %d ms, bandwidth %s, error rate %.2f)",
+                events, server.getQueryUrl(), latencyMillis,
+                kilobytesPerSecond > 0 ? kilobytesPerSecond + " KB/s" : "unlimited", errorRate));
+    }
+
+    private static void usage() {
+        System.err.println("usage: FakeFdsnServer [--port N] [--events N] [--seed N]"
+                + " [--latency MS] [--bandwidth KB/S] [--error-rate FRACTION]");
+        System.exit(2);
+    }
+
+    /**
+     * Writes no faster than a given number of bytes per second, on average since the first
+     * write.
+     */
+    private static final class ThrottledOutputStream extends FilterOutputStream {
+        private final long mBytesPerSecond;
+        private long mStartNanos;
+        private long mWritten;
+
+        ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            if (mBytesPerSecond <= 0) {
+                out.write(buffer, offset, count);
+                return;
+            }
+            if (mStartNanos == 0) {
+                mStartNanos = System.nanoTime();
+            }
+            while (count > 0) {
+                int chunk = Math.min(count, THROTTLE_CHUNK_BYTES);
+                mWritten += chunk;
+                // Sleep until the bytes written so far are due
+                long dueNanos = mStartNanos + mWritten * 1000000000L / mBytesPerSecond;
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    try {
+                        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted");
+                    }
+                }
+                out.write(buffer, offset, chunk);
+                offset += chunk;
+                count -= chunk;
+            }
+        }
+    }
+}
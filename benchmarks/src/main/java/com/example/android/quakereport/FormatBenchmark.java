@@ -0,0 +1,67 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preparing rows for the list. The adapter's old helpers (date, time and magnitude formatting,
+ * magnitude color and the location split) now all run in {@link EarthquakeFormatter}, so binding
+ * only copies the results into views.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    @Param({"25", "1000", "20000"})
+    public int features;
+
+    private EarthquakeStore mEarthquakes;
+    private EarthquakeStore.Cursor mCursor;
+    private EarthquakeFormatter mFormatter;
+
+    @Setup
+    public void setUp() {
+        mEarthquakes = GeoJsonFixtures.store(features, 42);
+        mCursor = mEarthquakes.newCursor();
+        mFormatter = new EarthquakeFormatter("Near the");
+    }
+
+    /**
+     * Everything a page of rows costs: location split, date, time, magnitude text and band.
+     */
+    @Benchmark
+    public List<EarthquakeRow> formatRows() {
+        return mFormatter.format(mEarthquakes);
+    }
+
+    @Benchmark
+    public void formatMagnitude(Blackhole blackhole) {
+        for (int row = 0; row < features; row++) {
+            blackhole.consume(mFormatter.formatMagnitude(mCursor.moveTo(row).getMagnitude()));
+        }
+    }
+
+    @Benchmark
+    public void magnitudeBand(Blackhole blackhole) {
+        for (int row = 0; row < features; row++) {
+            blackhole.consume(EarthquakeFormatter.magnitudeBand(mCursor.moveTo(row).getMagnitude()));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic responses shaped like the USGS GeoJSON feed, with every property the real feed
+ * sends, so the parser skips as much as it does in the app. The same count and seed always
+ * give the same bytes.
+ */
+final class GeoJsonFixtures {
+
+    private static final String[] REGIONS = {
+            "Alaska", "California", "Chile", "Japan", "Indonesia", "Tonga", "Peru", "Nevada",
+            "Hawaii", "Papua New Guinea", "Fiji", "Mexico", "Greece", "Turkey", "Philippines"
+    };
+
+    private static final long NOW = 1539000000000L;
+
+    private GeoJsonFixtures() {
+    }
+
+    static byte[] usgs(int count, long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder(count * 1100 + 512);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":").append(NOW)
+                .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query\"")
+                .append(",\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.8\",\"count\":")
+                .append(count).append("},\"features\":[");
+        long time = NOW;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            time -= random.nextInt(600000);
+            String id = "us" + Integer.toString(1000000 + i * 37, 36) + (char) ('a' + i % 26);
+            double magnitude = random.nextInt(800) / 100.0;
+            String place = randomPlace(random);
+            double latitude = -70 + random.nextDouble() * 140;
+            double longitude = -180 + random.nextDouble() * 360;
+            double depth = random.nextDouble() * 600;
+
+            long updated = time + random.nextInt(3600000);
+            appendFeature(json, random, id, magnitude, place, time, updated,
+                    longitude, latitude, depth);
+        }
+        json.append("],\"bbox\":[-180,-70,0,180,70,600]}");
+        return json.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Returns a place in the USGS style, "10km N of Town12, Alaska", or now and then a region
+     * on its own.
+     */
+    static String randomPlace(Random random) {
+        String region = REGIONS[random.nextInt(REGIONS.length)];
+        return random.nextInt(8) == 0
+                ? region
+                : (1 + random.nextInt(300)) + "km " + "NSEW".charAt(random.nextInt(4))
+                + " of Town" + random.nextInt(400) + ", " + region;
+    }
+
+    /**
+     * Appends one feature with the given event fields. Properties the app does not read, such
+     * as the felt count and significance, are drawn from {@code random}.
+     */
+    static void appendFeature(StringBuilder json, Random random, String id, double magnitude,
+                              String place, long time, long updated, double longitude,
+                              double latitude, double depth) {
+        json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude)
+                .append(",\"place\":\"").append(place)
+                .append("\",\"time\":").append(time)
+                .append(",\"updated\":").append(updated)
+                .append(",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/")
+                .append(id)
+                .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=")
+                .append(id)
+                .append("&format=geojson\",\"felt\":").append(random.nextInt(4) == 0 ? "12" : "null")
+                .append(",\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"reviewed\"")
+                .append(",\"tsunami\":0,\"sig\":").append(random.nextInt(1000))
+                .append(",\"net\":\"us\",\"code\":\"").append(id.substring(2))
+                .append("\",\"ids\":\",").append(id)
+                .append(",\",\"sources\":\",us,\",\"types\":\",geoserve,origin,phase-data,\"")
+                .append(",\"nst\":null,\"dmin\":").append(String.format(Locale.US, "%.3f", random.nextDouble() * 10))
+                .append(",\"rms\":").append(String.format(Locale.US, "%.2f", random.nextDouble()))
+                .append(",\"gap\":").append(random.nextInt(360))
+                .append(",\"magType\":\"mb\",\"type\":\"earthquake\",\"title\":\"M ")
+                .append(magnitude).append(" - ").append(place)
+                .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(String.format(Locale.US, "%.4f,%.4f,%.2f", longitude, latitude, depth))
+                .append("]},\"id\":\"").append(id).append("\"}");
+    }
+
+    static EarthquakeStore store(int count, long seed) {
+        final EarthquakeStore earthquakes = new EarthquakeStore();
+        try {
+            EarthquakeStreamParser.parse(new ByteArrayInputStream(usgs(count, seed)),
+                    new EarthquakeStreamParser.Callback() {
+                        @Override
+                        public void onEarthquake(Earthquake earthquake) {
+                            earthquakes.upsert(earthquake);
+                        }
+                    });
+        } catch (IOException e) {
+            throw new IllegalStateException("Fixture does not parse", e);
+        }
+        return earthquakes;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a response into earthquakes. {@code QueryUtils.extractEarthquakes} is a thin wrapper
+ * around {@link #parseToList()} that only adds Android logging, so it is measured through that.
+ * The old {@code readFromStream}, which read the whole body into a String first, no longer
+ * exists: the parser reads the stream directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"25", "1000", "20000"})
+    public int features;
+
+    private byte[] mJson;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        mJson = GeoJsonFixtures.usgs(features, 42);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        EarthquakeCodec.encode(GeoJsonFixtures.store(features, 42), encoded);
+        mEncoded = encoded.toByteArray();
+    }
+
+    @Benchmark
+    public List<Earthquake> parseToList() throws IOException {
+        return EarthquakeStreamParser.parse(new ByteArrayInputStream(mJson));
+    }
+
+    @Benchmark
+    public EarthquakeStore parseToStore() throws IOException {
+        final EarthquakeStore earthquakes = new EarthquakeStore();
+        EarthquakeStreamParser.parse(new ByteArrayInputStream(mJson),
+                new EarthquakeStreamParser.Callback() {
+                    @Override
+                    public void onEarthquake(Earthquake earthquake) {
+                        earthquakes.upsert(earthquake);
+                    }
+                });
+        return earthquakes;
+    }
+
+    /**
+     * What the list needs before it can show its first page in lazy mode: the index, the rows
+     * in time order and the 25 events of that page.
+     */
+    @Benchmark
+    public Earthquake[] indexFirstPage() throws IOException {
+        EarthquakeResponseIndex index = EarthquakeResponseIndex.build(ByteBuffer.wrap(mJson));
+        int[] rows = index.sortedRows(false, false);
+        Earthquake[] page = new Earthquake[Math.min(25, rows.length)];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = index.get(rows[i]);
+        }
+        return page;
+    }
+
+    @Benchmark
+    public EarthquakeStore decodeBinary() throws IOException {
+        return EarthquakeCodec.decode(new ByteArrayInputStream(mEncoded));
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 200 km radius query through {@link SpatialIndex} against a scan of every event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+    private static final double RADIUS_KM = 200;
+
+    @Param({"10000", "100000"})
+    public int events;
+
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private SpatialIndex mIndex;
+    private int mQuery;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mLatitudes = new double[events];
+        mLongitudes = new double[events];
+        for (int i = 0; i < events; i++) {
+            mLatitudes[i] = -90 + random.nextDouble() * 180;
+            mLongitudes[i] = -180 + random.nextDouble() * 360;
+        }
+        mIndex = new SpatialIndex(mLatitudes, mLongitudes);
+    }
+
+    @Benchmark
+    public int[] index() {
+        // Center each query on a different event, so every region of the grid gets visited
+        int center = nextQuery();
+        return mIndex.withinRadius(mLatitudes[center], mLongitudes[center], RADIUS_KM);
+    }
+
+    @Benchmark
+    public int[] linearScan() {
+        int center = nextQuery();
+        double latitude = mLatitudes[center];
+        double longitude = mLongitudes[center];
+        int[] rows = new int[16];
+        int count = 0;
+        for (int row = 0; row < events; row++) {
+            if (SpatialIndex.distanceKm(latitude, longitude, mLatitudes[row], mLongitudes[row])
+                    <= RADIUS_KM) {
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, count * 2);
+                }
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    private int nextQuery() {
+        mQuery = (mQuery + 7919) % events;
+        return mQuery;
+    }
+}
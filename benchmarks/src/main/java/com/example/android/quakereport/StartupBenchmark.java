@@ -0,0 +1,156 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the two ways a cold start can fill the list: reading the family's
+ * {@link EarthquakeSnapshot} from disk, or downloading the first page from a
+ * {@link FakeFdsnServer}.
+ * <p>
+ * Both paths end the same way, with every row formatted by {@link EarthquakeFormatter}. The
+ * snapshot holds the same events the download returns, so the two differ only in where the
+ * events come from. The snapshot file is read from the page cache after the first iteration,
+ * as it usually is when the app was used recently; the network path goes through
+ * {@link HttpTransport} with gzip and keep-alive, like the first page loader.
+ *
+ * <pre>
+ * StartupBenchmark [--sizes N,N,...] [--iterations N] [--warmup N] [--latency MS]
+ *                  [--bandwidth KB/S]
+ * </pre>
+ */
+public final class StartupBenchmark {
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {25, 2000, 20000};
+        int iterations = 50;
+        int warmup = 10;
+        long latencyMillis = 0;
+        long kilobytesPerSecond = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--sizes":
+                        String[] parts = args[++i].split(",");
+                        sizes = new int[parts.length];
+                        for (int j = 0; j < parts.length; j++) {
+                            sizes[j] = Integer.parseInt(parts[j].trim());
+                        }
+                        break;
+                    case "--iterations":
+                        iterations = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++i]);
+                        break;
+                    case "--latency":
+                        latencyMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--bandwidth":
+                        kilobytesPerSecond = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        usage();
+                        return;
+                }
+            }
+        } catch (RuntimeException e) {
+            usage();
+            return;
+        }
+        if (iterations < 1 || warmup < 0) {
+            usage();
+            return;
+        }
+
+        int events = 0;
+        for (int size : sizes) {
+            events = Math.max(events, size);
+        }
+        FakeFdsnServer server = new FakeFdsnServer(0, events, 42);
+        server.setLatencyMillis(latencyMillis);
+        server.setBytesPerSecond(kilobytesPerSecond * 1024);
+        server.start();
+        File file = File.createTempFile("startup", ".snapshot");
+        try {
+            System.out.println(String.format(Locale.US, "latency %d ms, bandwidth %s",
+                    latencyMillis,
+                    kilobytesPerSecond > 0 ? kilobytesPerSecond + " KB/s" : "unlimited"));
+            System.out.println(String.format(Locale.US, "%8s %10s %10s %10s %10s %10s",
+                    "rows", "file KB", "disk p50", "disk p99", "net p50", "net p99"));
+            HttpTransport transport = new HttpTransport();
+            for (int size : sizes) {
+                run(transport, server.getQueryUrl(), file, size, iterations, warmup);
+            }
+        } finally {
+            server.stop();
+            file.delete();
+        }
+    }
+
+    private static void run(HttpTransport transport, String baseUrl, File file, int size,
+                            int iterations, int warmup) throws IOException {
+        String url = baseUrl + "?format=geojson&limit=" + size + "&minmag=0&orderby=time";
+        // The snapshot a sync of the same query would have saved
+        EarthquakeStore saved = download(transport, url);
+        new EarthquakeSnapshot(url, 0, 0, 0, System.currentTimeMillis(), saved).write(file);
+
+        Histogram disk = new Histogram("snapshot", "us");
+        Histogram network = new Histogram("network", "us");
+        for (int i = 0; i < warmup + iterations; i++) {
+            long start = System.nanoTime();
+            format(EarthquakeSnapshot.read(file).getEarthquakes());
+            long read = System.nanoTime();
+            format(download(transport, url));
+            long downloaded = System.nanoTime();
+            if (i >= warmup) {
+                disk.record((read - start) / 1000);
+                network.record((downloaded - read) / 1000);
+            }
+        }
+        System.out.println(String.format(Locale.US,
+                "%8d %10.1f %8.2fms %8.2fms %8.2fms %8.2fms",
+                size, file.length() / 1024.0,
+                disk.getPercentile(50) / 1000.0, disk.getPercentile(99) / 1000.0,
+                network.getPercentile(50) / 1000.0, network.getPercentile(99) / 1000.0));
+    }
+
+    private static EarthquakeStore download(Transport transport, String url) throws IOException {
+        final EarthquakeStore earthquakes = new EarthquakeStore();
+        Transport.Response response = transport.get(url, null, null);
+        try {
+            if (response.getCode() != 200) {
+                throw new IOException("HTTP " + response.getCode());
+            }
+            InputStream body = response.getBody();
+            EarthquakeStreamParser.parse(body, new EarthquakeStreamParser.Callback() {
+                @Override
+                public void onEarthquake(Earthquake earthquake) {
+                    earthquakes.upsert(earthquake);
+                }
+            });
+        } finally {
+            response.close();
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Formats every row, as the loader does before handing the rows to the list.
+     */
+    private static List<EarthquakeRow> format(EarthquakeStore earthquakes) {
+        return new EarthquakeFormatter("Near the").format(earthquakes);
+    }
+
+    private static void usage() {
+        System.err.println("usage: StartupBenchmark [--sizes N,N,...] [--iterations N]"
+                + " [--warmup N] [--latency MS] [--bandwidth KB/S]");
+        System.exit(2);
+    }
+}
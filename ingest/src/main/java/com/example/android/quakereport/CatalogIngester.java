@@ -0,0 +1,419 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads USGS catalog exports into an {@link EarthquakeStore} using every core.
+ * <p>
+ * Each file is cut into chunks of about the same size, which are mapped and parsed in parallel
+ * on a fork-join pool, each into its own store. The stores are merged pairwise on the way back
+ * up, and events that appear in more than one chunk or file keep their newest version. A
+ * deletion counts as a version too: each chunk remembers the events it saw deleted, so a
+ * deletion removes the copies other chunks hold unless they were updated after it.
+ * <p>
+ * GeoJSON chunks find their own record boundaries, so no thread has to read the whole file
+ * first. Features in the compact GeoJSON that USGS sends start with
+ * <code>{"type":"Feature"</code>, which cannot occur inside a string because quotes in strings
+ * are escaped. GeoJSON without that marker, such as pretty-printed files, is parsed in one
+ * piece. CSV records start after a line break, but quoted places may hold line breaks too, so
+ * CSV files are cut where one pass over the file that only counts quotes finds a line break
+ * outside of them.
+ */
+public final class CatalogIngester {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] FEATURES_PREFIX = "{\"features\":[".getBytes(UTF_8);
+    private static final byte[] FEATURES_SUFFIX = "]}".getBytes(UTF_8);
+    private static final byte[] FEATURE_MARKER = "{\"type\":\"Feature\"".getBytes(UTF_8);
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    // Enough of the start of a file to hold the CSV header or the GeoJSON metadata
+    private static final int HEADER_BYTES = 64 * 1024;
+    private static final int SCAN_BYTES = 64 * 1024;
+    // Longest record a chunk reads past its end for
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    private final ForkJoinPool mPool;
+    private final long mChunkBytes;
+    private final AtomicLong mRecordCount = new AtomicLong();
+
+    /**
+     * @param pool       pool the chunks are parsed on
+     * @param chunkBytes size the chunks are cut to, give or take one record
+     */
+    public CatalogIngester(ForkJoinPool pool, long chunkBytes) {
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("Bad chunk size " + chunkBytes);
+        }
+        mPool = pool;
+        mChunkBytes = chunkBytes;
+    }
+
+    /**
+     * Parses all files into one store.
+     */
+    public EarthquakeStore ingest(List<File> files) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        for (File file : files) {
+            chunks.addAll(split(file));
+        }
+        if (chunks.isEmpty()) {
+            return new EarthquakeStore();
+        }
+        try {
+            return mPool.invoke(new ParseTask(chunks.toArray(new Chunk[chunks.size()]), 0,
+                    chunks.size(), mRecordCount)).mEarthquakes;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the number of records parsed so far, duplicates included.
+     */
+    public long getRecordCount() {
+        return mRecordCount.get();
+    }
+
+    /**
+     * Cuts the file into chunks. The format is told by the first byte that is not white space
+     * or a byte order mark: GeoJSON starts with a brace, CSV with its header.
+     */
+    List<Chunk> split(File file) throws IOException {
+        byte[] block = new byte[HEADER_BYTES];
+        int count;
+        long size;
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            count = Math.max(0, input.read(block));
+            size = input.length();
+        } finally {
+            input.close();
+        }
+
+        // A byte order mark can only come first
+        int first = startsWith(block, count, UTF8_BOM) ? UTF8_BOM.length : 0;
+        while (first < count && isWhiteSpace(block[first])) {
+            first++;
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        if (first >= count) {
+            return chunks;
+        }
+
+        CsvCatalogParser csvParser = null;
+        long start;
+        if (block[first] == '{') {
+            start = indexOf(block, count, FEATURE_MARKER, first);
+            if (start < 0) {
+                chunks.add(new Chunk(file, 0, size, null));
+                return chunks;
+            }
+        } else {
+            int lineEnd = first;
+            while (lineEnd < count && block[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == count && count < size) {
+                throw new IOException("Catalog header too long in " + file);
+            }
+            csvParser = new CsvCatalogParser(new String(block, first, lineEnd - first, UTF_8));
+            return splitCsv(file, csvParser, lineEnd + 1, size);
+        }
+        for (long chunkStart = start; chunkStart < size; chunkStart += mChunkBytes) {
+            chunks.add(new Chunk(file, chunkStart, Math.min(chunkStart + mChunkBytes, size),
+                    null));
+        }
+        return chunks;
+    }
+
+    /**
+     * Cuts the records of a CSV file into chunks that end at line breaks outside of quotes.
+     * Doubled quotes inside quoted fields toggle twice, so counting every quote is enough.
+     */
+    private List<Chunk> splitCsv(File file, CsvCatalogParser parser, long start, long size)
+            throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] block = new byte[SCAN_BYTES];
+        long chunkStart = start;
+        long position = start;
+        boolean quoted = false;
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.seek(start);
+            int count;
+            while ((count = input.read(block)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    if (block[i] == '"') {
+                        quoted = !quoted;
+                    } else if (block[i] == '\n' && !quoted
+                            && position + i + 1 - chunkStart >= mChunkBytes) {
+                        chunks.add(new Chunk(file, chunkStart, position + i + 1, parser));
+                        chunkStart = position + i + 1;
+                    }
+                }
+                position += count;
+            }
+        } finally {
+            input.close();
+        }
+        if (chunkStart < size) {
+            chunks.add(new Chunk(file, chunkStart, size, parser));
+        }
+        return chunks;
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean startsWith(byte[] bytes, int count, byte[] prefix) {
+        if (count < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the pattern at or after {@code from}, -1 if
+     * there is none before {@code limit}.
+     */
+    static int indexOf(byte[] bytes, int limit, byte[] pattern, int from) {
+        byte first = pattern[0];
+        int last = limit - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Part of a file. The records parsed are those that start in {@code [mStart, mEnd)}. CSV
+     * chunks hold whole records; GeoJSON chunks read on past the end to finish the last one.
+     */
+    static final class Chunk {
+        final File mFile;
+        final long mStart;
+        final long mEnd;
+        // Null for GeoJSON chunks
+        final CsvCatalogParser mCsvParser;
+
+        Chunk(File file, long start, long end, CsvCatalogParser csvParser) {
+            mFile = file;
+            mStart = start;
+            mEnd = end;
+            mCsvParser = csvParser;
+        }
+
+        Part parse(AtomicLong recordCount) throws IOException {
+            final Part part = new Part();
+            final EarthquakeStore earthquakes = part.mEarthquakes;
+            EarthquakeStreamParser.Callback callback = new EarthquakeStreamParser.Callback() {
+                @Override
+                public void onEarthquake(Earthquake earthquake) {
+                    part.add(earthquake);
+                }
+            };
+            RandomAccessFile input = new RandomAccessFile(mFile, "r");
+            try {
+                long size = input.length();
+                if (mCsvParser == null && mStart == 0 && mEnd == size) {
+                    // GeoJSON without feature markers
+                    recordCount.addAndGet(EarthquakeStreamParser.parse(new BufferedInputStream(
+                            new FileInputStream(input.getFD()), 64 * 1024), callback));
+                    return part;
+                }
+                FileChannel channel = input.getChannel();
+                if (mCsvParser != null) {
+                    recordCount.addAndGet(mCsvParser.parse(channel.map(
+                            FileChannel.MapMode.READ_ONLY, mStart, mEnd - mStart), earthquakes));
+                    return part;
+                }
+                // A few features past the end finish the one that runs over
+                long mapEnd = Math.min(size, mEnd + MAX_RECORD_BYTES);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mStart,
+                        mapEnd - mStart);
+                recordCount.addAndGet(parseGeoJson(buffer, 0, (int) (mEnd - mStart),
+                        mapEnd == size, callback));
+                return part;
+            } finally {
+                // Mappings stay valid after the file is closed
+                input.close();
+            }
+        }
+
+        private int parseGeoJson(ByteBuffer buffer, int start, int end, boolean toEndOfFile,
+                                  EarthquakeStreamParser.Callback callback) throws IOException {
+            int from = nextFeature(buffer, start);
+            if (from < 0 || from >= end) {
+                return 0;
+            }
+            int to = nextFeature(buffer, end);
+            InputStream features;
+            if (to >= 0) {
+                // Drop the comma between the last feature and the next one
+                int last = to - 1;
+                while (last > from && buffer.get(last) != '}') {
+                    last--;
+                }
+                features = new SequenceInputStream(range(buffer, from, last + 1),
+                        new ByteArrayInputStream(FEATURES_SUFFIX));
+            } else if (toEndOfFile) {
+                // The rest of the file closes the features array and the collection
+                features = range(buffer, from, buffer.limit());
+            } else {
+                throw new IOException("GeoJSON feature too long in " + mFile);
+            }
+            return EarthquakeStreamParser.parse(new SequenceInputStream(
+                    new ByteArrayInputStream(FEATURES_PREFIX), features), callback);
+        }
+
+        private static int nextFeature(ByteBuffer buffer, int from) {
+            int last = buffer.limit() - FEATURE_MARKER.length;
+            for (int i = from; i <= last; i++) {
+                if (buffer.get(i) != '{') {
+                    continue;
+                }
+                int j = 1;
+                while (j < FEATURE_MARKER.length && buffer.get(i + j) == FEATURE_MARKER[j]) {
+                    j++;
+                }
+                if (j == FEATURE_MARKER.length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static InputStream range(ByteBuffer buffer, int from, int to) {
+            ByteBuffer range = buffer.duplicate();
+            range.position(from);
+            range.limit(to);
+            return new ByteBufferInputStream(range);
+        }
+    }
+
+    /**
+     * Events parsed from some of the chunks, and the events they saw deleted.
+     */
+    static final class Part {
+        final EarthquakeStore mEarthquakes = new EarthquakeStore();
+        // Update time of the newest deletion of each deleted event
+        final Map<String, Long> mDeletions = new HashMap<>();
+
+        void add(Earthquake earthquake) {
+            String id = earthquake.getId() != null
+                    ? earthquake.getId() : earthquake.getEarthquakeUrl();
+            long updated = earthquake.getUpdatedInMilliseconds();
+            if (earthquake.isDeleted()) {
+                delete(id, updated);
+                return;
+            }
+            Long deleted = mDeletions.get(id);
+            if (deleted == null || deleted < updated) {
+                mEarthquakes.upsert(earthquake);
+            }
+        }
+
+        /**
+         * Moves the other part's events and deletions into this one.
+         */
+        void merge(Part other) {
+            for (Map.Entry<String, Long> deletion : other.mDeletions.entrySet()) {
+                delete(deletion.getKey(), deletion.getValue());
+            }
+            for (Map.Entry<String, Long> deletion : mDeletions.entrySet()) {
+                other.removeIfOlder(deletion.getKey(), deletion.getValue());
+            }
+            mEarthquakes.addAll(other.mEarthquakes);
+        }
+
+        private void delete(String id, long updated) {
+            Long known = mDeletions.get(id);
+            if (known == null || known < updated) {
+                mDeletions.put(id, updated);
+            }
+            removeIfOlder(id, updated);
+        }
+
+        private void removeIfOlder(String id, long deleted) {
+            Earthquake stored = mEarthquakes.get(id);
+            if (stored != null && stored.getUpdatedInMilliseconds() <= deleted) {
+                mEarthquakes.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Parses a range of chunks, splitting it in halves until one chunk is left.
+     */
+    private static final class ParseTask extends RecursiveTask<Part> {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] mChunks;
+        private final int mFrom;
+        private final int mTo;
+        private final AtomicLong mRecordCount;
+
+        ParseTask(Chunk[] chunks, int from, int to, AtomicLong recordCount) {
+            mChunks = chunks;
+            mFrom = from;
+            mTo = to;
+            mRecordCount = recordCount;
+        }
+
+        @Override
+        protected Part compute() {
+            if (mTo - mFrom == 1) {
+                try {
+                    return mChunks[mFrom].parse(mRecordCount);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            ParseTask right = new ParseTask(mChunks, middle, mTo, mRecordCount);
+            right.fork();
+            Part left = new ParseTask(mChunks, mFrom, middle, mRecordCount).compute();
+            Part other = right.join();
+            // Copy the smaller store into the larger one
+            if (left.mEarthquakes.size() < other.mEarthquakes.size()) {
+                other.merge(left);
+                return other;
+            }
+            left.merge(other);
+            return left;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Parser for USGS catalog exports in CSV format ({@code format=csv}). The header line names the
+ * columns; records are one line each, with quotes around fields that contain commas.
+ * <p>
+ * Records are read straight from a byte buffer into an {@link EarthquakeStore}, so no
+ * {@link Earthquake} objects are created.
+ */
+final class CsvCatalogParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TIME = 0;
+    private static final int LATITUDE = 1;
+    private static final int LONGITUDE = 2;
+    private static final int DEPTH = 3;
+    private static final int MAGNITUDE = 4;
+    private static final int ID = 5;
+    private static final int UPDATED = 6;
+    private static final int PLACE = 7;
+    private static final String[] COLUMNS = {
+            "time", "latitude", "longitude", "depth", "mag", "id", "updated", "place"
+    };
+
+    // Column position of each field we read, -1 if the file does not have it
+    private final int[] mPositions = new int[COLUMNS.length];
+    private final boolean[] mWanted;
+    private final int mColumnCount;
+
+    /**
+     * @param header the first line of the file, without the line break
+     * @throws IOException if a column the store needs is missing
+     */
+    CsvCatalogParser(String header) throws IOException {
+        String[] names = header.trim().split(",");
+        mColumnCount = names.length;
+        mWanted = new boolean[names.length];
+        for (int field = 0; field < COLUMNS.length; field++) {
+            mPositions[field] = -1;
+            for (int column = 0; column < names.length; column++) {
+                if (COLUMNS[field].equals(names[column].trim())) {
+                    mPositions[field] = column;
+                    mWanted[column] = true;
+                }
+            }
+        }
+        if (mPositions[ID] < 0 || mPositions[TIME] < 0) {
+            throw new IOException("Not a USGS catalog header: " + header);
+        }
+    }
+
+    /**
+     * Parses every record in the buffer, which must start at the beginning of a line, into the
+     * store.
+     *
+     * @return the number of records parsed
+     */
+    int parse(ByteBuffer buffer, EarthquakeStore earthquakes) throws IOException {
+        String[] values = new String[mColumnCount];
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            if (!readRecord(buffer, values)) {
+                continue;
+            }
+            String id = values[mPositions[ID]];
+            if (id == null || id.isEmpty()) {
+                continue;
+            }
+            long time = parseTime(values[mPositions[TIME]]);
+            String updated = field(values, UPDATED);
+            earthquakes.upsert(id,
+                    parseDouble(field(values, MAGNITUDE)),
+                    field(values, PLACE),
+                    time,
+                    updated != null ? parseTime(updated) : time,
+                    parseDouble(field(values, LATITUDE)),
+                    parseDouble(field(values, LONGITUDE)),
+                    parseDouble(field(values, DEPTH)));
+            count++;
+        }
+        return count;
+    }
+
+    private String field(String[] values, int field) {
+        int position = mPositions[field];
+        return position >= 0 ? values[position] : null;
+    }
+
+    /**
+     * Splits one line into the values array, keeping only the columns we read.
+     *
+     * @return false for blank lines
+     */
+    private boolean readRecord(ByteBuffer buffer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        int column = 0;
+        int start = buffer.position();
+        boolean quoted = false;
+        boolean escapedQuote = false;
+        boolean wanted = isWanted(column);
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (quoted) {
+                if (b == '"') {
+                    if (buffer.hasRemaining() && buffer.get(buffer.position()) == '"') {
+                        buffer.get();
+                        escapedQuote = true;
+                    } else {
+                        quoted = false;
+                    }
+                }
+            } else if (b == '"') {
+                quoted = true;
+            } else if (b == ',' || b == '\n') {
+                if (wanted && column < values.length) {
+                    values[column] = value(buffer, start, buffer.position() - 1, escapedQuote);
+                }
+                if (b == '\n') {
+                    return column > 0 || buffer.position() - 1 > start;
+                }
+                column++;
+                wanted = isWanted(column);
+                escapedQuote = false;
+                start = buffer.position();
+            }
+        }
+        if (quoted) {
+            throw new IOException("Unterminated quote in catalog record");
+        }
+        // Last line without a line break
+        if (wanted && column < values.length) {
+            values[column] = value(buffer, start, buffer.position(), escapedQuote);
+        }
+        return column > 0 || buffer.position() > start;
+    }
+
+    private boolean isWanted(int column) {
+        return column < mWanted.length && mWanted[column];
+    }
+
+    private static String value(ByteBuffer buffer, int start, int end, boolean escapedQuote) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+            start++;
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer range = buffer.duplicate();
+        range.position(start);
+        range.get(bytes);
+        String value = new String(bytes, UTF_8);
+        return escapedQuote ? value.replace("\"\"", "\"") : value;
+    }
+
+    private static double parseDouble(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            // Like null values in the GeoJSON feed
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad number in catalog record: " + value, e);
+        }
+    }
+
+    /**
+     * Parses a UTC time like {@code 2018-10-18T06:45:12.340Z}. The fraction is optional.
+     */
+    static long parseTime(String value) throws IOException {
+        try {
+            int year = Integer.parseInt(value.substring(0, 4));
+            int month = Integer.parseInt(value.substring(5, 7));
+            int day = Integer.parseInt(value.substring(8, 10));
+            int hour = Integer.parseInt(value.substring(11, 13));
+            int minute = Integer.parseInt(value.substring(14, 16));
+            int second = Integer.parseInt(value.substring(17, 19));
+            int millis = 0;
+            if (value.length() > 20 && value.charAt(19) == '.') {
+                int digits = 0;
+                for (int i = 20; i < value.length() && Character.isDigit(value.charAt(i)); i++) {
+                    if (digits < 3) {
+                        millis = millis * 10 + (value.charAt(i) - '0');
+                        digits++;
+                    }
+                }
+                for (; digits < 3; digits++) {
+                    millis *= 10;
+                }
+            }
+            long days = daysFromCivil(year, month, day);
+            return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+        } catch (RuntimeException e) {
+            throw new IOException("Bad time in catalog record: " + value, e);
+        }
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
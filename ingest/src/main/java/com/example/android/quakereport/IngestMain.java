@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command line tool that loads USGS catalog exports (GeoJSON or CSV) and writes the newest
+ * events as the {@link EarthquakeSnapshot} the app loads for a query. The file is named after
+ * the query's family and written to the output directory; copied into the app's snapshot
+ * directory, it answers that family's queries until the first sync brings it up to date.
+ *
+ * <pre>
+ * ingest [--threads N] [--chunk-mb N] [--limit N] --query URL -o DIRECTORY INPUT...
+ * </pre>
+ */
+public final class IngestMain {
+
+    private static final int DEFAULT_CHUNK_MB = 8;
+    // Events the app keeps for a family of queries
+    private static final int DEFAULT_LIMIT = 2000;
+
+    private IngestMain() {
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkMegabytes = DEFAULT_CHUNK_MB;
+        int limit = DEFAULT_LIMIT;
+        String queryUrl = null;
+        File output = null;
+        List<File> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--chunk-mb":
+                        chunkMegabytes = Integer.parseInt(args[++i]);
+                        break;
+                    case "--limit":
+                        limit = Integer.parseInt(args[++i]);
+                        break;
+                    case "--query":
+                        queryUrl = args[++i];
+                        break;
+                    case "-o":
+                        output = new File(args[++i]);
+                        break;
+                    default:
+                        inputs.add(new File(args[i]));
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            usage();
+            return;
+        }
+        if (output == null || queryUrl == null || inputs.isEmpty() || threads < 1
+                || chunkMegabytes < 1 || limit < 1) {
+            usage();
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            run(new CatalogIngester(pool, chunkMegabytes * 1024L * 1024L), inputs, queryUrl,
+                    limit, output, threads);
+        } catch (IOException e) {
+            System.err.println("ingest: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void run(CatalogIngester ingester, List<File> inputs, String queryUrl,
+                            int limit, File directory, int threads) throws IOException {
+        long inputBytes = 0;
+        for (File input : inputs) {
+            if (!input.isFile()) {
+                throw new IOException("No such file: " + input);
+            }
+            inputBytes += input.length();
+        }
+
+        long start = System.nanoTime();
+        EarthquakeStore earthquakes = ingester.ingest(inputs);
+        long parsed = System.nanoTime();
+
+        EarthquakeSnapshot snapshot = toSnapshot(earthquakes, queryUrl, limit);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File output = new File(directory,
+                EarthquakeSnapshot.fileName(QueryUrls.coverageKey(queryUrl)));
+        snapshot.write(output);
+        long written = System.nanoTime();
+
+        double parseSeconds = (parsed - start) / 1e9;
+        long records = ingester.getRecordCount();
+        System.out.println(String.format(Locale.US,
+                "%d events (%d distinct) from %d files (%.1f MB) on %d threads",
+                records, earthquakes.size(), inputs.size(), inputBytes / 1048576.0, threads));
+        System.out.println(String.format(Locale.US,
+                "parse: %.2f s, %.0f events/s, %.1f MB/s",
+                parseSeconds, records / parseSeconds, inputBytes / 1048576.0 / parseSeconds));
+        System.out.println(String.format(Locale.US,
+                "write: %.2f s, %d events to %s (%.1f MB)",
+                (written - parsed) / 1e9, snapshot.getEarthquakes().size(), output,
+                output.length() / 1048576.0));
+    }
+
+    /**
+     * Keeps the newest events the query's magnitude filter passes, as the coverage a download
+     * of the query would leave. The snapshot has never been synced, so the app asks USGS for
+     * the changes since the newest update right away.
+     */
+    private static EarthquakeSnapshot toSnapshot(EarthquakeStore earthquakes, String queryUrl,
+                                                 int limit) throws IOException {
+        String minMagnitude = QueryUrls.getParameter(queryUrl, "minmag");
+        if (minMagnitude == null) {
+            minMagnitude = QueryUrls.getParameter(queryUrl, "minmagnitude");
+        }
+        double magnitude;
+        try {
+            magnitude = minMagnitude != null
+                    ? Double.parseDouble(minMagnitude) : Double.NEGATIVE_INFINITY;
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad minimum magnitude in " + queryUrl);
+        }
+
+        // Newest first, as a download orders them; time order also keeps the codec's deltas small
+        int[] newestFirst = earthquakes.sortedRows(false, false);
+        int[] rows = new int[Math.min(limit, newestFirst.length)];
+        int count = 0;
+        long oldest = Long.MAX_VALUE;
+        boolean cutOff = false;
+        EarthquakeStore.Cursor cursor = earthquakes.newCursor();
+        for (int row : newestFirst) {
+            cursor.moveTo(row);
+            if (cursor.getMagnitude() < magnitude) {
+                continue;
+            }
+            if (count == rows.length) {
+                cutOff = true;
+                break;
+            }
+            rows[count++] = row;
+            oldest = cursor.getTimeInMilliseconds();
+        }
+        if (count == 0) {
+            throw new IOException("No events pass the query's magnitude filter");
+        }
+
+        String url = QueryUrls.coverageKey(queryUrl);
+        if (minMagnitude != null) {
+            url = QueryUrls.setParameter(url, "minmag", String.valueOf(magnitude));
+        }
+        url = QueryUrls.setParameter(url, "orderby", "time");
+        url = QueryUrls.setParameter(url, "limit", String.valueOf(limit));
+        // Events as old as the oldest one kept may have been cut off with the older ones
+        long completeFrom = cutOff ? oldest + 1 : oldest;
+        return new EarthquakeSnapshot(url, magnitude, oldest, completeFrom, 0,
+                earthquakes.copyOf(rows, count));
+    }
+
+    private static void usage() {
+        System.err.println("usage: ingest [--threads N] [--chunk-mb N] [--limit N] --query URL"
+                + " -o DIRECTORY INPUT...");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CatalogIngesterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int EVENTS = 20;
+    // 2018-10-18T06:45:12Z
+    private static final long TIME = 1539845112000L;
+
+    private ForkJoinPool mPool;
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mPool = new ForkJoinPool(4);
+        mDirectory = File.createTempFile("ingest", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdown();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void csvAndGeoJsonMergeToTheNewestVersions() throws IOException {
+        File csv = write("catalog.csv", csvCatalog());
+        File geoJson = write("changes.geojson", "{\"type\":\"FeatureCollection\","
+                + "\"metadata\":{\"count\":4},\"features\":["
+                // Updated after the catalog was exported
+                + feature("e3", 9.0, "Updated, later", TIME + 3000, TIME + 100000, "reviewed")
+                // Deleted after its catalog version, and before it
+                + "," + feature("e5", 5.0, "Gone", TIME + 5000, TIME + 100000, "deleted")
+                + "," + feature("e7", 7.0, "Kept", TIME + 7000, 1, "deleted")
+                + "," + feature("g1", 1.5, "Only in \\\"GeoJSON\\\"", TIME - 1000, TIME,
+                "automatic")
+                + "],\"bbox\":[-180,-90,0,180,90,700]}");
+
+        // One chunk per file, then chunks that cut through most records
+        for (long chunkBytes : new long[]{1 << 20, 97, 31}) {
+            CatalogIngester ingester = new CatalogIngester(mPool, chunkBytes);
+            EarthquakeStore store = ingester.ingest(Arrays.asList(csv, geoJson));
+            String message = "chunks of " + chunkBytes;
+
+            assertEquals(message, EVENTS + 4, ingester.getRecordCount());
+            assertEquals(message, EVENTS, store.size());
+            for (int i = 0; i < EVENTS; i++) {
+                if (i != 3 && i != 5) {
+                    Earthquake earthquake = store.get("e" + i);
+                    assertNotNull(message + " e" + i, earthquake);
+                    assertEquals(message, place(i), earthquake.getLocation());
+                    assertEquals(message, TIME + i * 1000, earthquake.getTimeInMilliseconds());
+                }
+            }
+            assertEquals(message, 9.0, store.get("e3").getMagnitude(), 0);
+            assertEquals(message, "Updated, later", store.get("e3").getLocation());
+            assertNull(message, store.get("e5"));
+            assertEquals(message, "Only in \"GeoJSON\"", store.get("g1").getLocation());
+            assertEquals(message, 3.0, store.get("g1").getDepth(), 0);
+        }
+    }
+
+    @Test
+    public void prettyPrintedGeoJsonIsParsedWhole() throws IOException {
+        File file = write("pretty.geojson", "{\n  \"type\": \"FeatureCollection\",\n"
+                + "  \"features\": [\n    {\n      \"type\": \"Feature\",\n"
+                + "      \"properties\": {\"mag\": 2.5, \"place\": \"Somewhere\","
+                + " \"time\": 1000, \"updated\": 2000},\n      \"id\": \"p1\"\n    }\n  ]\n}\n");
+        CatalogIngester ingester = new CatalogIngester(mPool, 16);
+
+        EarthquakeStore store = ingester.ingest(Arrays.asList(file));
+
+        assertEquals(1, ingester.split(file).size());
+        assertEquals(1, store.size());
+        assertEquals("Somewhere", store.get("p1").getLocation());
+    }
+
+    @Test
+    public void emptyFilesHoldNoEvents() throws IOException {
+        File empty = write("empty.csv", "");
+        File blank = write("blank.csv", "﻿ \n\n");
+
+        EarthquakeStore store = new CatalogIngester(mPool, 64)
+                .ingest(Arrays.asList(empty, blank));
+
+        assertEquals(0, store.size());
+    }
+
+    /**
+     * Returns a CSV export of events e0 to e19, with a byte order mark and the quoting USGS
+     * uses.
+     */
+    private static String csvCatalog() {
+        StringBuilder csv = new StringBuilder("﻿time,latitude,longitude,depth,mag,magType,"
+                + "nst,gap,dmin,rms,net,id,updated,place,type,status\n");
+        for (int i = 0; i < EVENTS; i++) {
+            String place = place(i);
+            if (place.indexOf(',') >= 0 || place.indexOf('\n') >= 0) {
+                place = "\"" + place + "\"";
+            }
+            csv.append(String.format(Locale.US, "%s,%.1f,%.1f,%.1f,%.1f,ml,,,,,us,e%d,%s,%s,"
+                            + "earthquake,reviewed\n", isoTime(TIME + i * 1000), 10.0 + i,
+                    20.0 + i, 5.0, i / 4.0, i, isoTime(TIME + i * 1000 + 500), place));
+        }
+        return csv.toString();
+    }
+
+    private static String place(int event) {
+        switch (event % 3) {
+            case 0:
+                return event + "km N of Somewhere, Japan";
+            case 1:
+                return "Quoted\nline break " + event;
+            default:
+                return "Fiji region " + event;
+        }
+    }
+
+    private static String isoTime(long time) {
+        // All times fall on 2018-10-18 between 06:45 and 06:46
+        long millis = time - TIME + 12000;
+        return String.format(Locale.US, "2018-10-18T06:45:%02d.%03dZ",
+                millis / 1000, millis % 1000);
+    }
+
+    private static String feature(String id, double magnitude, String place, long time,
+                                  long updated, String status) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude + ",\"place\":\""
+                + place + "\",\"time\":" + time + ",\"updated\":" + updated + ",\"status\":\""
+                + status + "\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2,3]},"
+                + "\"id\":\"" + id + "\"}";
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(mDirectory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CsvCatalogParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The columns of a format=csv export, in the order USGS writes them
+    private static final String HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,"
+            + "dmin,rms,net,id,updated,place,type,horizontalError,depthError,magError,magNst,"
+            + "status,locationSource,magSource";
+    // 2018-10-18T06:45:12Z
+    private static final long TIME = 1539845112000L;
+
+    @Test
+    public void quotedFieldsKeepTheirCommas() throws IOException {
+        EarthquakeStore store = parse(HEADER, "2018-10-18T06:45:12.340Z,44.6,141.2,10.5,"
+                + "4.5,mb,,87,1.2,0.8,us,us1,2018-10-18T07:00:00.000Z,"
+                + "\"74km NW of Rumoi, Japan\",earthquake,7.2,1.9,0.1,30,reviewed,us,us\n");
+
+        Earthquake earthquake = store.get("us1");
+        assertEquals("74km NW of Rumoi, Japan", earthquake.getLocation());
+        assertEquals(TIME + 340, earthquake.getTimeInMilliseconds());
+        assertEquals(TIME + 14 * 60 * 1000 + 48 * 1000, earthquake.getUpdatedInMilliseconds());
+        assertEquals(4.5, earthquake.getMagnitude(), 0);
+        assertEquals(44.6, earthquake.getLatitude(), 0);
+        assertEquals(141.2, earthquake.getLongitude(), 0);
+        assertEquals(10.5, earthquake.getDepth(), 0);
+    }
+
+    @Test
+    public void doubledQuotesAreUnescaped() throws IOException {
+        EarthquakeStore store = parse("time,id,place",
+                "2018-10-18T06:45:12Z,us1,\"The \"\"Big\"\" One, again\"\n"
+                        + "2018-10-18T06:45:12Z,us2,\"\"\n");
+
+        assertEquals("The \"Big\" One, again", store.get("us1").getLocation());
+        assertEquals("", store.get("us2").getLocation());
+    }
+
+    @Test
+    public void crlfLineEndsAreDropped() throws IOException {
+        // The place is the last column, so it would end with the carriage return
+        EarthquakeStore store = parse("time,id,place\r",
+                "2018-10-18T06:45:12Z,us1,Fiji region\r\n"
+                        + "2018-10-18T06:45:12Z,us2,\"Off the coast, Chile\"\r\n"
+                        + "\r\n");
+
+        assertEquals(2, store.size());
+        assertEquals("Fiji region", store.get("us1").getLocation());
+        assertEquals("Off the coast, Chile", store.get("us2").getLocation());
+    }
+
+    @Test
+    public void quotedLineBreakStaysInTheField() throws IOException {
+        EarthquakeStore store = parse("time,id,place,mag",
+                "2018-10-18T06:45:12Z,us1,\"Line\nbreak\",3.5\n"
+                        + "2018-10-18T06:45:12Z,us2,Next,2.5\n");
+
+        assertEquals(2, store.size());
+        assertEquals("Line\nbreak", store.get("us1").getLocation());
+        assertEquals(3.5, store.get("us1").getMagnitude(), 0);
+        assertEquals(2.5, store.get("us2").getMagnitude(), 0);
+    }
+
+    @Test
+    public void missingOptionalColumnsTakeDefaults() throws IOException {
+        // Neither updated nor depth, and an empty magnitude
+        EarthquakeStore store = parse("id,mag,time,place",
+                "us1,,2018-10-18T06:45:12Z,Somewhere\n");
+
+        Earthquake earthquake = store.get("us1");
+        assertEquals(TIME, earthquake.getUpdatedInMilliseconds());
+        assertEquals(0, earthquake.getDepth(), 0);
+        assertEquals(0, earthquake.getMagnitude(), 0);
+        assertEquals("Somewhere", earthquake.getLocation());
+    }
+
+    @Test
+    public void lastLineNeedsNoLineBreak() throws IOException {
+        EarthquakeStore store = parse("time,id,place",
+                "2018-10-18T06:45:12Z,us1,First\n2018-10-18T06:45:13Z,us2,\"Last, unended\"");
+
+        assertEquals(2, store.size());
+        assertEquals("Last, unended", store.get("us2").getLocation());
+        assertEquals(TIME + 1000, store.get("us2").getTimeInMilliseconds());
+    }
+
+    @Test
+    public void recordsWithoutAnIdAreSkipped() throws IOException {
+        CsvCatalogParser parser = new CsvCatalogParser("time,id,place");
+        EarthquakeStore store = new EarthquakeStore();
+
+        assertEquals(1, parser.parse(buffer("2018-10-18T06:45:12Z,,Nowhere\n\n"
+                + "2018-10-18T06:45:12Z,us1,Somewhere\n"), store));
+        assertEquals(1, store.size());
+        assertNull(store.get(""));
+    }
+
+    @Test
+    public void headerWithoutIdOrTimeIsRejected() {
+        for (String header : new String[]{"time,place", "id,place", "<html>"}) {
+            try {
+                new CsvCatalogParser(header);
+                fail("Accepted header " + header);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void unterminatedQuoteIsRejected() throws IOException {
+        try {
+            parse("time,id,place", "2018-10-18T06:45:12Z,us1,\"Open\n");
+            fail("Parsed an unterminated quote");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void timesWithAndWithoutFraction() throws IOException {
+        assertEquals(TIME, CsvCatalogParser.parseTime("2018-10-18T06:45:12Z"));
+        assertEquals(TIME + 340, CsvCatalogParser.parseTime("2018-10-18T06:45:12.340Z"));
+        assertEquals(TIME + 300, CsvCatalogParser.parseTime("2018-10-18T06:45:12.3Z"));
+        // Digits past milliseconds are cut off
+        assertEquals(TIME + 123, CsvCatalogParser.parseTime("2018-10-18T06:45:12.123987Z"));
+        assertEquals(0, CsvCatalogParser.parseTime("1970-01-01T00:00:00.000Z"));
+        // A leap day before the epoch
+        assertEquals(-310521600000L, CsvCatalogParser.parseTime("1960-02-29T00:00:00Z"));
+    }
+
+    @Test
+    public void badTimeIsRejected() {
+        for (String time : new String[]{"", "2018-10-18", "yesterday at noon"}) {
+            try {
+                CsvCatalogParser.parseTime(time);
+                fail("Parsed time " + time);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    private static EarthquakeStore parse(String header, String records) throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        new CsvCatalogParser(header).parse(buffer(records), store);
+        return store;
+    }
+
+    private static ByteBuffer buffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(UTF_8));
+    }
+}